@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 
+import org.dl.java.math.java.la.MatrixFloat;
 import org.dl.java.math.java.la.MatrixJava;
 
 /**
@@ -106,17 +107,11 @@ public class MNISTDataLoader {
      * @return
      */
     public static List<TrainingData<MatrixJava, MatrixJava>> loadDataAsMatrix(List<TrainingData<double[], double[]>> trainingDataAsArray) {
-        return trainingDataAsArray.stream().map(t -> {
-            double[][] image = new double[t.getX().length][1];
-            double[][] label = new double[LABEL_TYPE_COUNT][1];
-            for (int k = 0; k < t.getX().length; k++) {
-                image[k][0] = t.getX()[k];
-            }
-            for (int k = 0; k < LABEL_TYPE_COUNT; k++) {
-                label[k][0] = t.getY()[k];
-            }
-            return new TrainingData<>(new MatrixJava(image), new MatrixJava(label));
-        }).collect(Collectors.toList());
+        // the arrays are already laid out as column vectors, so they can be wrapped without copying
+        return trainingDataAsArray.stream()
+                .map(t -> new TrainingData<>(new MatrixJava(t.getX().length, 1, t.getX()),
+                        new MatrixJava(LABEL_TYPE_COUNT, 1, t.getY())))
+                .collect(Collectors.toList());
     }
 
     /**
@@ -130,6 +125,45 @@ public class MNISTDataLoader {
         return loadDataAsMatrix(loadDataAsByteArray(imageData, labelData));
     }
 
+    /**
+     * Convert the training data to single precision arrays, for the float networks
+     *
+     * @param trainingDataAsArray
+     * @return
+     */
+    public static List<TrainingData<float[], float[]>> loadDataAsFloatArray(List<TrainingData<double[], double[]>> trainingDataAsArray) {
+        return trainingDataAsArray.stream()
+                .map(t -> new TrainingData<>(toFloat(t.getX()), toFloat(t.getY())))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Convert the training data to single precision {@link MatrixFloat} column vectors
+     *
+     * @param trainingDataAsArray
+     * @return
+     */
+    public static List<TrainingData<MatrixFloat, MatrixFloat>> loadDataAsFloatMatrix(List<TrainingData<double[], double[]>> trainingDataAsArray) {
+        return trainingDataAsArray.stream()
+                .map(t -> new TrainingData<>(new MatrixFloat(t.getX().length, 1, toFloat(t.getX())),
+                        new MatrixFloat(LABEL_TYPE_COUNT, 1, toFloat(t.getY()))))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Narrow a double array to a float array
+     *
+     * @param in
+     * @return
+     */
+    private static float[] toFloat(double[] in) {
+        float[] out = new float[in.length];
+        for (int i = 0; i < in.length; i++) {
+            out[i] = (float) in[i];
+        }
+        return out;
+    }
+
     /**
      * Convert a {@link byte} to unsigned byte (represented by an {@link int} since Java has no
      * unsigned byte
@@ -1,11 +1,15 @@
 package org.dl.java.math.dl;
 
-import org.dl.java.io.data.TrainingData;
+import org.dl.java.math.MathFunctions;
+import org.dl.java.math.java.dl.DeltaFunctionJava;
+import org.dl.java.math.java.dl.TrainableNetwork;
+import org.dl.java.math.java.la.MatrixJava;
+import org.dl.java.math.la.Matrix;
 import org.dl.java.math.la.MatrixJNI;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.function.BiFunction;
 import java.util.function.Function;
 
 import static java.util.Collections.unmodifiableList;
@@ -15,8 +19,20 @@ import static org.dl.java.math.dl.ActivateFunctions.SIGMOID;
 
 /**
  * A FFN implemented with netlib JNI
+ * <p>
+ * The biases and weights are column-major arrays for {@link MatrixJNI}, the samples are the {@link MatrixJava} vectors
+ * of {@link org.dl.java.io.data.MNISTDataLoader#loadDataAsMatrix}, so the network trains with
+ * {@link org.dl.java.math.java.dl.gd.StochasticGradientDescent} like
+ * {@link org.dl.java.math.java.dl.networks.FeedForwardNeuralNetwork}. A column vector has the same layout in both
+ * orders, so the samples are read without any transposition. The hidden layers back propagate through
+ * {@link ActivateFunctions#SIGMOID_PRIME}.
+ * <p>
+ * Optimization note:
+ * Every product goes through {@link MatrixJNI}, which runs it on the Java kernels or on netlib by its shape: the
+ * matrix-vector products of one sample stay in Java, where no JNI transition is paid. The weight gradient of a sample
+ * is a rank-1 update summed in place into the gradient network, {@link MatrixJNI#dger}.
  */
-public class FeedForwardNetwork {
+public class FeedForwardNetwork implements TrainableNetwork<MatrixJava, FeedForwardNetwork> {
     private final List<Integer> networkSizes;
     private final List<double[]> biases;
     private final List<double[]> weights;
@@ -79,18 +95,20 @@ public class FeedForwardNetwork {
     }
 
     /**
-     * Evaluate the network against test data in {@link TrainingData} format
-     * Count how many correct predictions.
+     * View the column-major weights of a layer as a {@link Matrix}, the layer i weights connect layer i to layer
+     * i + 1
      *
-     * @param trainingData
+     * @param layer
      * @return
      */
-    public int evaluate(List<TrainingData<double[], double[]>> trainingData,
-                        BiFunction<double[], double[], Boolean> evaluator) {
-        return trainingData.stream()
-                .map(t -> evaluator.apply(feedforward(t.getX()), t.getY()) ? 1 : 0)
-                .reduce((a, b) -> a + b)
-                .orElse(0);
+    public Matrix getWeightMatrix(int layer) {
+        return MatrixJNI.asMatrix(weights.get(layer), networkSizes.get(layer + 1), networkSizes.get(layer));
+    }
+
+    @Override
+    public MatrixJava feedforward(MatrixJava input) {
+        double[] output = feedforward(vector(input));
+        return new MatrixJava(output.length, 1, output);
     }
 
     /**
@@ -104,67 +122,55 @@ public class FeedForwardNetwork {
         for (int i = 0; i < biases.size(); i++) {
             double[] bias = biases.get(i);
             double[] weight = weights.get(i);
-            double[] tmp = MatrixJNI.dgemv(1.0, weight, networkSizes.get(i + 1), networkSizes.get(i), input, 1.0, bias);
-            input = SIGMOID.apply(tmp);
+            input = MatrixJNI.affine(MathFunctions.SIGMOID, weight, networkSizes.get(i + 1), networkSizes.get(i), input,
+                    bias);
         }
 
         return input;
     }
 
     /**
-     * Computes the partial derivative of the output of activations.
-     *
-     * @param output   (output of the last layer activation)
-     * @param expected (y)
-     * @return
-     */
-    private double[] costDerivative(double[] output, double[] expected) {
-        return MatrixJNI.minus(output, expected);
-    }
-
-    /**
-     * A flexible way to compute delta externally
-     *
-     * @param costDerivative
-     * @param z
-     * @param delta
-     * @return
-     */
-    private double[] delta(double[] costDerivative, double[] z, BiFunction<double[], double[], double[]> delta) {
-        return delta.apply(costDerivative, z);
-    }
-
-    /**
-     * Back propagation with {@Link double[]} input and the {@link double[]} expected output (label}
+     * Back propagation with {@link MatrixJava} input and the {@link MatrixJava} expected output (label)
      * returns a delta {@link FeedForwardNetwork}
      *
      * @param input
      * @param expected
+     * @param deltaFunc
      * @return
      */
-    public FeedForwardNetwork backprop(double[] input, double[] expected, DeltaFunction<double[]> deltaFunc) {
-        List<double[]> newBiases = biases.stream()
-                .map(m -> new double[m.length])
-                .collect(toList());
-        List<double[]> newWeights = weights.stream()
-                .map(m -> new double[m.length])
-                .collect(toList());
+    public FeedForwardNetwork backprop(MatrixJava input, MatrixJava expected, DeltaFunctionJava deltaFunc) {
+        FeedForwardNetwork gradient = zeroGradient();
+        backpropInto(input, expected, deltaFunc, gradient);
+        return gradient;
+    }
 
+    @Override
+    public void backpropInto(MatrixJava input, MatrixJava expected, DeltaFunction<MatrixJava> deltaFunc,
+                             FeedForwardNetwork gradient) {
         // Feedforward
 
         // vectors of all activations layer by layer
         List<double[]> activations = new ArrayList<>();
         // vectors of z vectors (value before activation) layer by layer
         List<double[]> zs = new ArrayList<>();
-        activations.add(input);
-        double[] activation = input;
+        double[] activation = vector(input);
+        activations.add(activation);
 
         // use index to co-iterate
         for (int i = 0; i < biases.size(); i++) {
             double[] bias = biases.get(i);
             double[] weight = weights.get(i);
-            double[] z = MatrixJNI.dgemv(1.0, weight, networkSizes.get(i + 1), networkSizes.get(i), activation, 1.0, bias);
-            activation = getActivationFunction().apply(z);
+            int rows = networkSizes.get(i + 1);
+            double[] z;
+            if (activate == SIGMOID) {
+                // fused kernel, emits both z and the activation
+                z = new double[rows];
+                activation = MatrixJNI.affineInto(MathFunctions.SIGMOID, weight, rows, networkSizes.get(i), activation,
+                        bias, z, new double[rows]);
+            } else {
+                z = MatrixJNI.dgemv(1.0, weight, rows, networkSizes.get(i), activation, 1.0, bias);
+                activation = getActivationFunction().apply(z);
+            }
             activations.add(activation);
             zs.add(z);
         }
@@ -172,26 +178,117 @@ public class FeedForwardNetwork {
         // end feed forward
 
         // Back propagate
-        double[] delta = deltaFunc.delta(activations.get(activations.size() - 1), expected, zs.get(zs.size() - 1));
+        int last = biases.size() - 1;
+        double[] delta = vector(deltaFunc.delta(column(activations.get(last + 1)), expected, column(zs.get(last))));
+        for (int i = last; i >= 0; i--) {
+            int rows = networkSizes.get(i + 1);
+            int cols = networkSizes.get(i);
+            addInPlace(gradient.getBiases()
+                               .get(i), delta);
+            // the weight gradient delta . a^T is a rank-1 update of the sums
+            MatrixJNI.dger(1.0, delta, activations.get(i), gradient.getWeights()
+                                                                   .get(i), rows, cols);
+            if (i > 0) {
+                // delta = (W^T . delta) * sigma'(z) of the previous layer
+                double[] previous = MatrixJNI.dgemvTransposed(1.0, weights.get(i), rows, cols, delta, 0.0,
+                        new double[cols]);
+                double[] z = zs.get(i - 1);
+                for (int j = 0; j < cols; j++) {
+                    previous[j] *= MathFunctions.SIGMOID_PRIME.applyAsDouble(z[j]);
+                }
+                delta = previous;
+            }
+        }
+    }
 
-        newBiases.set(newBiases.size() - 1, delta);
-        // compute weight delta
-        double[] weightDelta = MatrixJNI.daxpy(1.0, delta, activations.get(activations.size() - 2));
-        newWeights.set(newWeights.size() - 1, weightDelta);
+    @Override
+    public FeedForwardNetwork copy() {
+        List<double[]> newBiases = biases.stream()
+                .map(double[]::clone)
+                .collect(toList());
+        List<double[]> newWeights = weights.stream()
+                .map(double[]::clone)
+                .collect(toList());
+        return new FeedForwardNetwork(networkSizes, newBiases, newWeights, getActivationFunction());
+    }
 
-        // backward starting from the second last layer
-        // Just using indexes so it is simpler
-        for (int backIndex = 2; backIndex < networkSizes.size(); backIndex++) {
-            double[] z = zs.get(zs.size() - backIndex);
-            double[] sigmoidPrime = ActivateFunctions.SIGMOID_PRIME.apply(z);
+    @Override
+    public FeedForwardNetwork zeroGradient() {
+        List<double[]> newBiases = biases.stream()
+                .map(m -> new double[m.length])
+                .collect(toList());
+        List<double[]> newWeights = weights.stream()
+                .map(m -> new double[m.length])
+                .collect(toList());
+        return new FeedForwardNetwork(networkSizes, newBiases, newWeights, getActivationFunction());
+    }
 
-            delta = MatrixJNI.mul(1.0, sigmoidPrime, MatrixJNI.daxpy(1.0, weights.get(weights.size() - backIndex + 1), delta));
+    @Override
+    public void addGradient(FeedForwardNetwork delta) {
+        for (int i = 0; i < biases.size(); i++) {
+            addInPlace(biases.get(i), delta.getBiases().get(i));
+            addInPlace(weights.get(i), delta.getWeights().get(i));
+        }
+    }
+
+    @Override
+    public void clearGradient() {
+        biases.forEach(m -> Arrays.fill(m, 0));
+        weights.forEach(m -> Arrays.fill(m, 0));
+    }
 
-            newBiases.set(newBiases.size() - backIndex, delta);
-            newWeights.set(newWeights.size() - backIndex, MatrixJNI.daxpy(1.0, delta, activations.get(activations.size() - backIndex - 1)));
+    @Override
+    public void applyGradient(FeedForwardNetwork gradient, double decay, double step) {
+        for (int l = 0; l < weights.size(); l++) {
+            double[] w = weights.get(l);
+            double[] gw = gradient.getWeights()
+                                  .get(l);
+            for (int i = 0; i < w.length; i++) {
+                w[i] = decay * w[i] - step * gw[i];
+            }
+            double[] b = biases.get(l);
+            double[] gb = gradient.getBiases()
+                                  .get(l);
+            for (int i = 0; i < b.length; i++) {
+                b[i] -= step * gb[i];
+            }
         }
+    }
 
-        // generate a new network and return
-        return new FeedForwardNetwork(networkSizes, newBiases, newWeights, getActivationFunction());
+    /**
+     * acc += x element by element
+     *
+     * @param acc
+     * @param x
+     */
+    private static void addInPlace(double[] acc, double[] x) {
+        for (int i = 0; i < acc.length; i++) {
+            acc[i] += x[i];
+        }
+    }
+
+    /**
+     * The elements of a column vector, which are the same in row and column-major order
+     *
+     * @param m
+     * @return
+     */
+    private static double[] vector(MatrixJava m) {
+        if (m.getColCount() != 1) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! Expected a column vector: (%d, %d)", m.getRowCount(),
+                            m.getColCount()));
+        }
+        return m.toArray();
+    }
+
+    /**
+     * Wrap a vector as an (n, 1) {@link MatrixJava}, no copy is made
+     *
+     * @param v
+     * @return
+     */
+    private static MatrixJava column(double[] v) {
+        return new MatrixJava(v.length, 1, v);
     }
 }
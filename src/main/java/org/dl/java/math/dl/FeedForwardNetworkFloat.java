@@ -0,0 +1,226 @@
+package org.dl.java.math.dl;
+
+import org.dl.java.math.java.dl.TrainableNetwork;
+import org.dl.java.math.la.MatrixJNI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toUnmodifiableList;
+
+/**
+ * Single precision FFN implemented with netlib JNI, the biases and weights are column major {@code float[]}. It
+ * trains on {@code float[]} samples with {@link org.dl.java.math.java.dl.gd.StochasticGradientDescent}, like
+ * {@link FeedForwardNetwork}.
+ * <p>
+ * Optimization note:
+ * The layer products are sgemv calls, the back propagated delta W^T . delta is an sgemv on the untransposed weights
+ * and the weight gradient delta . a^T is accumulated in place by a rank-1 sger update, so a sample never allocates a
+ * weight sized matrix. Like the double ones, the products run on the backend {@link MatrixJNI} selects for their
+ * shape.
+ */
+public class FeedForwardNetworkFloat implements TrainableNetwork<float[], FeedForwardNetworkFloat> {
+    private final List<Integer> networkSizes;
+    private final List<float[]> biases;
+    private final List<float[]> weights;
+    private final DoubleUnaryOperator activate;
+    private final DoubleUnaryOperator activatePrime;
+
+    public FeedForwardNetworkFloat(List<Integer> networkSizes, DoubleUnaryOperator activate,
+                                   DoubleUnaryOperator activatePrime) {
+        this.networkSizes = networkSizes;
+        this.activate = activate;
+        this.activatePrime = activatePrime;
+
+        // build the biases vectors and freeze it
+        biases = networkSizes.stream()
+                .skip(1)
+                .map(v -> MatrixJNI.getGaussionRandomFloatMatrix(v, 1, 0, 1))
+                .collect(toUnmodifiableList());
+
+        // build the weights matrixes, regularized by the fan in
+        List<float[]> weights = new ArrayList<>();
+        for (int i = 0; i < networkSizes.size() - 1; i++) {
+            weights.add(MatrixJNI.getGaussionRandomFloatMatrix(networkSizes.get(i + 1), networkSizes.get(i), 0,
+                    1 / Math.sqrt(networkSizes.get(i))));
+        }
+
+        // freeze the weights
+        this.weights = unmodifiableList(weights);
+    }
+
+    /**
+     * Creating a new network with existing netowrk values.
+     *
+     * @param networkSizes
+     * @param biases
+     * @param weights
+     * @param activate
+     * @param activatePrime
+     */
+    public FeedForwardNetworkFloat(List<Integer> networkSizes, List<float[]> biases, List<float[]> weights,
+                                   DoubleUnaryOperator activate, DoubleUnaryOperator activatePrime) {
+        this.networkSizes = networkSizes;
+        this.biases = biases;
+        this.weights = weights;
+        this.activate = activate;
+        this.activatePrime = activatePrime;
+    }
+
+    public List<Integer> getLayerSizes() {
+        return this.networkSizes;
+    }
+
+    public List<float[]> getBiases() {
+        return biases;
+    }
+
+    public List<float[]> getWeights() {
+        return weights;
+    }
+
+    /**
+     * Given an input vector, compute the output of the current matrix
+     *
+     * @param input
+     * @return
+     */
+    @Override
+    public float[] feedforward(float[] input) {
+        for (int i = 0; i < biases.size(); i++) {
+            input = MatrixJNI.affine(activate, weights.get(i), networkSizes.get(i + 1), networkSizes.get(i), input,
+                    biases.get(i));
+        }
+
+        return input;
+    }
+
+    /**
+     * Back propagation with {@link float[]} input and the {@link float[]} expected output (label}
+     * returns a delta {@link FeedForwardNetworkFloat}
+     *
+     * @param input
+     * @param expected
+     * @param deltaFunc
+     * @return
+     */
+    public FeedForwardNetworkFloat backprop(float[] input, float[] expected, DeltaFunction<float[]> deltaFunc) {
+        FeedForwardNetworkFloat gradient = zeroGradient();
+        backpropInto(input, expected, deltaFunc, gradient);
+        return gradient;
+    }
+
+    @Override
+    public void backpropInto(float[] input, float[] expected, DeltaFunction<float[]> deltaFunc,
+                             FeedForwardNetworkFloat gradient) {
+        // Feedforward, keeping the activations and the z vectors (value before activation) layer by layer
+        List<float[]> activations = new ArrayList<>();
+        List<float[]> zs = new ArrayList<>();
+        activations.add(input);
+        float[] activation = input;
+        for (int i = 0; i < biases.size(); i++) {
+            int rows = networkSizes.get(i + 1);
+            float[] z = new float[rows];
+            activation = MatrixJNI.affineInto(activate, weights.get(i), rows, networkSizes.get(i), activation,
+                    biases.get(i), z, new float[rows]);
+            activations.add(activation);
+            zs.add(z);
+        }
+
+        // Back propagate, from the last layer
+        int layers = biases.size();
+        float[] delta = deltaFunc.delta(activations.get(layers), expected, zs.get(layers - 1));
+        for (int i = layers - 1; i >= 0; i--) {
+            int rows = networkSizes.get(i + 1);
+            int cols = networkSizes.get(i);
+            float[] gradientBias = gradient.getBiases().get(i);
+            for (int r = 0; r < rows; r++) {
+                gradientBias[r] += delta[r];
+            }
+            MatrixJNI.sger(1.0f, delta, activations.get(i), gradient.getWeights().get(i), rows, cols);
+
+            if (i > 0) {
+                // delta = (W^T . delta) * sigma'(z)
+                float[] previous = MatrixJNI.sgemvTransposed(1.0f, weights.get(i), rows, cols, delta, 0.0f,
+                        new float[cols]);
+                float[] z = zs.get(i - 1);
+                for (int c = 0; c < cols; c++) {
+                    previous[c] *= (float) activatePrime.applyAsDouble(z[c]);
+                }
+                delta = previous;
+            }
+        }
+    }
+
+    @Override
+    public FeedForwardNetworkFloat copy() {
+        List<float[]> newBiases = biases.stream()
+                .map(float[]::clone)
+                .collect(toList());
+        List<float[]> newWeights = weights.stream()
+                .map(float[]::clone)
+                .collect(toList());
+        return new FeedForwardNetworkFloat(networkSizes, newBiases, newWeights, activate, activatePrime);
+    }
+
+    @Override
+    public FeedForwardNetworkFloat zeroGradient() {
+        List<float[]> zeroBiases = biases.stream()
+                .map(m -> new float[m.length])
+                .collect(toList());
+        List<float[]> zeroWeights = weights.stream()
+                .map(m -> new float[m.length])
+                .collect(toList());
+        return new FeedForwardNetworkFloat(networkSizes, zeroBiases, zeroWeights, activate, activatePrime);
+    }
+
+    @Override
+    public void addGradient(FeedForwardNetworkFloat delta) {
+        for (int i = 0; i < biases.size(); i++) {
+            addInPlace(biases.get(i), delta.getBiases().get(i));
+            addInPlace(weights.get(i), delta.getWeights().get(i));
+        }
+    }
+
+    @Override
+    public void clearGradient() {
+        biases.forEach(m -> Arrays.fill(m, 0f));
+        weights.forEach(m -> Arrays.fill(m, 0f));
+    }
+
+    @Override
+    public void applyGradient(FeedForwardNetworkFloat gradient, double decay, double step) {
+        float d = (float) decay;
+        float s = (float) step;
+        for (int l = 0; l < weights.size(); l++) {
+            float[] w = weights.get(l);
+            float[] gw = gradient.getWeights()
+                                 .get(l);
+            for (int i = 0; i < w.length; i++) {
+                w[i] = d * w[i] - s * gw[i];
+            }
+            float[] b = biases.get(l);
+            float[] gb = gradient.getBiases()
+                                 .get(l);
+            for (int i = 0; i < b.length; i++) {
+                b[i] -= s * gb[i];
+            }
+        }
+    }
+
+    /**
+     * acc += x element by element
+     *
+     * @param acc
+     * @param x
+     */
+    private static void addInPlace(float[] acc, float[] x) {
+        for (int i = 0; i < acc.length; i++) {
+            acc[i] += x[i];
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.dl.java.math.java.dl;
+
+import org.dl.java.math.dl.DeltaFunction;
+import org.dl.java.math.java.dl.activate.ActivateFunctionsJava;
+import org.dl.java.math.java.la.MatrixFloat;
+
+/**
+ * Interface of computing delta from a, y and z in single precision
+ */
+public interface DeltaFunctionFloat extends DeltaFunction<MatrixFloat> {
+
+    /**
+     * This is a function to compute the delta value for QUADRATIC cost function
+     */
+    DeltaFunctionFloat QUADRATIC = (a, y, z) -> a.minus(y)
+            .mulInPlace(z.transform(ActivateFunctionsJava.SIGMOID_PRIME.element()));
+    /**
+     * This is a function to compute the delta value for CORSS-ENTROPY cost function
+     */
+    DeltaFunctionFloat CROSS_ENTROPY = (a, y, z) -> a.minus(y);
+}
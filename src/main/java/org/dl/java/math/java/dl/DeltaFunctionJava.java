@@ -12,8 +12,11 @@ public interface DeltaFunctionJava extends DeltaFunction<MatrixJava> {
     /**
      * This is a function to compute the delta value for QUADRATIC cost function
      */
-    DeltaFunctionJava QUADRATIC = (a, y, z) -> a.minus(y)
-            .mul(ActivateFunctionsJava.SIGMOID_PRIME.apply(y));
+    DeltaFunctionJava QUADRATIC = (a, y, z) -> a.lazy()
+            .minus(y)
+            .mul(y.lazy()
+                    .transform(ActivateFunctionsJava.SIGMOID_PRIME.element()))
+            .evaluate();
     /**
      * This is a function to compute the delta value for CORSS-ENTROPY cost function
      */
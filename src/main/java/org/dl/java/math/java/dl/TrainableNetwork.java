@@ -0,0 +1,87 @@
+package org.dl.java.math.java.dl;
+
+import java.util.List;
+import java.util.function.BiFunction;
+
+import org.dl.java.io.data.TrainingData;
+import org.dl.java.math.dl.DeltaFunction;
+
+/**
+ * A network {@link org.dl.java.math.java.dl.gd.StochasticGradientDescent} can train, whatever the storage and the
+ * precision of its biases and weights and the backend running its products. The samples are vectors of type M, like
+ * the {@link org.dl.java.math.java.la.MatrixJava} ones of {@link org.dl.java.io.data.MNISTDataLoader#loadDataAsMatrix}.
+ * <p>
+ * A gradient is a network of the same type and shape, whose biases and weights hold sums of deltas.
+ *
+ * @param <M> the sample type
+ * @param <N> the network type
+ */
+public interface TrainableNetwork<M, N extends TrainableNetwork<M, N>> {
+    /**
+     * Given an input vector, compute the output of the network
+     *
+     * @param input
+     * @return
+     */
+    M feedforward(M input);
+
+    /**
+     * Evaluate the network against test data in {@link TrainingData} format
+     * Count how many correct predictions.
+     *
+     * @param testData
+     * @param evaluator
+     * @return
+     */
+    default int evaluate(List<TrainingData<M, M>> testData, BiFunction<M, M, Boolean> evaluator) {
+        return testData.stream()
+                .map(t -> evaluator.apply(feedforward(t.getX()), t.getY()) ? 1 : 0)
+                .reduce((a, b) -> a + b)
+                .orElse(0);
+    }
+
+    /**
+     * Create a network with copies of the biases and weights of this one
+     *
+     * @return
+     */
+    N copy();
+
+    /**
+     * Create a network of the same shape with all biases and weights set to 0
+     *
+     * @return
+     */
+    N zeroGradient();
+
+    /**
+     * Back propagation adding the deltas of the biases and weights to the ones of gradient in place
+     *
+     * @param input
+     * @param expected
+     * @param deltaFunc
+     * @param gradient  network of the same shape receiving the sums
+     */
+    void backpropInto(M input, M expected, DeltaFunction<M> deltaFunc, N gradient);
+
+    /**
+     * Add the biases and weights of delta to the ones of this gradient in place
+     *
+     * @param delta
+     */
+    void addGradient(N delta);
+
+    /**
+     * Set the biases and weights of this gradient to 0 in place
+     */
+    void clearGradient();
+
+    /**
+     * Update the biases and weights in place: w = decay * w - step * gw and b = b - step * gb
+     *
+     * @param gradient
+     * @param decay    weight decay of the regularization
+     * @param step
+     */
+    void applyGradient(N gradient, double decay, double step);
+}
@@ -1,8 +1,5 @@
 package org.dl.java.math.java.dl.activate;
 
-import java.util.function.Function;
-
-import org.dl.java.math.java.la.MatrixJava;
 import org.dl.java.math.MathFunctions;
 
 public final class ActivateFunctionsJava {
@@ -12,13 +9,13 @@ public final class ActivateFunctionsJava {
      *
      * @return
      */
-    public static final Function<MatrixJava, MatrixJava> SIGMOID_PRIME = input -> input.transform(MathFunctions.SIGMOID_PRIME);
+    public static final ElementWiseActivation SIGMOID_PRIME = ElementWiseActivation.of(MathFunctions.SIGMOID_PRIME);
 
     /**
      * Return a sigmoid activation function
      *
      * @return
      */
-    public static final Function<MatrixJava, MatrixJava> SIGMOID = input -> input.transform(MathFunctions.SIGMOID);
+    public static final ElementWiseActivation SIGMOID = ElementWiseActivation.of(MathFunctions.SIGMOID);
 
 }
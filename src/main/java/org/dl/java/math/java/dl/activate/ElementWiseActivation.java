@@ -0,0 +1,36 @@
+package org.dl.java.math.java.dl.activate;
+
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+
+import org.dl.java.math.java.la.MatrixJava;
+
+/**
+ * An activation function that applies the same scalar function to every element. Exposing the scalar function lets
+ * a network fuse the activation into the layer kernel, see {@link MatrixJava#affine}.
+ */
+@FunctionalInterface
+public interface ElementWiseActivation extends Function<MatrixJava, MatrixJava> {
+
+    /**
+     * Create an activation from a scalar function
+     *
+     * @param element
+     * @return
+     */
+    static ElementWiseActivation of(DoubleUnaryOperator element) {
+        return () -> element;
+    }
+
+    /**
+     * The scalar function applied to each element
+     *
+     * @return
+     */
+    DoubleUnaryOperator element();
+
+    @Override
+    default MatrixJava apply(MatrixJava input) {
+        return input.transform(element());
+    }
+}
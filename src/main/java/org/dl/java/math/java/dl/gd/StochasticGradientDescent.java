@@ -2,26 +2,39 @@ package org.dl.java.math.java.dl.gd;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.BiFunction;
 import java.util.stream.IntStream;
 
-import org.dl.java.math.java.dl.networks.FeedForwardNeuralNetwork;
-import org.dl.java.math.java.la.MatrixJava;
-import org.dl.java.math.util.CollectionUtils;
-import org.dl.java.math.java.dl.DeltaFunctionJava;
+import org.dl.java.math.dl.DeltaFunction;
+import org.dl.java.math.java.dl.TrainableNetwork;
+import org.dl.java.math.java.la.MatrixArena;
 import org.dl.java.io.data.TrainingData;
 
-import static java.util.stream.Collectors.toList;
-
 /**
- * Stochastic gradient descent implementation
+ * Stochastic gradient descent implementation, for any {@link TrainableNetwork} on samples of type M: the pure Java
+ * {@link org.dl.java.math.java.dl.networks.FeedForwardNeuralNetwork} or the netlib
+ * {@link org.dl.java.math.dl.FeedForwardNetwork} on {@link org.dl.java.math.java.la.MatrixJava} samples, and their
+ * single precision versions {@link org.dl.java.math.java.dl.networks.FeedForwardNeuralNetworkFloat} on
+ * {@link org.dl.java.math.java.la.MatrixFloat} and {@link org.dl.java.math.dl.FeedForwardNetworkFloat} on
+ * {@code float[]} samples.
+ * <p>
+ * Optimization note:
+ * The descent allocates almost nothing per mini batch. The network is copied once and then updated in place, the
+ * zero networks the gradients of a mini batch are summed into are recycled for the next one, and the temporaries of
+ * each sample come from the {@link MatrixArena} of its thread, see
+ * {@link org.dl.java.math.java.dl.networks.FeedForwardNeuralNetwork#backpropInto}. The recycled networks belong to
+ * one descent, so a descent of a network of another shape never gets them, and the arenas are trimmed at the end.
+ *
+ * @param <M> the sample type
  */
-public final class StochasticGradientDescent {
-    private final List<TrainingData<MatrixJava, MatrixJava>> trainingData;
+public final class StochasticGradientDescent<M> {
+    private final List<TrainingData<M, M>> trainingData;
     private final int epochs;
     private final int miniBatchSize;
     private final double eta;
-    private final double lamba;
+    private final double lambda;
 
     /**
      * Constructor to define a descent strategy.
@@ -31,13 +44,13 @@ public final class StochasticGradientDescent {
      * @param miniBatchSize
      * @param eta
      */
-    public StochasticGradientDescent(List<TrainingData<MatrixJava, MatrixJava>> trainingData, int epochs, int miniBatchSize,
-                                     double eta, double lambda) {
+    public StochasticGradientDescent(List<TrainingData<M, M>> trainingData, int epochs, int miniBatchSize, double eta,
+                                     double lambda) {
         this.trainingData = trainingData;
         this.epochs = epochs;
         this.miniBatchSize = miniBatchSize;
         this.eta = eta;
-        this.lamba = lambda;
+        this.lambda = lambda;
     }
 
     /**
@@ -47,17 +60,23 @@ public final class StochasticGradientDescent {
      * @param testData
      * @param evaluator
      * @param deltaFunc Function to compute teh delta value
-     * @return
+     * @param <N>       the network type
+     * @return a trained copy of network
      */
-    public FeedForwardNeuralNetwork descent(FeedForwardNeuralNetwork network, List<TrainingData<MatrixJava, MatrixJava>> testData,
-                                            BiFunction<MatrixJava, MatrixJava, Boolean> evaluator, DeltaFunctionJava deltaFunc) {
+    public <N extends TrainableNetwork<M, N>> N descent(N network, List<TrainingData<M, M>> testData,
+                                                        BiFunction<M, M, Boolean> evaluator,
+                                                        DeltaFunction<M> deltaFunc) {
         int trainingSize = trainingData.size();
         int testDataSize = testData.size();
+        // the mini batches update a private copy in place
+        network = network.copy();
+        // zeroed gradient networks left by the previous mini batches, shared by the workers
+        Queue<N> spareGradients = new ConcurrentLinkedQueue<>();
         for (int i = 0; i < epochs; i++) {
             long start = System.nanoTime();
             Collections.shuffle(trainingData);
             for (int b = 0; b < trainingSize; b += miniBatchSize) {
-                network = descentMiniBatch(network, b, deltaFunc);
+                network = descentMiniBatch(network, b, deltaFunc, spareGradients);
             }
 
             if (!testData.isEmpty()) {
@@ -68,58 +87,72 @@ public final class StochasticGradientDescent {
             System.out.println(String.format("Epoch %d complete, time spent: %ds", i,
                     (System.nanoTime() - start) / 1_000_000_000L));
         }
+        // the shapes of this network will not be asked for again
+        MatrixArena.trimAll();
 
         return network;
     }
 
     /**
-     * Update the in's bias and weight using a batch starting at the offset
-     * Return a new {@link FeedForwardNeuralNetwork} with updated biases and weights.
+     * Update the in's bias and weight in place using a batch starting at the offset
      *
      * @param in
      * @param trainingDataOffset
-     * @return
+     * @param spareGradients     zero networks of the shape of in
+     * @return in
      */
-    private FeedForwardNeuralNetwork descentMiniBatch(FeedForwardNeuralNetwork in, int trainingDataOffset,
-                                                      DeltaFunctionJava deltaFunc) {
+    private <N extends TrainableNetwork<M, N>> N descentMiniBatch(N in, int trainingDataOffset,
+                                                                  DeltaFunction<M> deltaFunc,
+                                                                  Queue<N> spareGradients) {
         int totalSize = trainingData.size();
-        List<MatrixJava> batchDeltaBiases = in.getBiases()
-                                          .stream()
-                                          .map(m -> new MatrixJava(m.getRowCount(), m.getColCount()))
-                                          .collect(toList());
-        List<MatrixJava> batchDeltaWeights = in.getWeights()
-                                           .stream()
-                                           .map(m -> new MatrixJava(m.getRowCount(), m.getColCount()))
-                                           .collect(toList());
-        FeedForwardNeuralNetwork batchResultNetwork = new FeedForwardNeuralNetwork(in.getLayerSizes(), batchDeltaBiases,
-                batchDeltaWeights, in.getActivationFunction());
         int upperLimit = Math.min(trainingDataOffset + miniBatchSize, totalSize);
-        batchResultNetwork = IntStream.range(trainingDataOffset, upperLimit)
-                                      .parallel()
-                                      .mapToObj(i -> {
-                                          TrainingData<MatrixJava, MatrixJava> data = trainingData.get(i);
-                                          return in.backprop(data.getX(), data.getY(), deltaFunc);
-                                      })
-                                      .reduce(batchResultNetwork, (a, b) -> {
-                                          List<MatrixJava> bdb = CollectionUtils.zipApply(a.getBiases(), b.getBiases(),
-                                                  (nb, db) -> nb.add(db));
-                                          List<MatrixJava> bdw = CollectionUtils.zipApply(a.getWeights(), b.getWeights(),
-                                                  (nw, bw) -> nw.add(bw));
-                                          return new FeedForwardNeuralNetwork(in.getLayerSizes(), bdb, bdw,
-                                                  in.getActivationFunction());
-                                      });
-
-        batchDeltaBiases = batchResultNetwork.getBiases();
-        batchDeltaWeights = batchResultNetwork.getWeights();
+        // every worker sums its samples into its own zero network in place, the partial sums are then merged
+        N batchResultNetwork = IntStream.range(trainingDataOffset, upperLimit)
+                                        .parallel()
+                                        .collect(() -> takeGradient(in, spareGradients), (acc, i) -> {
+                                            TrainingData<M, M> data = trainingData.get(i);
+                                            in.backpropInto(data.getX(), data.getY(), deltaFunc, acc);
+                                        }, (acc, delta) -> merge(acc, delta, spareGradients));
 
         // now it is time to update the in
-        List<MatrixJava> newWeights = CollectionUtils.zipApply(in.getWeights(), batchDeltaWeights,
-                (w, bdw) -> w.mul(1 - eta * lamba / trainingData.size())
-                             .minus(bdw.transform(v -> v * eta / miniBatchSize)));
-        List<MatrixJava> newBiases = CollectionUtils.zipApply(in.getBiases(), batchDeltaBiases,
-                (b, bdb) -> b.minus(bdb.transform(v -> v * eta / miniBatchSize)));
+        in.applyGradient(batchResultNetwork, 1 - eta * lambda / trainingData.size(), eta / miniBatchSize);
+        recycle(batchResultNetwork, spareGradients);
+
+        return in;
+    }
+
+    /**
+     * Take a zero network of the same shape as in, a recycled one if there is any
+     *
+     * @param in
+     * @param spareGradients
+     * @return
+     */
+    private static <T, N extends TrainableNetwork<T, N>> N takeGradient(N in, Queue<N> spareGradients) {
+        N gradient = spareGradients.poll();
+        return gradient != null ? gradient : in.zeroGradient();
+    }
 
-        return new FeedForwardNeuralNetwork(in.getLayerSizes(), newBiases, newWeights, in.getActivationFunction());
+    /**
+     * Add the partial sum delta to acc, delta is recycled
+     *
+     * @param acc
+     * @param delta
+     * @param spareGradients
+     */
+    private static <T, N extends TrainableNetwork<T, N>> void merge(N acc, N delta, Queue<N> spareGradients) {
+        acc.addGradient(delta);
+        recycle(delta, spareGradients);
     }
 
+    /**
+     * Zero the gradient network and keep it for the next mini batch
+     *
+     * @param gradient
+     * @param spareGradients
+     */
+    private static <T, N extends TrainableNetwork<T, N>> void recycle(N gradient, Queue<N> spareGradients) {
+        gradient.clearGradient();
+        spareGradients.offer(gradient);
+    }
 }
@@ -6,9 +6,14 @@ import java.util.List;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
+import org.dl.java.math.dl.DeltaFunction;
+import org.dl.java.math.java.la.CSCMatrix;
+import org.dl.java.math.java.la.MatrixArena;
 import org.dl.java.math.java.la.MatrixJava;
 import org.dl.java.math.java.dl.DeltaFunctionJava;
 import org.dl.java.math.java.dl.NeuralNetwork;
+import org.dl.java.math.java.dl.TrainableNetwork;
+import org.dl.java.math.java.dl.activate.ElementWiseActivation;
 import org.dl.java.io.data.TrainingData;
 
 import static java.util.Collections.unmodifiableList;
@@ -19,8 +24,18 @@ import static org.dl.java.math.java.dl.activate.ActivateFunctionsJava.SIGMOID_PR
 
 /**
  * A simple implementation of a feedforward network
+ * <p>
+ * Optimization note:
+ * Inputs like MNIST images are mostly zero. An input with at most {@link #SPARSE_INPUT_DENSITY} non zero elements is
+ * compressed into a {@link CSCMatrix}, so the first layer product and its weight gradient only touch the columns of
+ * the weights matching non zero inputs.
  */
-public class FeedForwardNeuralNetwork implements NeuralNetwork {
+public class FeedForwardNeuralNetwork implements NeuralNetwork, TrainableNetwork<MatrixJava, FeedForwardNeuralNetwork> {
+    /**
+     * Largest fraction of non zero input elements for which the first layer runs on a sparse input
+     */
+    private static final double SPARSE_INPUT_DENSITY = 0.5;
+
     private final List<Integer> networkSizes;
     private final List<MatrixJava> biases;
     private final List<MatrixJava> weights;
@@ -97,6 +112,7 @@ public class FeedForwardNeuralNetwork implements NeuralNetwork {
      * @param trainingData
      * @return
      */
+    @Override
     public int evaluate(List<TrainingData<MatrixJava, MatrixJava>> trainingData,
                         BiFunction<MatrixJava, MatrixJava, Boolean> evaluator) {
         return trainingData.stream()
@@ -111,13 +127,20 @@ public class FeedForwardNeuralNetwork implements NeuralNetwork {
      * @param input
      * @return
      */
+    @Override
     public MatrixJava feedforward(MatrixJava input) {
         Iterator<MatrixJava> b = biases.iterator();
         Iterator<MatrixJava> w = weights.iterator();
+        CSCMatrix sparse = sparseInput(input);
+        if (sparse != null && b.hasNext() && w.hasNext()) {
+            input = w.next()
+                    .dot(sparse)
+                    .addInPlace(b.next())
+                    .transformInPlace(SIGMOID.element());
+        }
         while (b.hasNext() && w.hasNext()) {
-            input = SIGMOID.apply(w.next()
-                    .dot(input)
-                    .add(b.next()));
+            input = w.next()
+                    .affine(input, b.next(), SIGMOID.element());
         }
 
         return input;
@@ -155,12 +178,39 @@ public class FeedForwardNeuralNetwork implements NeuralNetwork {
      * @return
      */
     public FeedForwardNeuralNetwork backprop(MatrixJava input, MatrixJava expected, DeltaFunctionJava deltaFunc) {
-        List<MatrixJava> newBiases = biases.stream()
-                .map(m -> new MatrixJava(m.getRowCount(), m.getColCount()))
-                .collect(toList());
-        List<MatrixJava> newWeights = weights.stream()
-                .map(m -> new MatrixJava(m.getRowCount(), m.getColCount()))
-                .collect(toList());
+        // generate a new network and return
+        FeedForwardNeuralNetwork gradient = zeroGradient();
+        backpropInto(input, expected, deltaFunc, gradient);
+        return gradient;
+    }
+
+    /**
+     * Back propagation adding the deltas of the biases and weights to the ones of gradient in place, which saves
+     * allocating a delta network per sample when summing a mini batch. The temporaries of the sample are taken from
+     * the {@link MatrixArena} of the calling thread.
+     *
+     * @param input
+     * @param expected
+     * @param deltaFunc
+     * @param gradient  network of the same shape receiving the sums
+     */
+    @Override
+    public void backpropInto(MatrixJava input, MatrixJava expected, DeltaFunction<MatrixJava> deltaFunc,
+                             FeedForwardNeuralNetwork gradient) {
+        // every temporary of the sample comes from the arena of this thread and is recycled at the end
+        MatrixArena arena = MatrixArena.current();
+        int mark = arena.mark();
+        try {
+            backpropInto(input, expected, deltaFunc, gradient, arena);
+        } finally {
+            arena.release(mark);
+        }
+    }
+
+    private void backpropInto(MatrixJava input, MatrixJava expected, DeltaFunction<MatrixJava> deltaFunc,
+                              FeedForwardNeuralNetwork gradient, MatrixArena arena) {
+        List<MatrixJava> gradientBiases = gradient.getBiases();
+        List<MatrixJava> gradientWeights = gradient.getWeights();
 
         // Feedforward
 
@@ -170,16 +220,28 @@ public class FeedForwardNeuralNetwork implements NeuralNetwork {
         List<MatrixJava> zs = new ArrayList<>();
         activations.add(input);
         MatrixJava activation = input;
+        CSCMatrix sparse = sparseInput(input);
 
         // co-iterate
         Iterator<MatrixJava> bs = getBiases().iterator();
         Iterator<MatrixJava> ws = getWeights().iterator();
 
         while (bs.hasNext() && ws.hasNext()) {
-            MatrixJava z = ws.next()
-                    .dot(activation)
-                    .add(bs.next());
-            activation = getActivationFunction().apply(z);
+            MatrixJava w = ws.next();
+            MatrixJava z = arena.allocate(w.getRowCount(), activation.getColCount());
+            if (sparse != null && activation == input) {
+                w.dotAddInto(sparse, z.fill(0))
+                 .addInPlace(bs.next());
+                activation = activate(z, arena);
+            } else if (activate instanceof ElementWiseActivation) {
+                // fused kernel, emits both z and the activation in one pass
+                activation = w.affineInto(activation, bs.next(), ((ElementWiseActivation) activate).element(), z,
+                        arena.allocate(w.getRowCount(), activation.getColCount()));
+            } else {
+                w.dotInto(activation, z)
+                 .addInPlace(bs.next());
+                activation = activate(z, arena);
+            }
             activations.add(activation);
             zs.add(z);
         }
@@ -187,26 +249,139 @@ public class FeedForwardNeuralNetwork implements NeuralNetwork {
         // Back propagate
         MatrixJava delta = deltaFunc.delta(activations.get(activations.size() - 1), expected, zs.get(zs.size() - 1));
 
-        newBiases.set(newBiases.size() - 1, delta);
-        newWeights.set(newWeights.size() - 1, delta.dot(activations.get(activations.size() - 2)
-                .transpose()));
+        gradientBiases.get(gradientBiases.size() - 1)
+                .addInPlace(delta);
+        addWeightGradient(gradientWeights.get(gradientWeights.size() - 1), delta,
+                activations.get(activations.size() - 2), input, sparse);
 
         // backward starting from the second last layer
         // Just using indexes so it is simpler
         for (int backIndex = 2; backIndex < networkSizes.size(); backIndex++) {
             MatrixJava z = zs.get(zs.size() - backIndex);
-            MatrixJava sigmoidPrime = SIGMOID_PRIME.apply(z);
-
-            delta = weights.get(weights.size() - backIndex + 1)
-                    .transpose()
-                    .dot(delta)
-                    .mul(sigmoidPrime);
-            newBiases.set(newBiases.size() - backIndex, delta);
-            newWeights.set(newWeights.size() - backIndex, delta.dot(activations.get(activations.size() - backIndex - 1)
-                    .transpose()));
+            MatrixJava w = weights.get(weights.size() - backIndex + 1);
+
+            // delta = (W^T . delta) * sigma'(z), the derivative is fused into the multiplication
+            delta = w.dotTransposeLeftInto(delta, arena.allocate(w.getColCount(), delta.getColCount()));
+            delta.lazy()
+                    .mul(z.lazy()
+                            .transform(SIGMOID_PRIME.element()))
+                    .evaluateInto(delta);
+            gradientBiases.get(gradientBiases.size() - backIndex)
+                    .addInPlace(delta);
+            addWeightGradient(gradientWeights.get(gradientWeights.size() - backIndex), delta,
+                    activations.get(activations.size() - backIndex - 1), input, sparse);
         }
+    }
 
-        // generate a new network and return
+    @Override
+    public FeedForwardNeuralNetwork copy() {
+        List<MatrixJava> newBiases = biases.stream()
+                .map(MatrixJava::replicate)
+                .collect(toList());
+        List<MatrixJava> newWeights = weights.stream()
+                .map(MatrixJava::replicate)
+                .collect(toList());
+        return new FeedForwardNeuralNetwork(networkSizes, newBiases, newWeights, getActivationFunction());
+    }
+
+    @Override
+    public FeedForwardNeuralNetwork zeroGradient() {
+        List<MatrixJava> newBiases = biases.stream()
+                .map(m -> new MatrixJava(m.getRowCount(), m.getColCount()))
+                .collect(toList());
+        List<MatrixJava> newWeights = weights.stream()
+                .map(m -> new MatrixJava(m.getRowCount(), m.getColCount()))
+                .collect(toList());
         return new FeedForwardNeuralNetwork(networkSizes, newBiases, newWeights, getActivationFunction());
     }
+
+    @Override
+    public void addGradient(FeedForwardNeuralNetwork delta) {
+        for (int i = 0; i < biases.size(); i++) {
+            biases.get(i).addInPlace(delta.getBiases().get(i));
+            weights.get(i).addInPlace(delta.getWeights().get(i));
+        }
+    }
+
+    @Override
+    public void clearGradient() {
+        biases.forEach(m -> m.fill(0));
+        weights.forEach(m -> m.fill(0));
+    }
+
+    /**
+     * Each update is fused into a single pass over the weights
+     *
+     * @param gradient
+     * @param decay    weight decay of the regularization
+     * @param step
+     */
+    @Override
+    public void applyGradient(FeedForwardNeuralNetwork gradient, double decay, double step) {
+        for (int l = 0; l < weights.size(); l++) {
+            MatrixJava w = weights.get(l);
+            MatrixJava b = biases.get(l);
+            w.lazy()
+             .mul(decay)
+             .minus(gradient.getWeights()
+                            .get(l)
+                            .lazy()
+                            .mul(step))
+             .evaluateInto(w);
+            b.lazy()
+             .minus(gradient.getBiases()
+                            .get(l)
+                            .lazy()
+                            .mul(step))
+             .evaluateInto(b);
+        }
+    }
+
+    /**
+     * Apply the activation function to z, into a buffer of the arena when it works element by element
+     *
+     * @param z
+     * @param arena
+     * @return
+     */
+    private MatrixJava activate(MatrixJava z, MatrixArena arena) {
+        if (activate instanceof ElementWiseActivation) {
+            return z.transformInto(((ElementWiseActivation) activate).element(),
+                    arena.allocate(z.getRowCount(), z.getColCount()));
+        }
+        return getActivationFunction().apply(z);
+    }
+
+    /**
+     * Add delta . activation^T to the weight gradient, through the compressed input when activation is the network
+     * input so that only the columns of its non zero elements are touched
+     *
+     * @param gradient
+     * @param delta
+     * @param activation
+     * @param input
+     * @param sparse     compressed input, may be null
+     */
+    private static void addWeightGradient(MatrixJava gradient, MatrixJava delta, MatrixJava activation,
+                                          MatrixJava input, CSCMatrix sparse) {
+        if (sparse != null && activation == input) {
+            delta.dotAddInto(sparse.transpose(), gradient);
+        } else {
+            delta.dotTransposeRightAddInto(activation, gradient);
+        }
+    }
+
+    /**
+     * Compress the input if it is sparse enough for the first layer to run on it, return null otherwise. The non
+     * zeros are counted first, so a dense input allocates nothing.
+     *
+     * @param input
+     * @return
+     */
+    static CSCMatrix sparseInput(MatrixJava input) {
+        if (input.getNonZeroCount() > SPARSE_INPUT_DENSITY * input.getRowCount() * input.getColCount()) {
+            return null;
+        }
+        return CSCMatrix.of(input);
+    }
 }
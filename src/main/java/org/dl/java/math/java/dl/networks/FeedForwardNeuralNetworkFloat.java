@@ -0,0 +1,235 @@
+package org.dl.java.math.java.dl.networks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.dl.java.math.dl.DeltaFunction;
+import org.dl.java.math.java.la.MatrixFloat;
+import org.dl.java.math.java.dl.DeltaFunctionFloat;
+import org.dl.java.math.java.dl.TrainableNetwork;
+import org.dl.java.math.java.dl.activate.ElementWiseActivation;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toUnmodifiableList;
+import static org.dl.java.math.java.dl.activate.ActivateFunctionsJava.SIGMOID_PRIME;
+
+/**
+ * Single precision counterpart of {@link FeedForwardNeuralNetwork}, the biases and weights are {@link MatrixFloat}.
+ * It trains on {@link MatrixFloat} samples with the same {@link org.dl.java.math.java.dl.gd.StochasticGradientDescent}.
+ * <p>
+ * Optimization note:
+ * Training a network does not need 64-bit precision. With floats the weights take half the memory and every layer
+ * product moves half the bytes, which is what bounds the matrix-vector products of a per-sample backprop.
+ */
+public class FeedForwardNeuralNetworkFloat implements TrainableNetwork<MatrixFloat, FeedForwardNeuralNetworkFloat> {
+    private final List<Integer> networkSizes;
+    private final List<MatrixFloat> biases;
+    private final List<MatrixFloat> weights;
+    private final ElementWiseActivation activate;
+
+    /**
+     * Initialize a {@link FeedForwardNeuralNetworkFloat} with random weights and biases and a fixed network size
+     *
+     * @param networkSizes
+     * @param activate
+     */
+    public FeedForwardNeuralNetworkFloat(List<Integer> networkSizes, ElementWiseActivation activate) {
+        this.activate = activate;
+        // freeze the network sizes
+        this.networkSizes = unmodifiableList(networkSizes);
+
+        // build the biases vectors and feeze it
+        biases = networkSizes.stream()
+                .skip(1)
+                .map(v -> MatrixFloat.getGaussionRandomMatrix(v, 1))
+                .collect(toUnmodifiableList());
+
+        // build the weights matrixes
+        List<MatrixFloat> weights = new ArrayList<>();
+        for (int i = 0; i < networkSizes.size() - 1; i++) {
+            weights.add(MatrixFloat.getGaussionRandomMatrix(networkSizes.get(i + 1), networkSizes.get(i), 0,
+                    1 / Math.sqrt(networkSizes.get(i))));
+        }
+
+        // freeze the weights
+        this.weights = unmodifiableList(weights);
+    }
+
+    /**
+     * Creating a new network with existing netowrk values.
+     *
+     * @param networkSizes
+     * @param biases
+     * @param weights
+     * @param activate
+     */
+    public FeedForwardNeuralNetworkFloat(List<Integer> networkSizes, List<MatrixFloat> biases,
+                                         List<MatrixFloat> weights, ElementWiseActivation activate) {
+        this.activate = activate;
+        this.networkSizes = networkSizes;
+        this.biases = biases;
+        this.weights = weights;
+    }
+
+    public List<Integer> getLayerSizes() {
+        return this.networkSizes;
+    }
+
+    public List<MatrixFloat> getBiases() {
+        return biases;
+    }
+
+    public List<MatrixFloat> getWeights() {
+        return weights;
+    }
+
+    public ElementWiseActivation getActivationFunction() {
+        return activate;
+    }
+
+    /**
+     * Given an input vector, compute the output of the current matrix
+     *
+     * @param input
+     * @return
+     */
+    @Override
+    public MatrixFloat feedforward(MatrixFloat input) {
+        Iterator<MatrixFloat> b = biases.iterator();
+        Iterator<MatrixFloat> w = weights.iterator();
+        while (b.hasNext() && w.hasNext()) {
+            input = w.next()
+                    .affine(input, b.next(), activate.element());
+        }
+
+        return input;
+    }
+
+    /**
+     * Back propagation with {@Link MatrixFloat} input and the {@link MatrixFloat} expected output (label}
+     * returns a delta {@link FeedForwardNeuralNetworkFloat}
+     *
+     * @param input
+     * @param expected
+     * @return
+     */
+    public FeedForwardNeuralNetworkFloat backprop(MatrixFloat input, MatrixFloat expected,
+                                                  DeltaFunctionFloat deltaFunc) {
+        FeedForwardNeuralNetworkFloat gradient = zeroGradient();
+        backpropInto(input, expected, deltaFunc, gradient);
+        return gradient;
+    }
+
+    /**
+     * Back propagation adding the deltas of the biases and weights to the ones of gradient in place, which saves
+     * allocating a delta network per sample when summing a mini batch
+     *
+     * @param input
+     * @param expected
+     * @param deltaFunc
+     * @param gradient  network of the same shape receiving the sums
+     */
+    @Override
+    public void backpropInto(MatrixFloat input, MatrixFloat expected, DeltaFunction<MatrixFloat> deltaFunc,
+                             FeedForwardNeuralNetworkFloat gradient) {
+        List<MatrixFloat> gradientBiases = gradient.getBiases();
+        List<MatrixFloat> gradientWeights = gradient.getWeights();
+
+        // Feedforward
+
+        // vectors of all activations layer by layer
+        List<MatrixFloat> activations = new ArrayList<>();
+        // vectors of z vectors (value before activation) layer by layer
+        List<MatrixFloat> zs = new ArrayList<>();
+        activations.add(input);
+        MatrixFloat activation = input;
+
+        // co-iterate
+        Iterator<MatrixFloat> bs = getBiases().iterator();
+        Iterator<MatrixFloat> ws = getWeights().iterator();
+
+        while (bs.hasNext() && ws.hasNext()) {
+            MatrixFloat w = ws.next();
+            // fused kernel, emits both z and the activation in one pass
+            MatrixFloat z = new MatrixFloat(w.getRowCount(), activation.getColCount());
+            activation = w.affineInto(activation, bs.next(), activate.element(), z,
+                    new MatrixFloat(w.getRowCount(), activation.getColCount()));
+            activations.add(activation);
+            zs.add(z);
+        }
+
+        // Back propagate
+        MatrixFloat delta = deltaFunc.delta(activations.get(activations.size() - 1), expected, zs.get(zs.size() - 1));
+
+        gradientBiases.get(gradientBiases.size() - 1)
+                .addInPlace(delta);
+        gradientWeights.get(gradientWeights.size() - 1)
+                .addInPlace(delta.dotTransposeRight(activations.get(activations.size() - 2)));
+
+        // backward starting from the second last layer
+        // Just using indexes so it is simpler
+        for (int backIndex = 2; backIndex < networkSizes.size(); backIndex++) {
+            MatrixFloat z = zs.get(zs.size() - backIndex);
+
+            // delta = (W^T . delta) * sigma'(z)
+            delta = weights.get(weights.size() - backIndex + 1)
+                    .dotTransposeLeft(delta)
+                    .mulInPlace(z.transformInPlace(SIGMOID_PRIME.element()));
+            gradientBiases.get(gradientBiases.size() - backIndex)
+                    .addInPlace(delta);
+            gradientWeights.get(gradientWeights.size() - backIndex)
+                    .addInPlace(delta.dotTransposeRight(activations.get(activations.size() - backIndex - 1)));
+        }
+    }
+
+    @Override
+    public FeedForwardNeuralNetworkFloat copy() {
+        List<MatrixFloat> newBiases = biases.stream()
+                .map(MatrixFloat::replicate)
+                .collect(toList());
+        List<MatrixFloat> newWeights = weights.stream()
+                .map(MatrixFloat::replicate)
+                .collect(toList());
+        return new FeedForwardNeuralNetworkFloat(networkSizes, newBiases, newWeights, getActivationFunction());
+    }
+
+    @Override
+    public FeedForwardNeuralNetworkFloat zeroGradient() {
+        List<MatrixFloat> newBiases = biases.stream()
+                .map(m -> new MatrixFloat(m.getRowCount(), m.getColCount()))
+                .collect(toList());
+        List<MatrixFloat> newWeights = weights.stream()
+                .map(m -> new MatrixFloat(m.getRowCount(), m.getColCount()))
+                .collect(toList());
+        return new FeedForwardNeuralNetworkFloat(networkSizes, newBiases, newWeights, getActivationFunction());
+    }
+
+    @Override
+    public void addGradient(FeedForwardNeuralNetworkFloat delta) {
+        for (int i = 0; i < biases.size(); i++) {
+            biases.get(i).addInPlace(delta.getBiases().get(i));
+            weights.get(i).addInPlace(delta.getWeights().get(i));
+        }
+    }
+
+    @Override
+    public void clearGradient() {
+        biases.forEach(m -> m.fill(0));
+        weights.forEach(m -> m.fill(0));
+    }
+
+    @Override
+    public void applyGradient(FeedForwardNeuralNetworkFloat gradient, double decay, double step) {
+        for (int l = 0; l < weights.size(); l++) {
+            weights.get(l)
+                   .scaleInPlace((float) decay)
+                   .axpyInPlace((float) -step, gradient.getWeights()
+                                                       .get(l));
+            biases.get(l)
+                  .axpyInPlace((float) -step, gradient.getBiases()
+                                                      .get(l));
+        }
+    }
+}
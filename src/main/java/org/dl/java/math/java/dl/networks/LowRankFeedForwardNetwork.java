@@ -0,0 +1,246 @@
+package org.dl.java.math.java.dl.networks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import org.dl.java.math.java.la.CSCMatrix;
+import org.dl.java.math.java.la.MatrixJava;
+import org.dl.java.math.java.la.SVDDecomposition;
+import org.dl.java.io.data.TrainingData;
+
+import static org.dl.java.math.java.dl.activate.ActivateFunctionsJava.SIGMOID;
+
+/**
+ * An inference only copy of a trained {@link FeedForwardNeuralNetwork} where the weight matrices of some layers are
+ * replaced by a rank-k factor pair, W ~ L * R with L = U * S (m, k) and R = V^T (k, n) from
+ * {@link MatrixJava#truncatedSvd(int)}.
+ * <p>
+ * Optimization note:
+ * A compressed layer runs as two skinny products L * (R * x), k * (m + n) multiply-adds instead of m * n. For the
+ * 784-wide first layer of MNIST the input is sparse, so R * x only touches the columns of R matching the non zero
+ * pixels, like the dense layer of {@link FeedForwardNeuralNetwork}.
+ */
+public class LowRankFeedForwardNetwork {
+    private final FeedForwardNeuralNetwork network;
+    /**
+     * L factor of each layer, null for the layers kept dense
+     */
+    private final List<MatrixJava> lefts;
+    /**
+     * R factor of each layer, null for the layers kept dense
+     */
+    private final List<MatrixJava> rights;
+
+    private LowRankFeedForwardNetwork(FeedForwardNeuralNetwork network, List<MatrixJava> lefts,
+                                      List<MatrixJava> rights) {
+        this.network = network;
+        this.lefts = lefts;
+        this.rights = rights;
+    }
+
+    /**
+     * Compress one layer of the trained network, the layer i weights connect layer i to layer i + 1
+     *
+     * @param network
+     * @param layer
+     * @param rank
+     * @return
+     */
+    public static LowRankFeedForwardNetwork compress(FeedForwardNeuralNetwork network, int layer, int rank) {
+        int layers = network.getWeights()
+                            .size();
+        List<MatrixJava> none = new ArrayList<>(Collections.nCopies(layers, null));
+        return new LowRankFeedForwardNetwork(network, none, new ArrayList<>(none)).compress(layer, rank);
+    }
+
+    /**
+     * Return a copy with one more layer compressed, or a layer compressed again from its original weights to another
+     * rank
+     *
+     * @param layer
+     * @param rank
+     * @return
+     */
+    public LowRankFeedForwardNetwork compress(int layer, int rank) {
+        if (layer < 0 || layer >= lefts.size()) {
+            throw new RuntimeException(String.format("Layer %d out of range, the network has %d weight matrices",
+                    layer, lefts.size()));
+        }
+        SVDDecomposition svd = network.getWeights()
+                                      .get(layer)
+                                      .truncatedSvd(rank);
+        List<MatrixJava> newLefts = new ArrayList<>(lefts);
+        List<MatrixJava> newRights = new ArrayList<>(rights);
+        newLefts.set(layer, svd.scaledU());
+        newRights.set(layer, svd.v()
+                                .transpose());
+        return new LowRankFeedForwardNetwork(network, newLefts, newRights);
+    }
+
+    /**
+     * Given an input vector, compute the output of the compressed network
+     *
+     * @param input
+     * @return
+     */
+    public MatrixJava feedforward(MatrixJava input) {
+        List<MatrixJava> weights = network.getWeights();
+        List<MatrixJava> biases = network.getBiases();
+        CSCMatrix sparse = FeedForwardNeuralNetwork.sparseInput(input);
+        for (int l = 0; l < weights.size(); l++) {
+            MatrixJava bias = biases.get(l);
+            MatrixJava left = lefts.get(l);
+            if (left == null && l == 0 && sparse != null) {
+                input = weights.get(l)
+                               .dot(sparse)
+                               .addInPlace(bias)
+                               .transformInPlace(SIGMOID.element());
+            } else if (left == null) {
+                input = weights.get(l)
+                               .affine(input, bias, SIGMOID.element());
+            } else {
+                MatrixJava right = rights.get(l);
+                MatrixJava projected = l == 0 && sparse != null ? right.dot(sparse) : right.dot(input);
+                input = left.affine(projected, bias, SIGMOID.element());
+            }
+        }
+
+        return input;
+    }
+
+    /**
+     * Evaluate the compressed network against test data in {@link TrainingData} format
+     * Count how many correct predictions.
+     *
+     * @param testData
+     * @param evaluator
+     * @return
+     */
+    public int evaluate(List<TrainingData<MatrixJava, MatrixJava>> testData,
+                        BiFunction<MatrixJava, MatrixJava, Boolean> evaluator) {
+        return testData.stream()
+                .map(t -> evaluator.apply(feedforward(t.getX()), t.getY()) ? 1 : 0)
+                .reduce((a, b) -> a + b)
+                .orElse(0);
+    }
+
+    /**
+     * Correct predictions of the compressed network minus the ones of the original network, negative when the
+     * compression costs accuracy
+     *
+     * @param testData
+     * @param evaluator
+     * @return
+     */
+    public int accuracyDelta(List<TrainingData<MatrixJava, MatrixJava>> testData,
+                             BiFunction<MatrixJava, MatrixJava, Boolean> evaluator) {
+        return evaluate(testData, evaluator) - network.evaluate(testData, evaluator);
+    }
+
+    /**
+     * Describe every compressed layer and the accuracy of both networks on the test data
+     *
+     * @param testData
+     * @param evaluator
+     * @return
+     */
+    public String report(List<TrainingData<MatrixJava, MatrixJava>> testData,
+                         BiFunction<MatrixJava, MatrixJava, Boolean> evaluator) {
+        StringBuilder sb = new StringBuilder();
+        for (int l = 0; l < lefts.size(); l++) {
+            if (lefts.get(l) == null) {
+                continue;
+            }
+            MatrixJava w = network.getWeights()
+                                  .get(l);
+            sb.append(String.format("Layer %d: rank %d, %d -> %d weights, relative error %.4f%n", l, getRank(l),
+                    w.getRowCount() * w.getColCount(), getWeightCount(l), getRelativeError(l)));
+        }
+        int original = network.evaluate(testData, evaluator);
+        int compressed = evaluate(testData, evaluator);
+        sb.append(String.format("Accuracy: %d / %d -> %d / %d (%+d)", original, testData.size(), compressed,
+                testData.size(), compressed - original));
+        return sb.toString();
+    }
+
+    /**
+     * Rank of the layer, the full rank of its weights when it is kept dense
+     *
+     * @param layer
+     * @return
+     */
+    public int getRank(int layer) {
+        MatrixJava left = lefts.get(layer);
+        if (left == null) {
+            MatrixJava w = network.getWeights()
+                                  .get(layer);
+            return Math.min(w.getRowCount(), w.getColCount());
+        }
+        return left.getColCount();
+    }
+
+    /**
+     * Number of weights stored for the layer, k * (m + n) when compressed
+     *
+     * @param layer
+     * @return
+     */
+    public int getWeightCount(int layer) {
+        MatrixJava left = lefts.get(layer);
+        if (left == null) {
+            MatrixJava w = network.getWeights()
+                                  .get(layer);
+            return w.getRowCount() * w.getColCount();
+        }
+        MatrixJava right = rights.get(layer);
+        return left.getRowCount() * left.getColCount() + right.getRowCount() * right.getColCount();
+    }
+
+    /**
+     * Frobenius norm of W - L * R relative to the one of W, 0 for the layers kept dense
+     *
+     * @param layer
+     * @return
+     */
+    public double getRelativeError(int layer) {
+        MatrixJava left = lefts.get(layer);
+        if (left == null) {
+            return 0;
+        }
+        MatrixJava w = network.getWeights()
+                              .get(layer);
+        return w.minus(left.dot(rights.get(layer)))
+                .norm() / w.norm();
+    }
+
+    /**
+     * The L factor of the layer, null when it is kept dense
+     *
+     * @param layer
+     * @return
+     */
+    public MatrixJava getLeftFactor(int layer) {
+        return lefts.get(layer);
+    }
+
+    /**
+     * The R factor of the layer, null when it is kept dense
+     *
+     * @param layer
+     * @return
+     */
+    public MatrixJava getRightFactor(int layer) {
+        return rights.get(layer);
+    }
+
+    /**
+     * The original network
+     *
+     * @return
+     */
+    public FeedForwardNeuralNetwork getNetwork() {
+        return network;
+    }
+}
@@ -0,0 +1,154 @@
+package org.dl.java.math.java.la;
+
+import org.dl.java.math.la.MatrixBackend;
+import org.dl.java.math.la.NetlibBackend;
+
+/**
+ * Chooses the {@link MatrixBackend} of each product of {@link MatrixJava} and {@link MatrixFloat} by its shape.
+ * <p>
+ * Small products, like the matrix-vector products of a network on a single sample, run on the pure Java kernels:
+ * their cost is dominated by the call overhead, which for a native library includes the JNI transition and pinning
+ * the arrays. Products of at least {@link #getNativeThreshold()} multiply-adds run on the native backend, when there
+ * is one.
+ * <p>
+ * By default the native backend is netlib when it loaded a native library, see {@link NetlibBackend#isNative()}. It
+ * can be disabled with {@code -Dorg.dl.java.math.native=false}, the threshold set with
+ * {@code -Dorg.dl.java.math.native.threshold=<m * n * k>}, and any other backend plugged in with
+ * {@link #setNative(MatrixBackend, long)}.
+ * <p>
+ * The native backend is only loaded by the first product large enough to run on it, so a program whose products all
+ * stay small never loads netlib nor sees its warnings.
+ */
+public final class Backends {
+    /**
+     * The pure Java kernels, {@link Gemm} and {@link Sgemm}
+     */
+    public static final MatrixBackend JAVA = new MatrixBackend() {
+        @Override
+        public String getName() {
+            return "java";
+        }
+
+        @Override
+        public boolean supports(int m, int n, int k, int aRs, int aCs, int bRs, int bCs, int cRs) {
+            return true;
+        }
+
+        @Override
+        public void gemm(int m, int n, int k, double[] a, int aOff, int aRs, int aCs, double[] b, int bOff, int bRs,
+                         int bCs, double[] c, int cOff, int cRs) {
+            Gemm.gemm(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs);
+        }
+
+        @Override
+        public void sgemm(int m, int n, int k, float[] a, int aOff, int aRs, int aCs, float[] b, int bOff, int bRs,
+                          int bCs, float[] c, int cOff, int cRs) {
+            Sgemm.gemm(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs);
+        }
+    };
+    /**
+     * Default smallest m * n * k run natively
+     */
+    private static final long DEFAULT_NATIVE_THRESHOLD = 64L * 64 * 64;
+
+    private static volatile MatrixBackend nativeBackend;
+    /**
+     * Whether nativeBackend has been loaded or set, it may still be null then
+     */
+    private static volatile boolean nativeResolved;
+    private static volatile long nativeThreshold = Long.getLong("org.dl.java.math.native.threshold",
+            DEFAULT_NATIVE_THRESHOLD);
+
+    private Backends() {
+    }
+
+    /**
+     * Use the backend for the products of at least threshold multiply-adds, null to run everything in Java
+     *
+     * @param backend
+     * @param threshold smallest m * n * k run on the backend
+     */
+    public static synchronized void setNative(MatrixBackend backend, long threshold) {
+        nativeBackend = backend;
+        nativeResolved = true;
+        nativeThreshold = threshold;
+    }
+
+    /**
+     * The backend used for large products, null if there is none, loading it if no product needed it yet
+     *
+     * @return
+     */
+    public static MatrixBackend getNative() {
+        if (!nativeResolved) {
+            resolveNative();
+        }
+        return nativeBackend;
+    }
+
+    /**
+     * Smallest m * n * k run on the native backend
+     *
+     * @return
+     */
+    public static long getNativeThreshold() {
+        return nativeThreshold;
+    }
+
+    /**
+     * The backend running an (m, k) * (k, n) product with these strides
+     *
+     * @param m
+     * @param n
+     * @param k
+     * @param aRs
+     * @param aCs
+     * @param bRs
+     * @param bCs
+     * @param cRs
+     * @return
+     */
+    public static MatrixBackend select(int m, int n, int k, int aRs, int aCs, int bRs, int bCs, int cRs) {
+        if ((long) m * n * k < nativeThreshold) {
+            return JAVA;
+        }
+        MatrixBackend large = getNative();
+        return large != null && large.supports(m, n, k, aRs, aCs, bRs, bCs, cRs) ? large : JAVA;
+    }
+
+    /**
+     * C += A * B on the backend selected for the shape, see {@link MatrixBackend#gemm}
+     */
+    static void gemm(int m, int n, int k, double[] a, int aOff, int aRs, int aCs, double[] b, int bOff, int bRs,
+                     int bCs, double[] c, int cOff, int cRs) {
+        select(m, n, k, aRs, aCs, bRs, bCs, cRs).gemm(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs);
+    }
+
+    /**
+     * C += A * B on the backend selected for the shape, see {@link MatrixBackend#sgemm}
+     */
+    static void sgemm(int m, int n, int k, float[] a, int aOff, int aRs, int aCs, float[] b, int bOff, int bRs,
+                      int bCs, float[] c, int cOff, int cRs) {
+        select(m, n, k, aRs, aCs, bRs, bCs, cRs).sgemm(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs);
+    }
+
+    private static synchronized void resolveNative() {
+        if (!nativeResolved) {
+            nativeBackend = loadNative();
+            nativeResolved = true;
+        }
+    }
+
+    private static MatrixBackend loadNative() {
+        if ("false".equalsIgnoreCase(System.getProperty("org.dl.java.math.native"))) {
+            return null;
+        }
+        try {
+            NetlibBackend netlib = new NetlibBackend();
+            return netlib.isNative() ? netlib : null;
+        } catch (LinkageError e) {
+            // netlib is not on the class path
+            return null;
+        }
+    }
+}
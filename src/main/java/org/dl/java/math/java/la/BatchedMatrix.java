@@ -0,0 +1,352 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A batch of equally shaped small dense matrices packed into one array, for the many tiny independent products that
+ * {@link MatrixJava#dot} would handle one call, one allocation and one setup at a time.
+ * <p>
+ * The layout is interleaved: element (i, j) of matrix b lives at index {@code (i * col + j) * count + b}, so the
+ * same element of every matrix of the batch is contiguous.
+ * <p>
+ * Optimization note:
+ * 1. The products loop over the batch innermost: C(i, j) += A(i, p) * B(p, j) is one {@link ElementKernels} SIMD
+ * multiply-add over the whole batch, whatever the size of the matrices, so even 3 x 3 products fill the vector lanes.
+ * 2. The batch is processed in slices of {@link #BLOCK} matrices so the slice of the three operands stays in cache
+ * for the whole product.
+ * 3. Batches above {@link Gemm#PARALLEL_THRESHOLD} multiply-adds split the batch on a {@link ForkJoinPool}, the pool
+ * of the calling task if there is one, the common pool otherwise. Each task owns disjoint matrices of C.
+ * 4. When every matrix of the batch is multiplied by the same left matrix, see {@link #leftMultiply(MatrixJava)},
+ * the interleaved batch is a (k, n * count) row-major matrix and the whole batch is a single {@link Gemm} call.
+ */
+public final class BatchedMatrix {
+    /**
+     * Matrices of the batch processed together by the sequential kernel
+     */
+    static final int BLOCK = 128;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private final double[] data;
+    private final int count;
+    private final int row;
+    private final int col;
+
+    /**
+     * Creating a batch of count all 0 (row, col) matrices
+     *
+     * @param count
+     * @param row
+     * @param col
+     */
+    public BatchedMatrix(int count, int row, int col) {
+        this(count, row, col, new double[checkSize(count, row, col)]);
+    }
+
+    /**
+     * Creating a batch wrapping an array already in the interleaved layout, no copy is made.
+     *
+     * @param count
+     * @param row
+     * @param col
+     * @param data
+     */
+    public BatchedMatrix(int count, int row, int col, double[] data) {
+        int size = checkSize(count, row, col);
+        if (data.length < size) {
+            throw new RuntimeException(
+                    String.format("Array of length %d is too short for %d (%d, %d) matrices", data.length, count,
+                            row, col));
+        }
+        this.data = data;
+        this.count = count;
+        this.row = row;
+        this.col = col;
+    }
+
+    /**
+     * Pack equally shaped matrices into a new batch
+     *
+     * @param matrices
+     * @return
+     */
+    public static BatchedMatrix of(List<MatrixJava> matrices) {
+        if (matrices.isEmpty()) {
+            throw new RuntimeException("Cannot create an empty batch!");
+        }
+        int row = matrices.get(0).getRowCount();
+        int col = matrices.get(0).getColCount();
+        BatchedMatrix ret = new BatchedMatrix(matrices.size(), row, col);
+        for (int b = 0; b < ret.count; b++) {
+            ret.set(b, matrices.get(b));
+        }
+        return ret;
+    }
+
+    /**
+     * Copy matrix b of the batch out
+     *
+     * @param b
+     * @return
+     */
+    public MatrixJava get(int b) {
+        checkIndex(b);
+        MatrixJava ret = new MatrixJava(row, col);
+        double[] out = ret.data();
+        for (int e = 0, size = row * col; e < size; e++) {
+            out[e] = data[e * count + b];
+        }
+        return ret;
+    }
+
+    /**
+     * Overwrite matrix b of the batch with the matrix
+     *
+     * @param b
+     * @param matrix
+     */
+    public void set(int b, MatrixJava matrix) {
+        checkIndex(b);
+        if (matrix.getRowCount() != row || matrix.getColCount() != col) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), in: (%d, %d)", row, col,
+                            matrix.getRowCount(), matrix.getColCount()));
+        }
+        double[] in = matrix.data();
+        for (int i = 0; i < row; i++) {
+            int src = matrix.offset() + i * matrix.stride();
+            for (int j = 0; j < col; j++) {
+                data[(i * col + j) * count + b] = in[src + j];
+            }
+        }
+    }
+
+    /**
+     * Get element (i, j) of matrix b
+     *
+     * @param b
+     * @param i
+     * @param j
+     * @return
+     */
+    public double get(int b, int i, int j) {
+        return data[index(b, i, j)];
+    }
+
+    /**
+     * Set element (i, j) of matrix b
+     *
+     * @param b
+     * @param i
+     * @param j
+     * @param value
+     */
+    public void set(int b, int i, int j, double value) {
+        data[index(b, i, j)] = value;
+    }
+
+    /**
+     * Return the batch of products this[b] * right[b] as a new batch
+     *
+     * @param right
+     * @return
+     */
+    public BatchedMatrix dot(BatchedMatrix right) {
+        return dotAddInto(right, new BatchedMatrix(count, row, right.col));
+    }
+
+    /**
+     * Overwrite dest with the batch of products this[b] * right[b]. dest must not be one of the operands.
+     *
+     * @param right
+     * @param dest
+     * @return dest
+     */
+    public BatchedMatrix dotInto(BatchedMatrix right, BatchedMatrix dest) {
+        checkProduct(right, dest);
+        Arrays.fill(dest.data, 0, count * row * right.col, 0);
+        return dotAddInto(right, dest);
+    }
+
+    /**
+     * Add the batch of products this[b] * right[b] to dest. dest must not be one of the operands.
+     *
+     * @param right
+     * @param dest
+     * @return dest
+     */
+    public BatchedMatrix dotAddInto(BatchedMatrix right, BatchedMatrix dest) {
+        checkProduct(right, dest);
+        long work = (long) count * row * col * right.col;
+        boolean inPool = ForkJoinTask.inForkJoinPool();
+        ForkJoinPool pool = inPool ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+        int parallelism = pool.getParallelism();
+        if (work >= Gemm.PARALLEL_THRESHOLD && parallelism > 1 && count > BLOCK) {
+            int grain = Math.max(BLOCK, count / parallelism);
+            BatchTask task = new BatchTask(this, right, dest, 0, count, grain);
+            if (inPool) {
+                task.invoke();
+            } else {
+                pool.invoke(task);
+            }
+            return dest;
+        }
+
+        multiply(right, dest, 0, count);
+        return dest;
+    }
+
+    /**
+     * Return the batch of products left * this[b], the same left matrix for every matrix of the batch
+     *
+     * @param left
+     * @return
+     */
+    public BatchedMatrix leftMultiply(MatrixJava left) {
+        if (left.getColCount() != row) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), batch: (%d, %d)", left.getRowCount(),
+                            left.getColCount(), row, col));
+        }
+        BatchedMatrix ret = new BatchedMatrix(count, left.getRowCount(), col);
+        // row p of the interleaved batch holds element (p, j) of every matrix, it is a (row, col * count) matrix
+        Backends.gemm(left.getRowCount(), col * count, row, left.data(), left.offset(), left.stride(), 1, data, 0,
+                col * count, 1, ret.data, 0, col * count);
+        return ret;
+    }
+
+    /**
+     * Return the number of matrices
+     *
+     * @return
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Return row count of each matrix
+     *
+     * @return
+     */
+    public int getRowCount() {
+        return row;
+    }
+
+    /**
+     * Return col count of each matrix
+     *
+     * @return
+     */
+    public int getColCount() {
+        return col;
+    }
+
+    /**
+     * The interleaved storage
+     */
+    double[] data() {
+        return data;
+    }
+
+    /**
+     * dest[b] += this[b] * right[b] for from <= b < to, BLOCK matrices at a time
+     */
+    private void multiply(BatchedMatrix right, BatchedMatrix dest, int from, int to) {
+        int n = right.col;
+        double[] a = data;
+        double[] b = right.data;
+        double[] c = dest.data;
+        for (int b0 = from; b0 < to; b0 += BLOCK) {
+            int len = Math.min(BLOCK, to - b0);
+            for (int i = 0; i < row; i++) {
+                for (int j = 0; j < n; j++) {
+                    int ci = (i * n + j) * count + b0;
+                    for (int p = 0; p < col; p++) {
+                        KERNELS.mulAdd(a, (i * col + p) * count + b0, b, (p * n + j) * count + b0, c, ci, len);
+                    }
+                }
+            }
+        }
+    }
+
+    private int index(int b, int i, int j) {
+        checkIndex(b);
+        if (i < 0 || i >= row || j < 0 || j >= col) {
+            throw new RuntimeException(String.format("Index (%d, %d) out of bounds of (%d, %d)", i, j, row, col));
+        }
+        return (i * col + j) * count + b;
+    }
+
+    private void checkIndex(int b) {
+        if (b < 0 || b >= count) {
+            throw new RuntimeException(String.format("Index %d out of bounds of batch of %d", b, count));
+        }
+    }
+
+    private void checkProduct(BatchedMatrix right, BatchedMatrix dest) {
+        if (col != right.row || count != right.count || dest.count != count || dest.row != row
+                || dest.col != right.col) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: %d x (%d, %d), right: %d x (%d, %d), dest: %d x (%d, %d)",
+                            count, row, col, right.count, right.row, right.col, dest.count, dest.row, dest.col));
+        }
+        if (dest.data == data || dest.data == right.data) {
+            throw new RuntimeException("Destination must not share storage with an operand!");
+        }
+    }
+
+    private static int checkSize(int count, int row, int col) {
+        if (count <= 0 || row <= 0 || col <= 0) {
+            throw new RuntimeException("Cannot create 0-dimension matrix!");
+        }
+        try {
+            return Math.multiplyExact(count, Math.multiplyExact(row, col));
+        } catch (ArithmeticException e) {
+            throw new RuntimeException(
+                    String.format("%d (%d, %d) matrices do not fit in one array", count, row, col), e);
+        }
+    }
+
+    /**
+     * Recursively halves the batch until a slice has at most grain matrices, then runs the sequential kernel on it
+     */
+    private static final class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BatchedMatrix left;
+        private final BatchedMatrix right;
+        private final BatchedMatrix dest;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        BatchTask(BatchedMatrix left, BatchedMatrix right, BatchedMatrix dest, int from, int to, int grain) {
+            this.left = left;
+            this.right = right;
+            this.dest = dest;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                left.multiply(right, dest, from, to);
+                return;
+            }
+
+            // keep the split on a block boundary so only the last slice is ragged
+            int middle = from + (to - from) / 2 / BLOCK * BLOCK;
+            if (middle == from) {
+                middle = from + BLOCK;
+            }
+            invokeAll(new BatchTask(left, right, dest, from, middle, grain),
+                    new BatchTask(left, right, dest, middle, to, grain));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Right preconditioned stabilized bi-conjugate gradient (BiCGSTAB), for general square A.
+ * <p>
+ * Optimization note:
+ * Each iteration costs two applications of A and two of M, on eight vectors of n elements whatever the number of
+ * iterations, so unlike {@link GMRES} the memory does not depend on a restart length. Right preconditioning keeps
+ * the tracked residual the one of the original system.
+ */
+public final class BiCGSTAB extends KrylovSolver {
+    /**
+     * Construct an unpreconditioned solver
+     *
+     * @param tolerance     relative residual to reach
+     * @param maxIterations
+     */
+    public BiCGSTAB(double tolerance, int maxIterations) {
+        this(tolerance, maxIterations, Preconditioner.IDENTITY);
+    }
+
+    /**
+     * Construct a preconditioned solver
+     *
+     * @param tolerance      relative residual to reach
+     * @param maxIterations
+     * @param preconditioner
+     */
+    public BiCGSTAB(double tolerance, int maxIterations, Preconditioner preconditioner) {
+        super(tolerance, maxIterations, preconditioner);
+    }
+
+    @Override
+    IterativeResult iterate(LinearOperator a, double[] b, double[] x, double bNorm) {
+        int n = b.length;
+        double[] r = new double[n];
+        residual(a, b, x, r);
+        double residual = norm(r) / bNorm;
+        if (residual <= getTolerance()) {
+            return result(x, 0, residual, true);
+        }
+
+        double[] shadow = r.clone();
+        double[] p = new double[n];
+        double[] v = new double[n];
+        double[] pHat = new double[n];
+        double[] sHat = new double[n];
+        double[] t = new double[n];
+        double rho = 1;
+        double alpha = 1;
+        double omega = 1;
+        for (int iteration = 1; iteration <= getMaxIterations(); iteration++) {
+            double rhoNext = KERNELS.dot(shadow, 0, r, 0, n);
+            if (rhoNext == 0) {
+                return result(x, iteration - 1, residual, false);
+            }
+            // p = r + beta * (p - omega * v)
+            double beta = rhoNext / rho * (alpha / omega);
+            KERNELS.axpy(-omega, v, 0, p, 0, n);
+            KERNELS.scale(p, 0, beta, p, 0, n);
+            KERNELS.add(r, 0, p, 0, p, 0, n);
+            rho = rhoNext;
+
+            getPreconditioner().apply(p, pHat);
+            a.apply(pHat, v);
+            double shadowV = KERNELS.dot(shadow, 0, v, 0, n);
+            if (shadowV == 0) {
+                return result(x, iteration - 1, residual, false);
+            }
+            alpha = rho / shadowV;
+            // r becomes s = r - alpha * v
+            KERNELS.axpy(-alpha, v, 0, r, 0, n);
+            KERNELS.axpy(alpha, pHat, 0, x, 0, n);
+            residual = norm(r) / bNorm;
+            if (residual <= getTolerance()) {
+                return result(x, iteration, residual, true);
+            }
+
+            getPreconditioner().apply(r, sHat);
+            a.apply(sHat, t);
+            double tt = KERNELS.sumOfSquares(t, 0, n);
+            omega = tt == 0 ? 0 : KERNELS.dot(t, 0, r, 0, n) / tt;
+            if (omega == 0) {
+                return result(x, iteration, residual, false);
+            }
+            KERNELS.axpy(omega, sHat, 0, x, 0, n);
+            KERNELS.axpy(-omega, t, 0, r, 0, n);
+            residual = norm(r) / bNorm;
+            if (residual <= getTolerance()) {
+                return result(x, iteration, residual, true);
+            }
+        }
+        return result(x, getMaxIterations(), residual, false);
+    }
+}
@@ -0,0 +1,97 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Right-looking blocked Cholesky decomposition, A = L * L^T, of a symmetric positive definite matrix.
+ * <p>
+ * L overwrites the lower triangle of A and L^T its upper triangle, both share the diagonal, so the result can be used
+ * directly by {@link Trsm#solve} with a non-unit lower triangle.
+ * <p>
+ * Optimization note:
+ * 1. The matrix is processed in blocks of {@link #NB} columns. Only the diagonal block and the panel below it are
+ * factorized with dot products, O(n * NB^2) work in total.
+ * 2. The trailing update A22 -= A21 * A21^T carries almost all of the n^3 / 3 work. It runs through {@link Gemm},
+ * reading A21^T through strides without a copy, and split across the cores of the pool. As A22 is symmetric only its
+ * lower block columns are updated, which halves the work compared to a general product.
+ */
+final class BlockedCholesky {
+    /**
+     * Block width
+     */
+    static final int NB = 128;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private BlockedCholesky() {
+    }
+
+    /**
+     * Factorize the (n, n) matrix A in place. Only the lower triangle of A is read.
+     *
+     * @param n
+     * @param a   storage of A
+     * @param off offset of A(0, 0)
+     * @param rs  distance between A(i, j) and A(i + 1, j)
+     */
+    static void factor(int n, double[] a, int off, int rs) {
+        double[] negated = new double[n * Math.min(NB, n)];
+
+        for (int k = 0; k < n; k += NB) {
+            int nb = Math.min(NB, n - k);
+            int rows = n - k - nb;
+            factorDiagonal(k, nb, a, off, rs);
+
+            // A21 = A21 * L11^-T, row by row
+            for (int i = k + nb; i < n; i++) {
+                int ri = off + i * rs + k;
+                for (int j = 0; j < nb; j++) {
+                    int rj = off + (k + j) * rs + k;
+                    a[ri + j] = (a[ri + j] - KERNELS.dot(a, ri, a, rj, j)) / a[rj + j];
+                }
+            }
+
+            if (rows == 0) {
+                continue;
+            }
+
+            // A22 -= A21 * A21^T on the lower block columns, with A21 negated into a compact copy as Gemm only
+            // accumulates
+            for (int i = 0; i < rows; i++) {
+                KERNELS.scale(a, off + (k + nb + i) * rs + k, -1, negated, i * nb, nb);
+            }
+            for (int j = 0; j < rows; j += NB) {
+                int cols = Math.min(NB, rows - j);
+                int a21 = off + (k + nb + j) * rs + k;
+                Gemm.gemm(rows - j, cols, nb, negated, j * nb, nb, 1, a, a21, 1, rs, a, a21 + nb + j, rs);
+            }
+        }
+
+        // mirror L into the upper triangle
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < i; j++) {
+                a[off + j * rs + i] = a[off + i * rs + j];
+            }
+        }
+    }
+
+    /**
+     * Unblocked factorization of the (nb, nb) diagonal block starting at A(k, k)
+     */
+    private static void factorDiagonal(int k, int nb, double[] a, int off, int rs) {
+        for (int j = 0; j < nb; j++) {
+            int rj = off + (k + j) * rs + k;
+            double diagonal = a[rj + j] - KERNELS.sumOfSquares(a, rj, j);
+            // also catches NaN
+            if (!(diagonal > 0)) {
+                throw new RuntimeException(
+                        String.format("Matrix is not positive definite! Non-positive pivot %g at row %d", diagonal,
+                                k + j));
+            }
+            double ljj = Math.sqrt(diagonal);
+            a[rj + j] = ljj;
+
+            for (int i = j + 1; i < nb; i++) {
+                int ri = off + (k + i) * rs + k;
+                a[ri + j] = (a[ri + j] - KERNELS.dot(a, ri, a, rj, j)) / ljj;
+            }
+        }
+    }
+}
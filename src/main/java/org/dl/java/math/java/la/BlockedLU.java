@@ -0,0 +1,153 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Right-looking blocked LU decomposition with partial pivoting, P * A = L * U.
+ * <p>
+ * The factors overwrite A: U is stored on and above the diagonal, L below it with its unit diagonal implied. The
+ * pivots follow the LAPACK convention, row i was swapped with row pivots[i] at step i.
+ * <p>
+ * Optimization note:
+ * 1. The matrix is processed in panels of {@link #NB} columns. A panel is factorized recursively, halving its width
+ * until {@link #LEAF} columns are left for the unblocked algorithm, so the panel work also runs mostly as products.
+ * 2. The rows right of the panel are updated with a {@link Trsm} triangular solve, and the trailing submatrix with a
+ * single product A22 -= A21 * A12, which carries almost all of the O(n^3) work. That product goes through
+ * {@link Gemm}, so it is cache-blocked, uses the SIMD micro-kernel and is split across the cores of the pool.
+ * 3. Rows are stored contiguously, so a pivot swap exchanges two whole rows at once, the already factorized part on
+ * the left included.
+ */
+final class BlockedLU {
+    /**
+     * Panel width
+     */
+    static final int NB = 128;
+    /**
+     * Panel width below which the panel is factorized column by column
+     */
+    private static final int LEAF = 8;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private BlockedLU() {
+    }
+
+    /**
+     * Factorize the (n, n) matrix A in place
+     *
+     * @param n
+     * @param a   storage of A
+     * @param off offset of A(0, 0)
+     * @param rs  distance between A(i, j) and A(i + 1, j)
+     * @return the pivots
+     */
+    static int[] factor(int n, double[] a, int off, int rs) {
+        int[] pivots = new int[n];
+        double[] negated = new double[n * Math.min(NB, n)];
+
+        for (int k = 0; k < n; k += NB) {
+            int nb = Math.min(NB, n - k);
+            factorPanel(n, n, k, nb, a, off, rs, pivots, negated);
+            update(n, k, nb, n - k - nb, a, off, rs, negated);
+        }
+
+        return pivots;
+    }
+
+    /**
+     * Factorize the tall (m, nb) matrix A in place, m >= nb, as a single panel: P * A = L * U with L (m, nb) unit
+     * lower trapezoidal and U (nb, nb) upper triangular
+     *
+     * @param m
+     * @param nb
+     * @param a       storage of A
+     * @param off     offset of A(0, 0)
+     * @param rs      distance between A(i, j) and A(i + 1, j)
+     * @param scratch at least m * nb elements, reused across the panels of a factorization
+     * @return the pivots of the nb columns
+     */
+    static int[] factorPanel(int m, int nb, double[] a, int off, int rs, double[] scratch) {
+        int[] pivots = new int[nb];
+        factorPanel(m, nb, 0, nb, a, off, rs, pivots, scratch);
+        return pivots;
+    }
+
+    /**
+     * Factorize the (n - k, nb) panel starting at A(k, k) of a matrix with n rows of rowLength elements. The panel is
+     * split in two halves recursively, so most of its work also goes through {@link #update}.
+     */
+    private static void factorPanel(int n, int rowLength, int k, int nb, double[] a, int off, int rs, int[] pivots,
+                                    double[] negated) {
+        if (nb <= LEAF) {
+            factorLeaf(n, rowLength, k, nb, a, off, rs, pivots);
+            return;
+        }
+
+        int left = nb / 2;
+        factorPanel(n, rowLength, k, left, a, off, rs, pivots, negated);
+        update(n, k, left, nb - left, a, off, rs, negated);
+        factorPanel(n, rowLength, k + left, nb - left, a, off, rs, pivots, negated);
+    }
+
+    /**
+     * Given the factorized columns [k, k + nb), update the next cols columns: A12 = L11^-1 * A12 and
+     * A22 -= A21 * A12
+     */
+    private static void update(int n, int k, int nb, int cols, double[] a, int off, int rs, double[] negated) {
+        if (cols == 0) {
+            return;
+        }
+
+        int a12 = off + k * rs + k + nb;
+        Trsm.lower(nb, cols, true, a, off + k * rs + k, rs, a, a12, rs);
+
+        // A21 is negated into a compact copy as Gemm only accumulates
+        int rows = n - k - nb;
+        for (int i = 0; i < rows; i++) {
+            KERNELS.scale(a, off + (k + nb + i) * rs + k, -1, negated, i * nb, nb);
+        }
+        Gemm.gemm(rows, cols, nb, negated, 0, nb, 1, a, a12, rs, 1, a, a12 + nb * rs, rs);
+    }
+
+    /**
+     * Unblocked factorization of the (n - k, nb) panel starting at A(k, k), pivot swaps exchange whole rows of
+     * rowLength elements
+     */
+    private static void factorLeaf(int n, int rowLength, int k, int nb, double[] a, int off, int rs, int[] pivots) {
+        for (int j = k; j < k + nb; j++) {
+            int pivot = j;
+            double max = Math.abs(a[off + j * rs + j]);
+            for (int i = j + 1; i < n; i++) {
+                double value = Math.abs(a[off + i * rs + j]);
+                if (value > max) {
+                    max = value;
+                    pivot = i;
+                }
+            }
+            pivots[j] = pivot;
+            if (pivot != j) {
+                swapRows(rowLength, a, off + j * rs, off + pivot * rs);
+            }
+
+            int rj = off + j * rs;
+            double diagonal = a[rj + j];
+            if (diagonal == 0) {
+                // singular, the column below is already zero
+                continue;
+            }
+
+            int width = k + nb - j - 1;
+            for (int i = j + 1; i < n; i++) {
+                int ri = off + i * rs;
+                double lij = a[ri + j] / diagonal;
+                a[ri + j] = lij;
+                KERNELS.axpy(-lij, a, rj + j + 1, a, ri + j + 1, width);
+            }
+        }
+    }
+
+    private static void swapRows(int n, double[] a, int r1, int r2) {
+        for (int j = 0; j < n; j++) {
+            double tmp = a[r1 + j];
+            a[r1 + j] = a[r2 + j];
+            a[r2 + j] = tmp;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Sparse matrix in compressed sparse column (CSC) format.
+ * <p>
+ * Column j holds the values values[e] at row rowIndices[e] for e in [columnPointers[j], columnPointers[j + 1]).
+ * Only these entries are stored and multiplied, all other elements are zero. The arrays are not copied and must not
+ * be modified afterwards.
+ * <p>
+ * A sparse column vector is a CSC matrix with one column, so {@link MatrixJava#dot(CSCMatrix)} is the dense
+ * matrix-sparse vector product. The CSC storage of A is also the {@link CSRMatrix} storage of A^T, so
+ * {@link #transpose()} costs nothing.
+ */
+public final class CSCMatrix {
+    private final int row;
+    private final int col;
+    private final int[] columnPointers;
+    private final int[] rowIndices;
+    private final double[] values;
+
+    /**
+     * Creating a {@link CSCMatrix} wrapping the compressed arrays, no copy is made.
+     *
+     * @param row
+     * @param col
+     * @param columnPointers col + 1 non-decreasing offsets into the entries, starting at 0
+     * @param rowIndices     row of each entry
+     * @param values         value of each entry
+     */
+    public CSCMatrix(int row, int col, int[] columnPointers, int[] rowIndices, double[] values) {
+        SparseKernels.checkStorage(col, row, columnPointers, rowIndices, values);
+        this.row = row;
+        this.col = col;
+        this.columnPointers = columnPointers;
+        this.rowIndices = rowIndices;
+        this.values = values;
+    }
+
+    /**
+     * Compress the non zero elements of a dense matrix
+     *
+     * @param dense
+     * @return
+     */
+    public static CSCMatrix of(MatrixJava dense) {
+        int row = dense.getRowCount();
+        int col = dense.getColCount();
+        double[] data = dense.data();
+        int offset = dense.offset();
+        int stride = dense.stride();
+        int[] pointers = new int[col + 1];
+        for (int j = 0; j < col; j++) {
+            int count = 0;
+            for (int i = 0; i < row; i++) {
+                if (data[offset + i * stride + j] != 0) {
+                    count++;
+                }
+            }
+            pointers[j + 1] = pointers[j] + count;
+        }
+
+        int[] indices = new int[pointers[col]];
+        double[] values = new double[pointers[col]];
+        int e = 0;
+        for (int j = 0; j < col; j++) {
+            for (int i = 0; i < row; i++) {
+                double value = data[offset + i * stride + j];
+                if (value != 0) {
+                    indices[e] = i;
+                    values[e++] = value;
+                }
+            }
+        }
+
+        return new CSCMatrix(row, col, pointers, indices, values);
+    }
+
+    /**
+     * Return the product of this matrix and the dense right matrix
+     *
+     * @param right
+     * @return
+     */
+    public MatrixJava dot(MatrixJava right) {
+        if (col != right.getRowCount()) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d)", row, col,
+                            right.getRowCount(), right.getColCount()));
+        }
+
+        int n = right.getColCount();
+        MatrixJava ret = new MatrixJava(row, n);
+        SparseKernels.scatter(col, columnPointers, rowIndices, values, n, right.data(), right.offset(),
+                right.stride(), ret.data(), 0, n);
+        return ret;
+    }
+
+    /**
+     * Return the product of the transpose of this matrix and the dense right matrix, this^T . right, without
+     * transposing either
+     *
+     * @param right
+     * @return
+     */
+    public MatrixJava dotTransposeLeft(MatrixJava right) {
+        if (row != right.getRowCount()) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d)", col, row,
+                            right.getRowCount(), right.getColCount()));
+        }
+
+        int n = right.getColCount();
+        MatrixJava ret = new MatrixJava(col, n);
+        SparseKernels.gather(col, columnPointers, rowIndices, values, n, right.data(), right.offset(),
+                right.stride(), ret.data(), 0, n);
+        return ret;
+    }
+
+    /**
+     * Returns the transpose sharing the storage of this matrix
+     *
+     * @return
+     */
+    public CSRMatrix transpose() {
+        return new CSRMatrix(col, row, columnPointers, rowIndices, values);
+    }
+
+    /**
+     * Returns a dense copy
+     *
+     * @return
+     */
+    public MatrixJava toDense() {
+        MatrixJava ret = new MatrixJava(row, col);
+        for (int j = 0; j < col; j++) {
+            for (int e = columnPointers[j]; e < columnPointers[j + 1]; e++) {
+                ret.set(rowIndices[e], j, values[e]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Return the number of stored entries
+     *
+     * @return
+     */
+    public int getNonZeroCount() {
+        return columnPointers[col];
+    }
+
+    /**
+     * Return row count
+     *
+     * @return
+     */
+    public int getRowCount() {
+        return row;
+    }
+
+    /**
+     * Return col count
+     *
+     * @return
+     */
+    public int getColCount() {
+        return col;
+    }
+
+    /**
+     * Column pointers, for kernels of this package
+     *
+     * @return
+     */
+    int[] columnPointers() {
+        return columnPointers;
+    }
+
+    /**
+     * Row of each entry, for kernels of this package
+     *
+     * @return
+     */
+    int[] rowIndices() {
+        return rowIndices;
+    }
+
+    /**
+     * Value of each entry, for kernels of this package
+     *
+     * @return
+     */
+    double[] values() {
+        return values;
+    }
+}
@@ -0,0 +1,197 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Sparse matrix in compressed sparse row (CSR) format.
+ * <p>
+ * Row i holds the values values[e] at column columnIndices[e] for e in [rowPointers[i], rowPointers[i + 1]). Only
+ * these entries are stored and multiplied, all other elements are zero. The arrays are not copied and must not be
+ * modified afterwards.
+ * <p>
+ * The CSR storage of A is also the {@link CSCMatrix} storage of A^T, so {@link #transpose()} costs nothing. Products
+ * with a {@link MatrixJava} are available as {@link #dot(MatrixJava)}, {@link #dotTransposeLeft(MatrixJava)} and
+ * {@link MatrixJava#dot(CSRMatrix)}, see {@link SparseKernels}.
+ */
+public final class CSRMatrix {
+    private final int row;
+    private final int col;
+    private final int[] rowPointers;
+    private final int[] columnIndices;
+    private final double[] values;
+
+    /**
+     * Creating a {@link CSRMatrix} wrapping the compressed arrays, no copy is made.
+     *
+     * @param row
+     * @param col
+     * @param rowPointers   row + 1 non-decreasing offsets into the entries, starting at 0
+     * @param columnIndices column of each entry
+     * @param values        value of each entry
+     */
+    public CSRMatrix(int row, int col, int[] rowPointers, int[] columnIndices, double[] values) {
+        SparseKernels.checkStorage(row, col, rowPointers, columnIndices, values);
+        this.row = row;
+        this.col = col;
+        this.rowPointers = rowPointers;
+        this.columnIndices = columnIndices;
+        this.values = values;
+    }
+
+    /**
+     * Compress the non zero elements of a dense matrix
+     *
+     * @param dense
+     * @return
+     */
+    public static CSRMatrix of(MatrixJava dense) {
+        int row = dense.getRowCount();
+        int col = dense.getColCount();
+        double[] data = dense.data();
+        int offset = dense.offset();
+        int stride = dense.stride();
+        int[] pointers = new int[row + 1];
+        for (int i = 0; i < row; i++) {
+            int count = 0;
+            for (int j = 0; j < col; j++) {
+                if (data[offset + i * stride + j] != 0) {
+                    count++;
+                }
+            }
+            pointers[i + 1] = pointers[i] + count;
+        }
+
+        int[] indices = new int[pointers[row]];
+        double[] values = new double[pointers[row]];
+        int e = 0;
+        for (int i = 0; i < row; i++) {
+            for (int j = 0; j < col; j++) {
+                double value = data[offset + i * stride + j];
+                if (value != 0) {
+                    indices[e] = j;
+                    values[e++] = value;
+                }
+            }
+        }
+
+        return new CSRMatrix(row, col, pointers, indices, values);
+    }
+
+    /**
+     * Return the product of this matrix and the dense right matrix, sparse matrix-vector product when right is a
+     * column vector
+     *
+     * @param right
+     * @return
+     */
+    public MatrixJava dot(MatrixJava right) {
+        if (col != right.getRowCount()) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d)", row, col,
+                            right.getRowCount(), right.getColCount()));
+        }
+
+        int n = right.getColCount();
+        MatrixJava ret = new MatrixJava(row, n);
+        SparseKernels.gather(row, rowPointers, columnIndices, values, n, right.data(), right.offset(),
+                right.stride(), ret.data(), 0, n);
+        return ret;
+    }
+
+    /**
+     * Return the product of the transpose of this matrix and the dense right matrix, this^T . right, without
+     * transposing either
+     *
+     * @param right
+     * @return
+     */
+    public MatrixJava dotTransposeLeft(MatrixJava right) {
+        if (row != right.getRowCount()) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d)", col, row,
+                            right.getRowCount(), right.getColCount()));
+        }
+
+        int n = right.getColCount();
+        MatrixJava ret = new MatrixJava(col, n);
+        SparseKernels.scatter(row, rowPointers, columnIndices, values, n, right.data(), right.offset(),
+                right.stride(), ret.data(), 0, n);
+        return ret;
+    }
+
+    /**
+     * Returns the transpose sharing the storage of this matrix
+     *
+     * @return
+     */
+    public CSCMatrix transpose() {
+        return new CSCMatrix(col, row, rowPointers, columnIndices, values);
+    }
+
+    /**
+     * Returns a dense copy
+     *
+     * @return
+     */
+    public MatrixJava toDense() {
+        MatrixJava ret = new MatrixJava(row, col);
+        for (int i = 0; i < row; i++) {
+            for (int e = rowPointers[i]; e < rowPointers[i + 1]; e++) {
+                ret.set(i, columnIndices[e], values[e]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Return the number of stored entries
+     *
+     * @return
+     */
+    public int getNonZeroCount() {
+        return rowPointers[row];
+    }
+
+    /**
+     * Return row count
+     *
+     * @return
+     */
+    public int getRowCount() {
+        return row;
+    }
+
+    /**
+     * Return col count
+     *
+     * @return
+     */
+    public int getColCount() {
+        return col;
+    }
+
+    /**
+     * Row pointers, for kernels of this package
+     *
+     * @return
+     */
+    int[] rowPointers() {
+        return rowPointers;
+    }
+
+    /**
+     * Column of each entry, for kernels of this package
+     *
+     * @return
+     */
+    int[] columnIndices() {
+        return columnIndices;
+    }
+
+    /**
+     * Value of each entry, for kernels of this package
+     *
+     * @return
+     */
+    double[] values() {
+        return values;
+    }
+}
@@ -0,0 +1,87 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Data class representing a Cholesky decomposition of a symmetric positive definite matrix, A = L * L^T
+ * <p>
+ * L and L^T are stored packed in one matrix sharing the diagonal, {@link #l()} materializes L on demand.
+ */
+public class CholeskyDecomposition {
+    private final MatrixJava packed;
+    private MatrixJava l;
+
+    /**
+     * Construct a Cholesky decomposition from the packed factors
+     *
+     * @param packed
+     */
+    CholeskyDecomposition(MatrixJava packed) {
+        this.packed = packed;
+    }
+
+    /**
+     * Get the L matrix
+     *
+     * @return
+     */
+    public MatrixJava l() {
+        if (l == null) {
+            int n = packed.getRowCount();
+            l = new MatrixJava(n, n);
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j <= i; j++) {
+                    l.set(i, j, packed.get(i, j));
+                }
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Solve AX = B, b can have any number of columns
+     *
+     * @param b
+     * @return
+     */
+    public MatrixJava solve(MatrixJava b) {
+        int n = packed.getRowCount();
+        if (b.getRowCount() != n) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), b: (%d, %d)", n, n, b.getRowCount(),
+                            b.getColCount()));
+        }
+
+        return solveInPlace(b.replicate());
+    }
+
+    /**
+     * Return the inverse of the decomposed matrix
+     *
+     * @return
+     */
+    public MatrixJava inverse() {
+        return solveInPlace(MatrixJava.identity(packed.getRowCount()));
+    }
+
+    /**
+     * Return the determinant of the decomposed matrix
+     *
+     * @return
+     */
+    public double determinant() {
+        double det = 1;
+        for (int i = 0; i < packed.getRowCount(); i++) {
+            double lii = packed.get(i, i);
+            det *= lii * lii;
+        }
+        return det;
+    }
+
+    /**
+     * Overwrite the compact matrix x with A^-1 * x
+     */
+    private MatrixJava solveInPlace(MatrixJava x) {
+        int n = packed.getRowCount();
+        Trsm.solve(n, x.getColCount(), false, packed.data(), 0, n, x.data(), 0, x.getColCount());
+        return x;
+    }
+}
@@ -0,0 +1,72 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Preconditioned conjugate gradient, for symmetric positive definite A and M.
+ * <p>
+ * Optimization note:
+ * Each iteration costs one application of A and one of M, two inner products and three vector updates, on four
+ * vectors of n elements. It is the cheapest Krylov method per iteration, but breaks down (and stops unconverged) on
+ * a matrix that is not positive definite, use {@link BiCGSTAB} or {@link GMRES} then.
+ */
+public final class ConjugateGradient extends KrylovSolver {
+    /**
+     * Construct an unpreconditioned solver
+     *
+     * @param tolerance     relative residual to reach
+     * @param maxIterations
+     */
+    public ConjugateGradient(double tolerance, int maxIterations) {
+        this(tolerance, maxIterations, Preconditioner.IDENTITY);
+    }
+
+    /**
+     * Construct a preconditioned solver
+     *
+     * @param tolerance      relative residual to reach
+     * @param maxIterations
+     * @param preconditioner must be symmetric positive definite
+     */
+    public ConjugateGradient(double tolerance, int maxIterations, Preconditioner preconditioner) {
+        super(tolerance, maxIterations, preconditioner);
+    }
+
+    @Override
+    IterativeResult iterate(LinearOperator a, double[] b, double[] x, double bNorm) {
+        int n = b.length;
+        double[] r = new double[n];
+        double[] z = new double[n];
+        double[] p = new double[n];
+        double[] ap = new double[n];
+        residual(a, b, x, r);
+        double residual = norm(r) / bNorm;
+        if (residual <= getTolerance()) {
+            return result(x, 0, residual, true);
+        }
+
+        getPreconditioner().apply(r, z);
+        System.arraycopy(z, 0, p, 0, n);
+        double rz = KERNELS.dot(r, 0, z, 0, n);
+        for (int iteration = 1; iteration <= getMaxIterations(); iteration++) {
+            a.apply(p, ap);
+            double pap = KERNELS.dot(p, 0, ap, 0, n);
+            if (pap <= 0) {
+                return result(x, iteration - 1, residual, false);
+            }
+            double alpha = rz / pap;
+            KERNELS.axpy(alpha, p, 0, x, 0, n);
+            KERNELS.axpy(-alpha, ap, 0, r, 0, n);
+            residual = norm(r) / bNorm;
+            if (residual <= getTolerance()) {
+                return result(x, iteration, residual, true);
+            }
+
+            getPreconditioner().apply(r, z);
+            double rzNext = KERNELS.dot(r, 0, z, 0, n);
+            // p = z + beta * p
+            KERNELS.scale(p, 0, rzNext / rz, p, 0, n);
+            KERNELS.add(z, 0, p, 0, p, 0, n);
+            rz = rzNext;
+        }
+        return result(x, getMaxIterations(), residual, false);
+    }
+}
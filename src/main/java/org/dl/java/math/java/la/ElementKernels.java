@@ -0,0 +1,136 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Kernels working on contiguous runs of doubles, used by {@link MatrixJava} for element-wise operations and
+ * reductions and by {@link Gemm} for its inner loops.
+ * <p>
+ * There are two implementations: {@link VectorKernels} built on the {@code jdk.incubator.vector} API and
+ * {@link ScalarKernels} with plain loops. The vector one is picked at startup when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}, unless {@code -Dorg.dl.java.math.simd=false} is set, otherwise the
+ * scalar one is used.
+ */
+interface ElementKernels {
+    /**
+     * The kernels selected for this JVM
+     */
+    ElementKernels INSTANCE = load();
+
+    /**
+     * r = a + b
+     */
+    void add(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len);
+
+    /**
+     * r = a - b
+     */
+    void sub(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len);
+
+    /**
+     * r = a * b, element-wise
+     */
+    void mul(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len);
+
+    /**
+     * r = a * b + r, element-wise
+     */
+    void mulAdd(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len);
+
+    /**
+     * r = a * scalar
+     */
+    void scale(double[] a, int ai, double scalar, double[] r, int ri, int len);
+
+    /**
+     * r = a + scalar
+     */
+    void shift(double[] a, int ai, double scalar, double[] r, int ri, int len);
+
+    /**
+     * y = alpha * x + y
+     */
+    void axpy(double alpha, double[] x, int xi, double[] y, int yi, int len);
+
+    /**
+     * Sum of x * y
+     */
+    double dot(double[] x, int xi, double[] y, int yi, int len);
+
+    /**
+     * Sum of a * a
+     */
+    double sumOfSquares(double[] a, int ai, int len);
+
+    /**
+     * The {@link Gemm} micro-kernel: multiply an MR x kc packed panel of A by a kc x NR packed panel of B and add
+     * the whole MR x NR tile to C. Edge tiles are handled by the caller, so this stays a single straight-line path.
+     */
+    void microKernel(int kc, double[] pa, int ia, double[] pb, int ib, double[] c, int cOff, int cRs);
+
+    /**
+     * r = a + b, single precision
+     */
+    void add(float[] a, int ai, float[] b, int bi, float[] r, int ri, int len);
+
+    /**
+     * r = a - b, single precision
+     */
+    void sub(float[] a, int ai, float[] b, int bi, float[] r, int ri, int len);
+
+    /**
+     * r = a * b, element-wise, single precision
+     */
+    void mul(float[] a, int ai, float[] b, int bi, float[] r, int ri, int len);
+
+    /**
+     * r = a * scalar, single precision
+     */
+    void scale(float[] a, int ai, float scalar, float[] r, int ri, int len);
+
+    /**
+     * r = a + scalar, single precision
+     */
+    void shift(float[] a, int ai, float scalar, float[] r, int ri, int len);
+
+    /**
+     * y = alpha * x + y, single precision
+     */
+    void axpy(float alpha, float[] x, int xi, float[] y, int yi, int len);
+
+    /**
+     * Sum of x * y, single precision
+     */
+    float dot(float[] x, int xi, float[] y, int yi, int len);
+
+    /**
+     * Sum of a * a, accumulated in double precision
+     */
+    double sumOfSquares(float[] a, int ai, int len);
+
+    /**
+     * The {@link Sgemm} micro-kernel, same as the double one with a {@link Sgemm#MR} x {@link Sgemm#NR} tile
+     */
+    void microKernel(int kc, float[] pa, int ia, float[] pb, int ib, float[] c, int cOff, int cRs);
+
+    /**
+     * Pick the vector kernels if the incubator module is present and not disabled, the scalar ones otherwise
+     *
+     * @return
+     */
+    private static ElementKernels load() {
+        boolean enabled = !"false".equalsIgnoreCase(System.getProperty("org.dl.java.math.simd"));
+        if (enabled && ModuleLayer.boot()
+                                  .findModule("jdk.incubator.vector")
+                                  .isPresent()) {
+            try {
+                // loaded reflectively so this class never links against the incubator module when it is absent
+                return (ElementKernels) Class.forName("org.dl.java.math.java.la.VectorKernels")
+                                             .getDeclaredConstructor()
+                                             .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall through to the scalar kernels
+            }
+        }
+
+        return new ScalarKernels();
+    }
+}
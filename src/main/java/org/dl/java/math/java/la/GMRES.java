@@ -0,0 +1,162 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+
+/**
+ * Right preconditioned restarted GMRES(m), for general square A.
+ * <p>
+ * Each cycle builds an orthonormal basis of up to m Krylov vectors by modified Gram-Schmidt and picks the x of the
+ * basis minimizing the residual, through Givens rotations of the small Hessenberg matrix. The residual never grows,
+ * which makes it the most robust of the three methods.
+ * <p>
+ * Optimization note:
+ * 1. The basis is stored as the rows of one (m + 1, n) array, so the Gram-Schmidt inner products and updates are
+ * {@link ElementKernels} SIMD loops over contiguous rows. The memory is (m + 1) * n values on top of the operator,
+ * the restart length trades that memory against convergence.
+ * 2. The residual norm of each step comes out of the rotations for free, x is only formed at the end of a cycle,
+ * with one application of M.
+ */
+public final class GMRES extends KrylovSolver {
+    /**
+     * Krylov vectors per cycle of {@link #GMRES(double, int)}
+     */
+    public static final int DEFAULT_RESTART = 30;
+
+    private final int restart;
+
+    /**
+     * Construct an unpreconditioned solver restarting every {@link #DEFAULT_RESTART} iterations
+     *
+     * @param tolerance     relative residual to reach
+     * @param maxIterations
+     */
+    public GMRES(double tolerance, int maxIterations) {
+        this(tolerance, maxIterations, DEFAULT_RESTART, Preconditioner.IDENTITY);
+    }
+
+    /**
+     * Construct a preconditioned solver
+     *
+     * @param tolerance      relative residual to reach
+     * @param maxIterations  in total over all cycles
+     * @param restart        Krylov vectors per cycle
+     * @param preconditioner
+     */
+    public GMRES(double tolerance, int maxIterations, int restart, Preconditioner preconditioner) {
+        super(tolerance, maxIterations, preconditioner);
+        if (restart <= 0) {
+            throw new RuntimeException(String.format("Restart must be positive: %d", restart));
+        }
+        this.restart = restart;
+    }
+
+    @Override
+    IterativeResult iterate(LinearOperator a, double[] b, double[] x, double bNorm) {
+        int n = b.length;
+        int m = Math.min(restart, n);
+        double[] basis = new double[(m + 1) * n];
+        double[] v = new double[n];
+        double[] w = new double[n];
+        double[] z = new double[n];
+        // column j of the Hessenberg matrix is h[j * (m + 1) ...]
+        double[] h = new double[m * (m + 1)];
+        double[] cos = new double[m];
+        double[] sin = new double[m];
+        double[] g = new double[m + 1];
+
+        int iteration = 0;
+        double residual;
+        while (true) {
+            residual(a, b, x, w);
+            double beta = norm(w);
+            residual = beta / bNorm;
+            if (residual <= getTolerance() || iteration >= getMaxIterations()) {
+                return result(x, iteration, residual, residual <= getTolerance());
+            }
+
+            KERNELS.scale(w, 0, 1 / beta, basis, 0, n);
+            Arrays.fill(g, 0);
+            g[0] = beta;
+            int j = 0;
+            boolean breakdown = false;
+            while (j < m && iteration < getMaxIterations()) {
+                System.arraycopy(basis, j * n, v, 0, n);
+                getPreconditioner().apply(v, z);
+                a.apply(z, w);
+                int hj = j * (m + 1);
+                for (int i = 0; i <= j; i++) {
+                    double hij = KERNELS.dot(w, 0, basis, i * n, n);
+                    h[hj + i] = hij;
+                    KERNELS.axpy(-hij, basis, i * n, w, 0, n);
+                }
+                double next = norm(w);
+                h[hj + j + 1] = next;
+                if (next != 0) {
+                    KERNELS.scale(w, 0, 1 / next, basis, (j + 1) * n, n);
+                }
+
+                // apply the previous rotations to the new column, then zero its sub-diagonal element
+                for (int i = 0; i < j; i++) {
+                    double top = h[hj + i];
+                    double bottom = h[hj + i + 1];
+                    h[hj + i] = cos[i] * top + sin[i] * bottom;
+                    h[hj + i + 1] = -sin[i] * top + cos[i] * bottom;
+                }
+                double radius = Math.hypot(h[hj + j], h[hj + j + 1]);
+                if (radius == 0) {
+                    // A * M^-1 * v_j is in the span of the previous vectors, H is singular and the new column adds
+                    // nothing, solve with the previous ones
+                    iteration++;
+                    breakdown = true;
+                    break;
+                }
+                cos[j] = h[hj + j] / radius;
+                sin[j] = h[hj + j + 1] / radius;
+                h[hj + j] = radius;
+                h[hj + j + 1] = 0;
+                g[j + 1] = -sin[j] * g[j];
+                g[j] = cos[j] * g[j];
+
+                j++;
+                iteration++;
+                residual = Math.abs(g[j]) / bNorm;
+                if (residual <= getTolerance() || next == 0) {
+                    breakdown = next == 0;
+                    break;
+                }
+            }
+
+            // H * y = g by back substitution, then x += M^-1 * (V * y)
+            double[] y = new double[j];
+            for (int i = j - 1; i >= 0; i--) {
+                double sum = g[i];
+                for (int k = i + 1; k < j; k++) {
+                    sum -= h[k * (m + 1) + i] * y[k];
+                }
+                y[i] = sum / h[i * (m + 1) + i];
+            }
+            Arrays.fill(w, 0);
+            for (int i = 0; i < j; i++) {
+                KERNELS.axpy(y[i], basis, i * n, w, 0, n);
+            }
+            getPreconditioner().apply(w, z);
+            KERNELS.axpy(1, z, 0, x, 0, n);
+            if (breakdown) {
+                // the Krylov space is invariant, x is exact up to rounding unless A is singular, then a restart
+                // would only build the same space again
+                residual(a, b, x, w);
+                residual = norm(w) / bNorm;
+                return result(x, iteration, residual, residual <= getTolerance());
+            }
+        }
+    }
+
+    /**
+     * Return the Krylov vectors per cycle
+     *
+     * @return
+     */
+    public int getRestart() {
+        return restart;
+    }
+}
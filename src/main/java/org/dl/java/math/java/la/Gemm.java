@@ -0,0 +1,247 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+
+/**
+ * Cache-blocked general matrix multiplication kernel, C += A * B.
+ * <p>
+ * Every operand is described by an array, an offset, a row stride and a column stride, so transposed operands can
+ * be read without copying. The result C is always row-major with unit column stride.
+ * <p>
+ * Optimization note:
+ * 1. The k dimension is split into KC-deep slices, A into MC-row blocks and B into NC-column blocks, so the packed A
+ * block stays in L2 and the packed B block in L3 while it is reused.
+ * 2. A and B are packed into MR-row and NR-column micro-panels stored contiguously in the order the micro-kernel
+ * reads them, edges are padded with 0.
+ * 3. The micro-kernel keeps an MR x NR accumulator tile in local variables (registers) for the whole KC loop and
+ * only touches C once per tile. The micro-kernel and the inner loops of small products come from
+ * {@link ElementKernels}, so they use SIMD instructions when the vector API is available.
+ * 4. The micro-kernel always adds a whole MR x NR tile and has no edge branch: once a ragged product ran through
+ * such a branch the JIT recompiled the kernel without vector intrinsics, and every later product was about 10 times
+ * slower. The ragged tiles on the right and bottom edges of C go through a scratch tile instead, see
+ * {@link #edgeTile}.
+ * 5. Products above {@link #PARALLEL_THRESHOLD} split C into 2-d tiles run on a fork/join pool, see
+ * {@link GemmPartition}.
+ */
+final class Gemm {
+    /**
+     * Rows of the register tile
+     */
+    static final int MR = 4;
+    /**
+     * Columns of the register tile
+     */
+    static final int NR = 4;
+    /**
+     * Depth of a packed slice, an MR x KC panel of A fits in L1
+     */
+    static final int KC = 256;
+    /**
+     * Rows of a packed A block, an MC x KC block fits in L2
+     */
+    static final int MC = 128;
+    /**
+     * Columns of a packed B block, a KC x NC block fits in L3
+     */
+    static final int NC = 2048;
+    /**
+     * Below this amount of multiply-adds the packing does not pay off and the simple loop is used
+     */
+    static final long SMALL = 32 * 32 * 32;
+    /**
+     * Below this amount of multiply-adds the product always runs on the calling thread
+     */
+    static final long PARALLEL_THRESHOLD = 128L * 128 * 128;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private Gemm() {
+    }
+
+    /**
+     * C += A * B where A is (m, k), B is (k, n) and C is (m, n)
+     *
+     * @param m
+     * @param n
+     * @param k
+     * @param a    storage of A
+     * @param aOff offset of A(0, 0)
+     * @param aRs  distance between A(i, p) and A(i + 1, p)
+     * @param aCs  distance between A(i, p) and A(i, p + 1)
+     * @param b    storage of B
+     * @param bOff offset of B(0, 0)
+     * @param bRs  distance between B(p, j) and B(p + 1, j)
+     * @param bCs  distance between B(p, j) and B(p, j + 1)
+     * @param c    storage of C
+     * @param cOff offset of C(0, 0)
+     * @param cRs  distance between C(i, j) and C(i + 1, j)
+     */
+    static void gemm(int m, int n, int k, double[] a, int aOff, int aRs, int aCs, double[] b, int bOff, int bRs,
+                     int bCs, double[] c, int cOff, int cRs) {
+        long grain = GemmPartition.grain(m, n, k);
+        if (grain > 0) {
+            GemmPartition.invoke(m, n, k, MR, NR, grain,
+                    (i, j, rows, cols) -> sequential(rows, cols, k, a, aOff + i * aRs, aRs, aCs, b, bOff + j * bCs,
+                            bRs, bCs, c, cOff + i * cRs + j, cRs));
+            return;
+        }
+
+        sequential(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs);
+    }
+
+    /**
+     * Same as {@link #gemm}, but always runs on the calling thread
+     */
+    static void sequential(int m, int n, int k, double[] a, int aOff, int aRs, int aCs, double[] b, int bOff,
+                           int bRs, int bCs, double[] c, int cOff, int cRs) {
+        if ((long) m * n * k <= SMALL || n == 1) {
+            simple(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs);
+            return;
+        }
+
+        int kcMax = Math.min(KC, k);
+        double[] packedA = new double[GemmPartition.roundUp(Math.min(MC, m), MR) * kcMax];
+        double[] packedB = new double[GemmPartition.roundUp(Math.min(NC, n), NR) * kcMax];
+
+        for (int jc = 0; jc < n; jc += NC) {
+            int nc = Math.min(NC, n - jc);
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                packB(kc, nc, b, bOff + pc * bRs + jc * bCs, bRs, bCs, packedB);
+                for (int ic = 0; ic < m; ic += MC) {
+                    int mc = Math.min(MC, m - ic);
+                    packA(mc, kc, a, aOff + ic * aRs + pc * aCs, aRs, aCs, packedA);
+                    macroKernel(mc, nc, kc, packedA, packedB, c, cOff + ic * cRs + jc, cRs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loop over the micro-panels of the packed blocks
+     */
+    private static void macroKernel(int mc, int nc, int kc, double[] packedA, double[] packedB, double[] c, int cOff,
+                                    int cRs) {
+        double[] edge = null;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            int pb = jr * kc;
+            for (int ir = 0; ir < mc; ir += MR) {
+                int mr = Math.min(MR, mc - ir);
+                int ct = cOff + ir * cRs + jr;
+                if (mr == MR && nr == NR) {
+                    KERNELS.microKernel(kc, packedA, ir * kc, packedB, pb, c, ct, cRs);
+                } else {
+                    edge = edgeTile(kc, packedA, ir * kc, packedB, pb, c, ct, cRs, mr, nr, edge);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the top-left (mr, nr) part of the product of a packed panel pair to C, through a scratch tile so the
+     * micro-kernel keeps a single straight-line path
+     *
+     * @param edge scratch tile of a previous call, null for none
+     * @return the scratch tile, to pass to the next call
+     */
+    private static double[] edgeTile(int kc, double[] packedA, int ia, double[] packedB, int ib, double[] c, int ct,
+                                     int cRs, int mr, int nr, double[] edge) {
+        if (edge == null) {
+            edge = new double[MR * NR];
+        } else {
+            Arrays.fill(edge, 0.0);
+        }
+        KERNELS.microKernel(kc, packedA, ia, packedB, ib, edge, 0, NR);
+        for (int i = 0; i < mr; i++) {
+            for (int j = 0; j < nr; j++) {
+                c[ct + i * cRs + j] += edge[i * NR + j];
+            }
+        }
+        return edge;
+    }
+
+    /**
+     * Pack an (mc, kc) block of A into MR-row micro-panels, each stored column by column
+     */
+    private static void packA(int mc, int kc, double[] a, int aOff, int aRs, int aCs, double[] packed) {
+        int dst = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            for (int p = 0; p < kc; p++) {
+                int src = aOff + ir * aRs + p * aCs;
+                int i = 0;
+                for (; i < mr; i++) {
+                    packed[dst++] = a[src + i * aRs];
+                }
+                for (; i < MR; i++) {
+                    packed[dst++] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pack a (kc, nc) block of B into NR-column micro-panels, each stored row by row
+     */
+    private static void packB(int kc, int nc, double[] b, int bOff, int bRs, int bCs, double[] packed) {
+        int dst = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            for (int p = 0; p < kc; p++) {
+                int src = bOff + p * bRs + jr * bCs;
+                int j = 0;
+                for (; j < nr; j++) {
+                    packed[dst++] = b[src + j * bCs];
+                }
+                for (; j < NR; j++) {
+                    packed[dst++] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * The unblocked ikj loop, used for small products and matrix-vector products
+     */
+    private static void simple(int m, int n, int k, double[] a, int aOff, int aRs, int aCs, double[] b, int bOff,
+                               int bRs, int bCs, double[] c, int cOff, int cRs) {
+        if (n == 1 && aRs == 1 && cRs == 1) {
+            // columns of A are contiguous (A is a transposed view), accumulate column by column
+            for (int p = 0; p < k; p++) {
+                KERNELS.axpy(b[bOff + p * bRs], a, aOff + p * aCs, c, cOff, m);
+            }
+            return;
+        }
+
+        if (n == 1) {
+            for (int i = 0; i < m; i++) {
+                int ai = aOff + i * aRs;
+                if (aCs == 1 && bRs == 1) {
+                    c[cOff + i * cRs] += KERNELS.dot(a, ai, b, bOff, k);
+                    continue;
+                }
+                double sum = 0;
+                for (int p = 0; p < k; p++) {
+                    sum = Math.fma(a[ai + p * aCs], b[bOff + p * bRs], sum);
+                }
+                c[cOff + i * cRs] += sum;
+            }
+            return;
+        }
+
+        for (int i = 0; i < m; i++) {
+            int ci = cOff + i * cRs;
+            for (int p = 0; p < k; p++) {
+                double aip = a[aOff + i * aRs + p * aCs];
+                int bp = bOff + p * bRs;
+                if (bCs == 1) {
+                    KERNELS.axpy(aip, b, bp, c, ci, n);
+                    continue;
+                }
+                for (int j = 0; j < n; j++) {
+                    c[ci + j] = Math.fma(aip, b[bp + j * bCs], c[ci + j]);
+                }
+            }
+        }
+    }
+}
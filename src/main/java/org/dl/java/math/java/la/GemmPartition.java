@@ -0,0 +1,136 @@
+package org.dl.java.math.java.la;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The parallel split of C shared by {@link Gemm} and {@link Sgemm}, which only differ in the element type and the
+ * register tile.
+ * <p>
+ * Optimization note:
+ * Products of at least {@link Gemm#PARALLEL_THRESHOLD} multiply-adds halve the longer side of C recursively on a
+ * {@link ForkJoinPool}, the pool of the calling task if there is one, the common pool otherwise. The splits stay on
+ * register tile boundaries, so only the last tile of each side has a ragged edge, and a leaf is about
+ * 1 / {@link #TILES_PER_WORKER} of a worker's share so that uneven tiles still balance out. Each leaf owns a
+ * disjoint part of C and packs its own buffers, so no synchronization is needed.
+ */
+final class GemmPartition {
+    /**
+     * How many tiles each worker should get, so that uneven tiles still balance out
+     */
+    private static final int TILES_PER_WORKER = 4;
+
+    private GemmPartition() {
+    }
+
+    /**
+     * The sequential product of a part of C
+     */
+    interface Tile {
+        /**
+         * C(i .. i + rows, j .. j + cols) += A(i .. i + rows, :) * B(:, j .. j + cols)
+         *
+         * @param i
+         * @param j
+         * @param rows
+         * @param cols
+         */
+        void multiply(int i, int j, int rows, int cols);
+    }
+
+    /**
+     * Multiply-adds of a leaf of the split, 0 if the product should run on the calling thread
+     *
+     * @param m
+     * @param n
+     * @param k
+     * @return
+     */
+    static long grain(int m, int n, int k) {
+        long work = (long) m * n * k;
+        int parallelism = pool().getParallelism();
+        if (work < Gemm.PARALLEL_THRESHOLD || parallelism <= 1 || n <= 1) {
+            return 0;
+        }
+        return Math.max(Gemm.PARALLEL_THRESHOLD / 2, work / ((long) parallelism * TILES_PER_WORKER));
+    }
+
+    /**
+     * Split the (m, n) product into leaves of at most grain multiply-adds and run them on the pool
+     *
+     * @param m
+     * @param n
+     * @param k
+     * @param mr    rows of the register tile
+     * @param nr    columns of the register tile
+     * @param grain see {@link #grain}
+     * @param tile
+     */
+    static void invoke(int m, int n, int k, int mr, int nr, long grain, Tile tile) {
+        PartitionTask task = new PartitionTask(0, 0, m, n, k, mr, nr, grain, tile);
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            ForkJoinPool.commonPool()
+                        .invoke(task);
+        }
+    }
+
+    static int roundUp(int value, int multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    private static ForkJoinPool pool() {
+        return ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Recursively halves the longer side of C until a tile is at most grain multiply-adds, then runs the
+     * sequential kernel on it
+     */
+    private static final class PartitionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int i;
+        private final int j;
+        private final int m;
+        private final int n;
+        private final int k;
+        private final int mr;
+        private final int nr;
+        private final long grain;
+        private final Tile tile;
+
+        PartitionTask(int i, int j, int m, int n, int k, int mr, int nr, long grain, Tile tile) {
+            this.i = i;
+            this.j = j;
+            this.m = m;
+            this.n = n;
+            this.k = k;
+            this.mr = mr;
+            this.nr = nr;
+            this.grain = grain;
+            this.tile = tile;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) m * n * k <= grain || (m <= mr && n <= nr)) {
+                tile.multiply(i, j, m, n);
+                return;
+            }
+
+            if (m >= n) {
+                // keep the split on a register tile boundary so only the last tile has a ragged edge
+                int top = roundUp(m / 2, mr);
+                invokeAll(new PartitionTask(i, j, top, n, k, mr, nr, grain, tile),
+                        new PartitionTask(i + top, j, m - top, n, k, mr, nr, grain, tile));
+            } else {
+                int left = roundUp(n / 2, nr);
+                invokeAll(new PartitionTask(i, j, m, left, k, mr, nr, grain, tile),
+                        new PartitionTask(i, j + left, m, n - left, k, mr, nr, grain, tile));
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+
+/**
+ * Blocked Householder QR decomposition, A = Q * R, with Q = H(0) * H(1) * ... * H(k - 1), k = min(m, n), and
+ * H(j) = I - tau[j] * v(j) * v(j)^T.
+ * <p>
+ * The factors overwrite A like LAPACK does: R is stored on and above the diagonal, v(j) below the diagonal of column
+ * j, with its leading one implied.
+ * <p>
+ * Optimization note:
+ * 1. Columns are processed in panels of {@link #NB}. A panel is transposed into a buffer first, so each of its
+ * columns is contiguous and the norms, dot products and updates of the reflectors are long SIMD loops instead of a
+ * strided walk down the rows.
+ * 2. The reflectors of a panel are combined into the compact WY form H(k) ... H(k + nb - 1) = I - V * T * V^T, with
+ * T an (nb, nb) upper triangle. Applying the panel to the rest of the matrix is then three matrix products,
+ * W = V^T * C, W = T^T * W and C -= V * W, which run through {@link Gemm} and carry almost all of the work.
+ * 3. The transposed buffer holds V explicitly, with its zeros and unit diagonal, so it is a plain operand of those
+ * products and R can stay in place in A.
+ */
+final class HouseholderQR {
+    /**
+     * Panel width
+     */
+    static final int NB = 32;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private HouseholderQR() {
+    }
+
+    /**
+     * Factorize the (m, n) matrix A in place
+     *
+     * @param m
+     * @param n
+     * @param a   storage of A
+     * @param off offset of A(0, 0)
+     * @param rs  distance between A(i, j) and A(i + 1, j)
+     * @return the min(m, n) scalar factors of the reflectors
+     */
+    static double[] factor(int m, int n, double[] a, int off, int rs) {
+        int reflectors = Math.min(m, n);
+        double[] tau = new double[reflectors];
+        double[] vt = new double[Math.min(NB, reflectors) * m];
+        double[] t = new double[NB * NB];
+
+        for (int k = 0; k < reflectors; k += NB) {
+            int nb = Math.min(NB, reflectors - k);
+            int rows = m - k;
+            int panel = off + k * rs + k;
+            Transpose.transpose(rows, nb, a, panel, rs, vt, 0, rows);
+            factorPanel(rows, nb, vt, tau, k);
+            Transpose.transpose(nb, rows, vt, 0, rows, a, panel, rs);
+
+            if (k + nb < n) {
+                explicitReflectors(rows, nb, vt);
+                triangularFactor(rows, nb, vt, tau, k, t);
+                applyBlock(true, rows, nb, vt, t, a, panel + nb, rs, n - k - nb);
+            }
+        }
+
+        return tau;
+    }
+
+    /**
+     * C = Q^T * C if transpose, C = Q * C otherwise, where Q is given by factorized storage and C is (m, cols)
+     *
+     * @param transpose
+     * @param m
+     * @param n         columns of the factorized matrix
+     * @param a         storage of the factors
+     * @param off
+     * @param rs
+     * @param tau
+     * @param c         storage of C
+     * @param cOff
+     * @param cRs
+     * @param cols
+     */
+    static void applyQ(boolean transpose, int m, int n, double[] a, int off, int rs, double[] tau, double[] c,
+                       int cOff, int cRs, int cols) {
+        int reflectors = Math.min(m, n);
+        double[] vt = new double[Math.min(NB, reflectors) * m];
+        double[] t = new double[NB * NB];
+        // Q^T = H(k - 1)^T ... H(0)^T applies the first panel first, Q the last one
+        int panels = (reflectors + NB - 1) / NB;
+        for (int i = 0; i < panels; i++) {
+            int k = (transpose ? i : panels - 1 - i) * NB;
+            int nb = Math.min(NB, reflectors - k);
+            int rows = m - k;
+            Transpose.transpose(rows, nb, a, off + k * rs + k, rs, vt, 0, rows);
+            explicitReflectors(rows, nb, vt);
+            triangularFactor(rows, nb, vt, tau, k, t);
+            applyBlock(transpose, rows, nb, vt, t, c, cOff + k * cRs, cRs, cols);
+        }
+    }
+
+    /**
+     * Whether the (n, n) R has a diagonal element negligible next to the largest one, m being the row count of the
+     * factorized matrix
+     *
+     * @param m
+     * @param n
+     * @param r   storage of R
+     * @param off offset of R(0, 0)
+     * @param rs  distance between R(i, j) and R(i + 1, j)
+     * @return
+     */
+    static boolean isRankDeficient(int m, int n, double[] r, int off, int rs) {
+        double max = 0;
+        for (int i = 0; i < n; i++) {
+            max = Math.max(max, Math.abs(r[off + i * rs + i]));
+        }
+        double tolerance = Math.max(m, n) * Math.ulp(max);
+        for (int i = 0; i < n; i++) {
+            if (!(Math.abs(r[off + i * rs + i]) > tolerance)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Unblocked factorization of a transposed (rows, nb) panel, row j of vt is column j of the panel
+     */
+    private static void factorPanel(int rows, int nb, double[] vt, double[] tau, int k) {
+        for (int j = 0; j < nb; j++) {
+            int vj = j * rows;
+            double alpha = vt[vj + j];
+            double sigma = KERNELS.sumOfSquares(vt, vj + j + 1, rows - j - 1);
+            if (sigma == 0) {
+                // already zero below the diagonal, H(j) = I
+                tau[k + j] = 0;
+                continue;
+            }
+
+            double beta = -Math.copySign(Math.sqrt(alpha * alpha + sigma), alpha);
+            double tauJ = (beta - alpha) / beta;
+            tau[k + j] = tauJ;
+            KERNELS.scale(vt, vj + j + 1, 1 / (alpha - beta), vt, vj + j + 1, rows - j - 1);
+            vt[vj + j] = beta;
+
+            // apply H(j) to the rest of the panel, column c -= tau * (v^T * c) * v
+            for (int c = j + 1; c < nb; c++) {
+                int vc = c * rows;
+                double w = vt[vc + j] + KERNELS.dot(vt, vj + j + 1, vt, vc + j + 1, rows - j - 1);
+                vt[vc + j] -= tauJ * w;
+                KERNELS.axpy(-tauJ * w, vt, vj + j + 1, vt, vc + j + 1, rows - j - 1);
+            }
+        }
+    }
+
+    /**
+     * Replace R in a factorized transposed panel by the zeros and the unit diagonal of V
+     */
+    private static void explicitReflectors(int rows, int nb, double[] vt) {
+        for (int j = 0; j < nb; j++) {
+            Arrays.fill(vt, j * rows, j * rows + j, 0.0);
+            vt[j * rows + j] = 1;
+        }
+    }
+
+    /**
+     * Build the (nb, nb) upper triangle T of an explicit transposed panel, row-major with row stride NB
+     */
+    private static void triangularFactor(int rows, int nb, double[] vt, double[] tau, int k, double[] t) {
+        Arrays.fill(t, 0.0);
+        double[] z = new double[nb];
+        for (int j = 0; j < nb; j++) {
+            double tauJ = tau[k + j];
+            t[j * NB + j] = tauJ;
+            if (tauJ == 0) {
+                continue;
+            }
+
+            // z = V(:, 0:j)^T * v(j), v(j) is zero above row j
+            int vj = j * rows;
+            for (int p = 0; p < j; p++) {
+                z[p] = KERNELS.dot(vt, p * rows + j, vt, vj + j, rows - j);
+            }
+
+            // T(0:j, j) = -tau * T(0:j, 0:j) * z
+            for (int p = 0; p < j; p++) {
+                int tp = p * NB;
+                double sum = 0;
+                for (int q = p; q < j; q++) {
+                    sum += t[tp + q] * z[q];
+                }
+                t[tp + j] = -tauJ * sum;
+            }
+        }
+    }
+
+    /**
+     * C = (I - V * T^T * V^T) * C if transpose, C = (I - V * T * V^T) * C otherwise, where V^T is the explicit
+     * transposed panel and C is (rows, cols)
+     */
+    private static void applyBlock(boolean transpose, int rows, int nb, double[] vt, double[] t, double[] c, int cOff,
+                                   int cRs, int cols) {
+        // W = V^T * C
+        double[] w = new double[nb * cols];
+        Gemm.gemm(nb, cols, rows, vt, 0, rows, 1, c, cOff, cRs, 1, w, 0, cols);
+
+        // W = -op(T) * W, negated as Gemm only accumulates
+        double[] tw = new double[nb * cols];
+        double[] negT = new double[nb * nb];
+        for (int i = 0; i < nb; i++) {
+            KERNELS.scale(t, i * NB, -1, negT, i * nb, nb);
+        }
+        if (transpose) {
+            Gemm.gemm(nb, cols, nb, negT, 0, 1, nb, w, 0, cols, 1, tw, 0, cols);
+        } else {
+            Gemm.gemm(nb, cols, nb, negT, 0, nb, 1, w, 0, cols, 1, tw, 0, cols);
+        }
+
+        // C += V * W
+        Gemm.gemm(rows, cols, nb, vt, 0, 1, rows, tw, 0, cols, 1, c, cOff, cRs);
+    }
+}
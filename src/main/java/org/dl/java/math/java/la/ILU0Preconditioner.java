@@ -0,0 +1,134 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+
+/**
+ * Incomplete LU preconditioner without fill-in, M = L * U where L and U have the sparsity pattern of A.
+ * <p>
+ * The factorization is Gaussian elimination restricted to the stored entries of A: an update of an element that is
+ * not stored is dropped. L (unit diagonal) and U are kept packed in one copy of the values of A, applying M^-1 is a
+ * forward and a backward substitution over them.
+ * <p>
+ * Optimization note:
+ * The factors take exactly the memory of A, and both the factorization and each application do work proportional
+ * to the stored entries. The entries of the row being eliminated are located through an n-element index map instead
+ * of a search.
+ */
+public final class ILU0Preconditioner implements Preconditioner {
+    private final int n;
+    private final int[] pointers;
+    private final int[] indices;
+    private final double[] lu;
+    /**
+     * Entry of the diagonal element of each row
+     */
+    private final int[] diagonal;
+
+    private ILU0Preconditioner(int n, int[] pointers, int[] indices, double[] lu, int[] diagonal) {
+        this.n = n;
+        this.pointers = pointers;
+        this.indices = indices;
+        this.lu = lu;
+        this.diagonal = diagonal;
+    }
+
+    /**
+     * Factorize the square sparse matrix, every row must store its diagonal element
+     *
+     * @param a
+     * @return
+     */
+    public static ILU0Preconditioner of(CSRMatrix a) {
+        int n = a.getRowCount();
+        if (n != a.getColCount()) {
+            throw new RuntimeException(
+                    String.format("Preconditioner needs a square matrix: (%d, %d)", n, a.getColCount()));
+        }
+
+        // copy the entries, sorted by column within each row
+        int[] pointers = a.rowPointers()
+                          .clone();
+        int nnz = pointers[n];
+        int[] indices = new int[nnz];
+        double[] lu = new double[nnz];
+        System.arraycopy(a.columnIndices(), 0, indices, 0, nnz);
+        System.arraycopy(a.values(), 0, lu, 0, nnz);
+        int[] diagonal = new int[n];
+        for (int i = 0; i < n; i++) {
+            sortRow(indices, lu, pointers[i], pointers[i + 1]);
+            diagonal[i] = -1;
+            for (int e = pointers[i]; e < pointers[i + 1]; e++) {
+                if (indices[e] == i) {
+                    diagonal[i] = e;
+                }
+            }
+            if (diagonal[i] < 0) {
+                throw new RuntimeException(String.format("Missing diagonal element at row %d!", i));
+            }
+        }
+
+        int[] position = new int[n];
+        Arrays.fill(position, -1);
+        for (int i = 0; i < n; i++) {
+            for (int e = pointers[i]; e < pointers[i + 1]; e++) {
+                position[indices[e]] = e;
+            }
+            // eliminate with the rows k < i this row has an entry for, in increasing order
+            for (int e = pointers[i]; e < diagonal[i]; e++) {
+                int k = indices[e];
+                lu[e] /= lu[diagonal[k]];
+                for (int f = diagonal[k] + 1; f < pointers[k + 1]; f++) {
+                    int target = position[indices[f]];
+                    if (target >= 0) {
+                        lu[target] -= lu[e] * lu[f];
+                    }
+                }
+            }
+            if (lu[diagonal[i]] == 0) {
+                throw new RuntimeException(String.format("Zero pivot at row %d!", i));
+            }
+            for (int e = pointers[i]; e < pointers[i + 1]; e++) {
+                position[indices[e]] = -1;
+            }
+        }
+        return new ILU0Preconditioner(n, pointers, indices, lu, diagonal);
+    }
+
+    @Override
+    public void apply(double[] r, double[] z) {
+        // L * y = r, unit diagonal
+        for (int i = 0; i < n; i++) {
+            double sum = r[i];
+            for (int e = pointers[i]; e < diagonal[i]; e++) {
+                sum -= lu[e] * z[indices[e]];
+            }
+            z[i] = sum;
+        }
+        // U * z = y
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = z[i];
+            for (int e = diagonal[i] + 1; e < pointers[i + 1]; e++) {
+                sum -= lu[e] * z[indices[e]];
+            }
+            z[i] = sum / lu[diagonal[i]];
+        }
+    }
+
+    /**
+     * Insertion sort of the entries [from, to) by column, rows are short and usually already sorted
+     */
+    private static void sortRow(int[] indices, double[] values, int from, int to) {
+        for (int e = from + 1; e < to; e++) {
+            int index = indices[e];
+            double value = values[e];
+            int f = e - 1;
+            while (f >= from && indices[f] > index) {
+                indices[f + 1] = indices[f];
+                values[f + 1] = values[f];
+                f--;
+            }
+            indices[f + 1] = index;
+            values[f + 1] = value;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Data class representing the outcome of a {@link KrylovSolver}: the last iterate, whether it met the tolerance and
+ * how many iterations it took
+ */
+public class IterativeResult {
+    private final MatrixJava solution;
+    private final int iterations;
+    private final double residual;
+    private final boolean converged;
+
+    /**
+     * Construct a result
+     *
+     * @param solution
+     * @param iterations
+     * @param residual   |b - A * x| / |b|
+     * @param converged
+     */
+    IterativeResult(MatrixJava solution, int iterations, double residual, boolean converged) {
+        this.solution = solution;
+        this.iterations = iterations;
+        this.residual = residual;
+        this.converged = converged;
+    }
+
+    /**
+     * Get the (n, 1) solution, the last iterate when the solver did not converge
+     *
+     * @return
+     */
+    public MatrixJava getSolution() {
+        return solution;
+    }
+
+    /**
+     * Number of iterations run, each costs one or two applications of the operator
+     *
+     * @return
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Relative residual |b - A * x| / |b| of the solution, as tracked by the solver
+     *
+     * @return
+     */
+    public double getResidual() {
+        return residual;
+    }
+
+    /**
+     * Whether the residual met the tolerance, false when the iterations ran out or the method broke down
+     *
+     * @return
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+}
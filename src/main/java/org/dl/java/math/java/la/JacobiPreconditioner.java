@@ -0,0 +1,59 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Jacobi preconditioner, M is the diagonal of A.
+ * <p>
+ * It costs one multiplication per element and n extra values, and already helps a lot when the rows of A have very
+ * different scales.
+ */
+public final class JacobiPreconditioner implements Preconditioner {
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private final double[] inverseDiagonal;
+
+    /**
+     * Creating a {@link JacobiPreconditioner} from the diagonal of A
+     *
+     * @param diagonal
+     */
+    public JacobiPreconditioner(double[] diagonal) {
+        inverseDiagonal = new double[diagonal.length];
+        for (int i = 0; i < diagonal.length; i++) {
+            if (diagonal[i] == 0) {
+                throw new RuntimeException(String.format("Zero diagonal element at row %d!", i));
+            }
+            inverseDiagonal[i] = 1 / diagonal[i];
+        }
+    }
+
+    /**
+     * Creating a {@link JacobiPreconditioner} from the diagonal of the square sparse matrix
+     *
+     * @param a
+     * @return
+     */
+    public static JacobiPreconditioner of(CSRMatrix a) {
+        int n = a.getRowCount();
+        if (n != a.getColCount()) {
+            throw new RuntimeException(
+                    String.format("Preconditioner needs a square matrix: (%d, %d)", n, a.getColCount()));
+        }
+        int[] pointers = a.rowPointers();
+        int[] indices = a.columnIndices();
+        double[] values = a.values();
+        double[] diagonal = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int e = pointers[i]; e < pointers[i + 1]; e++) {
+                if (indices[e] == i) {
+                    diagonal[i] += values[e];
+                }
+            }
+        }
+        return new JacobiPreconditioner(diagonal);
+    }
+
+    @Override
+    public void apply(double[] r, double[] z) {
+        KERNELS.mul(r, 0, inverseDiagonal, 0, z, 0, inverseDiagonal.length);
+    }
+}
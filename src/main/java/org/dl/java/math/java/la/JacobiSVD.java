@@ -0,0 +1,171 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * One-sided Jacobi SVD of small dense matrices.
+ * <p>
+ * The rows of the (l, n) matrix B with l &lt;= n are rotated in pairs until they are mutually orthogonal, B' = J * B
+ * with J orthogonal. Then B' = S * V^T where the singular values are the row norms and the rows of V^T the
+ * normalized rows, and B = J^T * S * V^T. A tall matrix is decomposed through its transpose.
+ * <p>
+ * A rank deficient B leaves rows of B' at exactly 0, their columns of V are completed with unit vectors orthogonal to
+ * the others, so the singular vectors stay orthonormal. A matrix whose rows are still not orthogonal after
+ * {@link #MAX_SWEEPS} sweeps, which only happens with NaN or infinite elements, throws a RuntimeException.
+ * <p>
+ * Optimization note:
+ * Rotating rows rather than columns keeps every step on contiguous storage: the norms, the inner products and the
+ * rotations are {@link ElementKernels} SIMD loops over whole rows. The cost is O(l^2 * n) per sweep, so it is meant
+ * for the small matrices left by {@link RandomizedSVD} or for matrices with a short side.
+ */
+final class JacobiSVD {
+    /**
+     * Rows are orthogonal once |b_i . b_j| &lt;= TOLERANCE * |b_i| * |b_j| for every pair
+     */
+    private static final double TOLERANCE = 1e-13;
+    private static final int MAX_SWEEPS = 64;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private JacobiSVD() {
+    }
+
+    /**
+     * Decompose the matrix, keeping the rank largest singular triplets
+     *
+     * @param a
+     * @param rank
+     * @return
+     */
+    static SVDDecomposition decompose(MatrixJava a, int rank) {
+        int m = a.getRowCount();
+        int n = a.getColCount();
+        boolean wide = m <= n;
+        MatrixJava b = wide ? a.replicate() : a.transpose();
+        int l = b.getRowCount();
+        int w = b.getColCount();
+        rank = Math.min(rank, l);
+        double[] bs = b.data();
+        double[] js = MatrixJava.identity(l)
+                                .data();
+        orthogonalizeRows(l, w, bs, js);
+
+        double[] norms = new double[l];
+        for (int i = 0; i < l; i++) {
+            norms[i] = Math.sqrt(KERNELS.sumOfSquares(bs, i * w, w));
+        }
+        Integer[] order = new Integer[l];
+        for (int i = 0; i < l; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble((Integer i) -> norms[i])
+                                     .reversed());
+
+        // rows of J are the singular vectors on the short side, normalized rows of B' on the long side
+        double[] values = new double[rank];
+        MatrixJava shortSide = new MatrixJava(l, rank);
+        MatrixJava longSide = new MatrixJava(w, rank);
+        for (int r = 0; r < rank; r++) {
+            int i = order[r];
+            values[r] = norms[i];
+            for (int p = 0; p < l; p++) {
+                shortSide.set(p, r, js[i * l + p]);
+            }
+            if (norms[i] == 0) {
+                // sorted last, so every previous column is already orthonormal
+                completeColumn(longSide, r);
+                continue;
+            }
+            for (int p = 0; p < w; p++) {
+                longSide.set(p, r, bs[i * w + p] / norms[i]);
+            }
+        }
+        return wide ? new SVDDecomposition(shortSide, values, longSide)
+                    : new SVDDecomposition(longSide, values, shortSide);
+    }
+
+    /**
+     * Rotate the rows of the compact (l, n) matrix b in place until they are orthogonal, applying the same rotations
+     * to the rows of the compact (l, l) matrix j
+     */
+    static void orthogonalizeRows(int l, int n, double[] b, double[] j) {
+        double[] tmp = new double[Math.max(l, n)];
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            boolean rotated = false;
+            for (int p = 0; p < l - 1; p++) {
+                for (int q = p + 1; q < l; q++) {
+                    double alpha = KERNELS.sumOfSquares(b, p * n, n);
+                    double beta = KERNELS.sumOfSquares(b, q * n, n);
+                    double gamma = KERNELS.dot(b, p * n, b, q * n, n);
+                    if (Math.abs(gamma) <= TOLERANCE * Math.sqrt(alpha * beta)) {
+                        continue;
+                    }
+                    rotated = true;
+
+                    // the smaller root of t^2 + 2 * zeta * t - 1 = 0 zeroes the inner product
+                    double zeta = (beta - alpha) / (2 * gamma);
+                    double t = zeta == 0 ? 1 : Math.signum(zeta) / (Math.abs(zeta) + Math.sqrt(1 + zeta * zeta));
+                    double c = 1 / Math.sqrt(1 + t * t);
+                    double s = c * t;
+                    rotate(b, p * n, q * n, n, c, s, tmp);
+                    rotate(j, p * l, q * l, l, c, s, tmp);
+                }
+            }
+            if (!rotated) {
+                return;
+            }
+        }
+        throw new RuntimeException(String.format("Jacobi SVD of (%d, %d) did not converge in %d sweeps", l, n,
+                MAX_SWEEPS));
+    }
+
+    /**
+     * Set column r of v to a unit vector orthogonal to its first r orthonormal columns: the unit vector of the
+     * standard basis least in their span, with the span projected out
+     */
+    private static void completeColumn(MatrixJava v, int r) {
+        int n = v.getRowCount();
+        // |e_p - V * V^T * e_p|^2 = 1 - |row p of V|^2
+        int best = 0;
+        double bestNorm = -1;
+        for (int p = 0; p < n; p++) {
+            double inSpan = 0;
+            for (int c = 0; c < r; c++) {
+                inSpan += v.get(p, c) * v.get(p, c);
+            }
+            if (1 - inSpan > bestNorm) {
+                bestNorm = 1 - inSpan;
+                best = p;
+            }
+        }
+        double[] x = new double[n];
+        x[best] = 1;
+        // Gram-Schmidt twice, the second pass removes what rounding left of the span
+        for (int pass = 0; pass < 2; pass++) {
+            for (int c = 0; c < r; c++) {
+                double dot = 0;
+                for (int p = 0; p < n; p++) {
+                    dot += v.get(p, c) * x[p];
+                }
+                for (int p = 0; p < n; p++) {
+                    x[p] -= dot * v.get(p, c);
+                }
+            }
+        }
+        double norm = Math.sqrt(KERNELS.sumOfSquares(x, 0, n));
+        for (int p = 0; p < n; p++) {
+            v.set(p, r, x[p] / norm);
+        }
+    }
+
+    /**
+     * x = c * x - s * y, y = s * x + c * y on two rows of len elements
+     */
+    private static void rotate(double[] a, int x, int y, int len, double c, double s, double[] tmp) {
+        System.arraycopy(a, x, tmp, 0, len);
+        KERNELS.scale(a, x, c, a, x, len);
+        KERNELS.axpy(-s, a, y, a, x, len);
+        KERNELS.scale(a, y, c, a, y, len);
+        KERNELS.axpy(s, tmp, 0, a, y, len);
+    }
+}
@@ -0,0 +1,133 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Base of the iterative solvers of A * x = b that only access A through a {@link LinearOperator}:
+ * {@link ConjugateGradient}, {@link BiCGSTAB} and {@link GMRES}.
+ * <p>
+ * A solver stops as soon as the relative residual |b - A * x| / |b| is at most the tolerance, or after the maximum
+ * number of iterations, or when the method breaks down. It never throws for a system it cannot solve: the
+ * {@link IterativeResult} tells whether it converged.
+ * <p>
+ * Optimization note:
+ * 1. Unlike {@link MatrixJava#solve}, nothing of size n * n is ever created: the memory is the operator, the
+ * preconditioner and a few vectors of n elements, so a sparse system takes memory proportional to its non zeros.
+ * 2. The vector updates, inner products and norms are {@link ElementKernels} SIMD loops over the whole vectors.
+ */
+public abstract class KrylovSolver {
+    static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private final double tolerance;
+    private final int maxIterations;
+    private final Preconditioner preconditioner;
+
+    /**
+     * Construct a solver
+     *
+     * @param tolerance      relative residual to reach
+     * @param maxIterations
+     * @param preconditioner {@link Preconditioner#IDENTITY} for none
+     */
+    KrylovSolver(double tolerance, int maxIterations, Preconditioner preconditioner) {
+        if (tolerance <= 0 || maxIterations <= 0) {
+            throw new RuntimeException(
+                    String.format("Tolerance and iterations must be positive: %g, %d", tolerance, maxIterations));
+        }
+        if (preconditioner == null) {
+            throw new RuntimeException("Preconditioner must not be null, use Preconditioner.IDENTITY for none");
+        }
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+        this.preconditioner = preconditioner;
+    }
+
+    /**
+     * Solve A * x = b starting from x = 0
+     *
+     * @param a
+     * @param b (n, 1) right-hand side
+     * @return
+     */
+    public IterativeResult solve(LinearOperator a, MatrixJava b) {
+        return solve(a, b, null);
+    }
+
+    /**
+     * Solve A * x = b starting from the guess, a previous solution of a close system usually saves iterations
+     *
+     * @param a
+     * @param b     (n, 1) right-hand side
+     * @param guess (n, 1) starting point, null for 0
+     * @return
+     */
+    public IterativeResult solve(LinearOperator a, MatrixJava b, MatrixJava guess) {
+        int n = a.getRowCount();
+        if (n != a.getColCount() || b.getRowCount() != n || b.getColCount() != 1
+                || guess != null && (guess.getRowCount() != n || guess.getColCount() != 1)) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! A: (%d, %d), b: (%d, %d)", n, a.getColCount(),
+                            b.getRowCount(), b.getColCount()));
+        }
+
+        double[] x = guess == null ? new double[n] : guess.toArray();
+        double[] bs = b.toArray();
+        double bNorm = Math.sqrt(KERNELS.sumOfSquares(bs, 0, n));
+        if (bNorm == 0) {
+            return new IterativeResult(new MatrixJava(n, 1), 0, 0, true);
+        }
+        return iterate(a, bs, x, bNorm);
+    }
+
+    /**
+     * Run the method from x, which is updated in place
+     *
+     * @param a
+     * @param b
+     * @param x
+     * @param bNorm |b|, not 0
+     * @return
+     */
+    abstract IterativeResult iterate(LinearOperator a, double[] b, double[] x, double bNorm);
+
+    /**
+     * Return the relative residual to reach
+     *
+     * @return
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Return the maximum number of iterations
+     *
+     * @return
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Return the preconditioner
+     *
+     * @return
+     */
+    public Preconditioner getPreconditioner() {
+        return preconditioner;
+    }
+
+    /**
+     * r = b - A * x
+     */
+    static void residual(LinearOperator a, double[] b, double[] x, double[] r) {
+        a.apply(x, r);
+        KERNELS.sub(b, 0, r, 0, r, 0, r.length);
+    }
+
+    static double norm(double[] x) {
+        return Math.sqrt(KERNELS.sumOfSquares(x, 0, x.length));
+    }
+
+    static IterativeResult result(double[] x, int iterations, double residual, boolean converged) {
+        return new IterativeResult(new MatrixJava(x.length, 1, x), iterations, residual, converged);
+    }
+}
@@ -1,20 +1,37 @@
 package org.dl.java.math.java.la;
 
 /**
- * Data class representing an LU decomposition
+ * Data class representing an LU decomposition with partial pivoting, P * A = L * U
+ * <p>
+ * L and U are stored packed in one matrix, U on and above the diagonal and L below it, with the unit diagonal of L
+ * implied. {@link #l()} and {@link #u()} materialize them on demand.
  */
 public class LUDecomposition {
-    private final MatrixJava l;
-    private final MatrixJava u;
+    private final MatrixJava packed;
+    private final int[] pivots;
+    private MatrixJava l;
+    private MatrixJava u;
 
     /**
-     * Construct an LU
-     * @param l
-     * @param u
+     * Construct an LU without pivoting, A = L * U, from separate factors. The strict lower triangle of l and the upper
+     * triangle of u are copied, the diagonal of l is taken as ones.
+     *
+     * @param l (n, n) unit lower triangular
+     * @param u (n, n) upper triangular
      */
     public LUDecomposition(MatrixJava l, MatrixJava u) {
-        this.l = l;
-        this.u = u;
+        this(pack(l, u), identityPivots(u.getRowCount()));
+    }
+
+    /**
+     * Construct an LU from the packed factors
+     *
+     * @param packed
+     * @param pivots row i was swapped with row pivots[i] at step i
+     */
+    LUDecomposition(MatrixJava packed, int[] pivots) {
+        this.packed = packed;
+        this.pivots = pivots;
     }
 
     /**
@@ -23,6 +40,15 @@ public class LUDecomposition {
      * @return
      */
     public MatrixJava l() {
+        if (l == null) {
+            int n = packed.getRowCount();
+            l = MatrixJava.identity(n);
+            for (int i = 1; i < n; i++) {
+                for (int j = 0; j < i; j++) {
+                    l.set(i, j, packed.get(i, j));
+                }
+            }
+        }
         return l;
     }
 
@@ -32,6 +58,179 @@ public class LUDecomposition {
      * @return
      */
     public MatrixJava u() {
+        if (u == null) {
+            int n = packed.getRowCount();
+            u = new MatrixJava(n, n);
+            for (int i = 0; i < n; i++) {
+                for (int j = i; j < n; j++) {
+                    u.set(i, j, packed.get(i, j));
+                }
+            }
+        }
         return u;
     }
+
+    /**
+     * Get the P matrix
+     *
+     * @return
+     */
+    public MatrixJava p() {
+        int[] permutation = permutation();
+        MatrixJava p = new MatrixJava(permutation.length, permutation.length);
+        for (int i = 0; i < permutation.length; i++) {
+            p.set(i, permutation[i], 1);
+        }
+        return p;
+    }
+
+    /**
+     * Get the permutation, row i of P * A is row permutation[i] of A
+     *
+     * @return
+     */
+    public int[] permutation() {
+        int n = pivots.length;
+        int[] permutation = new int[n];
+        for (int i = 0; i < n; i++) {
+            permutation[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            int tmp = permutation[i];
+            permutation[i] = permutation[pivots[i]];
+            permutation[pivots[i]] = tmp;
+        }
+        return permutation;
+    }
+
+    /**
+     * Get the pivots, row i was swapped with row pivots[i] at step i
+     *
+     * @return
+     */
+    public int[] pivots() {
+        return pivots.clone();
+    }
+
+    /**
+     * Whether U has a zero on its diagonal
+     *
+     * @return
+     */
+    public boolean isSingular() {
+        for (int i = 0; i < pivots.length; i++) {
+            if (packed.get(i, i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Solve AX = B with the decomposed matrix A, b can have any number of columns. The factors are reused, so each
+     * call costs O(n^2) per column of b.
+     * <p>
+     * Optimization note:
+     * All columns of B are solved at once with blocked forward and back substitution, see {@link Trsm}.
+     *
+     * @param b
+     * @return
+     */
+    public MatrixJava solve(MatrixJava b) {
+        int n = packed.getRowCount();
+        if (b.getRowCount() != n) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), b: (%d, %d)", n, n, b.getRowCount(),
+                            b.getColCount()));
+        }
+
+        // X = P * B
+        return solveInPlace(b.permuteRows(permutation()));
+    }
+
+    /**
+     * Return the inverse of the decomposed matrix. The inverse is solved for all columns of the identity at once, in
+     * place in the result.
+     *
+     * @return
+     */
+    public MatrixJava inverse() {
+        // P * I, row i holds a one at column permutation[i]
+        int[] permutation = permutation();
+        MatrixJava ret = new MatrixJava(permutation.length, permutation.length);
+        for (int i = 0; i < permutation.length; i++) {
+            ret.set(i, permutation[i], 1);
+        }
+        return solveInPlace(ret);
+    }
+
+    /**
+     * Return the determinant of the decomposed matrix
+     *
+     * @return
+     */
+    public double determinant() {
+        double det = 1;
+        for (int i = 0; i < pivots.length; i++) {
+            det *= pivots[i] == i ? packed.get(i, i) : -packed.get(i, i);
+        }
+        return det;
+    }
+
+    /**
+     * Get the packed factors
+     *
+     * @return
+     */
+    MatrixJava packed() {
+        return packed;
+    }
+
+    /**
+     * Get the pivots without copying
+     *
+     * @return
+     */
+    int[] rawPivots() {
+        return pivots;
+    }
+
+    /**
+     * Copy the strict lower triangle of l and the upper triangle of u into one compact matrix
+     */
+    private static MatrixJava pack(MatrixJava l, MatrixJava u) {
+        int n = u.getRowCount();
+        if (u.getColCount() != n || l.getRowCount() != n || l.getColCount() != n) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! l: (%d, %d), u: (%d, %d)", l.getRowCount(), l.getColCount(),
+                            n, u.getColCount()));
+        }
+        MatrixJava packed = new MatrixJava(n, n);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                packed.set(i, j, j < i ? l.get(i, j) : u.get(i, j));
+            }
+        }
+        return packed;
+    }
+
+    private static int[] identityPivots(int n) {
+        int[] pivots = new int[n];
+        for (int i = 0; i < n; i++) {
+            pivots[i] = i;
+        }
+        return pivots;
+    }
+
+    /**
+     * Overwrite the compact matrix x with U^-1 * L^-1 * x
+     */
+    private MatrixJava solveInPlace(MatrixJava x) {
+        if (isSingular()) {
+            throw new RuntimeException("Matrix is singular!");
+        }
+        int n = packed.getRowCount();
+        Trsm.solve(n, x.getColCount(), true, packed.data(), 0, n, x.data(), 0, x.getColCount());
+        return x;
+    }
 }
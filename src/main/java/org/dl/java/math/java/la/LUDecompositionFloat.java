@@ -0,0 +1,217 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Data class representing a single precision LU decomposition with partial pivoting, P * A = L * U
+ * <p>
+ * The layout and the pivots are the same as in {@link LUDecomposition}: L and U are stored packed in one matrix, U
+ * on and above the diagonal and L below it with the unit diagonal implied, and row i was swapped with row pivots[i]
+ * at step i.
+ * <p>
+ * Optimization note:
+ * The factorization and the substitutions work on whole rows with the float kernels of {@link ElementKernels}, so
+ * they are SIMD loops over contiguous storage. They are not blocked like {@link BlockedLU}: systems large enough for
+ * blocking to matter usually need the accuracy of {@link MatrixJava#lu()} anyway.
+ */
+public class LUDecompositionFloat {
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private final MatrixFloat packed;
+    private final int[] pivots;
+
+    /**
+     * Construct an LU from the packed factors
+     *
+     * @param packed
+     * @param pivots row i was swapped with row pivots[i] at step i
+     */
+    LUDecompositionFloat(MatrixFloat packed, int[] pivots) {
+        this.packed = packed;
+        this.pivots = pivots;
+    }
+
+    /**
+     * Factorize the compact (n, n) matrix A in place
+     *
+     * @param n
+     * @param a
+     * @return the pivots
+     */
+    static int[] factor(int n, float[] a) {
+        int[] pivots = new int[n];
+        float[] tmp = new float[n];
+        for (int j = 0; j < n; j++) {
+            int pivot = j;
+            float max = Math.abs(a[j * n + j]);
+            for (int i = j + 1; i < n; i++) {
+                float value = Math.abs(a[i * n + j]);
+                if (value > max) {
+                    max = value;
+                    pivot = i;
+                }
+            }
+            pivots[j] = pivot;
+            if (pivot != j) {
+                System.arraycopy(a, j * n, tmp, 0, n);
+                System.arraycopy(a, pivot * n, a, j * n, n);
+                System.arraycopy(tmp, 0, a, pivot * n, n);
+            }
+
+            float diagonal = a[j * n + j];
+            if (diagonal == 0) {
+                // singular, the column below is already zero
+                continue;
+            }
+            for (int i = j + 1; i < n; i++) {
+                float lij = a[i * n + j] / diagonal;
+                a[i * n + j] = lij;
+                KERNELS.axpy(-lij, a, j * n + j + 1, a, i * n + j + 1, n - j - 1);
+            }
+        }
+        return pivots;
+    }
+
+    /**
+     * Get the L matrix
+     *
+     * @return
+     */
+    public MatrixFloat l() {
+        int n = packed.getRowCount();
+        MatrixFloat l = MatrixFloat.identity(n);
+        for (int i = 1; i < n; i++) {
+            for (int j = 0; j < i; j++) {
+                l.set(i, j, packed.get(i, j));
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Get the U matrix
+     *
+     * @return
+     */
+    public MatrixFloat u() {
+        int n = packed.getRowCount();
+        MatrixFloat u = new MatrixFloat(n, n);
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                u.set(i, j, packed.get(i, j));
+            }
+        }
+        return u;
+    }
+
+    /**
+     * Get the P matrix
+     *
+     * @return
+     */
+    public MatrixFloat p() {
+        int[] permutation = permutation();
+        MatrixFloat p = new MatrixFloat(permutation.length, permutation.length);
+        for (int i = 0; i < permutation.length; i++) {
+            p.set(i, permutation[i], 1);
+        }
+        return p;
+    }
+
+    /**
+     * Get the permutation, row i of P * A is row permutation[i] of A
+     *
+     * @return
+     */
+    public int[] permutation() {
+        int n = pivots.length;
+        int[] permutation = new int[n];
+        for (int i = 0; i < n; i++) {
+            permutation[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            int tmp = permutation[i];
+            permutation[i] = permutation[pivots[i]];
+            permutation[pivots[i]] = tmp;
+        }
+        return permutation;
+    }
+
+    /**
+     * Whether U has a zero on its diagonal
+     *
+     * @return
+     */
+    public boolean isSingular() {
+        for (int i = 0; i < pivots.length; i++) {
+            if (packed.get(i, i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Solve AX = B with the decomposed matrix A, b can have any number of columns
+     *
+     * @param b
+     * @return
+     */
+    public MatrixFloat solve(MatrixFloat b) {
+        int n = pivots.length;
+        if (b.getRowCount() != n) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), b: (%d, %d)", n, n, b.getRowCount(),
+                            b.getColCount()));
+        }
+
+        // X = P * B
+        int m = b.getColCount();
+        int[] permutation = permutation();
+        MatrixFloat x = new MatrixFloat(n, m);
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(b.data(), permutation[i] * m, x.data(), i * m, m);
+        }
+        return solveInPlace(x);
+    }
+
+    /**
+     * Return the inverse of the decomposed matrix
+     *
+     * @return
+     */
+    public MatrixFloat inverse() {
+        int[] permutation = permutation();
+        MatrixFloat ret = new MatrixFloat(permutation.length, permutation.length);
+        for (int i = 0; i < permutation.length; i++) {
+            ret.set(i, permutation[i], 1);
+        }
+        return solveInPlace(ret);
+    }
+
+    /**
+     * Overwrite the compact matrix x with U^-1 * L^-1 * x, row by row
+     */
+    private MatrixFloat solveInPlace(MatrixFloat x) {
+        if (isSingular()) {
+            throw new RuntimeException("Matrix is singular!");
+        }
+        int n = pivots.length;
+        int m = x.getColCount();
+        float[] lu = packed.data();
+        float[] xs = x.data();
+
+        // L * Y = X, unit diagonal
+        for (int i = 1; i < n; i++) {
+            for (int k = 0; k < i; k++) {
+                KERNELS.axpy(-lu[i * n + k], xs, k * m, xs, i * m, m);
+            }
+        }
+        // U * X = Y
+        for (int i = n - 1; i >= 0; i--) {
+            for (int k = i + 1; k < n; k++) {
+                KERNELS.axpy(-lu[i * n + k], xs, k * m, xs, i * m, m);
+            }
+            KERNELS.scale(xs, i * m, 1 / lu[i * n + i], xs, i * m, m);
+        }
+        return x;
+    }
+}
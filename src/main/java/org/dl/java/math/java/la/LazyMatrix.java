@@ -0,0 +1,410 @@
+package org.dl.java.math.java.la;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A lazily evaluated element-wise expression over {@link MatrixJava} operands, created by {@link MatrixJava#lazy()}.
+ * <p>
+ * Operations on a {@link LazyMatrix} only build an expression tree. The tree is evaluated when it is materialized,
+ * by {@link #evaluate()}, {@link #evaluateInto(MatrixJava)}, {@link #get(int, int)}, {@link #toArray()} or when it is
+ * used as an operand of {@link #dot(MatrixJava)}. The operands are read at that time, not when the tree is built, and
+ * every materialization reads them again, so it sees the operands as they are then.
+ * <p>
+ * Optimization note:
+ * The whole chain is fused into a single loop over the result. The loop walks each row in chunks of
+ * {@link #CHUNK} elements, every node of the tree evaluates its chunk into a small scratch buffer which stays in L1,
+ * so each operand is read once and only the result is written to memory, with no intermediate matrices.
+ * For example {@code w.lazy().mul(a).minus(d.lazy().mul(b)).evaluate()} makes one pass instead of three and
+ * allocates one matrix instead of three.
+ */
+public final class LazyMatrix {
+    /**
+     * Elements evaluated at a time by each node
+     */
+    static final int CHUNK = 256;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private final Node node;
+    private final int row;
+    private final int col;
+
+    private LazyMatrix(Node node, int row, int col) {
+        this.node = node;
+        this.row = row;
+        this.col = col;
+    }
+
+    /**
+     * Wrap a {@link MatrixJava} as the leaf of an expression
+     *
+     * @param matrix
+     * @return
+     */
+    static LazyMatrix of(MatrixJava matrix) {
+        return new LazyMatrix(new Leaf(matrix), matrix.getRowCount(), matrix.getColCount());
+    }
+
+    /**
+     * Element-wise this + in
+     *
+     * @param in
+     * @return
+     */
+    public LazyMatrix add(LazyMatrix in) {
+        return binary(in, Op.ADD);
+    }
+
+    /**
+     * Element-wise this + in
+     *
+     * @param in
+     * @return
+     */
+    public LazyMatrix add(MatrixJava in) {
+        return add(of(in));
+    }
+
+    /**
+     * Element-wise this - in
+     *
+     * @param in
+     * @return
+     */
+    public LazyMatrix minus(LazyMatrix in) {
+        return binary(in, Op.SUB);
+    }
+
+    /**
+     * Element-wise this - in
+     *
+     * @param in
+     * @return
+     */
+    public LazyMatrix minus(MatrixJava in) {
+        return minus(of(in));
+    }
+
+    /**
+     * Element-wise this * in
+     *
+     * @param in
+     * @return
+     */
+    public LazyMatrix mul(LazyMatrix in) {
+        return binary(in, Op.MUL);
+    }
+
+    /**
+     * Element-wise this * in
+     *
+     * @param in
+     * @return
+     */
+    public LazyMatrix mul(MatrixJava in) {
+        return mul(of(in));
+    }
+
+    /**
+     * Multiply each element by the scalar
+     *
+     * @param scalar
+     * @return
+     */
+    public LazyMatrix mul(double scalar) {
+        return new LazyMatrix(new Scalar(node, scalar, true), row, col);
+    }
+
+    /**
+     * Add the scalar to each element
+     *
+     * @param scalar
+     * @return
+     */
+    public LazyMatrix add(double scalar) {
+        return new LazyMatrix(new Scalar(node, scalar, false), row, col);
+    }
+
+    /**
+     * Minus the scalar from each element
+     *
+     * @param scalar
+     * @return
+     */
+    public LazyMatrix minus(double scalar) {
+        return add(-scalar);
+    }
+
+    /**
+     * Apply the transformation function to each element
+     *
+     * @param transformer
+     * @return
+     */
+    public LazyMatrix transform(DoubleUnaryOperator transformer) {
+        return new LazyMatrix(new Map(node, transformer), row, col);
+    }
+
+    /**
+     * Evaluate the expression into a new {@link MatrixJava}
+     *
+     * @return
+     */
+    public MatrixJava evaluate() {
+        return evaluateInto(new MatrixJava(row, col));
+    }
+
+    /**
+     * Evaluate the expression into dest. dest may be one of the operands of the expression, but must not partially
+     * overlap any of them, like a shifted view of the same storage.
+     *
+     * @param dest
+     * @return dest
+     */
+    public MatrixJava evaluateInto(MatrixJava dest) {
+        if (dest.getRowCount() != row || dest.getColCount() != col) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), dest: (%d, %d)", row, col, dest.getRowCount(),
+                            dest.getColCount()));
+        }
+        // a chunk of row i is written back while the later rows of the operands are still to be read
+        node.checkDestination(dest);
+
+        // one scratch chunk per level of the tree, a binary node evaluates its right child one level down
+        int chunk = Math.min(CHUNK, col);
+        double[][] scratch = new double[node.depth() + 1][chunk];
+        double[] out = scratch[0];
+        for (int i = 0; i < row; i++) {
+            for (int j = 0; j < col; j += chunk) {
+                int len = Math.min(chunk, col - j);
+                node.eval(i, j, len, out, scratch, 1);
+                // written back only after the whole chunk is evaluated, so dest can alias an operand
+                dest.setRow(i, j, out, len);
+            }
+        }
+
+        return dest;
+    }
+
+    /**
+     * Evaluate and return the value at (row, col), only this element is evaluated
+     *
+     * @param row
+     * @param col
+     * @return
+     */
+    public double get(int row, int col) {
+        if (row < 0 || row >= this.row || col < 0 || col >= this.col) {
+            throw new RuntimeException(
+                    String.format("Index (%d, %d) out of bounds of (%d, %d)", row, col, this.row, this.col));
+        }
+        double[][] scratch = new double[node.depth() + 1][1];
+        node.eval(row, col, 1, scratch[0], scratch, 1);
+        return scratch[0][0];
+    }
+
+    /**
+     * Materialize and return the row-major 1-d array representing the matrix
+     *
+     * @return
+     */
+    public double[] toArray() {
+        return evaluate().toArray();
+    }
+
+    /**
+     * Materialize and multiply with the right matrix
+     *
+     * @param right
+     * @return
+     */
+    public MatrixJava dot(MatrixJava right) {
+        return evaluate().dot(right);
+    }
+
+    /**
+     * Materialize both expressions and multiply them
+     *
+     * @param right
+     * @return
+     */
+    public MatrixJava dot(LazyMatrix right) {
+        return evaluate().dot(right.evaluate());
+    }
+
+    /**
+     * Return row count
+     *
+     * @return
+     */
+    public int getRowCount() {
+        return row;
+    }
+
+    /**
+     * Return col count
+     *
+     * @return
+     */
+    public int getColCount() {
+        return col;
+    }
+
+    private LazyMatrix binary(LazyMatrix in, Op op) {
+        if (row != in.row || col != in.col) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), in: (%d, %d)", row, col, in.row, in.col));
+        }
+        return new LazyMatrix(new Binary(node, in.node, op), row, col);
+    }
+
+    private enum Op {
+        ADD, SUB, MUL
+    }
+
+    /**
+     * A node of the expression tree
+     */
+    private interface Node {
+        /**
+         * Evaluate len elements of row i starting at column j into out[0, len). Scratch buffers at index level and
+         * deeper may be used.
+         */
+        void eval(int i, int j, int len, double[] out, double[][] scratch, int level);
+
+        /**
+         * Number of scratch buffers needed below this node
+         */
+        int depth();
+
+        /**
+         * Throw if dest partially overlaps a leaf below this node, see {@link MatrixJava#checkElementWise}
+         */
+        void checkDestination(MatrixJava dest);
+    }
+
+    private static final class Leaf implements Node {
+        private final MatrixJava matrix;
+
+        Leaf(MatrixJava matrix) {
+            this.matrix = matrix;
+        }
+
+        @Override
+        public void eval(int i, int j, int len, double[] out, double[][] scratch, int level) {
+            matrix.getRow(i, j, out, len);
+        }
+
+        @Override
+        public int depth() {
+            return 0;
+        }
+
+        @Override
+        public void checkDestination(MatrixJava dest) {
+            matrix.checkElementWise(dest, matrix);
+        }
+    }
+
+    private static final class Binary implements Node {
+        private final Node left;
+        private final Node right;
+        private final Op op;
+        private final int depth;
+
+        Binary(Node left, Node right, Op op) {
+            this.left = left;
+            this.right = right;
+            this.op = op;
+            this.depth = Math.max(left.depth(), right.depth() + 1);
+        }
+
+        @Override
+        public void eval(int i, int j, int len, double[] out, double[][] scratch, int level) {
+            // left goes straight into out, right into the scratch of this level, deeper levels are free for both
+            left.eval(i, j, len, out, scratch, level);
+            double[] tmp = scratch[level];
+            right.eval(i, j, len, tmp, scratch, level + 1);
+            switch (op) {
+                case ADD:
+                    KERNELS.add(out, 0, tmp, 0, out, 0, len);
+                    break;
+                case SUB:
+                    KERNELS.sub(out, 0, tmp, 0, out, 0, len);
+                    break;
+                default:
+                    KERNELS.mul(out, 0, tmp, 0, out, 0, len);
+            }
+        }
+
+        @Override
+        public int depth() {
+            return depth;
+        }
+
+        @Override
+        public void checkDestination(MatrixJava dest) {
+            left.checkDestination(dest);
+            right.checkDestination(dest);
+        }
+    }
+
+    private static final class Scalar implements Node {
+        private final Node child;
+        private final double scalar;
+        private final boolean multiply;
+
+        Scalar(Node child, double scalar, boolean multiply) {
+            this.child = child;
+            this.scalar = scalar;
+            this.multiply = multiply;
+        }
+
+        @Override
+        public void eval(int i, int j, int len, double[] out, double[][] scratch, int level) {
+            child.eval(i, j, len, out, scratch, level);
+            if (multiply) {
+                KERNELS.scale(out, 0, scalar, out, 0, len);
+            } else {
+                KERNELS.shift(out, 0, scalar, out, 0, len);
+            }
+        }
+
+        @Override
+        public int depth() {
+            return child.depth();
+        }
+
+        @Override
+        public void checkDestination(MatrixJava dest) {
+            child.checkDestination(dest);
+        }
+    }
+
+    private static final class Map implements Node {
+        private final Node child;
+        private final DoubleUnaryOperator transformer;
+
+        Map(Node child, DoubleUnaryOperator transformer) {
+            this.child = child;
+            this.transformer = transformer;
+        }
+
+        @Override
+        public void eval(int i, int j, int len, double[] out, double[][] scratch, int level) {
+            child.eval(i, j, len, out, scratch, level);
+            for (int k = 0; k < len; k++) {
+                out[k] = transformer.applyAsDouble(out[k]);
+            }
+        }
+
+        @Override
+        public int depth() {
+            return child.depth();
+        }
+
+        @Override
+        public void checkDestination(MatrixJava dest) {
+            child.checkDestination(dest);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+
+/**
+ * Anything that can compute y = A * x, the only access to A the iterative solvers need, see {@link KrylovSolver}.
+ * <p>
+ * A does not have to be stored: a stencil, a product of matrices or any implicitly defined linear map can be
+ * implemented directly. {@link #of(CSRMatrix)} and {@link #of(MatrixJava)} wrap stored matrices.
+ */
+public interface LinearOperator {
+    /**
+     * Return the number of elements of y
+     *
+     * @return
+     */
+    int getRowCount();
+
+    /**
+     * Return the number of elements of x
+     *
+     * @return
+     */
+    int getColCount();
+
+    /**
+     * Overwrite y with A * x
+     *
+     * @param x {@link #getColCount()} elements
+     * @param y {@link #getRowCount()} elements
+     */
+    void apply(double[] x, double[] y);
+
+    /**
+     * The operator of a sparse matrix, each application costs one pass over the stored entries
+     *
+     * @param a
+     * @return
+     */
+    static LinearOperator of(CSRMatrix a) {
+        return new LinearOperator() {
+            @Override
+            public int getRowCount() {
+                return a.getRowCount();
+            }
+
+            @Override
+            public int getColCount() {
+                return a.getColCount();
+            }
+
+            @Override
+            public void apply(double[] x, double[] y) {
+                checkLengths(this, x, y);
+                Arrays.fill(y, 0, a.getRowCount(), 0);
+                SparseKernels.gather(a.getRowCount(), a.rowPointers(), a.columnIndices(), a.values(), 1, x, 0, 1, y,
+                        0, 1);
+            }
+        };
+    }
+
+    /**
+     * The operator of a dense matrix
+     *
+     * @param a
+     * @return
+     */
+    static LinearOperator of(MatrixJava a) {
+        return new LinearOperator() {
+            @Override
+            public int getRowCount() {
+                return a.getRowCount();
+            }
+
+            @Override
+            public int getColCount() {
+                return a.getColCount();
+            }
+
+            @Override
+            public void apply(double[] x, double[] y) {
+                checkLengths(this, x, y);
+                Arrays.fill(y, 0, a.getRowCount(), 0);
+                Backends.gemm(a.getRowCount(), 1, a.getColCount(), a.data(), a.offset(), a.stride(), 1, x, 0, 1, 1,
+                        y, 0, 1);
+            }
+        };
+    }
+
+    /**
+     * Check that x and y have the lengths of the operator, the kernels would otherwise read or write past them
+     *
+     * @param a
+     * @param x
+     * @param y
+     */
+    private static void checkLengths(LinearOperator a, double[] x, double[] y) {
+        if (x.length != a.getColCount() || y.length != a.getRowCount()) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! A: (%d, %d), x: %d, y: %d", a.getRowCount(), a.getColCount(),
+                            x.length, y.length));
+        }
+    }
+}
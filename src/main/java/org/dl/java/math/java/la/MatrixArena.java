@@ -0,0 +1,214 @@
+package org.dl.java.math.java.la;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A per-thread pool of scratch {@link MatrixJava} buffers, keyed by shape, for temporaries that are created over and
+ * over with the same shapes, like the activations of a network during back propagation.
+ * <p>
+ * The arena works like a stack: {@link #mark()} remembers how many buffers are handed out, {@link #release(int)}
+ * takes back every buffer handed out since the mark and keeps it for the next request of the same shape:
+ * <pre>
+ * MatrixArena arena = MatrixArena.current();
+ * int mark = arena.mark();
+ * try {
+ *     MatrixJava z = arena.allocate(rows, 1);
+ *     ...
+ * } finally {
+ *     arena.release(mark);
+ * }
+ * </pre>
+ * A buffer must not be used, nor referenced by a result, after its release. An arena belongs to its thread, so no
+ * synchronization is needed.
+ * <p>
+ * The released buffers are kept as long as the thread lives, which for the workers of a pool is as long as the pool.
+ * {@link #trim()} drops the ones of the calling thread, {@link #trimAll()} the ones of every thread, once the shapes
+ * of a finished job will not come back.
+ * <p>
+ * Optimization note:
+ * 1. Once every shape of a loop iteration has been seen, the iterations allocate nothing: the buffers stay in the old
+ * generation instead of filling the young one with short-lived arrays, and a recycled buffer is likely still in cache.
+ * 2. The free buffers are found by shape in a small open-addressed table of int rows and columns, so a request boxes
+ * no key and walks no hash chain.
+ */
+public final class MatrixArena {
+    private static final ThreadLocal<MatrixArena> CURRENT = ThreadLocal.withInitial(MatrixArena::new);
+    /**
+     * Bumped by {@link #trimAll()}, an arena that has seen an older value drops its free buffers
+     */
+    private static final AtomicInteger TRIM_GENERATION = new AtomicInteger();
+    private static final int INITIAL_CAPACITY = 16;
+
+    // open-addressed table of the free buffers by shape, linear probing, a null slot is empty
+    private int[] rows = new int[INITIAL_CAPACITY];
+    private int[] cols = new int[INITIAL_CAPACITY];
+    private ArrayDeque<MatrixJava>[] free = newSlots(INITIAL_CAPACITY);
+    private int shapeCount;
+    private final List<MatrixJava> used = new ArrayList<>();
+    private long allocationCount;
+    private int trimGeneration = TRIM_GENERATION.get();
+
+    private MatrixArena() {
+    }
+
+    /**
+     * The arena of the calling thread
+     *
+     * @return
+     */
+    public static MatrixArena current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Remember the buffers handed out so far, see {@link #release(int)}
+     *
+     * @return
+     */
+    public int mark() {
+        if (trimGeneration != TRIM_GENERATION.get()) {
+            trimGeneration = TRIM_GENERATION.get();
+            trim();
+        }
+        return used.size();
+    }
+
+    /**
+     * Take back every buffer handed out since the mark
+     *
+     * @param mark
+     */
+    public void release(int mark) {
+        for (int i = used.size() - 1; i >= mark; i--) {
+            MatrixJava m = used.remove(i);
+            freeList(m.getRowCount(), m.getColCount(), true).push(m);
+        }
+    }
+
+    /**
+     * Hand out a (row, col) buffer, its content is undefined, for destinations that are overwritten like the one of
+     * {@link MatrixJava#dotInto}
+     *
+     * @param row
+     * @param col
+     * @return
+     */
+    public MatrixJava allocate(int row, int col) {
+        ArrayDeque<MatrixJava> shape = freeList(row, col, false);
+        MatrixJava m = shape == null ? null : shape.poll();
+        if (m == null) {
+            m = new MatrixJava(row, col);
+            allocationCount++;
+        }
+        used.add(m);
+        return m;
+    }
+
+    /**
+     * Hand out an all 0 (row, col) buffer
+     *
+     * @param row
+     * @param col
+     * @return
+     */
+    public MatrixJava zeros(int row, int col) {
+        return allocate(row, col).fill(0);
+    }
+
+    /**
+     * Number of buffers this arena had to create, the requests it could not serve from released buffers
+     *
+     * @return
+     */
+    public long getAllocationCount() {
+        return allocationCount;
+    }
+
+    /**
+     * Drop the released buffers of this arena, the buffers handed out are not affected
+     */
+    public void trim() {
+        rows = new int[INITIAL_CAPACITY];
+        cols = new int[INITIAL_CAPACITY];
+        free = newSlots(INITIAL_CAPACITY);
+        shapeCount = 0;
+    }
+
+    /**
+     * Drop the released buffers of the arenas of every thread. An arena is trimmed the next time its thread calls
+     * {@link #mark()}, as another thread may be using it right now, so the buffers of an idle pool thread are only
+     * dropped when it runs again or terminates.
+     */
+    public static void trimAll() {
+        TRIM_GENERATION.incrementAndGet();
+    }
+
+    /**
+     * The free list of the (row, col) shape
+     *
+     * @param row
+     * @param col
+     * @param create add an empty list if the shape has none
+     * @return null if the shape has none and create is false
+     */
+    private ArrayDeque<MatrixJava> freeList(int row, int col, boolean create) {
+        int mask = free.length - 1;
+        int slot = hash(row, col) & mask;
+        while (free[slot] != null) {
+            if (rows[slot] == row && cols[slot] == col) {
+                return free[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return null;
+        }
+        if (2 * (shapeCount + 1) > free.length) {
+            grow();
+            return freeList(row, col, true);
+        }
+        rows[slot] = row;
+        cols[slot] = col;
+        free[slot] = new ArrayDeque<>();
+        shapeCount++;
+        return free[slot];
+    }
+
+    /**
+     * Double the table, keeping it at most half full so that the probes stay short
+     */
+    private void grow() {
+        int[] oldRows = rows;
+        int[] oldCols = cols;
+        ArrayDeque<MatrixJava>[] oldFree = free;
+        rows = new int[oldFree.length * 2];
+        cols = new int[oldFree.length * 2];
+        free = newSlots(oldFree.length * 2);
+        int mask = free.length - 1;
+        for (int i = 0; i < oldFree.length; i++) {
+            if (oldFree[i] != null) {
+                int slot = hash(oldRows[i], oldCols[i]) & mask;
+                while (free[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                rows[slot] = oldRows[i];
+                cols[slot] = oldCols[i];
+                free[slot] = oldFree[i];
+            }
+        }
+    }
+
+    private static int hash(int row, int col) {
+        // Fibonacci hashing spreads close shapes over the low bits the table is indexed by
+        int h = (row * 31 + col) * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static ArrayDeque<MatrixJava>[] newSlots(int capacity) {
+        return new ArrayDeque[capacity];
+    }
+}
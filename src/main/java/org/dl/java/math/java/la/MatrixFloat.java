@@ -0,0 +1,637 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+
+import static java.lang.System.arraycopy;
+
+/**
+ * Single precision counterpart of {@link MatrixJava}, for workloads like neural networks that do not need 64-bit
+ * precision.
+ * <p>
+ * The elements are stored row-major in one compact {@code float[]}, element (i, j) lives at {@code i * col + j}. A
+ * matrix takes half the memory of a {@link MatrixJava} of the same shape, and memory-bound operations like
+ * element-wise updates and matrix-vector products move half the bytes.
+ * <p>
+ * Optimization note:
+ * The element-wise operations run through the float kernels of {@link ElementKernels} and the products through
+ * {@link Sgemm}, so a SIMD vector holds twice as many elements as with doubles. Like the ones of {@link MatrixJava},
+ * the large products go to the native backend {@link Backends} selects for their shape. Element functions are given
+ * as {@link DoubleUnaryOperator} so the activations written for {@link MatrixJava} can be reused.
+ */
+public class MatrixFloat {
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private final float[] data;
+    private final int row;
+    private final int col;
+
+    /**
+     * Creating an all 0 matrix
+     *
+     * @param row
+     * @param col
+     */
+    public MatrixFloat(int row, int col) {
+        this(row, col, new float[row * col]);
+    }
+
+    /**
+     * Creating a {@link MatrixFloat} from a 2-d array. The values are copied into the contiguous storage.
+     *
+     * @param data
+     */
+    public MatrixFloat(float[][] data) {
+        this(data.length, data.length == 0 ? 0 : data[0].length);
+        for (int i = 0; i < row; i++) {
+            if (data[i].length != col) {
+                throw new RuntimeException("All rows must have the same length!");
+            }
+            arraycopy(data[i], 0, this.data, i * col, col);
+        }
+    }
+
+    /**
+     * Creating a {@link MatrixFloat} wrapping a row-major 1-d array, no copy is made.
+     *
+     * @param row
+     * @param col
+     * @param data
+     */
+    public MatrixFloat(int row, int col, float[] data) {
+        if (row == 0 || col == 0) {
+            throw new RuntimeException("Cannot create 0-dimension matrix!");
+        }
+        if (data.length < row * col) {
+            throw new RuntimeException(
+                    String.format("Array of length %d is too short for a (%d, %d) matrix", data.length, row, col));
+        }
+        this.data = data;
+        this.row = row;
+        this.col = col;
+    }
+
+    /**
+     * Round a {@link MatrixJava} to single precision
+     *
+     * @param matrix
+     * @return
+     */
+    public static MatrixFloat of(MatrixJava matrix) {
+        MatrixFloat ret = new MatrixFloat(matrix.getRowCount(), matrix.getColCount());
+        for (int i = 0; i < ret.row; i++) {
+            for (int j = 0; j < ret.col; j++) {
+                ret.data[i * ret.col + j] = (float) matrix.get(i, j);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Factory method to return a Gaussian random values matrix. The gaussian distribution is
+     * with mean of mean and variance of std^2.
+     *
+     * @param row
+     * @param col
+     * @param mean
+     * @param std
+     * @return
+     */
+    public static MatrixFloat getGaussionRandomMatrix(int row, int col, double mean, double std) {
+        Random random = new Random();
+        float[] data = new float[row * col];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (float) (random.nextGaussian() * std + mean);
+        }
+
+        return new MatrixFloat(row, col, data);
+    }
+
+    /**
+     * Standard Gaussian random values matrix
+     *
+     * @param row
+     * @param col
+     * @return
+     */
+    public static MatrixFloat getGaussionRandomMatrix(int row, int col) {
+        return getGaussionRandomMatrix(row, col, 0, 1);
+    }
+
+    /**
+     * Produce an n*n identity matrix
+     *
+     * @param n
+     * @return
+     */
+    public static MatrixFloat identity(int n) {
+        MatrixFloat ret = new MatrixFloat(n, n);
+        for (int i = 0; i < n; i++) {
+            ret.data[i * n + i] = 1;
+        }
+        return ret;
+    }
+
+    /**
+     * Return a double precision copy
+     *
+     * @return
+     */
+    public MatrixJava toMatrixJava() {
+        double[] ret = new double[row * col];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = data[i];
+        }
+        return new MatrixJava(row, col, ret);
+    }
+
+    /**
+     * Deep copy of the current matrix
+     *
+     * @return
+     */
+    public MatrixFloat replicate() {
+        return new MatrixFloat(row, col, Arrays.copyOf(data, row * col));
+    }
+
+    /**
+     * Add a {@link MatrixFloat} to the current matrix
+     *
+     * @param in
+     * @return
+     */
+    public MatrixFloat add(MatrixFloat in) {
+        return addInto(in, new MatrixFloat(row, col));
+    }
+
+    /**
+     * Minus a {@link MatrixFloat} from the current matrix
+     *
+     * @param in
+     * @return
+     */
+    public MatrixFloat minus(MatrixFloat in) {
+        return minusInto(in, new MatrixFloat(row, col));
+    }
+
+    /**
+     * Add the scalar value to each element
+     *
+     * @param scalar
+     * @return
+     */
+    public MatrixFloat add(float scalar) {
+        return replicate().addInPlace(scalar);
+    }
+
+    /**
+     * Multiply each element by the scalar value
+     *
+     * @param scalar
+     * @return
+     */
+    public MatrixFloat mul(float scalar) {
+        float[] res = new float[row * col];
+        KERNELS.scale(data, 0, scalar, res, 0, row * col);
+        return new MatrixFloat(row, col, res);
+    }
+
+    /**
+     * Element-wise product with a {@link MatrixFloat}
+     *
+     * @param in
+     * @return
+     */
+    public MatrixFloat mul(MatrixFloat in) {
+        return mulInto(in, new MatrixFloat(row, col));
+    }
+
+    /**
+     * Return the product of this matrix and the right matrix
+     *
+     * @param right
+     * @return
+     */
+    public MatrixFloat dot(MatrixFloat right) {
+        return product(row, col, col, 1, right, right.row, right.col, right.col, 1);
+    }
+
+    /**
+     * Return this^T . right without transposing this matrix
+     *
+     * @param right
+     * @return
+     */
+    public MatrixFloat dotTransposeLeft(MatrixFloat right) {
+        return product(col, row, 1, col, right, right.row, right.col, right.col, 1);
+    }
+
+    /**
+     * Return this . right^T without transposing the right matrix
+     *
+     * @param right
+     * @return
+     */
+    public MatrixFloat dotTransposeRight(MatrixFloat right) {
+        return product(row, col, col, 1, right, right.col, right.row, 1, right.col);
+    }
+
+    /**
+     * Fused layer kernel: returns activation(this . x + bias), see {@link #affineInto}
+     *
+     * @param x          (col, n) input
+     * @param bias       (row, 1) bias broadcast over the columns, or a (row, n) matrix
+     * @param activation function applied to each element
+     * @return
+     */
+    public MatrixFloat affine(MatrixFloat x, MatrixFloat bias, DoubleUnaryOperator activation) {
+        return affineInto(x, bias, activation, null, new MatrixFloat(row, x.col));
+    }
+
+    /**
+     * Fused layer kernel writing into preallocated buffers: z = this . x + bias and a = activation(z)
+     *
+     * @param x          (col, n) input
+     * @param bias       (row, 1) bias broadcast over the columns, or a (row, n) matrix
+     * @param activation function applied to each element
+     * @param z          (row, n) destination for the value before activation, may be null if not needed
+     * @param a          (row, n) destination for the activation
+     * @return a
+     */
+    public MatrixFloat affineInto(MatrixFloat x, MatrixFloat bias, DoubleUnaryOperator activation, MatrixFloat z,
+                                  MatrixFloat a) {
+        int n = x.col;
+        if (col != x.row || a.row != row || a.col != n || (z != null && (z.row != row || z.col != n))
+                || bias.row != row || (bias.col != 1 && bias.col != n)) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! this: (%d, %d), x: (%d, %d), bias: (%d, %d)", row, col, x.row,
+                            x.col, bias.row, bias.col));
+        }
+        if (a.data == x.data || (z != null && z.data == x.data)) {
+            throw new RuntimeException("Destination must not share storage with an operand!");
+        }
+
+        MatrixFloat target = z != null ? z : a;
+        if (n == 1) {
+            for (int i = 0; i < row; i++) {
+                target.data[i] = KERNELS.dot(data, i * col, x.data, 0, col) + bias.data[i];
+            }
+        } else {
+            dotInto(x, target);
+            for (int i = 0; i < row; i++) {
+                if (bias.col == 1) {
+                    KERNELS.shift(target.data, i * n, bias.data[i], target.data, i * n, n);
+                } else {
+                    KERNELS.add(target.data, i * n, bias.data, i * n, target.data, i * n, n);
+                }
+            }
+        }
+        for (int i = 0; i < row * n; i++) {
+            a.data[i] = (float) activation.applyAsDouble(target.data[i]);
+        }
+
+        return a;
+    }
+
+    /**
+     * Write the product of this matrix and the right matrix into dest, overwriting its content.
+     * dest must not share storage with either operand.
+     *
+     * @param right
+     * @param dest
+     * @return dest
+     */
+    public MatrixFloat dotInto(MatrixFloat right, MatrixFloat dest) {
+        if (col != right.row || dest.row != row || dest.col != right.col) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d), dest: (%d, %d)", row, col,
+                            right.row, right.col, dest.row, dest.col));
+        }
+        if (dest.data == data || dest.data == right.data) {
+            throw new RuntimeException("Destination must not share storage with an operand!");
+        }
+
+        dest.fill(0);
+        Backends.sgemm(row, right.col, col, data, 0, col, 1, right.data, 0, right.col, 1, dest.data, 0, dest.col);
+
+        return dest;
+    }
+
+    /**
+     * Running the LU decomposition with partial pivoting on the current matrix
+     *
+     * @return
+     */
+    public LUDecompositionFloat lu() {
+        if (row != col) {
+            throw new RuntimeException("LU decomposition can only be done to square matrix");
+        }
+
+        float[] packed = Arrays.copyOf(data, row * col);
+        int[] pivots = LUDecompositionFloat.factor(row, packed);
+        return new LUDecompositionFloat(new MatrixFloat(row, col, packed), pivots);
+    }
+
+    /**
+     * Solve AX = B, b can have any number of columns
+     *
+     * @param b
+     * @return
+     */
+    public MatrixFloat solve(MatrixFloat b) {
+        return lu().solve(b);
+    }
+
+    /**
+     * Return the inverse of current matrix
+     *
+     * @return
+     */
+    public MatrixFloat inverse() {
+        if (row != col) {
+            throw new RuntimeException("Must be a square matrix!");
+        }
+        return lu().inverse();
+    }
+
+    /**
+     * Apply the transformation function to each element
+     *
+     * @param transformer
+     * @return
+     */
+    public MatrixFloat transform(DoubleUnaryOperator transformer) {
+        return transformInto(transformer, new MatrixFloat(row, col));
+    }
+
+    /**
+     * Returns a transposed version of current matrix. The copy is cache-blocked, see {@link Transpose}.
+     *
+     * @return
+     */
+    public MatrixFloat transpose() {
+        float[] res = new float[col * row];
+        Transpose.transpose(row, col, data, 0, col, res, 0, row);
+
+        return new MatrixFloat(col, row, res);
+    }
+
+    /**
+     * Add a {@link MatrixFloat} to the current matrix in place.
+     *
+     * @param in
+     * @return this matrix
+     */
+    public MatrixFloat addInPlace(MatrixFloat in) {
+        return addInto(in, this);
+    }
+
+    /**
+     * Minus a {@link MatrixFloat} from the current matrix in place.
+     *
+     * @param in
+     * @return this matrix
+     */
+    public MatrixFloat minusInPlace(MatrixFloat in) {
+        return minusInto(in, this);
+    }
+
+    /**
+     * Element-wise multiply the current matrix by a {@link MatrixFloat} in place.
+     *
+     * @param in
+     * @return this matrix
+     */
+    public MatrixFloat mulInPlace(MatrixFloat in) {
+        return mulInto(in, this);
+    }
+
+    /**
+     * Multiply each element of the current matrix by the scalar value in place.
+     *
+     * @param scalar
+     * @return this matrix
+     */
+    public MatrixFloat scaleInPlace(float scalar) {
+        KERNELS.scale(data, 0, scalar, data, 0, row * col);
+        return this;
+    }
+
+    /**
+     * Add the scalar value to each element of the current matrix in place.
+     *
+     * @param scalar
+     * @return this matrix
+     */
+    public MatrixFloat addInPlace(float scalar) {
+        KERNELS.shift(data, 0, scalar, data, 0, row * col);
+        return this;
+    }
+
+    /**
+     * this = this + alpha * x, in place.
+     *
+     * @param alpha
+     * @param x
+     * @return this matrix
+     */
+    public MatrixFloat axpyInPlace(float alpha, MatrixFloat x) {
+        checkSameDimension(x);
+        KERNELS.axpy(alpha, x.data, 0, data, 0, row * col);
+        return this;
+    }
+
+    /**
+     * Apply the transformation function to each element of the current matrix in place.
+     *
+     * @param transformer
+     * @return this matrix
+     */
+    public MatrixFloat transformInPlace(DoubleUnaryOperator transformer) {
+        return transformInto(transformer, this);
+    }
+
+    /**
+     * Set every element of the current matrix to the value.
+     *
+     * @param value
+     * @return this matrix
+     */
+    public MatrixFloat fill(float value) {
+        Arrays.fill(data, 0, row * col, value);
+        return this;
+    }
+
+    /**
+     * Write this + in into dest. dest may be this or in.
+     *
+     * @param in
+     * @param dest
+     * @return dest
+     */
+    public MatrixFloat addInto(MatrixFloat in, MatrixFloat dest) {
+        checkSameDimension(in);
+        checkSameDimension(dest);
+        KERNELS.add(data, 0, in.data, 0, dest.data, 0, row * col);
+        return dest;
+    }
+
+    /**
+     * Write this - in into dest. dest may be this or in.
+     *
+     * @param in
+     * @param dest
+     * @return dest
+     */
+    public MatrixFloat minusInto(MatrixFloat in, MatrixFloat dest) {
+        checkSameDimension(in);
+        checkSameDimension(dest);
+        KERNELS.sub(data, 0, in.data, 0, dest.data, 0, row * col);
+        return dest;
+    }
+
+    /**
+     * Write the element-wise product of this and in into dest. dest may be this or in.
+     *
+     * @param in
+     * @param dest
+     * @return dest
+     */
+    public MatrixFloat mulInto(MatrixFloat in, MatrixFloat dest) {
+        checkSameDimension(in);
+        checkSameDimension(dest);
+        KERNELS.mul(data, 0, in.data, 0, dest.data, 0, row * col);
+        return dest;
+    }
+
+    /**
+     * Apply the transformation function to each element and write the result into dest. dest may be this.
+     *
+     * @param transformer
+     * @param dest
+     * @return dest
+     */
+    public MatrixFloat transformInto(DoubleUnaryOperator transformer, MatrixFloat dest) {
+        checkSameDimension(dest);
+        for (int i = 0; i < row * col; i++) {
+            dest.data[i] = (float) transformer.applyAsDouble(data[i]);
+        }
+        return dest;
+    }
+
+    /**
+     * Returns the max index, if it is row vector, return the max row index, if it is a col vector,
+     * return the max col index. Otherwise, throw {@link RuntimeException}
+     *
+     * @return
+     */
+    public int argmax() {
+        if (row != 1 && col != 1) {
+            throw new RuntimeException("Does not support find max index on non-vector matrix");
+        }
+
+        int ind = 0;
+        for (int i = 1; i < row * col; i++) {
+            if (data[i] > data[ind]) {
+                ind = i;
+            }
+        }
+        return ind;
+    }
+
+    /**
+     * Frobenius norm, accumulated in double precision
+     *
+     * @return
+     */
+    public double norm() {
+        return Math.sqrt(KERNELS.sumOfSquares(data, 0, row * col));
+    }
+
+    /**
+     * Return a row-major copy of the elements
+     *
+     * @return
+     */
+    public float[] toArray() {
+        return Arrays.copyOf(data, row * col);
+    }
+
+    /**
+     * Return the value at (row, col)
+     *
+     * @param row
+     * @param col
+     * @return
+     */
+    public float get(int row, int col) {
+        return data[row * this.col + col];
+    }
+
+    /**
+     * Set the value at (row, col)
+     *
+     * @param row
+     * @param col
+     * @param value
+     */
+    public void set(int row, int col, float value) {
+        data[row * this.col + col] = value;
+    }
+
+    /**
+     * Return row count
+     *
+     * @return
+     */
+    public int getRowCount() {
+        return row;
+    }
+
+    /**
+     * Return col count
+     *
+     * @return
+     */
+    public int getColCount() {
+        return col;
+    }
+
+    /**
+     * The backing array, for kernels of this package
+     *
+     * @return
+     */
+    float[] data() {
+        return data;
+    }
+
+    /**
+     * Product of op(this) and op(right), where each op is described by its dimension and its row and column strides
+     * over the original storage.
+     */
+    private MatrixFloat product(int m, int k, int aRs, int aCs, MatrixFloat right, int rk, int n, int bRs, int bCs) {
+        if (k != rk) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d)", m, k, rk, n));
+        }
+
+        float[] result = new float[m * n];
+        Backends.sgemm(m, n, k, data, 0, aRs, aCs, right.data, 0, bRs, bCs, result, 0, n);
+
+        return new MatrixFloat(m, n, result);
+    }
+
+    /**
+     * Throw if in does not have the same dimension as the current matrix
+     *
+     * @param in
+     */
+    private void checkSameDimension(MatrixFloat in) {
+        if (row != in.row || col != in.col) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), in: (%d, %d)", row, col, in.row, in.col));
+        }
+    }
+}
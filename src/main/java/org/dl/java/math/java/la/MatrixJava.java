@@ -4,16 +4,51 @@ import java.util.Arrays;
 import java.util.Random;
 import java.util.function.DoubleUnaryOperator;
 
+import org.dl.java.math.la.Matrix;
+
 import static java.lang.System.arraycopy;
 
 /**
  * This class represents the implementation of a matrix and its operations.
  * The implementation is pure java and is very slow compare to netlib-java
+ * <p>
+ * The elements are stored row-major in one contiguous {@code double[]}. Element (i, j) lives at
+ * {@code offset + i * stride + j}, so all rows share the same backing array instead of being separate heap objects.
+ * The same layout describes views: {@link #view}, {@link #viewRows}, {@link #viewCols}, {@link #viewRow} and
+ * {@link #viewCol} return matrices sharing the storage of their parent, no data is copied and writes through a view
+ * are visible in the parent.
+ * <p>
+ * Element-wise operations and reductions run through {@link ElementKernels}, which uses the
+ * {@code jdk.incubator.vector} API when the JVM is started with {@code --add-modules jdk.incubator.vector} and plain
+ * loops otherwise. Products pick the pure Java kernels or a native BLAS by their shape, see {@link Backends}.
  */
-public class MatrixJava {
-    private final double[][] data;
+public class MatrixJava implements Matrix {
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+    /**
+     * Relative difference allowed between A(i, j) and A(j, i) of a matrix taken as symmetric
+     */
+    private static final double SYMMETRY_TOLERANCE = 1e-10;
+    /**
+     * Sketch columns beyond the rank taken by {@link #truncatedSvd(int)}
+     */
+    public static final int SVD_OVERSAMPLING = 10;
+    /**
+     * Power iterations run by {@link #truncatedSvd(int)}
+     */
+    public static final int SVD_POWER_ITERATIONS = 2;
+
+    private final double[] data;
+    private final int offset;
+    private final int stride;
     private final int row;
     private final int col;
+    /**
+     * Modification count of the storage, shared by every view over it
+     */
+    private final int[] version;
+    private boolean cacheLU;
+    private LUDecomposition cachedLU;
+    private int cachedLUVersion;
 
     /**
      * Creating an all 0 matrix
@@ -27,11 +62,14 @@ public class MatrixJava {
         }
         this.row = row;
         this.col = col;
-        this.data = new double[row][col];
+        this.offset = 0;
+        this.stride = col;
+        this.data = new double[row * col];
+        this.version = new int[1];
     }
 
     /**
-     * Creating a {@link MatrixJava} from a 2-d array
+     * Creating a {@link MatrixJava} from a 2-d array. The values are copied into the contiguous storage.
      *
      * @param data
      */
@@ -39,9 +77,33 @@ public class MatrixJava {
         if (data.length == 0 || data[0].length == 0) {
             throw new RuntimeException("Cannot create 0-dimension matrix!");
         }
-        this.data = data;
         this.row = data.length;
         this.col = data[0].length;
+        this.offset = 0;
+        this.stride = col;
+        this.data = new double[row * col];
+        for (int i = 0; i < row; i++) {
+            if (data[i].length != col) {
+                throw new RuntimeException("All rows must have the same length!");
+            }
+            arraycopy(data[i], 0, this.data, i * col, col);
+        }
+        this.version = new int[1];
+    }
+
+    /**
+     * Creating a {@link MatrixJava} wrapping a row-major 1-d array, no copy is made.
+     *
+     * @param row
+     * @param col
+     * @param data
+     */
+    public MatrixJava(int row, int col, double[] data) {
+        this(data, 0, col, row, col);
+        if (data.length < row * col) {
+            throw new RuntimeException(
+                    String.format("Array of length %d is too short for a (%d, %d) matrix", data.length, row, col));
+        }
     }
 
     /**
@@ -51,8 +113,46 @@ public class MatrixJava {
      */
     public MatrixJava(MatrixJava matrixJava) {
         this.data = matrixJava.data;
+        this.offset = matrixJava.offset;
+        this.stride = matrixJava.stride;
         this.row = matrixJava.row;
         this.col = matrixJava.col;
+        this.version = matrixJava.version;
+    }
+
+    /**
+     * Creating a {@link MatrixJava} over an existing storage with the given offset and row stride.
+     *
+     * @param data
+     * @param offset
+     * @param stride
+     * @param row
+     * @param col
+     */
+    MatrixJava(double[] data, int offset, int stride, int row, int col) {
+        this(data, offset, stride, row, col, new int[1]);
+    }
+
+    /**
+     * Creating a view over the storage of another {@link MatrixJava}, sharing its modification count.
+     *
+     * @param data
+     * @param offset
+     * @param stride
+     * @param row
+     * @param col
+     * @param version
+     */
+    private MatrixJava(double[] data, int offset, int stride, int row, int col, int[] version) {
+        if (row == 0 || col == 0) {
+            throw new RuntimeException("Cannot create 0-dimension matrix!");
+        }
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+        this.row = row;
+        this.col = col;
+        this.version = version;
     }
 
     /**
@@ -67,14 +167,12 @@ public class MatrixJava {
      */
     public static MatrixJava getGaussionRandomMatrix(int row, int col, double mean, double std) {
         Random random = new Random();
-        double[][] data = new double[row][col];
-        for (int i = 0; i < row; i++) {
-            for (int j = 0; j < col; j++) {
-                data[i][j] = random.nextGaussian() * std + mean;
-            }
+        double[] data = new double[row * col];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextGaussian() * std + mean;
         }
 
-        return new MatrixJava(data);
+        return new MatrixJava(row, col, data);
     }
 
     /**
@@ -90,11 +188,11 @@ public class MatrixJava {
     }
 
     public static MatrixJava identity(int n) {
-        double[][] data = new double[n][n];
+        double[] data = new double[n * n];
         for (int i = 0; i < n; i++) {
-            data[i][i] = 1;
+            data[i * n + i] = 1;
         }
-        return new MatrixJava(data);
+        return new MatrixJava(n, n, data);
     }
 
     /**
@@ -103,12 +201,16 @@ public class MatrixJava {
      * @return
      */
     public MatrixJava replicate() {
-        double[][] data = new double[row][col];
+        if (isCompact()) {
+            return new MatrixJava(row, col, Arrays.copyOfRange(data, offset, offset + row * col));
+        }
+
+        double[] res = new double[row * col];
         for (int i = 0; i < row; i++) {
-            data[i] = Arrays.copyOf(this.data[i], col);
+            arraycopy(data, offset + i * stride, res, i * col, col);
         }
 
-        return new MatrixJava(data);
+        return new MatrixJava(row, col, res);
     }
 
     /**
@@ -138,7 +240,12 @@ public class MatrixJava {
      * @return
      */
     public MatrixJava add(double scalar) {
-        return transform(v -> v + scalar);
+        double[] result = new double[row * col];
+        for (int i = 0; i < row; i++) {
+            KERNELS.shift(data, offset + i * stride, scalar, result, i * col, col);
+        }
+
+        return new MatrixJava(row, col, result);
     }
 
     /**
@@ -158,7 +265,12 @@ public class MatrixJava {
      * @return
      */
     public MatrixJava mul(double scalar) {
-        return transform(v -> v * scalar);
+        double[] result = new double[row * col];
+        for (int i = 0; i < row; i++) {
+            KERNELS.scale(data, offset + i * stride, scalar, result, i * col, col);
+        }
+
+        return new MatrixJava(row, col, result);
     }
 
     /**
@@ -169,14 +281,13 @@ public class MatrixJava {
      */
     public MatrixJava mul(MatrixJava matrixJava) {
         if (row == matrixJava.row && col == matrixJava.col) {
-            double[][] res = new double[row][col];
+            double[] res = new double[row * col];
             for (int i = 0; i < row; i++) {
-                for (int j = 0; j < col; j++) {
-                    res[i][j] = data[i][j] * matrixJava.data[i][j];
-                }
+                KERNELS.mul(data, offset + i * stride, matrixJava.data, matrixJava.offset + i * matrixJava.stride, res,
+                        i * col, col);
             }
 
-            return new MatrixJava(res);
+            return new MatrixJava(row, col, res);
         }
 
         throw new RuntimeException("Two matrixJava must have the same dimension for mul");
@@ -186,9 +297,12 @@ public class MatrixJava {
      * product of this matrix to the right matrix.
      * <p>
      * Optimization note:
-     * 1. Instead of ijk, we use ikj, such that dataIk can always be in the register, this gives 10x improvements.
-     * 2. Using CPU's L3 caches, we did array copy such that the all inner loop computation is based on L3 cache,
-     * this gives another 2x improvements on (1k, 1k) matrix multiplication.
+     * The product goes through the cache-blocked {@link Gemm} kernel: both operands are packed into L1/L2 sized
+     * panels and a register-tiled micro-kernel accumulates each tile of the result before writing it once.
+     * Small products and matrix-vector products skip the packing and use a plain loop.
+     * Large products are split into 2-d tiles of the result which run in parallel on a fork/join pool.
+     * Products above the threshold of {@link Backends} run on the native BLAS instead when one is loaded, like every
+     * product of this class.
      *
      * @param right
      * @return
@@ -197,22 +311,11 @@ public class MatrixJava {
         int rightRow = right.row;
         int rightCol = right.col;
         if (col == rightRow) {
-            double[][] result = new double[row][rightCol];
-            double[] rightBuffer = new double[rightCol];
-            double[] resBuffer = new double[rightCol];
-            for (int i = 0; i < row; i++) {
-                for (int k = 0; k < col; k++) {
-                    System.arraycopy(right.data[k], 0, rightBuffer, 0, rightCol);
-                    double dataIk = data[i][k];
-                    for (int j = 0; j < rightCol; j++) {
-                        resBuffer[j] = Math.fma(dataIk, rightBuffer[j], resBuffer[j]);
-                    }
-                }
-                System.arraycopy(resBuffer, 0, result[i], 0, rightCol);
-                Arrays.fill(resBuffer, 0.0);
-            }
+            double[] result = new double[row * rightCol];
+            Backends.gemm(row, rightCol, col, data, offset, stride, 1, right.data, right.offset, right.stride, 1,
+                    result, 0, rightCol);
 
-            return new MatrixJava(result);
+            return new MatrixJava(row, rightCol, result);
         }
 
         throw new RuntimeException(
@@ -221,325 +324,1239 @@ public class MatrixJava {
     }
 
     /**
-     * Return the inverse of current matrix
+     * Returns this^T . right without materializing the transpose, the kernel reads this matrix column-wise.
      *
+     * @param right
      * @return
      */
-    public MatrixJava inverse() {
-        if (row == col) {
-            int n = data.length;
-            LUDecomposition lu = lu();
-            MatrixJava ret = null;
-            for (int i = 0; i < n; i++) {
-                double[][] b = new double[n][1];
-                b[i][0] = 1;
-                MatrixJava x = solve(new MatrixJava(b), lu);
-                ret = ret == null ? x : ret.appendRight(x);
-            }
-
-            return ret;
-        }
-
-        throw new RuntimeException("Must be a square matrix!");
+    public MatrixJava dotTransposeLeft(MatrixJava right) {
+        return product(col, row, 1, stride, right, right.row, right.col, right.stride, 1);
     }
 
     /**
-     * Running the LU decomposition on the current matrix
+     * Returns this . right^T without materializing the transpose, the kernel reads the right matrix column-wise.
      *
+     * @param right
      * @return
      */
-    public LUDecomposition lu() {
-        int n = data.length;
-        if (n == col) {
-            MatrixJava u = (MatrixJava) replicate();
-            MatrixJava l = identity(data.length);
-
-            for (int k = 0; k < n - 1; k++) {
-                for (int j = k + 1; j < n; j++) {
-                    l.data[j][k] = u.data[j][k] / u.data[k][k];
-                    for (int i = k; i < n; i++) {
-                        u.data[j][i] -= l.data[j][k] * u.data[k][i];
-                    }
-                }
-            }
+    public MatrixJava dotTransposeRight(MatrixJava right) {
+        return product(row, col, stride, 1, right, right.col, right.row, 1, right.stride);
+    }
 
-            return new LUDecomposition(l, u);
-        }
+    /**
+     * Write this^T . right into dest, overwriting its content. dest must not share storage with either operand.
+     *
+     * @param right
+     * @param dest
+     * @return dest
+     */
+    public MatrixJava dotTransposeLeftInto(MatrixJava right, MatrixJava dest) {
+        return productInto(col, row, 1, stride, right, right.row, right.col, right.stride, 1, dest, false);
+    }
 
-        throw new RuntimeException("LU decomposition can only be done to square matrix");
+    /**
+     * Add this . right^T to dest, like the gradient delta . a^T accumulated over the samples of a batch. dest must
+     * not share storage with either operand.
+     *
+     * @param right
+     * @param dest
+     * @return dest
+     */
+    public MatrixJava dotTransposeRightAddInto(MatrixJava right, MatrixJava dest) {
+        return productInto(row, col, stride, 1, right, right.col, right.row, 1, right.stride, dest, true);
     }
 
     /**
-     * Solve Ax = b
+     * Returns this^T . right^T without materializing either transpose.
      *
-     * @param b
+     * @param right
      * @return
      */
-    public MatrixJava solve(MatrixJava b) {
-        return solve(b, lu());
+    public MatrixJava dotTransposeBoth(MatrixJava right) {
+        return product(col, row, 1, stride, right, right.col, right.row, 1, right.stride);
     }
 
     /**
-     * Append a matrix to the right: A.appendRight(B) means (A, B)
-     * A and B must have the same row count
+     * product of this matrix to the right matrix using Strassen-Winograd recursion with the default crossover.
+     * <p>
+     * This does O(n^2.81) work instead of O(n^3), at the cost of a slightly larger rounding error. It pays off for
+     * large (about 2k and up) products, smaller ones are better served by {@link #dot(MatrixJava)}.
      *
      * @param right
      * @return
      */
-    public MatrixJava appendRight(MatrixJava right) {
-        if (row == right.row) {
-            double[][] res = new double[row][col + right.col];
-            for (int i = 0; i < row; i++) {
-                arraycopy(data[i], 0, res[i], 0, col);
-                arraycopy(right.data[i], 0, res[i], col, right.col);
-            }
+    public MatrixJava dotStrassen(MatrixJava right) {
+        return dotStrassen(right, Strassen.DEFAULT_CROSSOVER);
+    }
 
-            return new MatrixJava(res);
+    /**
+     * product of this matrix to the right matrix using Strassen-Winograd recursion. Blocks with a dimension at or
+     * below the crossover use the regular blocked kernel.
+     *
+     * @param right
+     * @param crossover
+     * @return
+     */
+    public MatrixJava dotStrassen(MatrixJava right, int crossover) {
+        if (col != right.row) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d)", row, col, right.row,
+                            right.col));
+        }
+        if (crossover < Strassen.MIN_CROSSOVER) {
+            throw new RuntimeException("Strassen crossover must be at least " + Strassen.MIN_CROSSOVER);
         }
 
-        throw new RuntimeException("matrix must have the same row count!");
+        double[] result = new double[row * right.col];
+        Strassen.multiply(row, right.col, col, data, offset, stride, right.data, right.offset, right.stride, result, 0,
+                right.col, crossover);
+
+        return new MatrixJava(row, right.col, result);
     }
 
     /**
-     * Append a matrix to the left.
+     * Return the product of this matrix and the sparse right matrix. Only the non zero elements of this matrix are
+     * multiplied, each with the stored entries of one row of right, see {@link SparseKernels}.
      *
-     * @param left
+     * @param right
      * @return
      */
-    public MatrixJava appendLeft(MatrixJava left) {
-        return left.appendRight(this);
+    public MatrixJava dot(CSRMatrix right) {
+        return dotAddInto(right, new MatrixJava(row, right.getColCount()));
     }
 
     /**
-     * Append a matrix to the bottom of the current matrix
+     * Add the product of this matrix and the sparse right matrix to dest. Only the elements of dest in the columns
+     * of the stored entries of right are touched, so accumulating a gradient like delta . x^T for a sparse x costs
+     * O(row * nnz). dest must not share storage with this matrix.
      *
-     * @param down
-     * @return
+     * @param right
+     * @param dest
+     * @return dest
      */
-    public MatrixJava appendDown(MatrixJava down) {
-        if (col == down.col) {
-            double[][] res = new double[row + down.row][col];
-            for (int i = 0; i < row; i++) {
-                res[i] = Arrays.copyOf(data[i], col);
-            }
-            for (int i = 0; i < down.row; i++) {
-                res[row + i] = Arrays.copyOf(down.data[i], down.col);
-            }
-            return new MatrixJava(res);
+    public MatrixJava dotAddInto(CSRMatrix right, MatrixJava dest) {
+        if (col != right.getRowCount() || dest.row != row || dest.col != right.getColCount()) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d), dest: (%d, %d)", row, col,
+                            right.getRowCount(), right.getColCount(), dest.row, dest.col));
+        }
+        if (dest.overlaps(this)) {
+            throw new RuntimeException("Destination must not share storage with an operand!");
         }
 
-        throw new RuntimeException("MatrixJava must have the same col count!");
+        SparseKernels.denseTimesRows(row, col, right.rowPointers(), right.columnIndices(), right.values(), data,
+                offset, stride, dest.data, dest.offset, dest.stride);
+        dest.modified();
+        return dest;
     }
 
     /**
-     * Append a matrix to the top of the current matrix
+     * Return the product of this matrix and the sparse right matrix. Each element of the result is a dot product
+     * over the stored entries of one column of right only, so a product with a sparse vector costs O(row * nnz), see
+     * {@link SparseKernels}.
      *
-     * @param up
+     * @param right
      * @return
      */
-    public MatrixJava appendUp(MatrixJava up) {
-        return up.appendDown(this);
+    public MatrixJava dot(CSCMatrix right) {
+        return dotAddInto(right, new MatrixJava(row, right.getColCount()));
     }
 
     /**
-     * Given a single element transformation function, apply to each element in the
-     * matrix and generate a new one.
+     * Add the product of this matrix and the sparse right matrix to dest. dest must not share storage with this
+     * matrix.
      *
-     * @param transformer
-     * @return
+     * @param right
+     * @param dest
+     * @return dest
      */
-    public MatrixJava transform(DoubleUnaryOperator transformer) {
-        double[][] result = new double[row][col];
-
-        for (int i = 0; i < row; i++) {
-            for (int j = 0; j < col; j++) {
-                result[i][j] = transformer.applyAsDouble(data[i][j]);
-            }
+    public MatrixJava dotAddInto(CSCMatrix right, MatrixJava dest) {
+        if (col != right.getRowCount() || dest.row != row || dest.col != right.getColCount()) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d), dest: (%d, %d)", row, col,
+                            right.getRowCount(), right.getColCount(), dest.row, dest.col));
+        }
+        if (dest.overlaps(this)) {
+            throw new RuntimeException("Destination must not share storage with an operand!");
         }
 
-        return new MatrixJava(result);
+        SparseKernels.denseTimesColumns(row, right.getColCount(), right.columnPointers(), right.rowIndices(),
+                right.values(), data, offset, stride, dest.data, dest.offset, dest.stride);
+        dest.modified();
+        return dest;
     }
 
     /**
-     * Returns a transposed version of current matrix
+     * Fused layer kernel, returns activation(this . x + bias) computed in one pass over the output.
      *
+     * @param x          (col, n) input
+     * @param bias       (row, 1) bias broadcast over the columns, or a (row, n) matrix
+     * @param activation function applied to each element
      * @return
      */
-    public MatrixJava transpose() {
-        double[][] res = new double[col][row];
+    public MatrixJava affine(MatrixJava x, MatrixJava bias, DoubleUnaryOperator activation) {
+        return affineInto(x, bias, activation, null, new MatrixJava(row, x.col));
+    }
+
+    /**
+     * Fused layer kernel writing into preallocated buffers: z = this . x + bias and a = activation(z).
+     * For a column vector x each output element is computed, biased and activated while it is still in a register,
+     * otherwise the product is written once and biased and activated in a single extra pass.
+     *
+     * @param x          (col, n) input
+     * @param bias       (row, 1) bias broadcast over the columns, or a (row, n) matrix
+     * @param activation function applied to each element
+     * @param z          (row, n) destination for the value before activation, may be null if not needed, must not
+     *                   share storage with an operand or a
+     * @param a          (row, n) destination for the activation, must not share storage with an operand
+     * @return a
+     */
+    public MatrixJava affineInto(MatrixJava x, MatrixJava bias, DoubleUnaryOperator activation, MatrixJava z,
+                                 MatrixJava a) {
+        int n = x.col;
+        if (col != x.row || a.row != row || a.col != n || (z != null && (z.row != row || z.col != n))
+                || bias.row != row || (bias.col != 1 && bias.col != n)) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! this: (%d, %d), x: (%d, %d), bias: (%d, %d)", row, col, x.row,
+                            x.col, bias.row, bias.col));
+        }
+        // the rows of this, x and bias are still read after the first rows of a and z are written
+        checkNotAliased(a, x);
+        checkNotAliased(a, bias);
+        if (z != null) {
+            checkNotAliased(z, x);
+            checkNotAliased(z, bias);
+            if (z.overlaps(a)) {
+                throw new RuntimeException("Destinations z and a must not share storage!");
+            }
+        }
+
+        if (n == 1) {
+            for (int i = 0; i < row; i++) {
+                int ai = offset + i * stride;
+                double zi;
+                if (x.stride == 1) {
+                    zi = KERNELS.dot(data, ai, x.data, x.offset, col);
+                } else {
+                    zi = 0;
+                    for (int p = 0; p < col; p++) {
+                        zi = Math.fma(data[ai + p], x.data[x.offset + p * x.stride], zi);
+                    }
+                }
+                zi += bias.get(i, 0);
+                if (z != null) {
+                    z.data[z.offset + i * z.stride] = zi;
+                }
+                a.data[a.offset + i * a.stride] = activation.applyAsDouble(zi);
+            }
+            a.modified();
+            if (z != null) {
+                z.modified();
+            }
 
-        for (int i = 0; i < col; i++) {
-            for (int j = 0; j < row; j++) {
-                res[i][j] = data[j][i];
+            return a;
+        }
+
+        MatrixJava target = z != null ? z : a;
+        dotInto(x, target);
+        for (int i = 0; i < row; i++) {
+            int t = target.offset + i * target.stride;
+            int r = a.offset + i * a.stride;
+            for (int j = 0; j < n; j++) {
+                double zij = target.data[t + j] + (bias.col == 1 ? bias.get(i, 0) : bias.get(i, j));
+                target.data[t + j] = zij;
+                a.data[r + j] = activation.applyAsDouble(zij);
             }
         }
+        target.modified();
+        a.modified();
 
-        return new MatrixJava(res);
+        return a;
     }
 
     /**
-     * Returns the max index, if it is row vector, return the max row index, if it is a col vector,
-     * return the max col index. Otherwise, throw {@link RuntimeException}
+     * Return the inverse of current matrix
+     * <p>
+     * Optimization note:
+     * The inverse is solved for all columns of the identity at once, in place in the result, so besides the LU no
+     * other n x n matrix is allocated.
      *
      * @return
      */
-    public int argmax() {
-        if (row == 1) {
-            return argmaxOfRow(0);
-        } else if (col == 1) {
-            return argmaxOfCol(0);
+    public MatrixJava inverse() {
+        if (row == col) {
+            return lu().inverse();
         }
 
-        throw new RuntimeException("Does not support find max index on non-vector matrix");
+        throw new RuntimeException("Must be a square matrix!");
     }
 
     /**
-     * Given a column, find the max row index.
+     * Running the LU decomposition with partial pivoting on the current matrix
+     * <p>
+     * Optimization note:
+     * 1. The factorization is blocked, the trailing updates are matrix products running in parallel, see
+     * {@link BlockedLU}.
+     * 2. With {@link #cacheLU(boolean)} enabled the decomposition is kept and returned again until the matrix is
+     * modified, so repeated {@link #solve} calls cost O(n^2) instead of O(n^3).
      *
-     * @param col
      * @return
      */
-    public int argmaxOfCol(int col) {
-        return argmax(-1, col);
+    public LUDecomposition lu() {
+        int n = row;
+        if (n == col) {
+            int current = version[0];
+            if (cacheLU && cachedLU != null && cachedLUVersion == current) {
+                return cachedLU;
+            }
+
+            MatrixJava packed = replicate();
+            int[] pivots = BlockedLU.factor(n, packed.data, 0, n);
+            LUDecomposition lu = new LUDecomposition(packed, pivots);
+            if (cacheLU) {
+                cachedLU = lu;
+                cachedLUVersion = current;
+            }
+            return lu;
+        }
 
+        throw new RuntimeException("LU decomposition can only be done to square matrix");
     }
 
     /**
-     * Given a row, find the max column index
+     * Keep the LU decomposition of this matrix once computed, so that {@link #lu()}, {@link #solve} and
+     * {@link #inverse()} reuse it. Any write through this matrix or a view sharing its storage drops the cached
+     * decomposition, writes made directly to an array wrapped with {@link #MatrixJava(int, int, double[])} are not
+     * seen. Disabling the cache releases the decomposition.
      *
-     * @param row
-     * @return
+     * @param enabled
+     * @return this matrix
      */
-    public int argmaxOfRow(int row) {
-        return argmax(row, -1);
+    public MatrixJava cacheLU(boolean enabled) {
+        cacheLU = enabled;
+        if (!enabled) {
+            cachedLU = null;
+        }
+
+        return this;
     }
 
     /**
-     * Frobenius norm
+     * Running the Cholesky decomposition on the current matrix, which must be symmetric positive definite
+     * <p>
+     * Optimization note:
+     * It takes half the work of {@link #lu()}, the factorization is blocked and the trailing updates are matrix
+     * products running in parallel, see {@link BlockedCholesky}.
      *
      * @return
      */
-    public double norm() {
-        double res = 0;
-        for (int i = 0; i < row; i++) {
-            for (int j = 0; j < col; j++) {
-                res += data[i][j] * data[i][j];
+    public CholeskyDecomposition cholesky() {
+        int n = row;
+        if (n != col) {
+            throw new RuntimeException("Cholesky decomposition can only be done to square matrix");
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < i; j++) {
+                double aij = get(i, j);
+                double aji = get(j, i);
+                if (Math.abs(aij - aji) > SYMMETRY_TOLERANCE * Math.max(Math.abs(aij), Math.abs(aji))) {
+                    throw new RuntimeException(
+                            String.format("Matrix is not symmetric! (%d, %d): %g, (%d, %d): %g", i, j, aij, j, i,
+                                    aji));
+                }
             }
         }
-        return Math.sqrt(res);
+
+        MatrixJava packed = replicate();
+        BlockedCholesky.factor(n, packed.data, 0, n);
+        return new CholeskyDecomposition(packed);
     }
 
     /**
-     * Return column-major 1-d array representing the matrix
-     * The one-dimensional arrays in the exercises store the matrices by placing the elements of each column in successive cells of the arrays.
+     * Running the Householder QR decomposition on the current matrix, which must have at least as many rows as
+     * columns
+     * <p>
+     * Optimization note:
+     * The factorization is blocked, the reflectors of each panel are applied to the rest of the matrix as matrix
+     * products, see {@link HouseholderQR}.
      *
      * @return
      */
-    public double[] toArray() {
-        double[] ret = new double[row * col];
-        for (int i = 0; i < row; i++) {
-            for (int j = 0; j < col; j++) {
-                ret[i * col + j] = data[i][j];
-            }
+    public QRDecomposition qr() {
+        if (row < col) {
+            throw new RuntimeException(
+                    String.format("QR decomposition needs at least as many rows as columns: (%d, %d)", row, col));
         }
-        return ret;
+
+        MatrixJava packed = replicate();
+        double[] tau = HouseholderQR.factor(row, col, packed.data, 0, col);
+        return new QRDecomposition(packed, tau);
     }
 
     /**
-     * Return the value at (row, col)
+     * Running the thin singular value decomposition on the current matrix, A = U * S * V^T with min(m, n) singular
+     * values
+     * <p>
+     * Optimization note:
+     * The one-sided Jacobi iteration works on the rows of the short side, see {@link JacobiSVD}. It costs
+     * O(m * n * min(m, n)) per sweep, use {@link #truncatedSvd(int)} when only the leading singular values are needed.
      *
-     * @param row
-     * @param col
      * @return
      */
-    public double get(int row, int col) {
-        return data[row][col];
+    public SVDDecomposition svd() {
+        return JacobiSVD.decompose(this, Math.min(row, col));
     }
 
     /**
-     * Return row count
+     * Running a randomized truncated singular value decomposition on the current matrix, A ~ U * S * V^T with the
+     * rank largest singular values, with {@link #SVD_OVERSAMPLING} extra sketch columns and
+     * {@link #SVD_POWER_ITERATIONS} power iterations
+     * <p>
+     * Optimization note:
+     * Only products of A with (n, rank + oversampling) matrices are computed, so it costs O(m * n * rank) instead of
+     * the O(m * n * min(m, n)) of {@link #svd()}, see {@link RandomizedSVD}.
      *
+     * @param rank
      * @return
      */
-    public int getRowCount() {
-        return row;
+    public SVDDecomposition truncatedSvd(int rank) {
+        return truncatedSvd(rank, SVD_OVERSAMPLING, SVD_POWER_ITERATIONS, new Random());
     }
 
     /**
-     * Return col count
+     * Same as {@link #truncatedSvd(int)} with explicit sketch parameters
      *
+     * @param rank
+     * @param oversampling    extra sketch columns
+     * @param powerIterations passes of A * A^T over the sketch, more of them help when the singular values decay
+     *                        slowly
+     * @param random          source of the Gaussian sketch
      * @return
      */
-    public int getColCount() {
-        return col;
+    public SVDDecomposition truncatedSvd(int rank, int oversampling, int powerIterations, Random random) {
+        if (rank <= 0 || rank > Math.min(row, col)) {
+            throw new RuntimeException(
+                    String.format("Rank %d out of range for a (%d, %d) matrix", rank, row, col));
+        }
+
+        return RandomizedSVD.decompose(this, rank, oversampling, powerIterations, random);
     }
 
     /**
-     * Supports both add and minus
+     * Return the X minimizing the 2-norm of every column of AX - B, b can have any number of columns
+     * <p>
+     * Optimization note:
+     * Only the R factor of [A B] is computed, by streaming over blocks of rows that fit in cache, see
+     * {@link TallSkinnyQR}. Its top rows hold R and Q^T * B, so Q is never formed and the extra memory does not
+     * depend on the row count.
      *
-     * @param in
-     * @param flag
+     * @param b
      * @return
      */
-    private MatrixJava add(MatrixJava in, boolean flag) {
-        if (row == in.row && col == in.col) {
-            double[][] result = new double[row][col];
-
-            for (int i = 0; i < row; i++) {
-                for (int j = 0; j < col; j++) {
-                    result[i][j] = flag ? data[i][j] + in.data[i][j] : data[i][j] - in.data[i][j];
-                }
-            }
+    public MatrixJava leastSquares(MatrixJava b) {
+        if (b.row != row) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), b: (%d, %d)", row, col, b.row, b.col));
+        }
+        if (row < col) {
+            throw new RuntimeException(
+                    String.format("Least squares needs at least as many rows as columns: (%d, %d)", row, col));
+        }
 
-            return new MatrixJava(result);
+        int n = col;
+        int w = n + b.col;
+        double[] r = TallSkinnyQR.r(row, n, data, offset, stride, b.col, b.data, b.offset, b.stride);
+        if (HouseholderQR.isRankDeficient(row, n, r, 0, w)) {
+            throw new RuntimeException("Matrix is rank deficient!");
         }
 
-        throw new RuntimeException(
-                String.format("Dimension mismatch! This: (%d, %d), in: (%d, %d)", row, col, in.row, in.col));
+        // R * X = (Q^T * B)(0:n), which sits right of R
+        Trsm.upper(n, b.col, r, 0, w, r, n, w);
+        return new MatrixJava(r, n, w, n, b.col).replicate();
     }
 
     /**
-     * Solve Ax = b, but pass in a precomputed LU
-     * The LU must be the LU decomposition of current matrix.
-     * <p>
-     * If there are more than 1 column of b, then solve for every Column
+     * Solve AX = B, b can have any number of columns. To solve against many right-hand sides arriving over time,
+     * keep the {@link #lu()} and call {@link LUDecomposition#solve}, or enable {@link #cacheLU(boolean)}.
+     * Large sparse or implicitly defined systems are better solved by a {@link KrylovSolver} on a
+     * {@link LinearOperator}, which never forms the O(n^2) factors.
      *
      * @param b
-     * @param lu
      * @return
      */
-    private MatrixJava solve(MatrixJava b, LUDecomposition lu) {
-        if (b.row == row && b.col == 1) {
-            int n = data.length;
-
-            // forward substitution, solving ld = b
-            MatrixJava d = new MatrixJava(new double[n][1]);
-            for (int i = 0; i < n; i++) {
-                double sum = 0;
-                for (int j = 0; j < i; j++) {
-                    sum += lu.l()
-                            .get(i, j) * d.data[j][0];
-                }
-
-                d.data[i][0] = b.data[i][0] - sum;
-            }
+    public MatrixJava solve(MatrixJava b) {
+        return lu().solve(b);
+    }
 
-            // back propagation, solving Ux = d
-            MatrixJava x = new MatrixJava(new double[n][1]);
-            for (int i = n - 1; i >= 0; i--) {
-                double sum = 0;
-                for (int j = i + 1; j < n; j++) {
-                    sum += lu.u()
-                            .get(i, j) * x.data[j][0];
-                }
-                x.data[i][0] = (d.data[i][0] - sum) / lu.u()
-                        .get(i, i);
+    /**
+     * Append a matrix to the right: A.appendRight(B) means (A, B)
+     * A and B must have the same row count
+     *
+     * @param right
+     * @return
+     */
+    public MatrixJava appendRight(MatrixJava right) {
+        if (row == right.row) {
+            int resCol = col + right.col;
+            double[] res = new double[row * resCol];
+            for (int i = 0; i < row; i++) {
+                arraycopy(data, offset + i * stride, res, i * resCol, col);
+                arraycopy(right.data, right.offset + i * right.stride, res, i * resCol + col, right.col);
+            }
+
+            return new MatrixJava(row, resCol, res);
+        }
+
+        throw new RuntimeException("matrix must have the same row count!");
+    }
+
+    /**
+     * Append a matrix to the left.
+     *
+     * @param left
+     * @return
+     */
+    public MatrixJava appendLeft(MatrixJava left) {
+        return left.appendRight(this);
+    }
+
+    /**
+     * Append a matrix to the bottom of the current matrix
+     *
+     * @param down
+     * @return
+     */
+    public MatrixJava appendDown(MatrixJava down) {
+        if (col == down.col) {
+            double[] res = new double[(row + down.row) * col];
+            for (int i = 0; i < row; i++) {
+                arraycopy(data, offset + i * stride, res, i * col, col);
+            }
+            for (int i = 0; i < down.row; i++) {
+                arraycopy(down.data, down.offset + i * down.stride, res, (row + i) * col, col);
+            }
+            return new MatrixJava(row + down.row, col, res);
+        }
+
+        throw new RuntimeException("MatrixJava must have the same col count!");
+    }
+
+    /**
+     * Append a matrix to the top of the current matrix
+     *
+     * @param up
+     * @return
+     */
+    public MatrixJava appendUp(MatrixJava up) {
+        return up.appendDown(this);
+    }
+
+    /**
+     * Given a single element transformation function, apply to each element in the
+     * matrix and generate a new one.
+     *
+     * @param transformer
+     * @return
+     */
+    public MatrixJava transform(DoubleUnaryOperator transformer) {
+        double[] result = new double[row * col];
+
+        for (int i = 0; i < row; i++) {
+            int a = offset + i * stride;
+            int r = i * col;
+            for (int j = 0; j < col; j++) {
+                result[r + j] = transformer.applyAsDouble(data[a + j]);
+            }
+        }
+
+        return new MatrixJava(row, col, result);
+    }
+
+    /**
+     * Returns a transposed version of current matrix. The copy is cache-blocked, see {@link Transpose}.
+     *
+     * @return
+     */
+    public MatrixJava transpose() {
+        double[] res = new double[col * row];
+        Transpose.transpose(row, col, data, offset, stride, res, 0, row);
+
+        return new MatrixJava(col, row, res);
+    }
+
+    /**
+     * Transpose a square matrix in place.
+     *
+     * @return this matrix
+     */
+    public MatrixJava transposeInPlace() {
+        if (row != col) {
+            throw new RuntimeException("In place transpose can only be done to square matrix");
+        }
+        Transpose.transposeSquare(row, data, offset, stride);
+        modified();
+
+        return this;
+    }
+
+    /**
+     * Add a {@link MatrixJava} to the current matrix in place.
+     *
+     * @param in
+     * @return this matrix
+     */
+    public MatrixJava addInPlace(MatrixJava in) {
+        return addInto(in, this);
+    }
+
+    /**
+     * Minus a {@link MatrixJava} from the current matrix in place.
+     *
+     * @param in
+     * @return this matrix
+     */
+    public MatrixJava minusInPlace(MatrixJava in) {
+        return minusInto(in, this);
+    }
+
+    /**
+     * Element-wise multiply the current matrix by a {@link MatrixJava} in place.
+     *
+     * @param in
+     * @return this matrix
+     */
+    public MatrixJava mulInPlace(MatrixJava in) {
+        return mulInto(in, this);
+    }
+
+    /**
+     * Multiply each element of the current matrix by the scalar value in place.
+     *
+     * @param scalar
+     * @return this matrix
+     */
+    public MatrixJava scaleInPlace(double scalar) {
+        for (int i = 0; i < row; i++) {
+            int a = offset + i * stride;
+            KERNELS.scale(data, a, scalar, data, a, col);
+        }
+        modified();
+
+        return this;
+    }
+
+    /**
+     * Add the scalar value to each element of the current matrix in place.
+     *
+     * @param scalar
+     * @return this matrix
+     */
+    public MatrixJava addInPlace(double scalar) {
+        for (int i = 0; i < row; i++) {
+            int a = offset + i * stride;
+            KERNELS.shift(data, a, scalar, data, a, col);
+        }
+        modified();
+
+        return this;
+    }
+
+    /**
+     * Apply the transformation function to each element of the current matrix in place.
+     *
+     * @param transformer
+     * @return this matrix
+     */
+    public MatrixJava transformInPlace(DoubleUnaryOperator transformer) {
+        return transformInto(transformer, this);
+    }
+
+    /**
+     * Set every element of the current matrix to the value.
+     *
+     * @param value
+     * @return this matrix
+     */
+    public MatrixJava fill(double value) {
+        for (int i = 0; i < row; i++) {
+            int a = offset + i * stride;
+            Arrays.fill(data, a, a + col, value);
+        }
+        modified();
+
+        return this;
+    }
+
+    /**
+     * Write this + in into dest. dest may be this or in, but must not partially overlap either.
+     *
+     * @param in
+     * @param dest
+     * @return dest
+     */
+    public MatrixJava addInto(MatrixJava in, MatrixJava dest) {
+        checkSameDimension(in);
+        checkSameDimension(dest);
+        checkElementWise(dest, in);
+        for (int i = 0; i < row; i++) {
+            KERNELS.add(data, offset + i * stride, in.data, in.offset + i * in.stride, dest.data,
+                    dest.offset + i * dest.stride, col);
+        }
+        dest.modified();
+
+        return dest;
+    }
+
+    /**
+     * Write this - in into dest. dest may be this or in, but must not partially overlap either.
+     *
+     * @param in
+     * @param dest
+     * @return dest
+     */
+    public MatrixJava minusInto(MatrixJava in, MatrixJava dest) {
+        checkSameDimension(in);
+        checkSameDimension(dest);
+        checkElementWise(dest, in);
+        for (int i = 0; i < row; i++) {
+            KERNELS.sub(data, offset + i * stride, in.data, in.offset + i * in.stride, dest.data,
+                    dest.offset + i * dest.stride, col);
+        }
+        dest.modified();
+
+        return dest;
+    }
+
+    /**
+     * Write the element-wise product of this and in into dest. dest may be this or in, but must not partially overlap either.
+     *
+     * @param in
+     * @param dest
+     * @return dest
+     */
+    public MatrixJava mulInto(MatrixJava in, MatrixJava dest) {
+        checkSameDimension(in);
+        checkSameDimension(dest);
+        checkElementWise(dest, in);
+        for (int i = 0; i < row; i++) {
+            KERNELS.mul(data, offset + i * stride, in.data, in.offset + i * in.stride, dest.data,
+                    dest.offset + i * dest.stride, col);
+        }
+        dest.modified();
+
+        return dest;
+    }
+
+    /**
+     * Apply the transformation function to each element and write the result into dest. dest may be this, but must not
+     * partially overlap it.
+     *
+     * @param transformer
+     * @param dest
+     * @return dest
+     */
+    public MatrixJava transformInto(DoubleUnaryOperator transformer, MatrixJava dest) {
+        checkSameDimension(dest);
+        checkElementWise(dest, this);
+        double[] res = dest.data;
+        for (int i = 0; i < row; i++) {
+            int a = offset + i * stride;
+            int r = dest.offset + i * dest.stride;
+            for (int j = 0; j < col; j++) {
+                res[r + j] = transformer.applyAsDouble(data[a + j]);
+            }
+        }
+        dest.modified();
+
+        return dest;
+    }
+
+    /**
+     * Write the product of this matrix and the right matrix into dest, overwriting its content.
+     * dest must not share storage with either operand.
+     *
+     * @param right
+     * @param dest
+     * @return dest
+     */
+    public MatrixJava dotInto(MatrixJava right, MatrixJava dest) {
+        if (col != right.row || dest.row != row || dest.col != right.col) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d), dest: (%d, %d)", row, col,
+                            right.row, right.col, dest.row, dest.col));
+        }
+        checkNotAliased(dest, right);
+
+        dest.fill(0);
+        Backends.gemm(row, right.col, col, data, offset, stride, 1, right.data, right.offset, right.stride, 1,
+                dest.data, dest.offset, dest.stride);
+
+        return dest;
+    }
+
+    /**
+     * Write the transpose of this matrix into dest. dest must not share storage with this matrix.
+     *
+     * @param dest
+     * @return dest
+     */
+    public MatrixJava transposeInto(MatrixJava dest) {
+        if (dest.row != col || dest.col != row) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), dest: (%d, %d)", row, col, dest.row, dest.col));
+        }
+        checkNotAliased(dest, this);
+        Transpose.transpose(row, col, data, offset, stride, dest.data, dest.offset, dest.stride);
+        dest.modified();
+
+        return dest;
+    }
+
+    /**
+     * Returns the max index, if it is row vector, return the max row index, if it is a col vector,
+     * return the max col index. Otherwise, throw {@link RuntimeException}
+     *
+     * @return
+     */
+    @Override
+    public int argmax() {
+        if (row == 1) {
+            return argmaxOfRow(0);
+        } else if (col == 1) {
+            return argmaxOfCol(0);
+        }
+
+        throw new RuntimeException("Does not support find max index on non-vector matrix");
+    }
+
+    /**
+     * Given a column, find the max row index.
+     *
+     * @param col
+     * @return
+     */
+    public int argmaxOfCol(int col) {
+        return argmax(-1, col);
+
+    }
+
+    /**
+     * Given a row, find the max column index
+     *
+     * @param row
+     * @return
+     */
+    public int argmaxOfRow(int row) {
+        return argmax(row, -1);
+    }
+
+    /**
+     * Count the elements which are not 0
+     *
+     * @return
+     */
+    public int getNonZeroCount() {
+        int count = 0;
+        for (int i = 0; i < row; i++) {
+            int a = offset + i * stride;
+            for (int j = 0; j < col; j++) {
+                if (data[a + j] != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Frobenius norm
+     *
+     * @return
+     */
+    public double norm() {
+        if (isCompact()) {
+            return Math.sqrt(KERNELS.sumOfSquares(data, offset, row * col));
+        }
+
+        double res = 0;
+        for (int i = 0; i < row; i++) {
+            res += KERNELS.sumOfSquares(data, offset + i * stride, col);
+        }
+        return Math.sqrt(res);
+    }
+
+    /**
+     * Return column-major 1-d array representing the matrix
+     * The one-dimensional arrays in the exercises store the matrices by placing the elements of each column in successive cells of the arrays.
+     *
+     * @return
+     */
+    public double[] toArray() {
+        if (isCompact()) {
+            return Arrays.copyOfRange(data, offset, offset + row * col);
+        }
+
+        double[] ret = new double[row * col];
+        for (int i = 0; i < row; i++) {
+            arraycopy(data, offset + i * stride, ret, i * col, col);
+        }
+        return ret;
+    }
+
+    /**
+     * Return the value at (row, col)
+     *
+     * @param row
+     * @param col
+     * @return
+     */
+    @Override
+    public double get(int row, int col) {
+        return data[offset + row * stride + col];
+    }
+
+    /**
+     * Returns a (rows, cols) view starting at (rowStart, colStart). The view shares the storage of this matrix.
+     *
+     * @param rowStart
+     * @param colStart
+     * @param rows
+     * @param cols
+     * @return
+     */
+    public MatrixJava view(int rowStart, int colStart, int rows, int cols) {
+        if (rowStart < 0 || colStart < 0 || rows <= 0 || cols <= 0 || rowStart + rows > row
+                || colStart + cols > col) {
+            throw new RuntimeException(
+                    String.format("View (%d, %d) of size (%d, %d) is out of the (%d, %d) matrix", rowStart, colStart,
+                            rows, cols, row, col));
+        }
+        return new MatrixJava(data, offset + rowStart * stride + colStart, stride, rows, cols, version);
+    }
+
+    /**
+     * Returns a view of the rows [from, to)
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public MatrixJava viewRows(int from, int to) {
+        return view(from, 0, to - from, col);
+    }
+
+    /**
+     * Returns a view of the columns [from, to)
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public MatrixJava viewCols(int from, int to) {
+        return view(0, from, row, to - from);
+    }
+
+    /**
+     * Returns a (1, col) view of row i
+     *
+     * @param i
+     * @return
+     */
+    public MatrixJava viewRow(int i) {
+        return view(i, 0, 1, col);
+    }
+
+    /**
+     * Returns a (row, 1) view of column j
+     *
+     * @param j
+     * @return
+     */
+    public MatrixJava viewCol(int j) {
+        return view(0, j, row, 1);
+    }
+
+    /**
+     * Copy the values of src into this matrix, which is typically a view.
+     *
+     * @param src
+     * @return this matrix
+     */
+    public MatrixJava assign(MatrixJava src) {
+        checkSameDimension(src);
+        for (int i = 0; i < row; i++) {
+            arraycopy(src.data, src.offset + i * src.stride, data, offset + i * stride, col);
+        }
+        modified();
+
+        return this;
+    }
+
+    /**
+     * Set the value at (row, col)
+     *
+     * @param row
+     * @param col
+     * @param value
+     */
+    public void set(int row, int col, double value) {
+        data[offset + row * stride + col] = value;
+        modified();
+    }
+
+    /**
+     * Start a lazily evaluated element-wise expression with this matrix as operand. Chains of element-wise
+     * operations on the returned {@link LazyMatrix} are fused into a single loop when materialized.
+     *
+     * @return
+     */
+    public LazyMatrix lazy() {
+        return LazyMatrix.of(this);
+    }
+
+    /**
+     * Return row count
+     *
+     * @return
+     */
+    @Override
+    public int getRowCount() {
+        return row;
+    }
+
+    /**
+     * Return col count
+     *
+     * @return
+     */
+    @Override
+    public int getColCount() {
+        return col;
+    }
+
+    /**
+     * Supports both add and minus
+     *
+     * @param in
+     * @param flag
+     * @return
+     */
+    private MatrixJava add(MatrixJava in, boolean flag) {
+        if (row == in.row && col == in.col) {
+            double[] result = new double[row * col];
+
+            for (int i = 0; i < row; i++) {
+                int a = offset + i * stride;
+                int b = in.offset + i * in.stride;
+                if (flag) {
+                    KERNELS.add(data, a, in.data, b, result, i * col, col);
+                } else {
+                    KERNELS.sub(data, a, in.data, b, result, i * col, col);
+                }
             }
 
-            return x;
+            return new MatrixJava(row, col, result);
+        }
+
+        throw new RuntimeException(
+                String.format("Dimension mismatch! This: (%d, %d), in: (%d, %d)", row, col, in.row, in.col));
+    }
+
+    /**
+     * Product of op(this) and op(right), where each op is described by its dimension and its row and column strides
+     * over the original storage.
+     *
+     * @param m     rows of op(this)
+     * @param k     columns of op(this)
+     * @param aRs
+     * @param aCs
+     * @param right
+     * @param rk    rows of op(right)
+     * @param n     columns of op(right)
+     * @param bRs
+     * @param bCs
+     * @return
+     */
+    private MatrixJava product(int m, int k, int aRs, int aCs, MatrixJava right, int rk, int n, int bRs, int bCs) {
+        if (k != rk) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d)", m, k, rk, n));
+        }
+
+        double[] result = new double[m * n];
+        Backends.gemm(m, n, k, data, offset, aRs, aCs, right.data, right.offset, bRs, bCs, result, 0, n);
+
+        return new MatrixJava(m, n, result);
+    }
+
+    /**
+     * Write or add the (m, k) . (k, n) product of this matrix and the right matrix, read with the given strides, to
+     * dest
+     */
+    private MatrixJava productInto(int m, int k, int aRs, int aCs, MatrixJava right, int rk, int n, int bRs, int bCs,
+                                   MatrixJava dest, boolean accumulate) {
+        if (k != rk || dest.row != m || dest.col != n) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d), dest: (%d, %d)", m, k, rk,
+                            n, dest.row, dest.col));
+        }
+        checkNotAliased(dest, right);
+
+        if (!accumulate) {
+            dest.fill(0);
+        }
+        Backends.gemm(m, n, k, data, offset, aRs, aCs, right.data, right.offset, bRs, bCs, dest.data, dest.offset,
+                dest.stride);
+        dest.modified();
+
+        return dest;
+    }
+
+    /**
+     * The backing array, for kernels of this package working on the storage, see {@link #offset()} and
+     * {@link #stride()}
+     *
+     * @return
+     */
+    double[] data() {
+        return data;
+    }
+
+    /**
+     * Offset of (0, 0) in the backing array
+     *
+     * @return
+     */
+    int offset() {
+        return offset;
+    }
+
+    /**
+     * Distance between (i, j) and (i + 1, j) in the backing array
+     *
+     * @return
+     */
+    int stride() {
+        return stride;
+    }
+
+    /**
+     * Copy len elements of row i starting at column j into out
+     *
+     * @param i
+     * @param j
+     * @param out
+     * @param len
+     */
+    void getRow(int i, int j, double[] out, int len) {
+        arraycopy(data, offset + i * stride + j, out, 0, len);
+    }
+
+    /**
+     * Copy len elements of src into row i starting at column j
+     *
+     * @param i
+     * @param j
+     * @param src
+     * @param len
+     */
+    void setRow(int i, int j, double[] src, int len) {
+        arraycopy(src, 0, data, offset + i * stride + j, len);
+        modified();
+    }
+
+    /**
+     * Compact copy with row i taken from row permutation[i] of this matrix
+     *
+     * @param permutation
+     * @return
+     */
+    MatrixJava permuteRows(int[] permutation) {
+        MatrixJava ret = new MatrixJava(permutation.length, col);
+        for (int i = 0; i < permutation.length; i++) {
+            arraycopy(data, offset + permutation[i] * stride, ret.data, i * col, col);
         }
+        return ret;
+    }
+
+    /**
+     * Record a write to the storage, invalidating the decompositions cached over it
+     */
+    private void modified() {
+        version[0]++;
+    }
+
+    /**
+     * Throw if in does not have the same dimension as the current matrix
+     *
+     * @param in
+     */
+    private void checkSameDimension(MatrixJava in) {
+        if (row != in.row || col != in.col) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), in: (%d, %d)", row, col, in.row, in.col));
+        }
+    }
 
-        throw new RuntimeException("Dimension mismatch!");
+    /**
+     * Throw if dest may overlap this matrix or the other operand. Views of disjoint row ranges of one storage are
+     * fine, views interleaving with each other (like different columns of the same rows) are rejected.
+     *
+     * @param dest
+     * @param other
+     */
+    private void checkNotAliased(MatrixJava dest, MatrixJava other) {
+        if (dest.overlaps(this) || dest.overlaps(other)) {
+            throw new RuntimeException("Destination must not share storage with an operand!");
+        }
+    }
+
+    /**
+     * Throw if dest partially overlaps this matrix or the other operand. An element-wise kernel reads every element
+     * before writing the same element, so dest may be an operand itself, but a shifted view would read elements
+     * already overwritten.
+     *
+     * @param dest
+     * @param other
+     */
+    void checkElementWise(MatrixJava dest, MatrixJava other) {
+        if (dest.overlaps(this) && !dest.sameLayout(this) || dest.overlaps(other) && !dest.sameLayout(other)) {
+            throw new RuntimeException("Destination must be an operand or not share storage with it!");
+        }
+    }
+
+    /**
+     * Whether the two matrices view the same elements of the same storage
+     *
+     * @param other
+     * @return
+     */
+    private boolean sameLayout(MatrixJava other) {
+        return data == other.data && offset == other.offset && (row == 1 || stride == other.stride);
+    }
+
+    /**
+     * Whether the storage spans of the two matrices intersect
+     *
+     * @param other
+     * @return
+     */
+    private boolean overlaps(MatrixJava other) {
+        if (data != other.data) {
+            return false;
+        }
+        int end = offset + (row - 1) * stride + col;
+        int otherEnd = other.offset + (other.row - 1) * other.stride + other.col;
+        return offset < otherEnd && other.offset < end;
+    }
+
+    /**
+     * Whether the elements are laid out back to back, with no gap between rows
+     *
+     * @return
+     */
+    private boolean isCompact() {
+        return stride == col;
     }
 
     /**
@@ -559,7 +1576,7 @@ public class MatrixJava {
         int ind = 0;
         double max = Double.MIN_VALUE;
         for (int n = 0; n < limit; n++) {
-            double value = isRowSet ? data[row][n] : data[n][col];
+            double value = isRowSet ? get(row, n) : get(n, col);
             if (value > max) {
                 max = value;
                 ind = n;
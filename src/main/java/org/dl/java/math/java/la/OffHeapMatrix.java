@@ -0,0 +1,372 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+
+import org.dl.java.math.la.Matrix;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+ * A dense matrix stored outside of the Java heap, in a native {@link MemorySegment}.
+ * <p>
+ * The elements are stored row-major and compact, element (i, j) lives at index {@code i * col + j}, in a segment
+ * aligned to {@link #ALIGNMENT} bytes. The memory belongs to the {@link ResourceScope} given at creation: it is freed
+ * when that scope is closed, not by the garbage collector, and the matrix must not be used afterwards. Large matrices
+ * therefore never sit in the old generation nor get copied by the collector, and {@link #address()} can be handed
+ * to native code as is.
+ * <p>
+ * Optimization note:
+ * 1. The element-wise operations stream the segment through a small heap buffer in chunks of {@link #CHUNK}
+ * elements and run the {@link ElementKernels} on it, so they are SIMD loops while the buffer stays in L1.
+ * 2. Products and transposes work on {@link #TILE} x {@link #TILE} tiles copied to the heap, multiplied by
+ * {@link Gemm} and transposed by {@link Transpose}. At most three tiles live on the heap, whatever the size of the
+ * matrices, and each tile is reused for a whole row or column of tiles.
+ */
+public final class OffHeapMatrix implements Matrix {
+    /**
+     * Alignment of the storage in bytes, the size of a cache line and of the widest SIMD register
+     */
+    public static final long ALIGNMENT = 64;
+    /**
+     * Elements streamed through the heap per element-wise step
+     */
+    private static final int CHUNK = 2048;
+    /**
+     * Rows and columns of the heap tiles of the products
+     */
+    static final int TILE = 512;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private final MemorySegment segment;
+    private final int row;
+    private final int col;
+
+    /**
+     * Creating an all 0 matrix living as long as the scope
+     *
+     * @param row
+     * @param col
+     * @param scope owner of the memory, closing it frees the matrix
+     */
+    public OffHeapMatrix(int row, int col, ResourceScope scope) {
+        if (row == 0 || col == 0) {
+            throw new RuntimeException("Cannot create 0-dimension matrix!");
+        }
+        this.row = row;
+        this.col = col;
+        this.segment = MemorySegment.allocateNative((long) row * col * Double.BYTES, ALIGNMENT, scope);
+    }
+
+    /**
+     * Copy a heap matrix into a new off-heap matrix
+     *
+     * @param matrix
+     * @param scope  owner of the memory, closing it frees the matrix
+     * @return
+     */
+    public static OffHeapMatrix of(MatrixJava matrix, ResourceScope scope) {
+        OffHeapMatrix ret = new OffHeapMatrix(matrix.getRowCount(), matrix.getColCount(), scope);
+        for (int i = 0; i < ret.row; i++) {
+            ret.write((long) i * ret.col, matrix.data(), matrix.offset() + i * matrix.stride(), ret.col);
+        }
+        return ret;
+    }
+
+    /**
+     * Copy this matrix to the heap, only possible if it has less than 2^31 elements
+     *
+     * @return
+     */
+    public MatrixJava toMatrixJava() {
+        long size = (long) row * col;
+        if (size > Integer.MAX_VALUE) {
+            throw new RuntimeException(String.format("Matrix (%d, %d) is too large for the heap!", row, col));
+        }
+        double[] data = new double[(int) size];
+        read(0, data, 0, data.length);
+        return new MatrixJava(row, col, data);
+    }
+
+    /**
+     * Return the product of this matrix and the right matrix as a new matrix in scope
+     *
+     * @param right
+     * @param scope owner of the memory of the result
+     * @return
+     */
+    public OffHeapMatrix dot(OffHeapMatrix right, ResourceScope scope) {
+        return dotAddInto(right, new OffHeapMatrix(row, right.col, scope));
+    }
+
+    /**
+     * Add the product of this matrix and the right matrix to dest, tile by tile. dest must not be one of the
+     * operands.
+     *
+     * @param right
+     * @param dest
+     * @return dest
+     */
+    public OffHeapMatrix dotAddInto(OffHeapMatrix right, OffHeapMatrix dest) {
+        if (col != right.row || dest.row != row || dest.col != right.col) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d), right: (%d, %d), dest: (%d, %d)", row, col,
+                            right.row, right.col, dest.row, dest.col));
+        }
+        if (dest == this || dest == right) {
+            throw new RuntimeException("Destination must not share storage with an operand!");
+        }
+
+        int tile = Math.min(TILE, Math.max(row, Math.max(col, right.col)));
+        double[] a = new double[tile * tile];
+        double[] b = new double[tile * tile];
+        double[] c = new double[tile * tile];
+        for (int jc = 0; jc < right.col; jc += tile) {
+            int nc = Math.min(tile, right.col - jc);
+            for (int pc = 0; pc < col; pc += tile) {
+                int kc = Math.min(tile, col - pc);
+                // the tile of B is reused for a whole column of tiles of A and C
+                right.readTile(pc, jc, kc, nc, b);
+                for (int ic = 0; ic < row; ic += tile) {
+                    int mc = Math.min(tile, row - ic);
+                    readTile(ic, pc, mc, kc, a);
+                    dest.readTile(ic, jc, mc, nc, c);
+                    Gemm.gemm(mc, nc, kc, a, 0, kc, 1, b, 0, nc, 1, c, 0, nc);
+                    dest.writeTile(ic, jc, mc, nc, c);
+                }
+            }
+        }
+        return dest;
+    }
+
+    /**
+     * Return the transpose as a new matrix in scope
+     *
+     * @param scope owner of the memory of the result
+     * @return
+     */
+    public OffHeapMatrix transpose(ResourceScope scope) {
+        OffHeapMatrix ret = new OffHeapMatrix(col, row, scope);
+        int tile = Math.min(TILE, Math.max(row, col));
+        double[] src = new double[tile * tile];
+        double[] dst = new double[tile * tile];
+        for (int i = 0; i < row; i += tile) {
+            int h = Math.min(tile, row - i);
+            for (int j = 0; j < col; j += tile) {
+                int w = Math.min(tile, col - j);
+                readTile(i, j, h, w, src);
+                Transpose.transpose(h, w, src, 0, w, dst, 0, h);
+                ret.writeTile(j, i, w, h, dst);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Add the matrix to this matrix in place
+     *
+     * @param in
+     * @return this
+     */
+    public OffHeapMatrix addInPlace(OffHeapMatrix in) {
+        return axpyInPlace(1, in);
+    }
+
+    /**
+     * this = this + alpha * x, in place
+     *
+     * @param alpha
+     * @param x
+     * @return this
+     */
+    public OffHeapMatrix axpyInPlace(double alpha, OffHeapMatrix x) {
+        checkSameDimension(x);
+        double[] xs = new double[CHUNK];
+        double[] ys = new double[CHUNK];
+        long size = (long) row * col;
+        for (long e = 0; e < size; e += CHUNK) {
+            int len = (int) Math.min(CHUNK, size - e);
+            x.read(e, xs, 0, len);
+            read(e, ys, 0, len);
+            KERNELS.axpy(alpha, xs, 0, ys, 0, len);
+            write(e, ys, 0, len);
+        }
+        return this;
+    }
+
+    /**
+     * Multiply every element by the scalar in place
+     *
+     * @param scalar
+     * @return this
+     */
+    public OffHeapMatrix scaleInPlace(double scalar) {
+        double[] buffer = new double[CHUNK];
+        long size = (long) row * col;
+        for (long e = 0; e < size; e += CHUNK) {
+            int len = (int) Math.min(CHUNK, size - e);
+            read(e, buffer, 0, len);
+            KERNELS.scale(buffer, 0, scalar, buffer, 0, len);
+            write(e, buffer, 0, len);
+        }
+        return this;
+    }
+
+    /**
+     * Set every element to the value
+     *
+     * @param value
+     * @return this
+     */
+    public OffHeapMatrix fill(double value) {
+        if (value == 0) {
+            segment.fill((byte) 0);
+            return this;
+        }
+        double[] buffer = new double[CHUNK];
+        Arrays.fill(buffer, value);
+        long size = (long) row * col;
+        for (long e = 0; e < size; e += CHUNK) {
+            write(e, buffer, 0, (int) Math.min(CHUNK, size - e));
+        }
+        return this;
+    }
+
+    /**
+     * Return the Frobenius norm
+     *
+     * @return
+     */
+    public double norm() {
+        double[] buffer = new double[CHUNK];
+        double sum = 0;
+        long size = (long) row * col;
+        for (long e = 0; e < size; e += CHUNK) {
+            int len = (int) Math.min(CHUNK, size - e);
+            read(e, buffer, 0, len);
+            sum += KERNELS.sumOfSquares(buffer, 0, len);
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Get the element
+     *
+     * @param row
+     * @param col
+     * @return
+     */
+    @Override
+    public double get(int row, int col) {
+        checkIndex(row, col);
+        return MemoryAccess.getDoubleAtIndex(segment, (long) row * this.col + col);
+    }
+
+    /**
+     * Set the element
+     *
+     * @param row
+     * @param col
+     * @param value
+     */
+    public void set(int row, int col, double value) {
+        checkIndex(row, col);
+        MemoryAccess.setDoubleAtIndex(segment, (long) row * this.col + col, value);
+    }
+
+    /**
+     * The native storage, row-major and compact
+     *
+     * @return
+     */
+    public MemorySegment segment() {
+        return segment;
+    }
+
+    /**
+     * Address of element (0, 0), for native code taking a pointer to the matrix
+     *
+     * @return
+     */
+    public MemoryAddress address() {
+        return segment.address();
+    }
+
+    /**
+     * Return row count
+     *
+     * @return
+     */
+    @Override
+    public int getRowCount() {
+        return row;
+    }
+
+    /**
+     * Return col count
+     *
+     * @return
+     */
+    @Override
+    public int getColCount() {
+        return col;
+    }
+
+    /**
+     * Copy len elements starting at element index to dst
+     */
+    private void read(long index, double[] dst, int dOff, int len) {
+        MemorySegment.ofArray(dst)
+                .asSlice((long) dOff * Double.BYTES, (long) len * Double.BYTES)
+                .copyFrom(segment.asSlice(index * Double.BYTES, (long) len * Double.BYTES));
+    }
+
+    /**
+     * Copy len elements of src to the storage starting at element index
+     */
+    private void write(long index, double[] src, int sOff, int len) {
+        segment.asSlice(index * Double.BYTES, (long) len * Double.BYTES)
+                .copyFrom(MemorySegment.ofArray(src)
+                        .asSlice((long) sOff * Double.BYTES, (long) len * Double.BYTES));
+    }
+
+    /**
+     * Copy the (h, w) block at (i, j) to the compact row-major tile
+     */
+    private void readTile(int i, int j, int h, int w, double[] tile) {
+        for (int r = 0; r < h; r++) {
+            read((long) (i + r) * col + j, tile, r * w, w);
+        }
+    }
+
+    /**
+     * Copy the compact row-major (h, w) tile to the block at (i, j)
+     */
+    private void writeTile(int i, int j, int h, int w, double[] tile) {
+        for (int r = 0; r < h; r++) {
+            write((long) (i + r) * col + j, tile, r * w, w);
+        }
+    }
+
+    /**
+     * Throw if the index is out of the matrix
+     */
+    private void checkIndex(int row, int col) {
+        if (row < 0 || row >= this.row || col < 0 || col >= this.col) {
+            throw new RuntimeException(
+                    String.format("Index (%d, %d) out of bounds of (%d, %d)", row, col, this.row, this.col));
+        }
+    }
+
+    /**
+     * Throw if the dimensions differ
+     */
+    private void checkSameDimension(OffHeapMatrix in) {
+        if (row != in.row || col != in.col) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), in: (%d, %d)", row, col, in.row, in.col));
+        }
+    }
+}
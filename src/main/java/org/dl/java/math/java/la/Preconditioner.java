@@ -0,0 +1,21 @@
+package org.dl.java.math.java.la;
+
+/**
+ * An approximation M of the operator A of a system that is cheap to invert, used by the {@link KrylovSolver}s to
+ * solve M^-1 * A * x = M^-1 * b, which converges in fewer iterations when M^-1 * A is close to the identity.
+ * See {@link JacobiPreconditioner} and {@link ILU0Preconditioner}.
+ */
+public interface Preconditioner {
+    /**
+     * No preconditioning, M = I
+     */
+    Preconditioner IDENTITY = (r, z) -> System.arraycopy(r, 0, z, 0, r.length);
+
+    /**
+     * Overwrite z with M^-1 * r
+     *
+     * @param r
+     * @param z
+     */
+    void apply(double[] r, double[] z);
+}
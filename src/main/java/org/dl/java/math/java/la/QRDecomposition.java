@@ -0,0 +1,88 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Data class representing a Householder QR decomposition of an (m, n) matrix with m &gt;= n, A = Q * R
+ * <p>
+ * The reflectors and R are stored packed in one matrix, {@link #q()} and {@link #r()} materialize the thin factors
+ * on demand.
+ */
+public class QRDecomposition {
+    private final MatrixJava packed;
+    private final double[] tau;
+    private MatrixJava q;
+    private MatrixJava r;
+
+    /**
+     * Construct a QR from the packed factors
+     *
+     * @param packed
+     * @param tau    scalar factors of the reflectors
+     */
+    QRDecomposition(MatrixJava packed, double[] tau) {
+        this.packed = packed;
+        this.tau = tau;
+    }
+
+    /**
+     * Get the (m, n) Q matrix with orthonormal columns
+     *
+     * @return
+     */
+    public MatrixJava q() {
+        if (q == null) {
+            int m = packed.getRowCount();
+            int n = packed.getColCount();
+            q = new MatrixJava(m, n);
+            for (int i = 0; i < n; i++) {
+                q.set(i, i, 1);
+            }
+            HouseholderQR.applyQ(false, m, n, packed.data(), 0, n, tau, q.data(), 0, n, n);
+        }
+        return q;
+    }
+
+    /**
+     * Get the (n, n) upper triangular R matrix
+     *
+     * @return
+     */
+    public MatrixJava r() {
+        if (r == null) {
+            int n = packed.getColCount();
+            r = new MatrixJava(n, n);
+            for (int i = 0; i < n; i++) {
+                for (int j = i; j < n; j++) {
+                    r.set(i, j, packed.get(i, j));
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Return the X minimizing the 2-norm of every column of AX - B, b can have any number of columns
+     *
+     * @param b
+     * @return
+     */
+    public MatrixJava leastSquares(MatrixJava b) {
+        int m = packed.getRowCount();
+        int n = packed.getColCount();
+        if (b.getRowCount() != m) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), b: (%d, %d)", m, n, b.getRowCount(),
+                            b.getColCount()));
+        }
+        if (HouseholderQR.isRankDeficient(m, n, packed.data(), 0, n)) {
+            throw new RuntimeException("Matrix is rank deficient!");
+        }
+
+        // X = R^-1 * (Q^T * B)(0:n)
+        int p = b.getColCount();
+        MatrixJava y = b.replicate();
+        HouseholderQR.applyQ(true, m, n, packed.data(), 0, n, tau, y.data(), 0, p, p);
+        Trsm.upper(n, p, packed.data(), 0, n, y.data(), 0, p);
+        return y.viewRows(0, n)
+                .replicate();
+    }
+}
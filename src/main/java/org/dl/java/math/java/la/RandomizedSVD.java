@@ -0,0 +1,57 @@
+package org.dl.java.math.java.la;
+
+import java.util.Random;
+
+/**
+ * Randomized truncated SVD, after Halko, Martinsson and Tropp.
+ * <p>
+ * A Gaussian sketch Y = A * G of l = rank + oversampling columns spans the dominant column space of A. Its
+ * orthonormal basis Q from a QR decomposition gives the small (l, n) matrix B = Q^T * A, whose SVD from
+ * {@link JacobiSVD} lifts back to A = (Q * U_B) * S * V^T. Power iterations replace the sketch by
+ * (A * A^T)^q * A * G, re-orthonormalized after every product, which sharpens the basis when the singular values
+ * decay slowly.
+ * <p>
+ * Optimization note:
+ * Every step on A is a (m, n) by (n, l) product through {@link Gemm}, so the whole decomposition costs
+ * O(m * n * l) instead of the O(m * n * min(m, n)) of a dense SVD, and only the (l, n) matrix B is decomposed
+ * densely.
+ */
+final class RandomizedSVD {
+    private RandomizedSVD() {
+    }
+
+    /**
+     * Decompose the matrix, keeping the rank largest singular triplets
+     *
+     * @param a
+     * @param rank
+     * @param oversampling    extra sketch columns, about 10 is enough for most matrices
+     * @param powerIterations passes of A * A^T over the sketch
+     * @param random          source of the Gaussian sketch
+     * @return
+     */
+    static SVDDecomposition decompose(MatrixJava a, int rank, int oversampling, int powerIterations, Random random) {
+        int m = a.getRowCount();
+        int n = a.getColCount();
+        int l = Math.min(rank + oversampling, Math.min(m, n));
+
+        double[] sketch = new double[n * l];
+        for (int i = 0; i < sketch.length; i++) {
+            sketch[i] = random.nextGaussian();
+        }
+        MatrixJava q = a.dot(new MatrixJava(n, l, sketch))
+                        .qr()
+                        .q();
+        for (int i = 0; i < powerIterations; i++) {
+            MatrixJava z = a.dotTransposeLeft(q)
+                            .qr()
+                            .q();
+            q = a.dot(z)
+                 .qr()
+                 .q();
+        }
+
+        SVDDecomposition small = JacobiSVD.decompose(q.dotTransposeLeft(a), rank);
+        return new SVDDecomposition(q.dot(small.u()), small.singularValues(), small.v());
+    }
+}
@@ -0,0 +1,86 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Data class representing a thin or truncated singular value decomposition of an (m, n) matrix, A ~ U * S * V^T
+ * <p>
+ * U is (m, k) and V is (n, k) with orthonormal columns, S is diagonal and holds the k singular values in decreasing
+ * order.
+ */
+public class SVDDecomposition {
+    private final MatrixJava u;
+    private final double[] singularValues;
+    private final MatrixJava v;
+
+    /**
+     * Construct an SVD from its factors
+     *
+     * @param u
+     * @param singularValues in decreasing order
+     * @param v
+     */
+    SVDDecomposition(MatrixJava u, double[] singularValues, MatrixJava v) {
+        this.u = u;
+        this.singularValues = singularValues;
+        this.v = v;
+    }
+
+    /**
+     * Get the (m, k) U matrix, the left singular vectors
+     *
+     * @return
+     */
+    public MatrixJava u() {
+        return u;
+    }
+
+    /**
+     * Get the k singular values in decreasing order
+     *
+     * @return
+     */
+    public double[] singularValues() {
+        return singularValues.clone();
+    }
+
+    /**
+     * Get the (n, k) V matrix, the right singular vectors
+     *
+     * @return
+     */
+    public MatrixJava v() {
+        return v;
+    }
+
+    /**
+     * Number of singular triplets kept
+     *
+     * @return
+     */
+    public int rank() {
+        return singularValues.length;
+    }
+
+    /**
+     * Return U * S * V^T, the best approximation of the decomposed matrix of this rank
+     *
+     * @return
+     */
+    public MatrixJava reconstruct() {
+        return scaledU().dotTransposeRight(v);
+    }
+
+    /**
+     * Get the (m, k) matrix U * S, so that A ~ (U * S) * V^T is a pair of skinny factors
+     *
+     * @return
+     */
+    public MatrixJava scaledU() {
+        MatrixJava ret = u.replicate();
+        for (int i = 0; i < ret.getRowCount(); i++) {
+            for (int j = 0; j < singularValues.length; j++) {
+                ret.set(i, j, ret.get(i, j) * singularValues[j]);
+            }
+        }
+        return ret;
+    }
+}
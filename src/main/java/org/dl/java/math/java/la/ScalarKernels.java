@@ -0,0 +1,261 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Plain loop implementation of {@link ElementKernels}, used when the vector API is not available.
+ */
+final class ScalarKernels implements ElementKernels {
+
+    @Override
+    public void add(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len) {
+        for (int i = 0; i < len; i++) {
+            r[ri + i] = a[ai + i] + b[bi + i];
+        }
+    }
+
+    @Override
+    public void sub(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len) {
+        for (int i = 0; i < len; i++) {
+            r[ri + i] = a[ai + i] - b[bi + i];
+        }
+    }
+
+    @Override
+    public void mul(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len) {
+        for (int i = 0; i < len; i++) {
+            r[ri + i] = a[ai + i] * b[bi + i];
+        }
+    }
+
+    @Override
+    public void mulAdd(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len) {
+        for (int i = 0; i < len; i++) {
+            r[ri + i] = Math.fma(a[ai + i], b[bi + i], r[ri + i]);
+        }
+    }
+
+    @Override
+    public void scale(double[] a, int ai, double scalar, double[] r, int ri, int len) {
+        for (int i = 0; i < len; i++) {
+            r[ri + i] = a[ai + i] * scalar;
+        }
+    }
+
+    @Override
+    public void shift(double[] a, int ai, double scalar, double[] r, int ri, int len) {
+        for (int i = 0; i < len; i++) {
+            r[ri + i] = a[ai + i] + scalar;
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xi, double[] y, int yi, int len) {
+        for (int i = 0; i < len; i++) {
+            y[yi + i] = Math.fma(alpha, x[xi + i], y[yi + i]);
+        }
+    }
+
+    @Override
+    public double dot(double[] x, int xi, double[] y, int yi, int len) {
+        double sum = 0;
+        for (int i = 0; i < len; i++) {
+            sum = Math.fma(x[xi + i], y[yi + i], sum);
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfSquares(double[] a, int ai, int len) {
+        double sum = 0;
+        for (int i = 0; i < len; i++) {
+            sum += a[ai + i] * a[ai + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void microKernel(int kc, double[] pa, int ia, double[] pb, int ib, double[] c, int cOff, int cRs) {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+
+        for (int p = 0; p < kc; p++) {
+            double a0 = pa[ia];
+            double a1 = pa[ia + 1];
+            double a2 = pa[ia + 2];
+            double a3 = pa[ia + 3];
+            double b0 = pb[ib];
+            double b1 = pb[ib + 1];
+            double b2 = pb[ib + 2];
+            double b3 = pb[ib + 3];
+            c00 = Math.fma(a0, b0, c00);
+            c01 = Math.fma(a0, b1, c01);
+            c02 = Math.fma(a0, b2, c02);
+            c03 = Math.fma(a0, b3, c03);
+            c10 = Math.fma(a1, b0, c10);
+            c11 = Math.fma(a1, b1, c11);
+            c12 = Math.fma(a1, b2, c12);
+            c13 = Math.fma(a1, b3, c13);
+            c20 = Math.fma(a2, b0, c20);
+            c21 = Math.fma(a2, b1, c21);
+            c22 = Math.fma(a2, b2, c22);
+            c23 = Math.fma(a2, b3, c23);
+            c30 = Math.fma(a3, b0, c30);
+            c31 = Math.fma(a3, b1, c31);
+            c32 = Math.fma(a3, b2, c32);
+            c33 = Math.fma(a3, b3, c33);
+            ia += Gemm.MR;
+            ib += Gemm.NR;
+        }
+
+        int r0 = cOff;
+        int r1 = r0 + cRs;
+        int r2 = r1 + cRs;
+        int r3 = r2 + cRs;
+        c[r0] += c00;
+        c[r0 + 1] += c01;
+        c[r0 + 2] += c02;
+        c[r0 + 3] += c03;
+        c[r1] += c10;
+        c[r1 + 1] += c11;
+        c[r1 + 2] += c12;
+        c[r1 + 3] += c13;
+        c[r2] += c20;
+        c[r2 + 1] += c21;
+        c[r2 + 2] += c22;
+        c[r2 + 3] += c23;
+        c[r3] += c30;
+        c[r3 + 1] += c31;
+        c[r3 + 2] += c32;
+        c[r3 + 3] += c33;
+    }
+
+    @Override
+    public void add(float[] a, int ai, float[] b, int bi, float[] r, int ri, int len) {
+        for (int i = 0; i < len; i++) {
+            r[ri + i] = a[ai + i] + b[bi + i];
+        }
+    }
+
+    @Override
+    public void sub(float[] a, int ai, float[] b, int bi, float[] r, int ri, int len) {
+        for (int i = 0; i < len; i++) {
+            r[ri + i] = a[ai + i] - b[bi + i];
+        }
+    }
+
+    @Override
+    public void mul(float[] a, int ai, float[] b, int bi, float[] r, int ri, int len) {
+        for (int i = 0; i < len; i++) {
+            r[ri + i] = a[ai + i] * b[bi + i];
+        }
+    }
+
+    @Override
+    public void scale(float[] a, int ai, float scalar, float[] r, int ri, int len) {
+        for (int i = 0; i < len; i++) {
+            r[ri + i] = a[ai + i] * scalar;
+        }
+    }
+
+    @Override
+    public void shift(float[] a, int ai, float scalar, float[] r, int ri, int len) {
+        for (int i = 0; i < len; i++) {
+            r[ri + i] = a[ai + i] + scalar;
+        }
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xi, float[] y, int yi, int len) {
+        for (int i = 0; i < len; i++) {
+            y[yi + i] = Math.fma(alpha, x[xi + i], y[yi + i]);
+        }
+    }
+
+    @Override
+    public float dot(float[] x, int xi, float[] y, int yi, int len) {
+        float sum = 0;
+        for (int i = 0; i < len; i++) {
+            sum = Math.fma(x[xi + i], y[yi + i], sum);
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfSquares(float[] a, int ai, int len) {
+        double sum = 0;
+        for (int i = 0; i < len; i++) {
+            sum += (double) a[ai + i] * a[ai + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void microKernel(int kc, float[] pa, int ia, float[] pb, int ib, float[] c, int cOff, int cRs) {
+        // 32 accumulators do not fit the registers, so the tile is computed as two 4 x 4 halves of 16 each, like
+        // the double kernel, reading A twice instead of spilling to a buffer
+        microKernelHalf(kc, pa, ia, pb, ib, c, cOff, cRs);
+        microKernelHalf(kc, pa, ia, pb, ib + 4, c, cOff + 4, cRs);
+    }
+
+    /**
+     * The 4 x 4 tile of columns [ib, ib + 4) of the packed B panel, whose rows are {@link Sgemm#NR} wide
+     */
+    private static void microKernelHalf(int kc, float[] pa, int ia, float[] pb, int ib, float[] c, int cOff,
+                                        int cRs) {
+        float c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        float c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        float c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        float c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+
+        for (int p = 0; p < kc; p++) {
+            float a0 = pa[ia];
+            float a1 = pa[ia + 1];
+            float a2 = pa[ia + 2];
+            float a3 = pa[ia + 3];
+            float b0 = pb[ib];
+            float b1 = pb[ib + 1];
+            float b2 = pb[ib + 2];
+            float b3 = pb[ib + 3];
+            c00 = Math.fma(a0, b0, c00);
+            c01 = Math.fma(a0, b1, c01);
+            c02 = Math.fma(a0, b2, c02);
+            c03 = Math.fma(a0, b3, c03);
+            c10 = Math.fma(a1, b0, c10);
+            c11 = Math.fma(a1, b1, c11);
+            c12 = Math.fma(a1, b2, c12);
+            c13 = Math.fma(a1, b3, c13);
+            c20 = Math.fma(a2, b0, c20);
+            c21 = Math.fma(a2, b1, c21);
+            c22 = Math.fma(a2, b2, c22);
+            c23 = Math.fma(a2, b3, c23);
+            c30 = Math.fma(a3, b0, c30);
+            c31 = Math.fma(a3, b1, c31);
+            c32 = Math.fma(a3, b2, c32);
+            c33 = Math.fma(a3, b3, c33);
+            ia += Sgemm.MR;
+            ib += Sgemm.NR;
+        }
+
+        int r0 = cOff;
+        int r1 = r0 + cRs;
+        int r2 = r1 + cRs;
+        int r3 = r2 + cRs;
+        c[r0] += c00;
+        c[r0 + 1] += c01;
+        c[r0 + 2] += c02;
+        c[r0 + 3] += c03;
+        c[r1] += c10;
+        c[r1 + 1] += c11;
+        c[r1 + 2] += c12;
+        c[r1 + 3] += c13;
+        c[r2] += c20;
+        c[r2 + 1] += c21;
+        c[r2 + 2] += c22;
+        c[r2 + 3] += c23;
+        c[r3] += c30;
+        c[r3 + 1] += c31;
+        c[r3 + 2] += c32;
+        c[r3 + 3] += c33;
+    }
+}
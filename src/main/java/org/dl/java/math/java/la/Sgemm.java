@@ -0,0 +1,214 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+
+/**
+ * Single precision version of {@link Gemm}, C += A * B on {@code float[]} storage.
+ * <p>
+ * The block sizes, packing and parallel split are the ones of doubles, see {@link Gemm}. The register tile is
+ * MR x NR = 4 x 8, so a row of the tile is still one 256-bit vector, and twice as many elements go through each
+ * multiply-add and each cache line. The micro-kernel follows the same contract as the one of {@link Gemm}: it
+ * always adds a whole tile, the ragged edge tiles go through {@link #edgeTile}.
+ */
+final class Sgemm {
+    /**
+     * Rows of the register tile
+     */
+    static final int MR = 4;
+    /**
+     * Columns of the register tile, one 256-bit vector of floats
+     */
+    static final int NR = 8;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private Sgemm() {
+    }
+
+    /**
+     * C += A * B where A is (m, k), B is (k, n) and C is (m, n)
+     *
+     * @param m
+     * @param n
+     * @param k
+     * @param a    storage of A
+     * @param aOff offset of A(0, 0)
+     * @param aRs  distance between A(i, p) and A(i + 1, p)
+     * @param aCs  distance between A(i, p) and A(i, p + 1)
+     * @param b    storage of B
+     * @param bOff offset of B(0, 0)
+     * @param bRs  distance between B(p, j) and B(p + 1, j)
+     * @param bCs  distance between B(p, j) and B(p, j + 1)
+     * @param c    storage of C
+     * @param cOff offset of C(0, 0)
+     * @param cRs  distance between C(i, j) and C(i + 1, j)
+     */
+    static void gemm(int m, int n, int k, float[] a, int aOff, int aRs, int aCs, float[] b, int bOff, int bRs,
+                     int bCs, float[] c, int cOff, int cRs) {
+        long grain = GemmPartition.grain(m, n, k);
+        if (grain > 0) {
+            GemmPartition.invoke(m, n, k, MR, NR, grain,
+                    (i, j, rows, cols) -> sequential(rows, cols, k, a, aOff + i * aRs, aRs, aCs, b, bOff + j * bCs,
+                            bRs, bCs, c, cOff + i * cRs + j, cRs));
+            return;
+        }
+
+        sequential(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs);
+    }
+
+    /**
+     * Same as {@link #gemm}, but always runs on the calling thread
+     */
+    static void sequential(int m, int n, int k, float[] a, int aOff, int aRs, int aCs, float[] b, int bOff,
+                           int bRs, int bCs, float[] c, int cOff, int cRs) {
+        if ((long) m * n * k <= Gemm.SMALL || n == 1) {
+            simple(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs);
+            return;
+        }
+
+        int kcMax = Math.min(Gemm.KC, k);
+        float[] packedA = new float[GemmPartition.roundUp(Math.min(Gemm.MC, m), MR) * kcMax];
+        float[] packedB = new float[GemmPartition.roundUp(Math.min(Gemm.NC, n), NR) * kcMax];
+
+        for (int jc = 0; jc < n; jc += Gemm.NC) {
+            int nc = Math.min(Gemm.NC, n - jc);
+            for (int pc = 0; pc < k; pc += Gemm.KC) {
+                int kc = Math.min(Gemm.KC, k - pc);
+                packB(kc, nc, b, bOff + pc * bRs + jc * bCs, bRs, bCs, packedB);
+                for (int ic = 0; ic < m; ic += Gemm.MC) {
+                    int mc = Math.min(Gemm.MC, m - ic);
+                    packA(mc, kc, a, aOff + ic * aRs + pc * aCs, aRs, aCs, packedA);
+                    macroKernel(mc, nc, kc, packedA, packedB, c, cOff + ic * cRs + jc, cRs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loop over the micro-panels of the packed blocks
+     */
+    private static void macroKernel(int mc, int nc, int kc, float[] packedA, float[] packedB, float[] c, int cOff,
+                                    int cRs) {
+        float[] edge = null;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            int pb = jr * kc;
+            for (int ir = 0; ir < mc; ir += MR) {
+                int mr = Math.min(MR, mc - ir);
+                int ct = cOff + ir * cRs + jr;
+                if (mr == MR && nr == NR) {
+                    KERNELS.microKernel(kc, packedA, ir * kc, packedB, pb, c, ct, cRs);
+                } else {
+                    edge = edgeTile(kc, packedA, ir * kc, packedB, pb, c, ct, cRs, mr, nr, edge);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the top-left (mr, nr) part of the product of a packed panel pair to C, through a scratch tile so the
+     * micro-kernel keeps a single straight-line path
+     *
+     * @param edge scratch tile of a previous call, null for none
+     * @return the scratch tile, to pass to the next call
+     */
+    private static float[] edgeTile(int kc, float[] packedA, int ia, float[] packedB, int ib, float[] c, int ct,
+                                    int cRs, int mr, int nr, float[] edge) {
+        if (edge == null) {
+            edge = new float[MR * NR];
+        } else {
+            Arrays.fill(edge, 0f);
+        }
+        KERNELS.microKernel(kc, packedA, ia, packedB, ib, edge, 0, NR);
+        for (int i = 0; i < mr; i++) {
+            for (int j = 0; j < nr; j++) {
+                c[ct + i * cRs + j] += edge[i * NR + j];
+            }
+        }
+        return edge;
+    }
+
+    /**
+     * Pack an (mc, kc) block of A into MR-row micro-panels, each stored column by column
+     */
+    private static void packA(int mc, int kc, float[] a, int aOff, int aRs, int aCs, float[] packed) {
+        int dst = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            for (int p = 0; p < kc; p++) {
+                int src = aOff + ir * aRs + p * aCs;
+                int i = 0;
+                for (; i < mr; i++) {
+                    packed[dst++] = a[src + i * aRs];
+                }
+                for (; i < MR; i++) {
+                    packed[dst++] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pack a (kc, nc) block of B into NR-column micro-panels, each stored row by row
+     */
+    private static void packB(int kc, int nc, float[] b, int bOff, int bRs, int bCs, float[] packed) {
+        int dst = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            for (int p = 0; p < kc; p++) {
+                int src = bOff + p * bRs + jr * bCs;
+                int j = 0;
+                for (; j < nr; j++) {
+                    packed[dst++] = b[src + j * bCs];
+                }
+                for (; j < NR; j++) {
+                    packed[dst++] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * The unblocked ikj loop, used for small products and matrix-vector products
+     */
+    private static void simple(int m, int n, int k, float[] a, int aOff, int aRs, int aCs, float[] b, int bOff,
+                               int bRs, int bCs, float[] c, int cOff, int cRs) {
+        if (n == 1 && aRs == 1 && cRs == 1) {
+            // columns of A are contiguous (A is a transposed view), accumulate column by column
+            for (int p = 0; p < k; p++) {
+                KERNELS.axpy(b[bOff + p * bRs], a, aOff + p * aCs, c, cOff, m);
+            }
+            return;
+        }
+
+        if (n == 1) {
+            for (int i = 0; i < m; i++) {
+                int ai = aOff + i * aRs;
+                if (aCs == 1 && bRs == 1) {
+                    c[cOff + i * cRs] += KERNELS.dot(a, ai, b, bOff, k);
+                    continue;
+                }
+                float sum = 0;
+                for (int p = 0; p < k; p++) {
+                    sum = Math.fma(a[ai + p * aCs], b[bOff + p * bRs], sum);
+                }
+                c[cOff + i * cRs] += sum;
+            }
+            return;
+        }
+
+        for (int i = 0; i < m; i++) {
+            int ci = cOff + i * cRs;
+            for (int p = 0; p < k; p++) {
+                float aip = a[aOff + i * aRs + p * aCs];
+                int bp = bOff + p * bRs;
+                if (bCs == 1) {
+                    KERNELS.axpy(aip, b, bp, c, ci, n);
+                    continue;
+                }
+                for (int j = 0; j < n; j++) {
+                    c[ci + j] = Math.fma(aip, b[bp + j * bCs], c[ci + j]);
+                }
+            }
+        }
+    }
+}
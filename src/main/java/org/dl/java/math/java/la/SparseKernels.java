@@ -0,0 +1,214 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Products of a compressed sparse matrix S with a dense matrix, shared by {@link CSRMatrix} and {@link CSCMatrix}.
+ * <p>
+ * The kernels only see the compressed storage: major line p (a row of CSR, a column of CSC) holds the entries
+ * values[e] at minor index indices[e] for e in [pointers[p], pointers[p + 1]). Whether a kernel computes S * B or
+ * S^T * B depends on which of the two classes calls it.
+ * <p>
+ * Optimization note:
+ * 1. Every kernel does work proportional to the number of stored entries times the width of the dense operand,
+ * zero entries of S are never touched.
+ * 2. When the dense operand has several columns, each entry updates a whole row of C with {@link ElementKernels#axpy},
+ * a contiguous SIMD loop. A single column, the sparse matrix-vector product, is a plain fused multiply-add per entry.
+ */
+final class SparseKernels {
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private SparseKernels() {
+    }
+
+    /**
+     * Throw if the arrays are not a valid compressed storage with the given number of major and minor lines
+     *
+     * @param majors
+     * @param minors
+     * @param pointers
+     * @param indices
+     * @param values
+     */
+    static void checkStorage(int majors, int minors, int[] pointers, int[] indices, double[] values) {
+        if (majors == 0 || minors == 0) {
+            throw new RuntimeException("Cannot create 0-dimension matrix!");
+        }
+        if (pointers.length != majors + 1 || pointers[0] != 0 || indices.length < pointers[majors]
+                || values.length < pointers[majors]) {
+            throw new RuntimeException(
+                    String.format("Invalid compressed storage! %d pointers for %d lines, %d indices, %d values",
+                            pointers.length, majors, indices.length, values.length));
+        }
+        for (int p = 0; p < majors; p++) {
+            if (pointers[p + 1] < pointers[p]) {
+                throw new RuntimeException(
+                        String.format("Invalid compressed storage! Decreasing pointer at line %d", p + 1));
+            }
+        }
+        for (int e = 0; e < pointers[majors]; e++) {
+            if (indices[e] < 0 || indices[e] >= minors) {
+                throw new RuntimeException(
+                        String.format("Invalid compressed storage! Index %d of entry %d is out of [0, %d)",
+                                indices[e], e, minors));
+            }
+        }
+    }
+
+    /**
+     * C(p, :) += sum of values[e] * B(indices[e], :) over the entries of each major line p, C has a row per major line
+     *
+     * @param majors
+     * @param pointers
+     * @param indices
+     * @param values
+     * @param n        columns of B and C
+     * @param b        storage of B
+     * @param bOff     offset of B(0, 0)
+     * @param bRs      distance between B(i, j) and B(i + 1, j)
+     * @param c        storage of C
+     * @param cOff     offset of C(0, 0)
+     * @param cRs      distance between C(i, j) and C(i + 1, j)
+     */
+    static void gather(int majors, int[] pointers, int[] indices, double[] values, int n, double[] b, int bOff,
+                       int bRs, double[] c, int cOff, int cRs) {
+        for (int p = 0; p < majors; p++) {
+            int cp = cOff + p * cRs;
+            if (n == 1) {
+                double sum = c[cp];
+                for (int e = pointers[p]; e < pointers[p + 1]; e++) {
+                    sum = Math.fma(values[e], b[bOff + indices[e] * bRs], sum);
+                }
+                c[cp] = sum;
+            } else {
+                for (int e = pointers[p]; e < pointers[p + 1]; e++) {
+                    KERNELS.axpy(values[e], b, bOff + indices[e] * bRs, c, cp, n);
+                }
+            }
+        }
+    }
+
+    /**
+     * C(indices[e], :) += values[e] * B(p, :) over the entries of each major line p, B has a row per major line
+     *
+     * @param majors
+     * @param pointers
+     * @param indices
+     * @param values
+     * @param n        columns of B and C
+     * @param b        storage of B
+     * @param bOff     offset of B(0, 0)
+     * @param bRs      distance between B(i, j) and B(i + 1, j)
+     * @param c        storage of C
+     * @param cOff     offset of C(0, 0)
+     * @param cRs      distance between C(i, j) and C(i + 1, j)
+     */
+    static void scatter(int majors, int[] pointers, int[] indices, double[] values, int n, double[] b, int bOff,
+                        int bRs, double[] c, int cOff, int cRs) {
+        for (int p = 0; p < majors; p++) {
+            int bp = bOff + p * bRs;
+            if (n == 1) {
+                double bv = b[bp];
+                if (bv == 0) {
+                    continue;
+                }
+                for (int e = pointers[p]; e < pointers[p + 1]; e++) {
+                    c[cOff + indices[e] * cRs] += values[e] * bv;
+                }
+            } else {
+                for (int e = pointers[p]; e < pointers[p + 1]; e++) {
+                    KERNELS.axpy(values[e], b, bp, c, cOff + indices[e] * cRs, n);
+                }
+            }
+        }
+    }
+
+    /**
+     * C(i, indices[e]) += D(i, p) * values[e] over the entries of each major line p, the product of the (m, majors)
+     * dense D with the sparse matrix whose rows are the major lines
+     *
+     * @param m        rows of D and C
+     * @param majors
+     * @param pointers
+     * @param indices
+     * @param values
+     * @param d        storage of D
+     * @param dOff     offset of D(0, 0)
+     * @param dRs      distance between D(i, j) and D(i + 1, j)
+     * @param c        storage of C
+     * @param cOff     offset of C(0, 0)
+     * @param cRs      distance between C(i, j) and C(i + 1, j)
+     */
+    static void denseTimesRows(int m, int majors, int[] pointers, int[] indices, double[] values, double[] d,
+                               int dOff, int dRs, double[] c, int cOff, int cRs) {
+        for (int i = 0; i < m; i++) {
+            int di = dOff + i * dRs;
+            int ci = cOff + i * cRs;
+            for (int p = 0; p < majors; p++) {
+                double dv = d[di + p];
+                if (dv == 0) {
+                    continue;
+                }
+                for (int e = pointers[p]; e < pointers[p + 1]; e++) {
+                    c[ci + indices[e]] += dv * values[e];
+                }
+            }
+        }
+    }
+
+    /**
+     * C(i, p) += sum of D(i, indices[e]) * values[e] over the entries of each major line p, the product of the dense
+     * D with the sparse matrix whose columns are the major lines
+     *
+     * @param m        rows of D and C
+     * @param majors
+     * @param pointers
+     * @param indices
+     * @param values
+     * @param d        storage of D
+     * @param dOff     offset of D(0, 0)
+     * @param dRs      distance between D(i, j) and D(i + 1, j)
+     * @param c        storage of C
+     * @param cOff     offset of C(0, 0)
+     * @param cRs      distance between C(i, j) and C(i + 1, j)
+     */
+    static void denseTimesColumns(int m, int majors, int[] pointers, int[] indices, double[] values, double[] d,
+                                  int dOff, int dRs, double[] c, int cOff, int cRs) {
+        // four rows at a time, each entry is loaded once for four independent sums
+        int i = 0;
+        for (; i + 4 <= m; i += 4) {
+            int d0 = dOff + i * dRs;
+            int d1 = d0 + dRs;
+            int d2 = d1 + dRs;
+            int d3 = d2 + dRs;
+            int c0 = cOff + i * cRs;
+            for (int p = 0; p < majors; p++) {
+                double s0 = c[c0 + p];
+                double s1 = c[c0 + cRs + p];
+                double s2 = c[c0 + 2 * cRs + p];
+                double s3 = c[c0 + 3 * cRs + p];
+                for (int e = pointers[p]; e < pointers[p + 1]; e++) {
+                    int k = indices[e];
+                    double v = values[e];
+                    s0 = Math.fma(d[d0 + k], v, s0);
+                    s1 = Math.fma(d[d1 + k], v, s1);
+                    s2 = Math.fma(d[d2 + k], v, s2);
+                    s3 = Math.fma(d[d3 + k], v, s3);
+                }
+                c[c0 + p] = s0;
+                c[c0 + cRs + p] = s1;
+                c[c0 + 2 * cRs + p] = s2;
+                c[c0 + 3 * cRs + p] = s3;
+            }
+        }
+        for (; i < m; i++) {
+            int di = dOff + i * dRs;
+            int ci = cOff + i * cRs;
+            for (int p = 0; p < majors; p++) {
+                double sum = c[ci + p];
+                for (int e = pointers[p]; e < pointers[p + 1]; e++) {
+                    sum = Math.fma(d[di + indices[e]], values[e], sum);
+                }
+                c[ci + p] = sum;
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+
+/**
+ * Strassen-Winograd recursive matrix multiplication, C = A * B.
+ * <p>
+ * Each level splits the operands into 2 x 2 blocks and computes the product with 7 block products and 15 block
+ * additions instead of 8 products. Levels recurse until a dimension reaches the crossover size, below which the
+ * blocked {@link Gemm} kernel is faster.
+ * <p>
+ * Implementation note:
+ * 1. The block products and additions follow the schedule of Boyer, Dumas, Pernet and Zhou, "Memory efficient
+ * scheduling of Strassen-Winograd's matrix multiplication algorithm", which uses the 4 quadrants of C as scratch and
+ * only needs two temporaries per level, one the size of a block of A (or of C) and one the size of a block of B.
+ * 2. Odd dimensions are handled by dynamic peeling: the even top-left part goes through the recursion and the last
+ * row, column and rank-1 update are fixed up with {@link Gemm}.
+ * 3. Strassen trades some accuracy for speed. The error bound grows with the number of levels instead of with n,
+ * see {@code StrassenPerfRun} for a measured report.
+ */
+final class Strassen {
+    /**
+     * Default crossover, dimensions at or below this size use {@link Gemm}
+     */
+    static final int DEFAULT_CROSSOVER = 512;
+    /**
+     * Smallest crossover accepted, below this the additions dominate
+     */
+    static final int MIN_CROSSOVER = 16;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private Strassen() {
+    }
+
+    /**
+     * C = A * B where A is (m, k), B is (k, n) and C is (m, n). All blocks are row-major with unit column stride.
+     *
+     * @param m
+     * @param n
+     * @param k
+     * @param a
+     * @param aOff
+     * @param aRs
+     * @param b
+     * @param bOff
+     * @param bRs
+     * @param c
+     * @param cOff
+     * @param cRs
+     * @param crossover
+     */
+    static void multiply(int m, int n, int k, double[] a, int aOff, int aRs, double[] b, int bOff, int bRs,
+                         double[] c, int cOff, int cRs, int crossover) {
+        if (m <= crossover || n <= crossover || k <= crossover) {
+            zero(m, n, c, cOff, cRs);
+            Gemm.gemm(m, n, k, a, aOff, aRs, 1, b, bOff, bRs, 1, c, cOff, cRs);
+            return;
+        }
+
+        int m2 = m & ~1;
+        int n2 = n & ~1;
+        int k2 = k & ~1;
+        winograd(m2, n2, k2, a, aOff, aRs, b, bOff, bRs, c, cOff, cRs, crossover);
+
+        // peeling of the odd row, column and inner dimension
+        if (k2 != k) {
+            Gemm.gemm(m2, n2, 1, a, aOff + k2, aRs, 1, b, bOff + k2 * bRs, bRs, 1, c, cOff, cRs);
+        }
+        if (n2 != n) {
+            zero(m, 1, c, cOff + n2, cRs);
+            Gemm.gemm(m, 1, k, a, aOff, aRs, 1, b, bOff + n2, bRs, 1, c, cOff + n2, cRs);
+        }
+        if (m2 != m) {
+            zero(1, n2, c, cOff + m2 * cRs, cRs);
+            Gemm.gemm(1, n2, k, a, aOff + m2 * aRs, aRs, 1, b, bOff, bRs, 1, c, cOff + m2 * cRs, cRs);
+        }
+    }
+
+    /**
+     * One level of Strassen-Winograd on even dimensions
+     */
+    private static void winograd(int m, int n, int k, double[] a, int aOff, int aRs, double[] b, int bOff, int bRs,
+                                 double[] c, int cOff, int cRs, int crossover) {
+        int mh = m / 2;
+        int nh = n / 2;
+        int kh = k / 2;
+
+        int a11 = aOff;
+        int a12 = aOff + kh;
+        int a21 = aOff + mh * aRs;
+        int a22 = a21 + kh;
+        int b11 = bOff;
+        int b12 = bOff + nh;
+        int b21 = bOff + kh * bRs;
+        int b22 = b21 + nh;
+        int c11 = cOff;
+        int c12 = cOff + nh;
+        int c21 = cOff + mh * cRs;
+        int c22 = c21 + nh;
+
+        // X holds a (mh, kh) block of A, then the (mh, nh) product P1, Y holds a (kh, nh) block of B
+        double[] x = new double[mh * Math.max(kh, nh)];
+        double[] y = new double[kh * nh];
+
+        // S3 = A11 - A21, T3 = B22 - B12, P7 = S3 * T3 -> C21
+        sub(mh, kh, a, a11, aRs, a, a21, aRs, x, 0, kh);
+        sub(kh, nh, b, b22, bRs, b, b12, bRs, y, 0, nh);
+        multiply(mh, nh, kh, x, 0, kh, y, 0, nh, c, c21, cRs, crossover);
+        // S1 = A21 + A22, T1 = B12 - B11, P5 = S1 * T1 -> C22
+        add(mh, kh, a, a21, aRs, a, a22, aRs, x, 0, kh);
+        sub(kh, nh, b, b12, bRs, b, b11, bRs, y, 0, nh);
+        multiply(mh, nh, kh, x, 0, kh, y, 0, nh, c, c22, cRs, crossover);
+        // S2 = S1 - A11, T2 = B22 - T1, P6 = S2 * T2 -> C12
+        sub(mh, kh, x, 0, kh, a, a11, aRs, x, 0, kh);
+        sub(kh, nh, b, b22, bRs, y, 0, nh, y, 0, nh);
+        multiply(mh, nh, kh, x, 0, kh, y, 0, nh, c, c12, cRs, crossover);
+        // S4 = A12 - S2, P3 = S4 * B22 -> C11
+        sub(mh, kh, a, a12, aRs, x, 0, kh, x, 0, kh);
+        multiply(mh, nh, kh, x, 0, kh, b, b22, bRs, c, c11, cRs, crossover);
+        // P1 = A11 * B11 -> X
+        multiply(mh, nh, kh, a, a11, aRs, b, b11, bRs, x, 0, nh, crossover);
+        // U2 = P1 + P6 -> C12, U3 = U2 + P7 -> C21, U4 = U2 + P5 -> C12
+        add(mh, nh, x, 0, nh, c, c12, cRs, c, c12, cRs);
+        add(mh, nh, c, c12, cRs, c, c21, cRs, c, c21, cRs);
+        add(mh, nh, c, c12, cRs, c, c22, cRs, c, c12, cRs);
+        // U7 = U3 + P5 -> C22, U5 = U4 + P3 -> C12
+        add(mh, nh, c, c21, cRs, c, c22, cRs, c, c22, cRs);
+        add(mh, nh, c, c12, cRs, c, c11, cRs, c, c12, cRs);
+        // T4 = T2 - B21, P4 = A22 * T4 -> C11, U6 = U3 - P4 -> C21
+        sub(kh, nh, y, 0, nh, b, b21, bRs, y, 0, nh);
+        multiply(mh, nh, kh, a, a22, aRs, y, 0, nh, c, c11, cRs, crossover);
+        sub(mh, nh, c, c21, cRs, c, c11, cRs, c, c21, cRs);
+        // P2 = A12 * B21 -> C11, U1 = P1 + P2 -> C11
+        multiply(mh, nh, kh, a, a12, aRs, b, b21, bRs, c, c11, cRs, crossover);
+        add(mh, nh, x, 0, nh, c, c11, cRs, c, c11, cRs);
+    }
+
+    private static void add(int rows, int cols, double[] l, int lOff, int lRs, double[] r, int rOff, int rRs,
+                            double[] d, int dOff, int dRs) {
+        for (int i = 0; i < rows; i++) {
+            KERNELS.add(l, lOff + i * lRs, r, rOff + i * rRs, d, dOff + i * dRs, cols);
+        }
+    }
+
+    private static void sub(int rows, int cols, double[] l, int lOff, int lRs, double[] r, int rOff, int rRs,
+                            double[] d, int dOff, int dRs) {
+        for (int i = 0; i < rows; i++) {
+            KERNELS.sub(l, lOff + i * lRs, r, rOff + i * rRs, d, dOff + i * dRs, cols);
+        }
+    }
+
+    private static void zero(int rows, int cols, double[] c, int cOff, int cRs) {
+        for (int i = 0; i < rows; i++) {
+            int start = cOff + i * cRs;
+            Arrays.fill(c, start, start + cols, 0.0);
+        }
+    }
+}
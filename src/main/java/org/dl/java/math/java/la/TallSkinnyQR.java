@@ -0,0 +1,157 @@
+package org.dl.java.math.java.la;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * R factor of the QR decomposition of a tall and skinny matrix [A B], computed by streaming over row blocks (TSQR).
+ * <p>
+ * Q is never formed. When B is appended to A, the top rows of R hold R_A and Q_A^T * B, which is all a least squares
+ * solve needs.
+ * <p>
+ * Optimization note:
+ * 1. Rows are consumed in blocks sized so that the block and the current R fit in L2. Each step factorizes R stacked
+ * on the next block with {@link HouseholderQR}, so a (1M, 100) problem never leaves the cache while being factorized,
+ * where a plain Householder QR makes a pass over the whole matrix for each column.
+ * 2. Only one block is ever copied, so the extra memory is independent of the number of rows.
+ * 3. Large row ranges are split in halves on a {@link ForkJoinPool}, each half streams its own R and the two R
+ * factors are merged by the QR of their stack.
+ */
+final class TallSkinnyQR {
+    /**
+     * Target size in doubles of a block with the R stacked on top of it
+     */
+    private static final int BLOCK_DOUBLES = 1 << 17;
+
+    private TallSkinnyQR() {
+    }
+
+    /**
+     * The (w, w) upper triangular R of [A B], w = n + p, row-major. A is (m, n) and B is (m, p).
+     *
+     * @param m
+     * @param n
+     * @param a    storage of A
+     * @param aOff offset of A(0, 0)
+     * @param aRs  distance between A(i, j) and A(i + 1, j)
+     * @param p
+     * @param b    storage of B
+     * @param bOff offset of B(0, 0)
+     * @param bRs  distance between B(i, j) and B(i + 1, j)
+     * @return
+     */
+    static double[] r(int m, int n, double[] a, int aOff, int aRs, int p, double[] b, int bOff, int bRs) {
+        int w = n + p;
+        int blockRows = Math.max(2 * w, BLOCK_DOUBLES / w);
+
+        boolean inPool = ForkJoinTask.inForkJoinPool();
+        ForkJoinPool pool = inPool ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+        int parallelism = pool.getParallelism();
+        if (parallelism > 1 && m >= 4 * blockRows) {
+            int grain = Math.max(2 * blockRows, m / (parallelism * 2));
+            RTask task = new RTask(0, m, n, a, aOff, aRs, p, b, bOff, bRs, blockRows, grain);
+            return inPool ? task.invoke() : pool.invoke(task);
+        }
+
+        return new RTask(0, m, n, a, aOff, aRs, p, b, bOff, bRs, blockRows, m).stream();
+    }
+
+    /**
+     * Stack two R factors and factorize them into one
+     */
+    private static double[] merge(double[] top, double[] bottom, int w) {
+        double[] stacked = new double[2 * w * w];
+        System.arraycopy(top, 0, stacked, 0, w * w);
+        System.arraycopy(bottom, 0, stacked, w * w, w * w);
+        HouseholderQR.factor(2 * w, w, stacked, 0, w);
+        return upper(stacked, w);
+    }
+
+    /**
+     * Copy of the upper triangle of the top (w, w) block
+     */
+    private static double[] upper(double[] factored, int w) {
+        double[] r = new double[w * w];
+        for (int i = 0; i < w; i++) {
+            System.arraycopy(factored, i * w + i, r, i * w + i, w - i);
+        }
+        return r;
+    }
+
+    /**
+     * Streams the rows [from, to) sequentially when they fit in grain rows, splits them in halves otherwise
+     */
+    private static final class RTask extends RecursiveTask<double[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int n;
+        private final double[] a;
+        private final int aOff;
+        private final int aRs;
+        private final int p;
+        private final double[] b;
+        private final int bOff;
+        private final int bRs;
+        private final int blockRows;
+        private final int grain;
+
+        RTask(int from, int to, int n, double[] a, int aOff, int aRs, int p, double[] b, int bOff, int bRs,
+              int blockRows, int grain) {
+            this.from = from;
+            this.to = to;
+            this.n = n;
+            this.a = a;
+            this.aOff = aOff;
+            this.aRs = aRs;
+            this.p = p;
+            this.b = b;
+            this.bOff = bOff;
+            this.bRs = bRs;
+            this.blockRows = blockRows;
+            this.grain = grain;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (to - from <= grain) {
+                return stream();
+            }
+
+            int middle = from + (to - from) / 2;
+            RTask top = new RTask(from, middle, n, a, aOff, aRs, p, b, bOff, bRs, blockRows, grain);
+            RTask bottom = new RTask(middle, to, n, a, aOff, aRs, p, b, bOff, bRs, blockRows, grain);
+            bottom.fork();
+            double[] r = top.compute();
+            return merge(r, bottom.join(), n + p);
+        }
+
+        /**
+         * Factorize R stacked on each block of rows in turn
+         */
+        double[] stream() {
+            int w = n + p;
+            // the first w rows hold the R of the blocks so far, zero before the first block
+            double[] buffer = new double[(w + blockRows) * w];
+            for (int start = from; start < to; start += blockRows) {
+                int rows = Math.min(blockRows, to - start);
+                for (int i = 0; i < rows; i++) {
+                    int dst = (w + i) * w;
+                    System.arraycopy(a, aOff + (start + i) * aRs, buffer, dst, n);
+                    System.arraycopy(b, bOff + (start + i) * bRs, buffer, dst + n, p);
+                }
+                HouseholderQR.factor(w + rows, w, buffer, 0, w);
+
+                // keep R, clear the reflectors below it
+                for (int i = 1; i < w; i++) {
+                    Arrays.fill(buffer, i * w, i * w + i, 0.0);
+                }
+            }
+
+            return upper(buffer, w);
+        }
+    }
+}
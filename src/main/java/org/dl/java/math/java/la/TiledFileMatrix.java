@@ -0,0 +1,549 @@
+package org.dl.java.math.java.la;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.dl.java.math.la.Matrix;
+
+/**
+ * A dense matrix stored in a file in a tiled binary layout, for matrices that do not fit in memory.
+ * <p>
+ * The file starts with a {@link #HEADER}-byte header holding a magic number, the row and col counts and the tile
+ * size T. It is followed by the (T, T) tiles in row-major tile order, each tile row-major and compact, little-endian.
+ * Tiles on the bottom and right edges are padded with zeros to the full size, so every tile has the same size and
+ * the tile (ti, tj) lives at a computed offset. The file is mapped once through its channel when it is opened, in
+ * windows of whole tiles of at most 2 GB, and the operating system pages the tiles in and out, so the memory used
+ * does not grow with the file. The open channel is the only access to the file, renaming or replacing the path
+ * afterwards does not affect the matrix. {@link #close()} forces the written tiles to the storage device, the
+ * windows are unmapped once they are garbage collected.
+ * <p>
+ * Optimization note:
+ * 1. Every operation streams tiles or panels of tiles between the file and the heap, the heap only ever holds a few
+ * of them, so the size of the matrices is bounded by the disk, not by memory.
+ * 2. {@link #dot} keeps a row of tiles of the left matrix in memory and streams the right matrix past it, the left
+ * matrix is read once. {@link #lu} is left-looking: a column panel is loaded, updated with the already factorized
+ * panels streamed past it and factorized in memory with {@link BlockedLU}, so each panel is written once.
+ * 3. Within the tiles the work is done by {@link Gemm}, {@link Trsm} and {@link Transpose}, a tile of
+ * {@link #DEFAULT_TILE} doubles is large enough to amortize the I/O of its O(T^2) elements over O(T^3) flops.
+ */
+public final class TiledFileMatrix implements Matrix, Closeable {
+    /**
+     * Size of the header in bytes, it keeps the tiles aligned to cache lines
+     */
+    static final int HEADER = 64;
+    /**
+     * Rows and columns of a tile unless given, a tile takes 8 MB
+     */
+    public static final int DEFAULT_TILE = 1024;
+    private static final int MAGIC = 0x544D4154;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int row;
+    private final int col;
+    private final int tile;
+    private final int tileRows;
+    private final int tileCols;
+    /**
+     * Tiles per mapped window, the window w maps the tiles w * windowTiles to (w + 1) * windowTiles - 1 in file order
+     */
+    private final int windowTiles;
+    private final MappedByteBuffer[] windows;
+    /**
+     * The tile accessed last, kept as a view of its window
+     */
+    private DoubleBuffer mappedTile;
+    private int mappedTi = -1;
+    private int mappedTj = -1;
+    private boolean dirty;
+
+    /**
+     * The file must already have its full size
+     */
+    private TiledFileMatrix(Path path, FileChannel channel, int row, int col, int tile) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.row = row;
+        this.col = col;
+        this.tile = tile;
+        this.tileRows = (row + tile - 1) / tile;
+        this.tileCols = (col + tile - 1) / tile;
+        int tiles = tileRows * tileCols;
+        this.windowTiles = Math.min(tiles, (int) (Integer.MAX_VALUE / tileBytes(tile)));
+        this.windows = new MappedByteBuffer[(tiles + windowTiles - 1) / windowTiles];
+        for (int w = 0; w < windows.length; w++) {
+            int count = Math.min(windowTiles, tiles - w * windowTiles);
+            windows[w] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + w * windowTiles * tileBytes(tile),
+                    count * tileBytes(tile));
+        }
+    }
+
+    /**
+     * Create an all 0 matrix in a new file, replacing the file if it exists
+     *
+     * @param path
+     * @param row
+     * @param col
+     * @param tile rows and columns of a tile
+     * @return
+     */
+    public static TiledFileMatrix create(Path path, int row, int col, int tile) {
+        checkShape(row, col, tile);
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt(MAGIC)
+                        .putInt(row)
+                        .putInt(col)
+                        .putInt(tile);
+                header.clear();
+                channel.write(header, 0);
+                // extend the file to its full size, the tiles read as zeros until written
+                channel.write(ByteBuffer.allocate(1), fileSize(row, col, tile) - 1);
+                return new TiledFileMatrix(path, channel, row, col, tile);
+            } catch (RuntimeException | IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Open a matrix file written by {@link #create}
+     *
+     * @param path
+     * @return
+     */
+    public static TiledFileMatrix open(Path path) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < 16 || header.getInt() != MAGIC) {
+                channel.close();
+                throw new RuntimeException(String.format("%s is not a tiled matrix file!", path));
+            }
+            int row = header.getInt();
+            int col = header.getInt();
+            int tile = header.getInt();
+            try {
+                checkShape(row, col, tile);
+                if (channel.size() < fileSize(row, col, tile)) {
+                    throw new RuntimeException(String.format("%s is truncated!", path));
+                }
+                return new TiledFileMatrix(path, channel, row, col, tile);
+            } catch (RuntimeException | IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write a heap matrix to a new file
+     *
+     * @param matrix
+     * @param path
+     * @param tile   rows and columns of a tile
+     * @return
+     */
+    public static TiledFileMatrix of(MatrixJava matrix, Path path, int tile) {
+        TiledFileMatrix ret = create(path, matrix.getRowCount(), matrix.getColCount(), tile);
+        double[] buffer = new double[tile * tile];
+        for (int ti = 0; ti < ret.tileRows; ti++) {
+            for (int tj = 0; tj < ret.tileCols; tj++) {
+                int h = ret.tileHeight(ti);
+                int w = ret.tileWidth(tj);
+                if (h < tile || w < tile) {
+                    // the padding of edge tiles must be zero
+                    Arrays.fill(buffer, 0);
+                }
+                for (int r = 0; r < h; r++) {
+                    System.arraycopy(matrix.data(), matrix.offset() + (ti * tile + r) * matrix.stride() + tj * tile,
+                            buffer, r * tile, w);
+                }
+                ret.writeTile(ti, tj, buffer);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Read the whole matrix to the heap
+     *
+     * @return
+     */
+    public MatrixJava toMatrixJava() {
+        MatrixJava ret = new MatrixJava(row, col);
+        double[] buffer = new double[tile * tile];
+        for (int ti = 0; ti < tileRows; ti++) {
+            for (int tj = 0; tj < tileCols; tj++) {
+                readTile(ti, tj, buffer);
+                for (int r = 0; r < tileHeight(ti); r++) {
+                    System.arraycopy(buffer, r * tile, ret.data(), (ti * tile + r) * col + tj * tile,
+                            tileWidth(tj));
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Write the product of this matrix and the right matrix to a new file, both must have the same tile size.
+     * A row of tiles of this matrix is held in memory at a time.
+     *
+     * @param right
+     * @param path
+     * @return
+     */
+    public TiledFileMatrix dot(TiledFileMatrix right, Path path) {
+        if (col != right.row || tile != right.tile) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! left: (%d, %d) tile %d, right: (%d, %d) tile %d", row, col,
+                            tile, right.row, right.col, right.tile));
+        }
+
+        checkDestination(path, this, right);
+        TiledFileMatrix ret = create(path, row, right.col, tile);
+        int width = tileCols * tile;
+        double[] band = new double[tile * width];
+        double[] b = new double[tile * tile];
+        double[] c = new double[tile * tile];
+        for (int ti = 0; ti < tileRows; ti++) {
+            readBand(ti, band);
+            for (int tj = 0; tj < right.tileCols; tj++) {
+                // the padding of the tiles is zero, so full tiles can be multiplied
+                Arrays.fill(c, 0);
+                for (int tk = 0; tk < tileCols; tk++) {
+                    right.readTile(tk, tj, b);
+                    Gemm.gemm(tile, tile, tile, band, tk * tile, width, 1, b, 0, tile, 1, c, 0, tile);
+                }
+                ret.writeTile(ti, tj, c);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Write the transpose to a new file, one tile at a time
+     *
+     * @param path
+     * @return
+     */
+    public TiledFileMatrix transpose(Path path) {
+        checkDestination(path, this);
+        TiledFileMatrix ret = create(path, col, row, tile);
+        double[] src = new double[tile * tile];
+        double[] dst = new double[tile * tile];
+        for (int ti = 0; ti < tileRows; ti++) {
+            for (int tj = 0; tj < tileCols; tj++) {
+                readTile(ti, tj, src);
+                Transpose.transpose(tile, tile, src, 0, tile, dst, 0, tile);
+                ret.writeTile(tj, ti, dst);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * LU decomposition with partial pivoting, the packed factors are written to a new file. Two column panels of
+     * tiles are held in memory at a time.
+     *
+     * @param path
+     * @return
+     */
+    public TiledLUDecomposition lu(Path path) {
+        if (row != col) {
+            throw new RuntimeException(String.format("Matrix (%d, %d) is not square!", row, col));
+        }
+
+        checkDestination(path, this);
+        int n = row;
+        int height = tileRows * tile;
+        TiledFileMatrix packed = create(path, n, n, tile);
+        int[] pivots = new int[n];
+        double[] panel = new double[height * tile];
+        double[] factored = new double[height * tile];
+        double[] negated = new double[tile * tile];
+        for (int k = 0; k < tileCols; k++) {
+            int kc = k * tile;
+            int w = tileWidth(k);
+            readPanel(k, panel);
+            // bring the panel to the row order of the factorized part
+            for (int r = 0; r < kc; r++) {
+                swapRows(panel, r, pivots[r]);
+            }
+
+            // left-looking update with each factorized panel j: U(j, k) = L(j, j)^-1 * A(j, k) and the rows below
+            // A(:, k) -= L(:, j) * U(j, k)
+            for (int j = 0; j < k; j++) {
+                int jc = j * tile;
+                packed.readPanel(j, factored);
+                for (int r = jc + tile; r < kc; r++) {
+                    swapRows(factored, r, pivots[r]);
+                }
+                Trsm.lower(tile, w, true, factored, jc * tile, tile, panel, jc * tile, tile);
+                // U(j, k) is negated into a compact copy as Gemm only accumulates
+                KERNELS.scale(panel, jc * tile, -1, negated, 0, tile * tile);
+                Gemm.gemm(height - jc - tile, w, tile, factored, (jc + tile) * tile, tile, 1, negated, 0, tile, 1,
+                        panel, (jc + tile) * tile, tile);
+            }
+
+            // the factorized panels are not needed anymore, their buffer is the scratch of the factorization
+            int[] panelPivots = BlockedLU.factorPanel(n - kc, w, panel, kc * tile, tile, factored);
+            for (int r = 0; r < w; r++) {
+                pivots[kc + r] = kc + panelPivots[r];
+            }
+            packed.writePanel(k, panel);
+        }
+
+        // apply the swaps of the later panels to the L part of every panel
+        for (int j = 0; j < tileCols - 1; j++) {
+            packed.readPanel(j, panel);
+            for (int r = (j + 1) * tile; r < n; r++) {
+                swapRows(panel, r, pivots[r]);
+            }
+            packed.writePanel(j, panel);
+        }
+
+        return new TiledLUDecomposition(packed, pivots);
+    }
+
+    /**
+     * Get the element, this maps the whole tile holding it unless it is the tile mapped last
+     *
+     * @param row
+     * @param col
+     * @return
+     */
+    @Override
+    public double get(int row, int col) {
+        checkIndex(row, col);
+        return map(row / tile, col / tile, false).get((row % tile) * tile + col % tile);
+    }
+
+    /**
+     * Set the element, this maps the whole tile holding it unless it is the tile mapped last
+     *
+     * @param row
+     * @param col
+     * @param value
+     */
+    public void set(int row, int col, double value) {
+        checkIndex(row, col);
+        map(row / tile, col / tile, true).put((row % tile) * tile + col % tile, value);
+    }
+
+    /**
+     * Return row count
+     *
+     * @return
+     */
+    @Override
+    public int getRowCount() {
+        return row;
+    }
+
+    /**
+     * Return col count
+     *
+     * @return
+     */
+    @Override
+    public int getColCount() {
+        return col;
+    }
+
+    /**
+     * Return the rows and columns of a tile
+     *
+     * @return
+     */
+    public int getTileSize() {
+        return tile;
+    }
+
+    /**
+     * Force the written tiles to the storage device and close the file
+     */
+    @Override
+    public void close() {
+        try (channel) {
+            for (MappedByteBuffer window : windows) {
+                if (dirty && window != null) {
+                    window.force();
+                }
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            // any access after close fails instead of reaching a window left to the garbage collector
+            Arrays.fill(windows, null);
+            mappedTile = null;
+            mappedTi = -1;
+            mappedTj = -1;
+        }
+    }
+
+    /**
+     * Copy the padded tile (ti, tj) to the compact (T, T) dst
+     */
+    void readTile(int ti, int tj, double[] dst) {
+        map(ti, tj, false).get(0, dst, 0, tile * tile);
+    }
+
+    /**
+     * Copy the compact (T, T) src to the tile (ti, tj), its padding must be zero
+     */
+    void writeTile(int ti, int tj, double[] src) {
+        map(ti, tj, true).put(0, src, 0, tile * tile);
+    }
+
+    /**
+     * Copy the row of tiles ti to the compact (T, tileCols * T) dst
+     */
+    private void readBand(int ti, double[] dst) {
+        int width = tileCols * tile;
+        for (int tj = 0; tj < tileCols; tj++) {
+            DoubleBuffer buffer = map(ti, tj, false);
+            for (int r = 0; r < tile; r++) {
+                buffer.get(r * tile, dst, r * width + tj * tile, tile);
+            }
+        }
+    }
+
+    /**
+     * Copy the column of tiles tj to the compact (tileRows * T, T) dst
+     */
+    void readPanel(int tj, double[] dst) {
+        for (int ti = 0; ti < tileRows; ti++) {
+            map(ti, tj, false).get(0, dst, ti * tile * tile, tile * tile);
+        }
+    }
+
+    /**
+     * Copy the compact (tileRows * T, T) src to the column of tiles tj
+     */
+    void writePanel(int tj, double[] src) {
+        for (int ti = 0; ti < tileRows; ti++) {
+            map(ti, tj, true).put(0, src, ti * tile * tile, tile * tile);
+        }
+    }
+
+    /**
+     * The tile (ti, tj) of the file, a view of its window unless it is the tile accessed last
+     *
+     * @param write whether the tile will be written
+     */
+    private DoubleBuffer map(int ti, int tj, boolean write) {
+        if (ti != mappedTi || tj != mappedTj) {
+            int index = ti * tileCols + tj;
+            mappedTile = windows[index / windowTiles].slice((int) (index % windowTiles * tileBytes(tile)),
+                                                            (int) tileBytes(tile))
+                                                     .order(ByteOrder.LITTLE_ENDIAN)
+                                                     .asDoubleBuffer();
+            mappedTi = ti;
+            mappedTj = tj;
+        }
+        dirty |= write;
+        return mappedTile;
+    }
+
+    /**
+     * Throw if the destination is the file of one of the operands, creating it would truncate the operand
+     */
+    private static void checkDestination(Path destination, TiledFileMatrix... operands) {
+        try {
+            for (TiledFileMatrix operand : operands) {
+                if (Files.exists(destination) && Files.isSameFile(destination, operand.path)) {
+                    throw new RuntimeException(String.format("Destination %s is the file of an operand!",
+                            destination));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Throw unless the shape describes a non empty matrix of non empty tiles
+     */
+    private static void checkShape(int row, int col, int tile) {
+        if (row <= 0 || col <= 0 || tile <= 0 || tileBytes(tile) > Integer.MAX_VALUE) {
+            throw new RuntimeException(String.format("Invalid tiled matrix (%d, %d) of tile %d!", row, col, tile));
+        }
+    }
+
+    /**
+     * Size in bytes of a tile of T doubles per side
+     */
+    private static long tileBytes(int tile) {
+        return (long) tile * tile * Double.BYTES;
+    }
+
+    /**
+     * Size in bytes of the file of a (row, col) matrix of (T, T) tiles
+     */
+    private static long fileSize(int row, int col, int tile) {
+        return HEADER + (long) ((row + tile - 1) / tile) * ((col + tile - 1) / tile) * tileBytes(tile);
+    }
+
+    /**
+     * Rows of the tile row ti inside the matrix
+     */
+    private int tileHeight(int ti) {
+        return Math.min(tile, row - ti * tile);
+    }
+
+    /**
+     * Columns of the tile column tj inside the matrix
+     */
+    private int tileWidth(int tj) {
+        return Math.min(tile, col - tj * tile);
+    }
+
+    /**
+     * Swap two rows of a compact panel of T columns
+     */
+    private void swapRows(double[] panel, int r1, int r2) {
+        if (r1 == r2) {
+            return;
+        }
+        for (int j = 0; j < tile; j++) {
+            double tmp = panel[r1 * tile + j];
+            panel[r1 * tile + j] = panel[r2 * tile + j];
+            panel[r2 * tile + j] = tmp;
+        }
+    }
+
+    /**
+     * Throw if the index is out of the matrix
+     */
+    private void checkIndex(int row, int col) {
+        if (row < 0 || row >= this.row || col < 0 || col >= this.col) {
+            throw new RuntimeException(
+                    String.format("Index (%d, %d) out of bounds of (%d, %d)", row, col, this.row, this.col));
+        }
+    }
+}
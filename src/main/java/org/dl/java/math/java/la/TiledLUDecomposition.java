@@ -0,0 +1,126 @@
+package org.dl.java.math.java.la;
+
+import java.io.Closeable;
+
+/**
+ * LU decomposition with partial pivoting of a {@link TiledFileMatrix}, P * A = L * U.
+ * <p>
+ * The factors are packed in a tiled file like the ones of {@link LUDecomposition}: U on and above the diagonal, L
+ * below it with the unit diagonal implied. The pivots follow the LAPACK convention, row i was swapped with row
+ * pivots[i] at step i. Right-hand sides are small enough to be held in memory, the factors are streamed tile by tile.
+ */
+public class TiledLUDecomposition implements Closeable {
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private final TiledFileMatrix packed;
+    private final int[] pivots;
+
+    /**
+     * Construct an LU from the packed factors
+     *
+     * @param packed
+     * @param pivots row i was swapped with row pivots[i] at step i
+     */
+    TiledLUDecomposition(TiledFileMatrix packed, int[] pivots) {
+        this.packed = packed;
+        this.pivots = pivots;
+    }
+
+    /**
+     * The file of the packed factors
+     *
+     * @return
+     */
+    public TiledFileMatrix getPacked() {
+        return packed;
+    }
+
+    /**
+     * Get the permutation, row i of P * A is row permutation[i] of A
+     *
+     * @return
+     */
+    public int[] permutation() {
+        int n = pivots.length;
+        int[] permutation = new int[n];
+        for (int i = 0; i < n; i++) {
+            permutation[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            int tmp = permutation[i];
+            permutation[i] = permutation[pivots[i]];
+            permutation[pivots[i]] = tmp;
+        }
+        return permutation;
+    }
+
+    /**
+     * Solve AX = B with the decomposed matrix A, b can have any number of columns
+     *
+     * @param b
+     * @return
+     */
+    public MatrixJava solve(MatrixJava b) {
+        int n = pivots.length;
+        if (b.getRowCount() != n) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! This: (%d, %d), b: (%d, %d)", n, n, b.getRowCount(),
+                            b.getColCount()));
+        }
+
+        // X = P * B
+        int m = b.getColCount();
+        int[] permutation = permutation();
+        MatrixJava x = new MatrixJava(n, m);
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(b.data(), b.offset() + permutation[i] * b.stride(), x.data(), i * m, m);
+        }
+
+        int t = packed.getTileSize();
+        int tiles = (n + t - 1) / t;
+        double[] tile = new double[t * t];
+        double[] xs = x.data();
+
+        // L * Y = X, each tile row is first updated with the solved ones above it
+        for (int ti = 0; ti < tiles; ti++) {
+            int h = Math.min(t, n - ti * t);
+            for (int tj = 0; tj < ti; tj++) {
+                readNegated(ti, tj, tile);
+                Gemm.gemm(h, m, t, tile, 0, t, 1, xs, tj * t * m, m, 1, xs, ti * t * m, m);
+            }
+            packed.readTile(ti, ti, tile);
+            Trsm.lower(h, m, true, tile, 0, t, xs, ti * t * m, m);
+        }
+
+        // U * X = Y, from the bottom tile row
+        for (int ti = tiles - 1; ti >= 0; ti--) {
+            int h = Math.min(t, n - ti * t);
+            for (int tj = ti + 1; tj < tiles; tj++) {
+                readNegated(ti, tj, tile);
+                Gemm.gemm(h, m, Math.min(t, n - tj * t), tile, 0, t, 1, xs, tj * t * m, m, 1, xs, ti * t * m, m);
+            }
+            packed.readTile(ti, ti, tile);
+            for (int i = 0; i < h; i++) {
+                if (tile[i * t + i] == 0) {
+                    throw new RuntimeException("Matrix is singular!");
+                }
+            }
+            Trsm.upper(h, m, tile, 0, t, xs, ti * t * m, m);
+        }
+
+        return x;
+    }
+
+    @Override
+    public void close() {
+        packed.close();
+    }
+
+    /**
+     * Read the tile negated, as Gemm only accumulates
+     */
+    private void readNegated(int ti, int tj, double[] tile) {
+        packed.readTile(ti, tj, tile);
+        KERNELS.scale(tile, 0, -1, tile, 0, tile.length);
+    }
+}
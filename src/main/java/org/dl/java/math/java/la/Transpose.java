@@ -0,0 +1,131 @@
+package org.dl.java.math.java.la;
+
+/**
+ * Cache-oblivious transpose kernels.
+ * <p>
+ * Optimization note:
+ * A naive transpose reads rows and writes columns, so every write of a large matrix touches a new cache line and
+ * often a new page. Here the longer side is halved recursively until a block is at most {@link #BLOCK} square, then
+ * the block is transposed with a double loop that writes the destination rows contiguously. No tuning for a
+ * particular cache size is needed beyond the leaf size, since every level of the recursion fits some level of the
+ * memory hierarchy.
+ */
+final class Transpose {
+    /**
+     * Leaf size of the out-of-place recursion. A BLOCK x BLOCK tile is 32 KB, so source and destination together stay
+     * in L2, while L1 only holds the BLOCK source cache lines read down a column, 4 KB, each reused for 8 destination
+     * rows
+     */
+    static final int BLOCK = 64;
+    /**
+     * Tile size of the in-place transpose, which swaps two tiles at a time so it needs them both in L1
+     */
+    static final int SQUARE_BLOCK = 16;
+
+    private Transpose() {
+    }
+
+    /**
+     * dst = src^T, src is (rows, cols) and dst is (cols, rows). Both row-major with unit column stride.
+     *
+     * @param rows
+     * @param cols
+     * @param src
+     * @param sOff
+     * @param sRs
+     * @param dst
+     * @param dOff
+     * @param dRs
+     */
+    static void transpose(int rows, int cols, double[] src, int sOff, int sRs, double[] dst, int dOff, int dRs) {
+        if (rows <= BLOCK && cols <= BLOCK) {
+            for (int j = 0; j < cols; j++) {
+                int d = dOff + j * dRs;
+                for (int i = 0; i < rows; i++) {
+                    dst[d + i] = src[sOff + i * sRs + j];
+                }
+            }
+            return;
+        }
+
+        if (rows >= cols) {
+            int top = rows / 2;
+            transpose(top, cols, src, sOff, sRs, dst, dOff, dRs);
+            transpose(rows - top, cols, src, sOff + top * sRs, sRs, dst, dOff + top, dRs);
+        } else {
+            int left = cols / 2;
+            transpose(rows, left, src, sOff, sRs, dst, dOff, dRs);
+            transpose(rows, cols - left, src, sOff + left, sRs, dst, dOff + left * dRs, dRs);
+        }
+    }
+
+    /**
+     * Single precision version of {@link #transpose(int, int, double[], int, int, double[], int, int)}
+     *
+     * @param rows
+     * @param cols
+     * @param src
+     * @param sOff
+     * @param sRs
+     * @param dst
+     * @param dOff
+     * @param dRs
+     */
+    static void transpose(int rows, int cols, float[] src, int sOff, int sRs, float[] dst, int dOff, int dRs) {
+        if (rows <= BLOCK && cols <= BLOCK) {
+            for (int j = 0; j < cols; j++) {
+                int d = dOff + j * dRs;
+                for (int i = 0; i < rows; i++) {
+                    dst[d + i] = src[sOff + i * sRs + j];
+                }
+            }
+            return;
+        }
+
+        if (rows >= cols) {
+            int top = rows / 2;
+            transpose(top, cols, src, sOff, sRs, dst, dOff, dRs);
+            transpose(rows - top, cols, src, sOff + top * sRs, sRs, dst, dOff + top, dRs);
+        } else {
+            int left = cols / 2;
+            transpose(rows, left, src, sOff, sRs, dst, dOff, dRs);
+            transpose(rows, cols - left, src, sOff + left, sRs, dst, dOff + left * dRs, dRs);
+        }
+    }
+
+    /**
+     * In-place transpose of the (n, n) matrix at off. The blocks below the diagonal are swapped with their mirror
+     * above it, the diagonal blocks are transposed in place.
+     *
+     * @param n
+     * @param data
+     * @param off
+     * @param rs
+     */
+    static void transposeSquare(int n, double[] data, int off, int rs) {
+        for (int ib = 0; ib < n; ib += SQUARE_BLOCK) {
+            int ie = Math.min(ib + SQUARE_BLOCK, n);
+            // diagonal block
+            for (int i = ib; i < ie; i++) {
+                for (int j = ib; j < i; j++) {
+                    swap(data, off + i * rs + j, off + j * rs + i);
+                }
+            }
+            // blocks below the diagonal and their mirror
+            for (int jb = 0; jb < ib; jb += SQUARE_BLOCK) {
+                int je = Math.min(jb + SQUARE_BLOCK, n);
+                for (int i = ib; i < ie; i++) {
+                    for (int j = jb; j < je; j++) {
+                        swap(data, off + i * rs + j, off + j * rs + i);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void swap(double[] data, int a, int b) {
+        double tmp = data[a];
+        data[a] = data[b];
+        data[b] = tmp;
+    }
+}
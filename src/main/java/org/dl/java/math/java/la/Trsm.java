@@ -0,0 +1,190 @@
+package org.dl.java.math.java.la;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Triangular solves with many right-hand sides, in place on B: forward substitution with a lower triangle and back
+ * substitution with an upper triangle.
+ * <p>
+ * Optimization note:
+ * 1. The triangle is split in two recursively, e.g. X1 = L11^-1 * B1, B2 -= L21 * X1, X2 = L22^-1 * B2, so all but
+ * the small diagonal blocks of the work is a matrix product running through {@link Gemm}.
+ * 2. The columns of B are independent, {@link #solve} splits them into blocks solved in parallel on a
+ * {@link ForkJoinPool}, each block runs both substitutions while it is hot in cache.
+ */
+final class Trsm {
+    /**
+     * Triangle size below which the substitution runs row by row
+     */
+    private static final int LEAF = 16;
+    /**
+     * Narrowest column block solved by its own task
+     */
+    private static final int MIN_COLS = 64;
+    private static final ElementKernels KERNELS = ElementKernels.INSTANCE;
+
+    private Trsm() {
+    }
+
+    /**
+     * B = L^-1 * B where L is the (m, m) lower triangle and B is (m, n). The upper part of L is not read, neither is
+     * its diagonal if it is a unit triangle.
+     *
+     * @param m
+     * @param n
+     * @param unit whether the diagonal of L is all ones
+     * @param l    storage of L
+     * @param lOff offset of L(0, 0)
+     * @param lRs  distance between L(i, j) and L(i + 1, j)
+     * @param b    storage of B
+     * @param bOff offset of B(0, 0)
+     * @param bRs  distance between B(i, j) and B(i + 1, j)
+     */
+    static void lower(int m, int n, boolean unit, double[] l, int lOff, int lRs, double[] b, int bOff, int bRs) {
+        if (m <= LEAF) {
+            for (int i = 0; i < m; i++) {
+                int li = lOff + i * lRs;
+                int bi = bOff + i * bRs;
+                for (int p = 0; p < i; p++) {
+                    KERNELS.axpy(-l[li + p], b, bOff + p * bRs, b, bi, n);
+                }
+                if (!unit) {
+                    KERNELS.scale(b, bi, 1 / l[li + i], b, bi, n);
+                }
+            }
+            return;
+        }
+
+        int top = m / 2;
+        int bottom = m - top;
+        lower(top, n, unit, l, lOff, lRs, b, bOff, bRs);
+
+        // B2 -= L21 * X1, with L21 negated into a compact copy as Gemm only accumulates
+        double[] negated = new double[bottom * top];
+        for (int i = 0; i < bottom; i++) {
+            KERNELS.scale(l, lOff + (top + i) * lRs, -1, negated, i * top, top);
+        }
+        Gemm.gemm(bottom, n, top, negated, 0, top, 1, b, bOff, bRs, 1, b, bOff + top * bRs, bRs);
+
+        lower(bottom, n, unit, l, lOff + top * lRs + top, lRs, b, bOff + top * bRs, bRs);
+    }
+
+    /**
+     * B = U^-1 * B where U is the (m, m) upper triangle and B is (m, n). The strictly lower part of U is not read.
+     *
+     * @param m
+     * @param n
+     * @param u    storage of U
+     * @param uOff offset of U(0, 0)
+     * @param uRs  distance between U(i, j) and U(i + 1, j)
+     * @param b    storage of B
+     * @param bOff offset of B(0, 0)
+     * @param bRs  distance between B(i, j) and B(i + 1, j)
+     */
+    static void upper(int m, int n, double[] u, int uOff, int uRs, double[] b, int bOff, int bRs) {
+        if (m <= LEAF) {
+            for (int i = m - 1; i >= 0; i--) {
+                int ui = uOff + i * uRs;
+                int bi = bOff + i * bRs;
+                for (int p = i + 1; p < m; p++) {
+                    KERNELS.axpy(-u[ui + p], b, bOff + p * bRs, b, bi, n);
+                }
+                KERNELS.scale(b, bi, 1 / u[ui + i], b, bi, n);
+            }
+            return;
+        }
+
+        int top = m / 2;
+        int bottom = m - top;
+        upper(bottom, n, u, uOff + top * uRs + top, uRs, b, bOff + top * bRs, bRs);
+
+        // B1 -= U12 * X2
+        double[] negated = new double[top * bottom];
+        for (int i = 0; i < top; i++) {
+            KERNELS.scale(u, uOff + i * uRs + top, -1, negated, i * bottom, bottom);
+        }
+        Gemm.gemm(top, n, bottom, negated, 0, bottom, 1, b, bOff + top * bRs, bRs, 1, b, bOff, bRs);
+
+        upper(top, n, u, uOff, uRs, b, bOff, bRs);
+    }
+
+    /**
+     * B = U^-1 * L^-1 * B where L and U are packed in one (m, m) matrix, like the factors of {@link BlockedLU} or
+     * {@link BlockedCholesky}, and B is (m, n). Large right-hand sides are solved in parallel column blocks.
+     *
+     * @param m
+     * @param n
+     * @param unit  whether the diagonal of L is all ones, otherwise L and U share the diagonal
+     * @param lu    storage of the packed factors
+     * @param luOff offset of LU(0, 0)
+     * @param luRs  distance between LU(i, j) and LU(i + 1, j)
+     * @param b     storage of B
+     * @param bOff  offset of B(0, 0)
+     * @param bRs   distance between B(i, j) and B(i + 1, j)
+     */
+    static void solve(int m, int n, boolean unit, double[] lu, int luOff, int luRs, double[] b, int bOff, int bRs) {
+        boolean inPool = ForkJoinTask.inForkJoinPool();
+        ForkJoinPool pool = inPool ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+        int parallelism = pool.getParallelism();
+        if (parallelism > 1 && n >= 2 * MIN_COLS && (long) m * m * n >= Gemm.PARALLEL_THRESHOLD) {
+            int cols = Math.max(MIN_COLS, n / (parallelism * 2));
+            SolveTask task = new SolveTask(m, n, unit, lu, luOff, luRs, b, bOff, bRs, cols);
+            if (inPool) {
+                task.invoke();
+            } else {
+                pool.invoke(task);
+            }
+            return;
+        }
+
+        lower(m, n, unit, lu, luOff, luRs, b, bOff, bRs);
+        upper(m, n, lu, luOff, luRs, b, bOff, bRs);
+    }
+
+    /**
+     * Halves the columns of B until a block is at most cols wide, then solves it
+     */
+    private static final class SolveTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int m;
+        private final int n;
+        private final boolean unit;
+        private final double[] lu;
+        private final int luOff;
+        private final int luRs;
+        private final double[] b;
+        private final int bOff;
+        private final int bRs;
+        private final int cols;
+
+        SolveTask(int m, int n, boolean unit, double[] lu, int luOff, int luRs, double[] b, int bOff, int bRs,
+                  int cols) {
+            this.m = m;
+            this.n = n;
+            this.unit = unit;
+            this.lu = lu;
+            this.luOff = luOff;
+            this.luRs = luRs;
+            this.b = b;
+            this.bOff = bOff;
+            this.bRs = bRs;
+            this.cols = cols;
+        }
+
+        @Override
+        protected void compute() {
+            if (n <= cols) {
+                lower(m, n, unit, lu, luOff, luRs, b, bOff, bRs);
+                upper(m, n, lu, luOff, luRs, b, bOff, bRs);
+                return;
+            }
+
+            int left = n / 2;
+            invokeAll(new SolveTask(m, left, unit, lu, luOff, luRs, b, bOff, bRs, cols),
+                    new SolveTask(m, n - left, unit, lu, luOff, luRs, b, bOff + left, bRs, cols));
+        }
+    }
+}
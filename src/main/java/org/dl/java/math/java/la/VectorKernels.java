@@ -0,0 +1,337 @@
+package org.dl.java.math.java.la;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ElementKernels} on top of the {@code jdk.incubator.vector} API. Each loop runs over full vectors of the
+ * preferred species and finishes the tail with scalar code.
+ * <p>
+ * This class must only be loaded through {@link ElementKernels#INSTANCE}, which checks that the incubator module is
+ * present first.
+ */
+final class VectorKernels implements ElementKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    /**
+     * One row of the {@link Gemm} register tile, NR doubles
+     */
+    private static final VectorSpecies<Double> TILE_SPECIES = DoubleVector.SPECIES_256;
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+    /**
+     * One row of the {@link Sgemm} register tile, NR floats
+     */
+    private static final VectorSpecies<Float> FLOAT_TILE_SPECIES = FloatVector.SPECIES_256;
+
+    @Override
+    public void add(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, ai + i)
+                        .add(DoubleVector.fromArray(SPECIES, b, bi + i))
+                        .intoArray(r, ri + i);
+        }
+        for (; i < len; i++) {
+            r[ri + i] = a[ai + i] + b[bi + i];
+        }
+    }
+
+    @Override
+    public void sub(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, ai + i)
+                        .sub(DoubleVector.fromArray(SPECIES, b, bi + i))
+                        .intoArray(r, ri + i);
+        }
+        for (; i < len; i++) {
+            r[ri + i] = a[ai + i] - b[bi + i];
+        }
+    }
+
+    @Override
+    public void mul(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, ai + i)
+                        .mul(DoubleVector.fromArray(SPECIES, b, bi + i))
+                        .intoArray(r, ri + i);
+        }
+        for (; i < len; i++) {
+            r[ri + i] = a[ai + i] * b[bi + i];
+        }
+    }
+
+    @Override
+    public void mulAdd(double[] a, int ai, double[] b, int bi, double[] r, int ri, int len) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, ai + i)
+                        .fma(DoubleVector.fromArray(SPECIES, b, bi + i), DoubleVector.fromArray(SPECIES, r, ri + i))
+                        .intoArray(r, ri + i);
+        }
+        for (; i < len; i++) {
+            r[ri + i] = Math.fma(a[ai + i], b[bi + i], r[ri + i]);
+        }
+    }
+
+    @Override
+    public void scale(double[] a, int ai, double scalar, double[] r, int ri, int len) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, ai + i)
+                        .mul(scalar)
+                        .intoArray(r, ri + i);
+        }
+        for (; i < len; i++) {
+            r[ri + i] = a[ai + i] * scalar;
+        }
+    }
+
+    @Override
+    public void shift(double[] a, int ai, double scalar, double[] r, int ri, int len) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, ai + i)
+                        .add(scalar)
+                        .intoArray(r, ri + i);
+        }
+        for (; i < len; i++) {
+            r[ri + i] = a[ai + i] + scalar;
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xi, double[] y, int yi, int len) {
+        DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            va.fma(DoubleVector.fromArray(SPECIES, x, xi + i), DoubleVector.fromArray(SPECIES, y, yi + i))
+              .intoArray(y, yi + i);
+        }
+        for (; i < len; i++) {
+            y[yi + i] = Math.fma(alpha, x[xi + i], y[yi + i]);
+        }
+    }
+
+    @Override
+    public double dot(double[] x, int xi, double[] y, int yi, int len) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            acc = DoubleVector.fromArray(SPECIES, x, xi + i)
+                              .fma(DoubleVector.fromArray(SPECIES, y, yi + i), acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < len; i++) {
+            sum = Math.fma(x[xi + i], y[yi + i], sum);
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfSquares(double[] a, int ai, int len) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, a, ai + i);
+            acc = v.fma(v, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < len; i++) {
+            sum += a[ai + i] * a[ai + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void microKernel(int kc, double[] pa, int ia, double[] pb, int ib, double[] c, int cOff, int cRs) {
+        // each accumulator holds one NR-wide row of the tile
+        DoubleVector c0 = DoubleVector.zero(TILE_SPECIES);
+        DoubleVector c1 = DoubleVector.zero(TILE_SPECIES);
+        DoubleVector c2 = DoubleVector.zero(TILE_SPECIES);
+        DoubleVector c3 = DoubleVector.zero(TILE_SPECIES);
+
+        for (int p = 0; p < kc; p++) {
+            DoubleVector b = DoubleVector.fromArray(TILE_SPECIES, pb, ib);
+            c0 = DoubleVector.broadcast(TILE_SPECIES, pa[ia])
+                             .fma(b, c0);
+            c1 = DoubleVector.broadcast(TILE_SPECIES, pa[ia + 1])
+                             .fma(b, c1);
+            c2 = DoubleVector.broadcast(TILE_SPECIES, pa[ia + 2])
+                             .fma(b, c2);
+            c3 = DoubleVector.broadcast(TILE_SPECIES, pa[ia + 3])
+                             .fma(b, c3);
+            ia += Gemm.MR;
+            ib += Gemm.NR;
+        }
+
+        int r0 = cOff;
+        int r1 = r0 + cRs;
+        int r2 = r1 + cRs;
+        int r3 = r2 + cRs;
+        DoubleVector.fromArray(TILE_SPECIES, c, r0)
+                    .add(c0)
+                    .intoArray(c, r0);
+        DoubleVector.fromArray(TILE_SPECIES, c, r1)
+                    .add(c1)
+                    .intoArray(c, r1);
+        DoubleVector.fromArray(TILE_SPECIES, c, r2)
+                    .add(c2)
+                    .intoArray(c, r2);
+        DoubleVector.fromArray(TILE_SPECIES, c, r3)
+                    .add(c3)
+                    .intoArray(c, r3);
+    }
+
+    @Override
+    public void add(float[] a, int ai, float[] b, int bi, float[] r, int ri, int len) {
+        int i = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(len); i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector.fromArray(FLOAT_SPECIES, a, ai + i)
+                       .add(FloatVector.fromArray(FLOAT_SPECIES, b, bi + i))
+                       .intoArray(r, ri + i);
+        }
+        for (; i < len; i++) {
+            r[ri + i] = a[ai + i] + b[bi + i];
+        }
+    }
+
+    @Override
+    public void sub(float[] a, int ai, float[] b, int bi, float[] r, int ri, int len) {
+        int i = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(len); i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector.fromArray(FLOAT_SPECIES, a, ai + i)
+                       .sub(FloatVector.fromArray(FLOAT_SPECIES, b, bi + i))
+                       .intoArray(r, ri + i);
+        }
+        for (; i < len; i++) {
+            r[ri + i] = a[ai + i] - b[bi + i];
+        }
+    }
+
+    @Override
+    public void mul(float[] a, int ai, float[] b, int bi, float[] r, int ri, int len) {
+        int i = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(len); i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector.fromArray(FLOAT_SPECIES, a, ai + i)
+                       .mul(FloatVector.fromArray(FLOAT_SPECIES, b, bi + i))
+                       .intoArray(r, ri + i);
+        }
+        for (; i < len; i++) {
+            r[ri + i] = a[ai + i] * b[bi + i];
+        }
+    }
+
+    @Override
+    public void scale(float[] a, int ai, float scalar, float[] r, int ri, int len) {
+        int i = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(len); i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector.fromArray(FLOAT_SPECIES, a, ai + i)
+                       .mul(scalar)
+                       .intoArray(r, ri + i);
+        }
+        for (; i < len; i++) {
+            r[ri + i] = a[ai + i] * scalar;
+        }
+    }
+
+    @Override
+    public void shift(float[] a, int ai, float scalar, float[] r, int ri, int len) {
+        int i = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(len); i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector.fromArray(FLOAT_SPECIES, a, ai + i)
+                       .add(scalar)
+                       .intoArray(r, ri + i);
+        }
+        for (; i < len; i++) {
+            r[ri + i] = a[ai + i] + scalar;
+        }
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xi, float[] y, int yi, int len) {
+        FloatVector va = FloatVector.broadcast(FLOAT_SPECIES, alpha);
+        int i = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(len); i < bound; i += FLOAT_SPECIES.length()) {
+            va.fma(FloatVector.fromArray(FLOAT_SPECIES, x, xi + i), FloatVector.fromArray(FLOAT_SPECIES, y, yi + i))
+              .intoArray(y, yi + i);
+        }
+        for (; i < len; i++) {
+            y[yi + i] = Math.fma(alpha, x[xi + i], y[yi + i]);
+        }
+    }
+
+    @Override
+    public float dot(float[] x, int xi, float[] y, int yi, int len) {
+        FloatVector acc = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(len); i < bound; i += FLOAT_SPECIES.length()) {
+            acc = FloatVector.fromArray(FLOAT_SPECIES, x, xi + i)
+                             .fma(FloatVector.fromArray(FLOAT_SPECIES, y, yi + i), acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < len; i++) {
+            sum = Math.fma(x[xi + i], y[yi + i], sum);
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfSquares(float[] a, int ai, int len) {
+        // the floats are widened to double lanes before being squared and summed
+        DoubleVector acc = DoubleVector.zero(TILE_SPECIES);
+        int i = 0;
+        for (int bound = FloatVector.SPECIES_128.loopBound(len); i < bound; i += FloatVector.SPECIES_128.length()) {
+            DoubleVector v = (DoubleVector) FloatVector.fromArray(FloatVector.SPECIES_128, a, ai + i)
+                                                       .convertShape(VectorOperators.F2D, TILE_SPECIES, 0);
+            acc = v.fma(v, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < len; i++) {
+            sum += (double) a[ai + i] * a[ai + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void microKernel(int kc, float[] pa, int ia, float[] pb, int ib, float[] c, int cOff, int cRs) {
+        // each accumulator holds one NR-wide row of the tile
+        FloatVector c0 = FloatVector.zero(FLOAT_TILE_SPECIES);
+        FloatVector c1 = FloatVector.zero(FLOAT_TILE_SPECIES);
+        FloatVector c2 = FloatVector.zero(FLOAT_TILE_SPECIES);
+        FloatVector c3 = FloatVector.zero(FLOAT_TILE_SPECIES);
+
+        for (int p = 0; p < kc; p++) {
+            FloatVector b = FloatVector.fromArray(FLOAT_TILE_SPECIES, pb, ib);
+            c0 = FloatVector.broadcast(FLOAT_TILE_SPECIES, pa[ia])
+                            .fma(b, c0);
+            c1 = FloatVector.broadcast(FLOAT_TILE_SPECIES, pa[ia + 1])
+                            .fma(b, c1);
+            c2 = FloatVector.broadcast(FLOAT_TILE_SPECIES, pa[ia + 2])
+                            .fma(b, c2);
+            c3 = FloatVector.broadcast(FLOAT_TILE_SPECIES, pa[ia + 3])
+                            .fma(b, c3);
+            ia += Sgemm.MR;
+            ib += Sgemm.NR;
+        }
+
+        int r0 = cOff;
+        int r1 = r0 + cRs;
+        int r2 = r1 + cRs;
+        int r3 = r2 + cRs;
+        FloatVector.fromArray(FLOAT_TILE_SPECIES, c, r0)
+                   .add(c0)
+                   .intoArray(c, r0);
+        FloatVector.fromArray(FLOAT_TILE_SPECIES, c, r1)
+                   .add(c1)
+                   .intoArray(c, r1);
+        FloatVector.fromArray(FLOAT_TILE_SPECIES, c, r2)
+                   .add(c2)
+                   .intoArray(c, r2);
+        FloatVector.fromArray(FLOAT_TILE_SPECIES, c, r3)
+                   .add(c3)
+                   .intoArray(c, r3);
+    }
+}
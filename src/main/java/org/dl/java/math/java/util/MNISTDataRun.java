@@ -62,7 +62,8 @@ public class MNISTDataRun {
         // training rate
         double eta = 0.1;
         double lambda = 5;
-        StochasticGradientDescent sgd = new StochasticGradientDescent(trainingData, epochs, miniBatchSize, eta, lambda);
+        StochasticGradientDescent<MatrixJava> sgd = new StochasticGradientDescent<>(trainingData, epochs, miniBatchSize,
+                eta, lambda);
         // Using quadratic cost function
         //                ffn = sgd.descent(ffn, trainingData.subList(testCount, allCount), (x, y) -> x.argmax() == y.argmax(),
         //                        DeltaFunctionJava.QUADRATIC);
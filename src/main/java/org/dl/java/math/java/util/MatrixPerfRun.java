@@ -87,15 +87,13 @@ public class MatrixPerfRun {
      * @return
      */
     public static MatrixJava randMatrix(int row, int col, double range) {
-        double[][] data = new double[row][col];
+        double[] data = new double[row * col];
         Random r = new Random();
-        for (int i = 0; i < row; i++) {
-            for (int j = 0; j < col; j++) {
-                data[i][j] = range * (r.nextDouble() - 0.5);
-            }
+        for (int i = 0; i < data.length; i++) {
+            data[i] = range * (r.nextDouble() - 0.5);
         }
 
-        return new MatrixJava(data);
+        return new MatrixJava(row, col, data);
     }
 
     public static MatrixJava randMatrix(int row, int col) {
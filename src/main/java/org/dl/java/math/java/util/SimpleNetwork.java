@@ -17,7 +17,7 @@ public class SimpleNetwork {
         FeedForwardNeuralNetwork feedForwardNetwork = new FeedForwardNeuralNetwork(Arrays.asList(3, 3, 1),
                 ActivateFunctionsJava.SIGMOID);
 
-        StochasticGradientDescent sgd = new StochasticGradientDescent(Arrays.asList(
+        StochasticGradientDescent<MatrixJava> sgd = new StochasticGradientDescent<>(Arrays.asList(
                 new TrainingData<>(new MatrixJava(new double[][] { { 1.0 }, { 1.0 }, { 1.0 } }),
                         new MatrixJava(new double[][] { { 0 } }))), 300, 1, 0.3, 5.0);
         FeedForwardNeuralNetwork result = sgd.descent(feedForwardNetwork, Arrays.asList(
@@ -0,0 +1,59 @@
+package org.dl.java.math.java.util;
+
+import org.dl.java.math.java.la.MatrixJava;
+
+/**
+ * Accuracy vs speed report of {@link MatrixJava#dotStrassen} against the blocked {@link MatrixJava#dot}.
+ * <p>
+ * Usage: StrassenPerfRun [size...], defaults to 1024 2048 4096. For every size and crossover it prints the time of
+ * both products, the speedup and the Frobenius norm of the difference relative to the blocked result.
+ */
+public class StrassenPerfRun {
+    private static final int[] CROSSOVERS = { 128, 256, 512, 1024 };
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length == 0 ? new int[] { 1024, 2048, 4096 } : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.println("warming up...");
+        MatrixJava warmA = MatrixPerfRun.randMatrix(512, 512, 1);
+        for (int i = 0; i < 5; i++) {
+            warmA.dot(warmA);
+            warmA.dotStrassen(warmA, 128);
+        }
+
+        System.out.println(String.format("%6s %9s %10s %12s %8s %12s", "n", "crossover", "dot(ms)", "strassen(ms)",
+                "speedup", "rel. error"));
+        for (int n : sizes) {
+            MatrixJava a = MatrixPerfRun.randMatrix(n, n, 1);
+            MatrixJava b = MatrixPerfRun.randMatrix(n, n, 1);
+
+            long start = System.nanoTime();
+            MatrixJava expected = null;
+            for (int r = 0; r < RUNS; r++) {
+                expected = a.dot(b);
+            }
+            double dotMs = (System.nanoTime() - start) / 1e6 / RUNS;
+
+            for (int crossover : CROSSOVERS) {
+                if (crossover >= n) {
+                    continue;
+                }
+                start = System.nanoTime();
+                MatrixJava result = null;
+                for (int r = 0; r < RUNS; r++) {
+                    result = a.dotStrassen(b, crossover);
+                }
+                double strassenMs = (System.nanoTime() - start) / 1e6 / RUNS;
+                double error = result.minus(expected)
+                                     .norm() / expected.norm();
+
+                System.out.println(String.format("%6d %9d %10.1f %12.1f %8.2f %12.3e", n, crossover, dotMs,
+                        strassenMs, dotMs / strassenMs, error));
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.dl.java.math.la;
+
+/**
+ * The read access shared by the dense double matrices, whatever their storage and the backend running their
+ * products: {@link org.dl.java.math.java.la.MatrixJava} on the heap, {@link org.dl.java.math.java.la.OffHeapMatrix}
+ * off heap, {@link org.dl.java.math.java.la.TiledFileMatrix} in a file, and the column-major arrays of
+ * {@link MatrixJNI}, see {@link MatrixJNI#asMatrix}.
+ * <p>
+ * The products themselves are chosen per call by shape, see {@link org.dl.java.math.java.la.Backends}.
+ */
+public interface Matrix {
+    /**
+     * Return row count
+     *
+     * @return
+     */
+    int getRowCount();
+
+    /**
+     * Return col count
+     *
+     * @return
+     */
+    int getColCount();
+
+    /**
+     * Get the element
+     *
+     * @param row
+     * @param col
+     * @return
+     */
+    double get(int row, int col);
+
+    /**
+     * Returns the max index, if it is row vector, return the max col index, if it is a col vector,
+     * return the max row index. Otherwise, throw {@link RuntimeException}
+     *
+     * @return
+     */
+    default int argmax() {
+        boolean isRow = getRowCount() == 1;
+        if (!isRow && getColCount() != 1) {
+            throw new RuntimeException("Does not support find max index on non-vector matrix");
+        }
+        int length = isRow ? getColCount() : getRowCount();
+        int index = 0;
+        for (int i = 1; i < length; i++) {
+            if ((isRow ? get(0, i) : get(i, 0)) > (isRow ? get(0, index) : get(index, 0))) {
+                index = i;
+            }
+        }
+        return index;
+    }
+}
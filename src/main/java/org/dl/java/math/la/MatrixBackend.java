@@ -0,0 +1,74 @@
+package org.dl.java.math.la;
+
+/**
+ * A pluggable implementation of the dense kernels shared by the matrix types, so every matrix operation can run on
+ * the pure Java kernels or on a native BLAS.
+ * <p>
+ * Operands are described the way the Java kernels see them: an array, an offset, a row stride and a column stride.
+ * A row-major matrix has a column stride of 1, the same storage read as its transpose has a row stride of 1.
+ */
+public interface MatrixBackend {
+    /**
+     * Name of the backend, for logs
+     *
+     * @return
+     */
+    String getName();
+
+    /**
+     * Whether the backend can read operands with these strides
+     *
+     * @param m
+     * @param n
+     * @param k
+     * @param aRs
+     * @param aCs
+     * @param bRs
+     * @param bCs
+     * @param cRs
+     * @return
+     */
+    boolean supports(int m, int n, int k, int aRs, int aCs, int bRs, int bCs, int cRs);
+
+    /**
+     * C += A * B, where A is (m, k), B is (k, n) and C is (m, n) row-major with unit column stride
+     *
+     * @param m
+     * @param n
+     * @param k
+     * @param a    storage of A
+     * @param aOff offset of A(0, 0)
+     * @param aRs  distance between A(i, j) and A(i + 1, j)
+     * @param aCs  distance between A(i, j) and A(i, j + 1)
+     * @param b    storage of B
+     * @param bOff offset of B(0, 0)
+     * @param bRs  distance between B(i, j) and B(i + 1, j)
+     * @param bCs  distance between B(i, j) and B(i, j + 1)
+     * @param c    storage of C
+     * @param cOff offset of C(0, 0)
+     * @param cRs  distance between C(i, j) and C(i + 1, j)
+     */
+    void gemm(int m, int n, int k, double[] a, int aOff, int aRs, int aCs, double[] b, int bOff, int bRs, int bCs,
+              double[] c, int cOff, int cRs);
+
+    /**
+     * Single precision version of {@link #gemm}, the strides it supports are the same
+     *
+     * @param m
+     * @param n
+     * @param k
+     * @param a    storage of A
+     * @param aOff offset of A(0, 0)
+     * @param aRs  distance between A(i, j) and A(i + 1, j)
+     * @param aCs  distance between A(i, j) and A(i, j + 1)
+     * @param b    storage of B
+     * @param bOff offset of B(0, 0)
+     * @param bRs  distance between B(i, j) and B(i + 1, j)
+     * @param bCs  distance between B(i, j) and B(i, j + 1)
+     * @param c    storage of C
+     * @param cOff offset of C(0, 0)
+     * @param cRs  distance between C(i, j) and C(i + 1, j)
+     */
+    void sgemm(int m, int n, int k, float[] a, int aOff, int aRs, int aCs, float[] b, int bOff, int bRs, int bCs,
+               float[] c, int cOff, int cRs);
+}
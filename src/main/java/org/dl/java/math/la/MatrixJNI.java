@@ -1,18 +1,25 @@
 package org.dl.java.math.la;
 
-import com.github.fommil.netlib.BLAS;
+import org.dl.java.math.java.la.Backends;
 
 import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
 
 /**
  * A matrix implementation using netlib JNI
+ * <p>
+ * Every operation also comes in single precision on {@code float[]}, named after the s-prefixed BLAS routines, which
+ * halves the memory and the bandwidth of the arrays.
+ * <p>
+ * Optimization note:
+ * The products, {@link #dgemm}, {@link #dgemv}, {@link #dgemvTransposed}, {@link #dger} and their single precision
+ * versions, run on the {@link MatrixBackend} {@link Backends#select} picks for their shape, like the ones of
+ * {@link org.dl.java.math.java.la.MatrixJava}: the matrix-vector products of a network on one sample stay in Java,
+ * where no JNI transition is paid, and only the large ones go to netlib. The vector operations are plain loops for the
+ * same reason. The column-major C = A * B is handed to the backends as the row-major C^T = B^T * A^T, which reads the
+ * same arrays.
  */
 public final class MatrixJNI {
-    /**
-     * Get the implementation of BLAS
-     */
-    private static final BLAS blas = BLAS.getInstance();
-
     /**
      * Factory method to return a Gaussian random values matrix. The gaussian distribution is
      * with mean of mean and variance of std^2.
@@ -35,6 +42,37 @@ public final class MatrixJNI {
         return data;
     }
 
+    /**
+     * View a column-major array as a {@link Matrix}, no copy is made
+     *
+     * @param data
+     * @param m    row count
+     * @param n    col count
+     * @return
+     */
+    public static Matrix asMatrix(double[] data, int m, int n) {
+        if (data.length < m * n) {
+            throw new RuntimeException(
+                    String.format("Array of length %d is too short for a (%d, %d) matrix", data.length, m, n));
+        }
+        return new Matrix() {
+            @Override
+            public int getRowCount() {
+                return m;
+            }
+
+            @Override
+            public int getColCount() {
+                return n;
+            }
+
+            @Override
+            public double get(int row, int col) {
+                return data[row + col * m];
+            }
+        };
+    }
+
     /**
      * Produce an n*n identify matrix with
      *
@@ -54,8 +92,7 @@ public final class MatrixJNI {
     }
 
     /**
-     * Wraps @{link BLAS#daxpy} y = ax + y;
-     * a = val, y = [0...0]
+     * Returns val * in in a new array
      *
      * @param in
      * @param val
@@ -63,7 +100,9 @@ public final class MatrixJNI {
      */
     public static double[] mul(double[] in, double val) {
         double[] out = new double[in.length];
-        blas.daxpy(in.length, val, in, 0, out, 0);
+        for (int i = 0; i < in.length; i++) {
+            out[i] = val * in[i];
+        }
         return out;
     }
 
@@ -112,7 +151,7 @@ public final class MatrixJNI {
     }
 
     /**
-     * Performs alpha * xy
+     * Returns alpha * x + y in a new array
      * x is a vector
      * y is a vector
      * alpha is a scala
@@ -123,10 +162,15 @@ public final class MatrixJNI {
      * @return
      */
     public static double[] daxpy(double alpha, double[] x, double[] y) {
-        double[] ret = new double[y.length];
-        blas.dcopy(y.length, y, 0, ret, 0);
-        blas.daxpy(x.length, alpha, x, 0, ret, 0);
-        return y;
+        if (x.length != y.length) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! x: %d, y: %d", x.length, y.length));
+        }
+        double[] ret = y.clone();
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] += alpha * x[i];
+        }
+        return ret;
     }
 
     /**
@@ -146,12 +190,48 @@ public final class MatrixJNI {
      * @return
      */
     public static double[] dgemv(double alpha, double[] matrix, int m, int n, double[] x, double beta, double[] y) {
-        double[] ret = new double[y.length];
-        blas.dcopy(y.length, y, 0, ret, 0);
-        blas.dgemv("N", m, n, alpha, matrix, m, x, 0, beta, ret, 0);
+        double[] ret = scaled(beta, y);
+        gemm(alpha, false, false, m, 1, n, matrix, x, ret);
         return ret;
     }
 
+    /**
+     * Performs alpha * A^T x + beta * y without transposing A
+     * A is an (m, n) matrix, general format, column major
+     *
+     * @param alpha
+     * @param matrix
+     * @param m
+     * @param n
+     * @param x
+     * @param beta
+     * @param y
+     * @return
+     */
+    public static double[] dgemvTransposed(double alpha, double[] matrix, int m, int n, double[] x, double beta,
+                                           double[] y) {
+        double[] ret = scaled(beta, y);
+        gemm(alpha, true, false, n, 1, m, matrix, x, ret);
+        return ret;
+    }
+
+    /**
+     * Rank-1 update in place, A += alpha * x * y^T
+     * A is an (m, n) matrix, general format, column major
+     *
+     * @param alpha
+     * @param x
+     * @param y
+     * @param matrix
+     * @param m
+     * @param n
+     * @return matrix
+     */
+    public static double[] dger(double alpha, double[] x, double[] y, double[] matrix, int m, int n) {
+        gemm(alpha, false, false, m, n, 1, x, y, matrix);
+        return matrix;
+    }
+
     /**
      * Performs general matrix alpha * ab + beta * c
      * a, b, c are matrix
@@ -168,9 +248,330 @@ public final class MatrixJNI {
      * @return
      */
     public static double[] dgemm(double alpha, int m, int n, int k, double[] a, double[] b, double beta, double[] c) {
-        double[] ret = new double[c.length];
-        blas.dcopy(c.length, c, 0, ret, 0);
-        blas.dgemm("N", "N", m, n, k, alpha, a, m, b, k, beta, ret, m);
+        double[] ret = scaled(beta, c);
+        gemm(alpha, false, false, m, n, k, a, b, ret);
+        return ret;
+    }
+
+    /**
+     * Fused layer kernel, returns activation(Ax + b)
+     * A is a matrix, general format, column major
+     * x is a vector
+     * b is a vector
+     *
+     * @param activation
+     * @param matrix
+     * @param m
+     * @param n
+     * @param x
+     * @param b
+     * @return
+     */
+    public static double[] affine(DoubleUnaryOperator activation, double[] matrix, int m, int n, double[] x,
+                                  double[] b) {
+        double[] a = new double[m];
+        affineInto(activation, matrix, m, n, x, b, null, a);
+        return a;
+    }
+
+    /**
+     * Fused layer kernel writing into preallocated buffers: z = Ax + b and a = activation(z).
+     * Ax + b is a single dgemv into the z buffer (or a if z is null), the activation is then applied in one pass.
+     *
+     * @param activation
+     * @param matrix
+     * @param m
+     * @param n
+     * @param x
+     * @param b
+     * @param z          may be null if the value before activation is not needed
+     * @param a
+     * @return a
+     */
+    public static double[] affineInto(DoubleUnaryOperator activation, double[] matrix, int m, int n, double[] x,
+                                      double[] b, double[] z, double[] a) {
+        double[] target = z != null ? z : a;
+        System.arraycopy(b, 0, target, 0, m);
+        gemm(1.0, false, false, m, 1, n, matrix, x, target);
+        for (int i = 0; i < m; i++) {
+            a[i] = activation.applyAsDouble(target[i]);
+        }
+        return a;
+    }
+
+    /**
+     * Single precision version of {@link #getGaussionRandomMatrix}
+     *
+     * @param row
+     * @param col
+     * @param mean
+     * @param std
+     * @return
+     */
+    public static float[] getGaussionRandomFloatMatrix(int row, int col, double mean, double std) {
+        Random random = new Random();
+        float[] data = new float[row * col];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (float) (random.nextGaussian() * std + mean);
+        }
+
+        return data;
+    }
+
+    /**
+     * Returns val * in in a new array
+     *
+     * @param in
+     * @param val
+     * @return
+     */
+    public static float[] mul(float[] in, float val) {
+        float[] out = new float[in.length];
+        for (int i = 0; i < in.length; i++) {
+            out[i] = val * in[i];
+        }
+        return out;
+    }
+
+    /**
+     * a * x * y, hadamard product (element wise product) of x and y scaled by a
+     *
+     * @param val
+     * @param left
+     * @param right
+     * @return
+     */
+    public static float[] mul(float val, float[] left, float[] right) {
+        float[] out = new float[left.length];
+        for (int i = 0; i < left.length; i++) {
+            out[i] = val * left[i] * right[i];
+        }
+
+        return out;
+    }
+
+    /**
+     * x + y
+     *
+     * @param left
+     * @param right
+     * @return
+     */
+    public static float[] add(float[] left, float[] right) {
+        return saxpy(1.0f, left, right);
+    }
+
+    /**
+     * x - y
+     *
+     * @param left
+     * @param right
+     * @return
+     */
+    public static float[] minus(float[] left, float[] right) {
+        return saxpy(-1.0f, right, left);
+    }
+
+    /**
+     * Returns alpha * x + y in a new array
+     *
+     * @param alpha
+     * @param x
+     * @param y
+     * @return
+     */
+    public static float[] saxpy(float alpha, float[] x, float[] y) {
+        if (x.length != y.length) {
+            throw new RuntimeException(
+                    String.format("Dimension mismatch! x: %d, y: %d", x.length, y.length));
+        }
+        float[] ret = y.clone();
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] += alpha * x[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Performs alpha * Ax + beta * y
+     * A is an (m, n) matrix, general format, column major
+     *
+     * @param alpha
+     * @param matrix
+     * @param m
+     * @param n
+     * @param x
+     * @param beta
+     * @param y
+     * @return
+     */
+    public static float[] sgemv(float alpha, float[] matrix, int m, int n, float[] x, float beta, float[] y) {
+        float[] ret = scaled(beta, y);
+        gemm(alpha, false, false, m, 1, n, matrix, x, ret);
+        return ret;
+    }
+
+    /**
+     * Performs alpha * A^T x + beta * y without transposing A
+     * A is an (m, n) matrix, general format, column major
+     *
+     * @param alpha
+     * @param matrix
+     * @param m
+     * @param n
+     * @param x
+     * @param beta
+     * @param y
+     * @return
+     */
+    public static float[] sgemvTransposed(float alpha, float[] matrix, int m, int n, float[] x, float beta,
+                                          float[] y) {
+        float[] ret = scaled(beta, y);
+        gemm(alpha, true, false, n, 1, m, matrix, x, ret);
+        return ret;
+    }
+
+    /**
+     * Performs general matrix alpha * ab + beta * c, all column major
+     *
+     * @param alpha
+     * @param m
+     * @param n
+     * @param k
+     * @param a
+     * @param b
+     * @param beta
+     * @param c
+     * @return
+     */
+    public static float[] sgemm(float alpha, int m, int n, int k, float[] a, float[] b, float beta, float[] c) {
+        float[] ret = scaled(beta, c);
+        gemm(alpha, false, false, m, n, k, a, b, ret);
+        return ret;
+    }
+
+    /**
+     * Rank-1 update in place, A += alpha * x * y^T
+     * A is an (m, n) matrix, general format, column major
+     *
+     * @param alpha
+     * @param x
+     * @param y
+     * @param matrix
+     * @param m
+     * @param n
+     * @return matrix
+     */
+    public static float[] sger(float alpha, float[] x, float[] y, float[] matrix, int m, int n) {
+        gemm(alpha, false, false, m, n, 1, x, y, matrix);
+        return matrix;
+    }
+
+    /**
+     * Single precision fused layer kernel, returns activation(Ax + b)
+     *
+     * @param activation
+     * @param matrix
+     * @param m
+     * @param n
+     * @param x
+     * @param b
+     * @return
+     */
+    public static float[] affine(DoubleUnaryOperator activation, float[] matrix, int m, int n, float[] x,
+                                 float[] b) {
+        float[] a = new float[m];
+        affineInto(activation, matrix, m, n, x, b, null, a);
+        return a;
+    }
+
+    /**
+     * Single precision fused layer kernel writing into preallocated buffers: z = Ax + b and a = activation(z)
+     *
+     * @param activation
+     * @param matrix
+     * @param m
+     * @param n
+     * @param x
+     * @param b
+     * @param z          may be null if the value before activation is not needed
+     * @param a
+     * @return a
+     */
+    public static float[] affineInto(DoubleUnaryOperator activation, float[] matrix, int m, int n, float[] x,
+                                     float[] b, float[] z, float[] a) {
+        float[] target = z != null ? z : a;
+        System.arraycopy(b, 0, target, 0, m);
+        gemm(1.0f, false, false, m, 1, n, matrix, x, target);
+        for (int i = 0; i < m; i++) {
+            a[i] = (float) activation.applyAsDouble(target[i]);
+        }
+        return a;
+    }
+
+    /**
+     * c += alpha * op(A) * op(B) on the backend selected for the shape, all column major. op(A) is (m, k), stored as
+     * (k, m) when transA, op(B) is (k, n), stored as (n, k) when transB, c is (m, n).
+     */
+    private static void gemm(double alpha, boolean transA, boolean transB, int m, int n, int k, double[] a, double[] b,
+                             double[] c) {
+        double[] target = alpha == 1 ? c : new double[m * n];
+        // strides of the row-major op(A)^T (k, m) and op(B)^T (n, k) over the same arrays, c is the row-major C^T
+        int aRs = transA ? 1 : m;
+        int aCs = transA ? k : 1;
+        int bRs = transB ? 1 : k;
+        int bCs = transB ? n : 1;
+        Backends.select(n, m, k, bRs, bCs, aRs, aCs, m)
+                .gemm(n, m, k, b, 0, bRs, bCs, a, 0, aRs, aCs, target, 0, m);
+        if (target != c) {
+            for (int i = 0; i < m * n; i++) {
+                c[i] += alpha * target[i];
+            }
+        }
+    }
+
+    /**
+     * Single precision version of {@link #gemm(double, boolean, boolean, int, int, int, double[], double[], double[])}
+     */
+    private static void gemm(float alpha, boolean transA, boolean transB, int m, int n, int k, float[] a, float[] b,
+                             float[] c) {
+        float[] target = alpha == 1 ? c : new float[m * n];
+        int aRs = transA ? 1 : m;
+        int aCs = transA ? k : 1;
+        int bRs = transB ? 1 : k;
+        int bCs = transB ? n : 1;
+        Backends.select(n, m, k, bRs, bCs, aRs, aCs, m)
+                .sgemm(n, m, k, b, 0, bRs, bCs, a, 0, aRs, aCs, target, 0, m);
+        if (target != c) {
+            for (int i = 0; i < m * n; i++) {
+                c[i] += alpha * target[i];
+            }
+        }
+    }
+
+    /**
+     * Returns beta * y in a new array
+     */
+    private static double[] scaled(double beta, double[] y) {
+        double[] ret = y.clone();
+        if (beta != 1) {
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] *= beta;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns beta * y in a new array
+     */
+    private static float[] scaled(float beta, float[] y) {
+        float[] ret = y.clone();
+        if (beta != 1) {
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] *= beta;
+            }
+        }
         return ret;
     }
 }
@@ -0,0 +1,98 @@
+package org.dl.java.math.la;
+
+import com.github.fommil.netlib.BLAS;
+import com.github.fommil.netlib.F2jBLAS;
+
+/**
+ * {@link MatrixBackend} running on the netlib BLAS, the same library as {@link MatrixJNI}.
+ * <p>
+ * BLAS is column-major, the row-major C = A * B is computed as the column-major C^T = B^T * A^T, which reads the
+ * same arrays. An operand with a unit column stride is a column-major transpose with the row stride as leading
+ * dimension, one with a unit row stride is read through the transpose flag, so no operand is ever copied.
+ */
+public final class NetlibBackend implements MatrixBackend {
+    private final BLAS blas;
+
+    /**
+     * Creating a backend on the BLAS netlib loaded for this JVM
+     */
+    public NetlibBackend() {
+        this(BLAS.getInstance());
+    }
+
+    /**
+     * Creating a backend on the given BLAS
+     *
+     * @param blas
+     */
+    public NetlibBackend(BLAS blas) {
+        this.blas = blas;
+    }
+
+    /**
+     * Whether netlib loaded a native library, the fallback translated from Fortran is slower than the Java kernels
+     *
+     * @return
+     */
+    public boolean isNative() {
+        return !(blas instanceof F2jBLAS);
+    }
+
+    @Override
+    public String getName() {
+        return "netlib " + blas.getClass()
+                               .getSimpleName();
+    }
+
+    @Override
+    public boolean supports(int m, int n, int k, int aRs, int aCs, int bRs, int bCs, int cRs) {
+        return isLeading(aRs, aCs, k, m) && isLeading(bRs, bCs, n, k) && cRs >= Math.max(1, n);
+    }
+
+    @Override
+    public void gemm(int m, int n, int k, double[] a, int aOff, int aRs, int aCs, double[] b, int bOff, int bRs,
+                     int bCs, double[] c, int cOff, int cRs) {
+        if (!supports(m, n, k, aRs, aCs, bRs, bCs, cRs)) {
+            throw new RuntimeException(
+                    String.format("Strides not supported by BLAS! A: (%d, %d), B: (%d, %d)", aRs, aCs, bRs, bCs));
+        }
+        if (m == 0 || n == 0 || k == 0) {
+            return;
+        }
+
+        // C^T (n, m) += B^T (n, k) * A^T (k, m), all column-major
+        blas.dgemm(bCs == 1 ? "N" : "T", aCs == 1 ? "N" : "T", n, m, k, 1.0, b, bOff, leading(bRs, bCs), a, aOff,
+                leading(aRs, aCs), 1.0, c, cOff, cRs);
+    }
+
+    @Override
+    public void sgemm(int m, int n, int k, float[] a, int aOff, int aRs, int aCs, float[] b, int bOff, int bRs,
+                      int bCs, float[] c, int cOff, int cRs) {
+        if (!supports(m, n, k, aRs, aCs, bRs, bCs, cRs)) {
+            throw new RuntimeException(
+                    String.format("Strides not supported by BLAS! A: (%d, %d), B: (%d, %d)", aRs, aCs, bRs, bCs));
+        }
+        if (m == 0 || n == 0 || k == 0) {
+            return;
+        }
+
+        // the same column-major transposition as gemm
+        blas.sgemm(bCs == 1 ? "N" : "T", aCs == 1 ? "N" : "T", n, m, k, 1.0f, b, bOff, leading(bRs, bCs), a, aOff,
+                leading(aRs, aCs), 1.0f, c, cOff, cRs);
+    }
+
+    /**
+     * Whether a (rows, cols) operand with these strides is a plain or transposed column-major matrix, cols being its
+     * extent along the unit stride
+     */
+    private static boolean isLeading(int rs, int cs, int cols, int rows) {
+        if (cs == 1) {
+            return rs >= Math.max(1, cols);
+        }
+        return rs == 1 && cs >= Math.max(1, rows);
+    }
+
+    private static int leading(int rs, int cs) {
+        return cs == 1 ? rs : cs;
+    }
+}
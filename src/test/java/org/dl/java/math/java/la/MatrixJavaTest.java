@@ -1,13 +1,56 @@
 package org.dl.java.math.java.la;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+
+import org.dl.java.io.data.MNISTDataLoader;
+import org.dl.java.io.data.TrainingData;
+import org.dl.java.math.MathFunctions;
+import org.dl.java.math.dl.ActivateFunctions;
+import org.dl.java.math.dl.DeltaFunction;
+import org.dl.java.math.dl.FeedForwardNetwork;
+import org.dl.java.math.dl.FeedForwardNetworkFloat;
+import org.dl.java.math.java.dl.DeltaFunctionFloat;
+import org.dl.java.math.java.dl.DeltaFunctionJava;
+import org.dl.java.math.java.dl.gd.StochasticGradientDescent;
+import org.dl.java.math.java.dl.networks.FeedForwardNeuralNetwork;
+import org.dl.java.math.java.dl.networks.FeedForwardNeuralNetworkFloat;
+import org.dl.java.math.java.dl.networks.LowRankFeedForwardNetwork;
 import org.dl.java.math.java.util.MatrixPerfRun;
+import org.dl.java.math.la.Matrix;
+import org.dl.java.math.la.MatrixJNI;
+import org.dl.java.math.la.MatrixBackend;
+import org.dl.java.math.la.NetlibBackend;
+import jdk.incubator.foreign.ResourceScope;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.dl.java.math.java.util.MatrixPerfRun.assertMatrixEquals;
 import static org.dl.java.math.java.util.MatrixPerfRun.randMatrix;
+import static org.dl.java.math.java.dl.activate.ActivateFunctionsJava.SIGMOID;
 
 public class MatrixJavaTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     @Test(expected = RuntimeException.class)
     public void testAddMatrix() {
@@ -95,12 +138,69 @@ public class MatrixJavaTest {
         MatrixJava res = lu.l()
                        .dot(lu.u());
 
-        MatrixPerfRun.assertMatrixEquals(res, in);
+        MatrixPerfRun.assertMatrixEquals(res, lu.p()
+                                                .dot(in));
+
+        // factors given separately, without pivoting
+        LUDecomposition unpivoted = new LUDecomposition(
+                new MatrixJava(new double[][] { { 1, 0 }, { 0.5, 1 } }),
+                new MatrixJava(new double[][] { { 2, 4 }, { 0, 1 } }));
+        MatrixPerfRun.assertMatrixEquals(new MatrixJava(new double[][] { { 2, 4 }, { 1, 3 } }), unpivoted.l()
+                                                                                                   .dot(unpivoted.u()));
+        assertEquals(2, unpivoted.determinant(), 1e-12);
+        MatrixPerfRun.assertMatrixEquals(new MatrixJava(new double[][] { { 1 }, { 1 } }),
+                unpivoted.solve(new MatrixJava(new double[][] { { 6 }, { 4 } })));
 
-        MatrixJava rand = MatrixPerfRun.randMatrix(100, 100);
+        // several panels and a ragged last one
+        MatrixJava rand = MatrixPerfRun.randMatrix(150, 150);
         lu = rand.lu();
-        MatrixPerfRun.assertMatrixEquals(rand, lu.l()
-                                   .dot(lu.u()));
+        MatrixPerfRun.assertMatrixEquals(lu.p()
+                                           .dot(rand), lu.l()
+                                                         .dot(lu.u()), luTolerance(lu));
+        int[] permutation = lu.permutation();
+        for (int i = 0; i < 150; i++) {
+            assertEquals(rand.get(permutation[i], 3), lu.p()
+                                                         .dot(rand)
+                                                         .get(i, 3), 0);
+            for (int j = 0; j < i; j++) {
+                assertTrue(Math.abs(lu.l()
+                                      .get(i, j)) <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void testLUParallel() throws Exception {
+        MatrixJava rand = MatrixPerfRun.randMatrix(300, 300);
+
+        // the trailing updates are large enough to be split across the pool
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            LUDecomposition lu = pool.submit(rand::lu)
+                                     .get();
+            MatrixPerfRun.assertMatrixEquals(lu.p()
+                                               .dot(rand), lu.l()
+                                                             .dot(lu.u()), luTolerance(lu));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLUZeroPivot() {
+        MatrixJava in = new MatrixJava(new double[][] { { 0, 1, 2 }, { 1, 0, 3 }, { 4, 5, 0 } });
+        LUDecomposition lu = in.lu();
+        MatrixPerfRun.assertMatrixEquals(lu.p()
+                                           .dot(in), lu.l()
+                                                       .dot(lu.u()));
+        MatrixJava b = new MatrixJava(new double[][] { { 1 }, { 2 }, { 3 } });
+        MatrixPerfRun.assertMatrixEquals(b, in.dot(in.solve(b)));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testSolveSingular() {
+        MatrixJava in = new MatrixJava(new double[][] { { 1, 2 }, { 2, 4 } });
+        in.solve(new MatrixJava(new double[][] { { 1 }, { 1 } }));
     }
 
     @Test
@@ -126,6 +226,203 @@ public class MatrixJavaTest {
         MatrixPerfRun.assertMatrixEquals(A.dot(x), b);
     }
 
+    @Test
+    public void testSolveMultipleColumns() throws Exception {
+        int n = 200;
+        MatrixJava A = MatrixPerfRun.randMatrix(n, n);
+        MatrixJava B = MatrixPerfRun.randMatrix(n, 150);
+        MatrixPerfRun.assertMatrixEquals(B, A.dot(A.solve(B)));
+
+        // a view as the right-hand side
+        MatrixJava column = B.viewCol(7);
+        MatrixPerfRun.assertMatrixEquals(column, A.dot(A.solve(column)));
+
+        // the column blocks are split across the pool
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MatrixJava X = pool.submit(() -> A.solve(B))
+                               .get();
+            MatrixPerfRun.assertMatrixEquals(B, A.dot(X));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInverseSingular() {
+        new MatrixJava(new double[][] { { 1, 2 }, { 2, 4 } }).inverse();
+    }
+
+    @Test
+    public void testLUSolveMany() {
+        int n = 50;
+        MatrixJava A = MatrixPerfRun.randMatrix(n, n);
+        LUDecomposition lu = A.lu();
+        for (int i = 0; i < 3; i++) {
+            MatrixJava b = MatrixPerfRun.randMatrix(n, i + 1);
+            MatrixPerfRun.assertMatrixEquals(b, A.dot(lu.solve(b)));
+        }
+        MatrixPerfRun.assertMatrixEquals(MatrixJava.identity(n), A.dot(lu.inverse()));
+
+        MatrixJava small = new MatrixJava(new double[][] { { 1, 2 }, { 3, 4 } });
+        assertEquals(-2, small.lu()
+                              .determinant(), 1e-12);
+    }
+
+    @Test
+    public void testLUCache() {
+        int n = 20;
+        MatrixJava A = MatrixPerfRun.randMatrix(n, n);
+        assertNotSame(A.lu(), A.lu());
+
+        A.cacheLU(true);
+        LUDecomposition lu = A.lu();
+        assertSame(lu, A.lu());
+
+        // writes through the matrix or a view of it drop the cached LU
+        A.set(0, 0, A.get(0, 0) + 1);
+        LUDecomposition modified = A.lu();
+        assertNotSame(lu, modified);
+        A.viewRow(3)
+         .scaleInPlace(2);
+        assertNotSame(modified, A.lu());
+
+        MatrixJava b = MatrixPerfRun.randMatrix(n, 1);
+        MatrixPerfRun.assertMatrixEquals(b, A.dot(A.solve(b)));
+
+        A.cacheLU(false);
+        assertNotSame(A.lu(), A.lu());
+    }
+
+    @Test
+    public void testSparseProducts() {
+        // about 80% zeros, like MNIST pixels
+        MatrixJava dense = MatrixPerfRun.randMatrix(40, 30, 2)
+                                        .transform(v -> Math.abs(v) < 0.8 ? 0 : v);
+        CSRMatrix csr = CSRMatrix.of(dense);
+        CSCMatrix csc = CSCMatrix.of(dense);
+        MatrixPerfRun.assertMatrixEquals(dense, csr.toDense());
+        MatrixPerfRun.assertMatrixEquals(dense, csc.toDense());
+        MatrixPerfRun.assertMatrixEquals(dense.transpose(), csr.transpose()
+                                                               .toDense());
+        assertEquals(csr.getNonZeroCount(), csc.getNonZeroCount());
+        assertEquals(csc.getNonZeroCount(), dense.getNonZeroCount());
+        MatrixJava strided = dense.view(0, 1, 40, 29);
+        assertEquals(CSCMatrix.of(strided)
+                              .getNonZeroCount(), strided.getNonZeroCount());
+
+        for (int n : new int[] { 1, 7 }) {
+            MatrixJava right = MatrixPerfRun.randMatrix(30, n);
+            MatrixPerfRun.assertMatrixEquals(dense.dot(right), csr.dot(right));
+            MatrixPerfRun.assertMatrixEquals(dense.dot(right), csc.dot(right));
+
+            MatrixJava tall = MatrixPerfRun.randMatrix(40, n);
+            MatrixPerfRun.assertMatrixEquals(dense.dotTransposeLeft(tall), csr.dotTransposeLeft(tall));
+            MatrixPerfRun.assertMatrixEquals(dense.dotTransposeLeft(tall), csc.dotTransposeLeft(tall));
+
+            MatrixJava left = MatrixPerfRun.randMatrix(n, 40);
+            MatrixPerfRun.assertMatrixEquals(left.dot(dense), left.dot(csr));
+            MatrixPerfRun.assertMatrixEquals(left.dot(dense), left.dot(csc));
+
+            MatrixJava acc = MatrixPerfRun.randMatrix(n, 30);
+            MatrixPerfRun.assertMatrixEquals(acc.add(left.dot(dense)), left.dotAddInto(csr, acc.replicate()));
+        }
+
+        // operands read through views
+        MatrixJava big = MatrixPerfRun.randMatrix(50, 50);
+        MatrixPerfRun.assertMatrixEquals(dense.dot(big.view(5, 3, 30, 4)), csr.dot(big.view(5, 3, 30, 4)));
+        MatrixPerfRun.assertMatrixEquals(big.view(1, 2, 3, 40)
+                                            .dot(dense), big.view(1, 2, 3, 40)
+                                                            .dot(csc));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testSparseInvalidIndex() {
+        new CSRMatrix(2, 2, new int[] { 0, 1, 2 }, new int[] { 0, 2 }, new double[] { 1, 1 });
+    }
+
+    @Test
+    public void testCholesky() {
+        // A^T * A + n * I is symmetric positive definite, 300 spans several blocks with a ragged last one
+        int n = 300;
+        MatrixJava r = MatrixPerfRun.randMatrix(n, n, 2);
+        MatrixJava spd = r.dotTransposeLeft(r)
+                          .add(MatrixJava.identity(n)
+                                         .mul(n));
+        CholeskyDecomposition chol = spd.cholesky();
+        MatrixJava l = chol.l();
+        MatrixPerfRun.assertMatrixEquals(spd, l.dotTransposeRight(l), 1e-9);
+        assertEquals(0, l.get(3, 200), 0);
+
+        MatrixJava b = MatrixPerfRun.randMatrix(n, 5);
+        MatrixPerfRun.assertMatrixEquals(b, spd.dot(chol.solve(b)));
+        MatrixPerfRun.assertMatrixEquals(MatrixJava.identity(n), spd.dot(chol.inverse()));
+
+        MatrixJava small = new MatrixJava(new double[][] { { 4, 2 }, { 2, 3 } });
+        assertEquals(8, small.cholesky()
+                             .determinant(), 1e-12);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCholeskyNotPositiveDefinite() {
+        new MatrixJava(new double[][] { { 1, 2 }, { 2, 1 } }).cholesky();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCholeskyNotSymmetric() {
+        new MatrixJava(new double[][] { { 4, 1 }, { 2, 3 } }).cholesky();
+    }
+
+    @Test
+    public void testQRDecomposition() {
+        // several panels, and trailing columns for the block reflectors
+        MatrixJava a = MatrixPerfRun.randMatrix(150, 70, 2);
+        QRDecomposition qr = a.qr();
+        MatrixJava q = qr.q();
+        MatrixJava r = qr.r();
+
+        MatrixPerfRun.assertMatrixEquals(a, q.dot(r), 1e-9);
+        MatrixPerfRun.assertMatrixEquals(MatrixJava.identity(70), q.dotTransposeLeft(q), 1e-9);
+        assertEquals(0, r.get(50, 20), 0);
+
+        // a consistent system is solved exactly, an inconsistent one matches the normal equations
+        MatrixJava x = MatrixPerfRun.randMatrix(70, 2, 2);
+        MatrixPerfRun.assertMatrixEquals(x, qr.leastSquares(a.dot(x)), 1e-9);
+        MatrixJava b = MatrixPerfRun.randMatrix(150, 2, 2);
+        MatrixJava normal = a.dotTransposeLeft(a)
+                             .solve(a.dotTransposeLeft(b));
+        MatrixPerfRun.assertMatrixEquals(normal, qr.leastSquares(b), 1e-9);
+    }
+
+    @Test
+    public void testLeastSquaresTallSkinny() throws Exception {
+        // spans several row blocks, and is split across the pool below
+        int m = 20000;
+        MatrixJava a = MatrixPerfRun.randMatrix(m, 30, 2);
+        MatrixJava b = MatrixPerfRun.randMatrix(m, 2, 2);
+        MatrixJava expected = a.qr()
+                               .leastSquares(b);
+
+        MatrixPerfRun.assertMatrixEquals(expected, a.leastSquares(b), 1e-9);
+        MatrixJava x = MatrixPerfRun.randMatrix(30, 1, 2);
+        MatrixPerfRun.assertMatrixEquals(x, a.leastSquares(a.dot(x)), 1e-9);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MatrixJava result = pool.submit(() -> a.leastSquares(b))
+                                    .get();
+            MatrixPerfRun.assertMatrixEquals(expected, result, 1e-9);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testLeastSquaresRankDeficient() {
+        MatrixJava a = new MatrixJava(new double[][] { { 1, 2 }, { 2, 4 }, { 3, 6 } });
+        a.leastSquares(new MatrixJava(new double[][] { { 1 }, { 2 }, { 3 } }));
+    }
+
     @Test
     public void testTranspose() {
         MatrixJava a = MatrixPerfRun.randMatrix(100, 100);
@@ -133,6 +430,34 @@ public class MatrixJavaTest {
                                .transpose());
     }
 
+    @Test
+    public void testBlockedTranspose() {
+        // sizes that are not multiples of the leaf size
+        MatrixJava a = MatrixPerfRun.randMatrix(133, 71, 2);
+        MatrixJava t = a.transpose();
+        assertEquals(71, t.getRowCount());
+        assertEquals(133, t.getColCount());
+        for (int i = 0; i < a.getRowCount(); i++) {
+            for (int j = 0; j < a.getColCount(); j++) {
+                assertEquals(a.get(i, j), t.get(j, i), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testTransposeInPlace() {
+        MatrixJava a = MatrixPerfRun.randMatrix(101, 101, 2);
+        MatrixJava expected = a.transpose();
+        assertSame(a, a.transposeInPlace());
+        MatrixPerfRun.assertMatrixEquals(expected, a, 0);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTransposeInPlaceNonSquare() {
+        MatrixPerfRun.randMatrix(3, 4)
+                     .transposeInPlace();
+    }
+
     @Test
     public void testArgmaxRow() {
         MatrixJava in = new MatrixJava(new double[][] { { 1, 0, 2 }, { 2, -1, 3 }, { 4, 1, 8 } });
@@ -180,4 +505,1197 @@ public class MatrixJavaTest {
         MatrixPerfRun.assertMatrixEquals(one.mul(two), expected);
         MatrixPerfRun.assertMatrixEquals(two.mul(one), expected);
     }
+
+    @Test
+    public void testFlatArrayConstructor() {
+        MatrixJava flat = new MatrixJava(2, 3, new double[] { 1, 2, 3, 4, 5, 6 });
+        MatrixJava expected = new MatrixJava(new double[][] { { 1, 2, 3 }, { 4, 5, 6 } });
+        MatrixPerfRun.assertMatrixEquals(expected, flat);
+        assertEquals(6, flat.get(1, 2), 0);
+        assertArrayEquals(new double[] { 1, 2, 3, 4, 5, 6 }, expected.toArray(), 0);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRaggedArray() {
+        new MatrixJava(new double[][] { { 1, 2, 3 }, { 4, 5 } });
+    }
+
+    @Test
+    public void testBlockedMultiply() {
+        // odd sizes so that every block and register tile has a ragged edge, and k spans several slices
+        MatrixJava a = MatrixPerfRun.randMatrix(135, 517, 2);
+        MatrixJava b = MatrixPerfRun.randMatrix(517, 2063, 2);
+        MatrixPerfRun.assertMatrixEquals(naiveDot(a, b), a.dot(b), 1e-9);
+
+        MatrixJava v = MatrixPerfRun.randMatrix(517, 1, 2);
+        MatrixPerfRun.assertMatrixEquals(naiveDot(a, v), a.dot(v), 1e-9);
+    }
+
+    @Test
+    public void testParallelMultiply() throws Exception {
+        MatrixJava a = MatrixPerfRun.randMatrix(301, 257, 2);
+        MatrixJava b = MatrixPerfRun.randMatrix(257, 403, 2);
+        MatrixJava expected = naiveDot(a, b);
+
+        // the tiles run in the pool of the calling task, so this exercises the parallel path on any host
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MatrixJava result = pool.submit(() -> a.dot(b))
+                                    .get();
+            MatrixPerfRun.assertMatrixEquals(expected, result, 1e-9);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testElementKernelsMatchScalar() {
+        ElementKernels scalar = new ScalarKernels();
+        ElementKernels selected = ElementKernels.INSTANCE;
+        // odd length so the vector loops also run their scalar tail
+        int len = 37;
+        double[] a = MatrixPerfRun.randMatrix(1, len + 3, 2)
+                                  .toArray();
+        double[] b = MatrixPerfRun.randMatrix(1, len + 3, 2)
+                                  .toArray();
+        double[] expected = new double[len];
+        double[] actual = new double[len];
+
+        scalar.add(a, 1, b, 2, expected, 0, len);
+        selected.add(a, 1, b, 2, actual, 0, len);
+        assertArrayEquals(expected, actual, 1e-12);
+        scalar.sub(a, 1, b, 2, expected, 0, len);
+        selected.sub(a, 1, b, 2, actual, 0, len);
+        assertArrayEquals(expected, actual, 1e-12);
+        scalar.mul(a, 1, b, 2, expected, 0, len);
+        selected.mul(a, 1, b, 2, actual, 0, len);
+        assertArrayEquals(expected, actual, 1e-12);
+        scalar.scale(a, 3, 0.5, expected, 0, len);
+        selected.scale(a, 3, 0.5, actual, 0, len);
+        assertArrayEquals(expected, actual, 1e-12);
+        scalar.shift(a, 3, 0.5, expected, 0, len);
+        selected.shift(a, 3, 0.5, actual, 0, len);
+        assertArrayEquals(expected, actual, 1e-12);
+        scalar.axpy(0.5, a, 3, expected, 0, len);
+        selected.axpy(0.5, a, 3, actual, 0, len);
+        assertArrayEquals(expected, actual, 1e-12);
+        assertEquals(scalar.dot(a, 1, b, 2, len), selected.dot(a, 1, b, 2, len), 1e-9);
+        assertEquals(scalar.sumOfSquares(a, 1, len), selected.sumOfSquares(a, 1, len), 1e-9);
+    }
+
+    @Test
+    public void testNorm() {
+        MatrixJava m = new MatrixJava(new double[][] { { 3, 0 }, { 0, 4 } });
+        assertEquals(5, m.norm(), 1e-12);
+    }
+
+    @Test
+    public void testInPlace() {
+        MatrixJava one = new MatrixJava(new double[][] { { 1, 2, 3 }, { 4, 5, 6 } });
+        MatrixJava two = new MatrixJava(new double[][] { { 6, 5, 4 }, { 3, 2, 1 } });
+        MatrixJava m = one.replicate();
+
+        assertSame(m, m.addInPlace(two));
+        MatrixPerfRun.assertMatrixEquals(one.add(two), m);
+        m.minusInPlace(two);
+        MatrixPerfRun.assertMatrixEquals(one, m);
+        m.mulInPlace(two);
+        MatrixPerfRun.assertMatrixEquals(one.mul(two), m);
+        m = one.replicate()
+               .scaleInPlace(3);
+        MatrixPerfRun.assertMatrixEquals(one.mul(3), m);
+        m = one.replicate()
+               .addInPlace(3.0);
+        MatrixPerfRun.assertMatrixEquals(one.add(3.0), m);
+        m = one.replicate()
+               .transformInPlace(v -> v * v);
+        MatrixPerfRun.assertMatrixEquals(one.mul(one), m);
+        MatrixPerfRun.assertMatrixEquals(new MatrixJava(2, 3), m.fill(0));
+    }
+
+    @Test
+    public void testInto() {
+        MatrixJava one = MatrixPerfRun.randMatrix(40, 50, 2);
+        MatrixJava two = MatrixPerfRun.randMatrix(50, 30, 2);
+        MatrixJava dest = new MatrixJava(40, 30).fill(7);
+
+        assertSame(dest, one.dotInto(two, dest));
+        MatrixPerfRun.assertMatrixEquals(one.dot(two), dest, 1e-9);
+
+        MatrixJava other = MatrixPerfRun.randMatrix(40, 50, 2);
+        MatrixJava sum = new MatrixJava(40, 50);
+        MatrixPerfRun.assertMatrixEquals(one.add(other), one.addInto(other, sum));
+        MatrixPerfRun.assertMatrixEquals(one.minus(other), one.minusInto(other, sum));
+        MatrixPerfRun.assertMatrixEquals(one.mul(other), one.mulInto(other, sum));
+        MatrixPerfRun.assertMatrixEquals(one.transform(Math::abs), one.transformInto(Math::abs, sum));
+        MatrixPerfRun.assertMatrixEquals(one.transpose(), one.transposeInto(new MatrixJava(50, 40)));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testDotIntoAliased() {
+        MatrixJava m = MatrixPerfRun.randMatrix(3, 3);
+        m.dotInto(m, m);
+    }
+
+    @Test
+    public void testElementWiseIntoOverlap() {
+        MatrixJava m = MatrixPerfRun.randMatrix(6, 5, 2);
+        MatrixJava expected = m.viewRows(0, 3)
+                               .add(m.viewRows(3, 6));
+        // an operand is a valid destination
+        MatrixPerfRun.assertMatrixEquals(expected, m.viewRows(0, 3)
+                                                    .addInto(m.viewRows(3, 6), m.viewRows(0, 3)));
+        try {
+            m.viewRows(0, 3)
+             .minusInto(m.viewRows(3, 6), m.viewRows(1, 4));
+            fail("a shifted destination must be rejected");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAffine() {
+        MatrixJava w = MatrixPerfRun.randMatrix(30, 78, 2);
+        MatrixJava x = MatrixPerfRun.randMatrix(78, 1, 2);
+        MatrixJava b = MatrixPerfRun.randMatrix(30, 1, 2);
+        MatrixJava expectedZ = w.dot(x)
+                                .add(b);
+        MatrixJava expectedA = expectedZ.transform(Math::tanh);
+
+        MatrixPerfRun.assertMatrixEquals(expectedA, w.affine(x, b, Math::tanh), 1e-9);
+        MatrixJava z = new MatrixJava(30, 1);
+        MatrixJava a = new MatrixJava(30, 1);
+        assertSame(a, w.affineInto(x, b, Math::tanh, z, a));
+        MatrixPerfRun.assertMatrixEquals(expectedZ, z, 1e-9);
+        MatrixPerfRun.assertMatrixEquals(expectedA, a, 1e-9);
+
+        // destinations sharing storage with the weights, the bias or each other are rejected
+        MatrixJava square = MatrixPerfRun.randMatrix(31, 31, 2);
+        MatrixJava input = MatrixPerfRun.randMatrix(31, 1, 2);
+        MatrixJava bias = MatrixPerfRun.randMatrix(31, 1, 2);
+        for (MatrixJava[] za : new MatrixJava[][] { { null, square.viewCol(1) }, { null, bias },
+                { square.viewCol(2), new MatrixJava(31, 1) }, { bias, new MatrixJava(31, 1) } }) {
+            try {
+                square.affineInto(input, bias, Math::tanh, za[0], za[1]);
+                fail("a destination sharing storage must be rejected");
+            } catch (RuntimeException e) {
+                // expected
+            }
+        }
+        MatrixJava shared = new MatrixJava(31, 1);
+        try {
+            square.affineInto(input, bias, Math::tanh, shared, shared);
+            fail("z and a must be distinct");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        // a batch of inputs, bias broadcast over the columns
+        MatrixJava batch = MatrixPerfRun.randMatrix(78, 5, 2);
+        z = new MatrixJava(30, 5);
+        a = w.affineInto(batch, b, Math::tanh, z, new MatrixJava(30, 5));
+        for (int j = 0; j < 5; j++) {
+            for (int i = 0; i < 30; i++) {
+                double expected = w.dot(batch)
+                                   .get(i, j) + b.get(i, 0);
+                assertEquals(expected, z.get(i, j), 1e-9);
+                assertEquals(Math.tanh(expected), a.get(i, j), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testStrassen() {
+        // odd sizes at several levels exercise the peeling, the small crossover forces 3 levels of recursion
+        MatrixJava a = MatrixPerfRun.randMatrix(157, 131, 2);
+        MatrixJava b = MatrixPerfRun.randMatrix(131, 143, 2);
+        MatrixPerfRun.assertMatrixEquals(a.dot(b), a.dotStrassen(b, 16), 1e-9);
+
+        MatrixJava square = MatrixPerfRun.randMatrix(128, 128, 2);
+        MatrixPerfRun.assertMatrixEquals(square.dot(square), square.dotStrassen(square, 16), 1e-9);
+        // below the crossover it is the blocked product
+        MatrixPerfRun.assertMatrixEquals(square.dot(square), square.dotStrassen(square), 1e-9);
+    }
+
+    @Test
+    public void testDotTranspose() {
+        MatrixJava a = MatrixPerfRun.randMatrix(70, 45, 2);
+        MatrixJava b = MatrixPerfRun.randMatrix(70, 38, 2);
+        MatrixJava c = MatrixPerfRun.randMatrix(38, 45, 2);
+        MatrixJava d = MatrixPerfRun.randMatrix(38, 70, 2);
+
+        MatrixPerfRun.assertMatrixEquals(a.transpose()
+                                          .dot(b), a.dotTransposeLeft(b), 1e-9);
+        MatrixPerfRun.assertMatrixEquals(a.dot(c.transpose()), a.dotTransposeRight(c), 1e-9);
+        MatrixPerfRun.assertMatrixEquals(a.transpose()
+                                          .dot(d.transpose()), a.dotTransposeBoth(d), 1e-9);
+
+        // backprop shapes: W^T . delta and delta . a^T
+        MatrixJava w = MatrixPerfRun.randMatrix(30, 784, 2);
+        MatrixJava delta = MatrixPerfRun.randMatrix(30, 1, 2);
+        MatrixJava activation = MatrixPerfRun.randMatrix(784, 1, 2);
+        MatrixPerfRun.assertMatrixEquals(w.transpose()
+                                          .dot(delta), w.dotTransposeLeft(delta), 1e-9);
+        MatrixPerfRun.assertMatrixEquals(delta.dot(activation.transpose()), delta.dotTransposeRight(activation),
+                1e-9);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testDotTransposeMismatch() {
+        MatrixPerfRun.randMatrix(3, 4)
+                     .dotTransposeLeft(MatrixPerfRun.randMatrix(4, 3));
+    }
+
+    @Test
+    public void testLazy() {
+        MatrixJava w = MatrixPerfRun.randMatrix(30, 600, 2);
+        MatrixJava d = MatrixPerfRun.randMatrix(30, 600, 2);
+        MatrixJava expected = w.mul(0.9)
+                               .minus(d.transform(v -> v * 0.1))
+                               .add(w.mul(d))
+                               .add(1.0);
+
+        LazyMatrix lazy = w.lazy()
+                           .mul(0.9)
+                           .minus(d.lazy()
+                                   .transform(v -> v * 0.1))
+                           .add(w.lazy()
+                                 .mul(d))
+                           .add(1.0);
+        assertEquals(30, lazy.getRowCount());
+        assertEquals(600, lazy.getColCount());
+        MatrixPerfRun.assertMatrixEquals(expected, lazy.evaluate(), 1e-12);
+        assertEquals(expected.get(3, 4), lazy.get(3, 4), 1e-12);
+        assertArrayEquals(expected.toArray(), lazy.toArray(), 1e-12);
+
+        MatrixJava right = MatrixPerfRun.randMatrix(600, 3, 2);
+        MatrixPerfRun.assertMatrixEquals(expected.dot(right), lazy.dot(right), 1e-9);
+
+        // evaluating into one of the operands
+        MatrixJava copy = w.replicate();
+        copy.lazy()
+            .transform(v -> v * v)
+            .minus(copy)
+            .evaluateInto(copy);
+        MatrixPerfRun.assertMatrixEquals(w.mul(w)
+                                          .minus(w), copy, 1e-12);
+
+        // every materialization reads the operands again
+        MatrixJava operand = MatrixPerfRun.randMatrix(4, 3, 2);
+        LazyMatrix doubled = operand.lazy()
+                                    .mul(2);
+        assertEquals(2 * operand.get(1, 2), doubled.get(1, 2), 0);
+        operand.set(1, 2, 5);
+        assertEquals(10, doubled.get(1, 2), 0);
+        assertEquals(10, doubled.evaluate()
+                                .get(1, 2), 0);
+        assertEquals(10, doubled.toArray()[5], 0);
+    }
+
+    @Test
+    public void testLazyIntoOverlap() {
+        MatrixJava m = MatrixPerfRun.randMatrix(6, 5, 2);
+        MatrixJava expected = m.viewRows(0, 5)
+                               .mul(2)
+                               .add(1.0);
+        // an operand is a valid destination
+        MatrixPerfRun.assertMatrixEquals(expected, m.viewRows(0, 5)
+                                                    .lazy()
+                                                    .mul(2)
+                                                    .add(1.0)
+                                                    .evaluateInto(m.viewRows(0, 5)));
+        // a shifted view of an operand, at any depth of the tree, is rejected
+        MatrixJava other = MatrixPerfRun.randMatrix(5, 5, 2);
+        for (LazyMatrix lazy : new LazyMatrix[] { m.viewRows(0, 5)
+                                                   .lazy()
+                                                   .mul(2), other.lazy()
+                                                                 .add(m.viewRows(0, 5)
+                                                                       .lazy()
+                                                                       .transform(Math::abs)) }) {
+            try {
+                lazy.evaluateInto(m.viewRows(1, 6));
+                fail("a shifted destination must be rejected");
+            } catch (RuntimeException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testLazyMismatch() {
+        MatrixPerfRun.randMatrix(3, 4)
+                     .lazy()
+                     .add(MatrixPerfRun.randMatrix(4, 3));
+    }
+
+    @Test
+    public void testViews() {
+        MatrixJava m = new MatrixJava(new double[][] { { 1, 2, 3, 4 }, { 5, 6, 7, 8 }, { 9, 10, 11, 12 } });
+
+        MatrixPerfRun.assertMatrixEquals(new MatrixJava(new double[][] { { 6, 7 }, { 10, 11 } }), m.view(1, 1, 2, 2));
+        MatrixPerfRun.assertMatrixEquals(new MatrixJava(new double[][] { { 5, 6, 7, 8 } }), m.viewRow(1));
+        MatrixPerfRun.assertMatrixEquals(new MatrixJava(new double[][] { { 3 }, { 7 }, { 11 } }), m.viewCol(2));
+        MatrixPerfRun.assertMatrixEquals(new MatrixJava(new double[][] { { 5, 6, 7, 8 }, { 9, 10, 11, 12 } }),
+                m.viewRows(1, 3));
+        MatrixPerfRun.assertMatrixEquals(new MatrixJava(new double[][] { { 2, 3 }, { 6, 7 }, { 10, 11 } }),
+                m.viewCols(1, 3));
+
+        // views as operands
+        MatrixJava block = m.view(1, 1, 2, 2);
+        MatrixPerfRun.assertMatrixEquals(new MatrixJava(new double[][] { { 14, 17 }, { 46, 57 } }),
+                m.view(0, 0, 2, 2)
+                 .dot(m.view(0, 1, 2, 2)));
+        MatrixPerfRun.assertMatrixEquals(block.replicate()
+                                              .transpose(), block.transpose());
+        assertArrayEquals(new double[] { 6, 7, 10, 11 }, block.toArray(), 0);
+        assertEquals(Math.sqrt(36 + 49 + 100 + 121), block.norm(), 1e-12);
+
+        // writes through a view show up in the parent
+        block.scaleInPlace(2);
+        assertEquals(12, m.get(1, 1), 0);
+        assertEquals(22, m.get(2, 2), 0);
+        m.viewCol(0)
+         .assign(new MatrixJava(new double[][] { { -1 }, { -2 }, { -3 } }));
+        assertEquals(-3, m.get(2, 0), 0);
+        m.viewRow(0)
+         .set(0, 3, 40);
+        assertEquals(40, m.get(0, 3), 0);
+
+        // views as destinations of a product, disjoint rows of the same storage
+        MatrixJava big = MatrixPerfRun.randMatrix(8, 8, 2);
+        MatrixJava left = big.view(0, 0, 4, 4);
+        MatrixJava right = big.view(0, 4, 4, 4);
+        MatrixJava expected = left.dot(right);
+        left.dotInto(right, big.viewRows(4, 8)
+                               .viewCols(0, 4));
+        MatrixPerfRun.assertMatrixEquals(expected, big.view(4, 0, 4, 4), 1e-9);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testViewOutOfBounds() {
+        MatrixPerfRun.randMatrix(3, 3)
+                     .view(1, 1, 3, 1);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testDotIntoOverlappingView() {
+        MatrixJava m = MatrixPerfRun.randMatrix(4, 4);
+        m.view(0, 0, 2, 2)
+         .dotInto(m.view(0, 2, 2, 2), m.view(1, 0, 2, 2));
+    }
+
+    @Test
+    public void testMatrixFloat() {
+        // ragged shapes exercise the edge tiles of Sgemm, the larger one its blocking
+        int[][] shapes = { { 37, 61, 29 }, { 150, 300, 140 } };
+        for (int[] shape : shapes) {
+            MatrixJava a = MatrixPerfRun.randMatrix(shape[0], shape[1], 1);
+            MatrixJava b = MatrixPerfRun.randMatrix(shape[1], shape[2], 1);
+            MatrixFloat fa = MatrixFloat.of(a);
+            MatrixFloat fb = MatrixFloat.of(b);
+            MatrixPerfRun.assertMatrixEquals(a.dot(b), fa.dot(fb)
+                                                         .toMatrixJava(), 1e-3);
+            MatrixPerfRun.assertMatrixEquals(a.transpose()
+                                              .dot(a), fa.dotTransposeLeft(fa)
+                                                         .toMatrixJava(), 1e-3);
+            MatrixPerfRun.assertMatrixEquals(b.dot(b.transpose()), fb.dotTransposeRight(fb)
+                                                                     .toMatrixJava(), 1e-3);
+            MatrixPerfRun.assertMatrixEquals(a.transpose(), fa.transpose()
+                                                              .toMatrixJava(), 1e-6);
+        }
+
+        MatrixJava a = MatrixPerfRun.randMatrix(5, 7, 1);
+        MatrixJava b = MatrixPerfRun.randMatrix(5, 7, 1);
+        MatrixFloat fa = MatrixFloat.of(a);
+        MatrixFloat fb = MatrixFloat.of(b);
+        MatrixPerfRun.assertMatrixEquals(a.add(b), fa.add(fb)
+                                                     .toMatrixJava(), 1e-6);
+        MatrixPerfRun.assertMatrixEquals(a.minus(b), fa.minus(fb)
+                                                       .toMatrixJava(), 1e-6);
+        MatrixPerfRun.assertMatrixEquals(a.mul(b), fa.mul(fb)
+                                                     .toMatrixJava(), 1e-6);
+        MatrixPerfRun.assertMatrixEquals(a.add(b.mul(-2)), fa.replicate()
+                                                             .axpyInPlace(-2, fb)
+                                                             .toMatrixJava(), 1e-6);
+        assertEquals(a.norm(), fa.norm(), 1e-5);
+    }
+
+    @Test
+    public void testMatrixFloatLU() {
+        // seeded and diagonally dominant, so the condition number is small and the float error predictable
+        Random random = new Random(18);
+        MatrixJava a = new MatrixJava(40, 40);
+        MatrixJava b = new MatrixJava(40, 3);
+        for (int i = 0; i < 40; i++) {
+            for (int j = 0; j < 40; j++) {
+                a.set(i, j, random.nextDouble() - 0.5 + (i == j ? 40 : 0));
+            }
+            for (int j = 0; j < 3; j++) {
+                b.set(i, j, random.nextDouble() - 0.5);
+            }
+        }
+        MatrixFloat fa = MatrixFloat.of(a);
+        LUDecompositionFloat lu = fa.lu();
+        MatrixPerfRun.assertMatrixEquals(lu.p()
+                                           .dot(fa)
+                                           .toMatrixJava(), lu.l()
+                                                              .dot(lu.u())
+                                                              .toMatrixJava(), 1e-4);
+        MatrixJava x = a.solve(b);
+        MatrixJava fx = fa.solve(MatrixFloat.of(b))
+                          .toMatrixJava();
+        assertTrue(fx.minus(x)
+                     .norm() <= 1e-5 * x.norm());
+        assertTrue(fa.dot(fa.inverse())
+                     .toMatrixJava()
+                     .minus(MatrixJava.identity(40))
+                     .norm() <= 1e-5 * MatrixJava.identity(40)
+                                                 .norm());
+    }
+
+    @Test
+    public void testFloatNetworks() {
+        Random random = new Random(18);
+        int count = 300;
+        List<TrainingData<double[], double[]>> data = rowImages(random, count);
+        List<Integer> sizes = Arrays.asList(16, 12, 10);
+
+        // the float MatrixFloat network, trained by the descent of the double networks
+        List<TrainingData<MatrixFloat, MatrixFloat>> matrices = MNISTDataLoader.loadDataAsFloatMatrix(data);
+        assertEquals(data.get(5)
+                         .getX()[7], matrices.get(5)
+                                             .getX()
+                                             .get(7, 0), 1e-7);
+        List<MatrixFloat> biases = new ArrayList<>();
+        List<MatrixFloat> weights = new ArrayList<>();
+        for (int l = 1; l < sizes.size(); l++) {
+            biases.add(seededFloat(random, sizes.get(l), 1, 1));
+            weights.add(seededFloat(random, sizes.get(l), sizes.get(l - 1), 1 / Math.sqrt(sizes.get(l - 1))));
+        }
+        FeedForwardNeuralNetworkFloat network = new FeedForwardNeuralNetworkFloat(sizes, biases, weights, SIGMOID);
+        MatrixFloat delta = DeltaFunctionFloat.QUADRATIC.delta(new MatrixFloat(new float[][] { { 0.8f }, { 0.3f } }),
+                new MatrixFloat(new float[][] { { 1 }, { 0 } }), new MatrixFloat(new float[][] { { 0.5f }, { -1 } }));
+        assertEquals(-0.2 * MathFunctions.SIGMOID_PRIME.applyAsDouble(0.5), delta.get(0, 0), 1e-6);
+        assertEquals(0.3 * MathFunctions.SIGMOID_PRIME.applyAsDouble(-1), delta.get(1, 0), 1e-6);
+        network = new StochasticGradientDescent<>(new ArrayList<>(matrices), 10, 10, 0.5, 0.1).descent(network,
+                Collections.emptyList(), (x, y) -> x.argmax() == y.argmax(), DeltaFunctionFloat.CROSS_ENTROPY);
+        assertTrue(network.evaluate(matrices, (x, y) -> x.argmax() == y.argmax()) >= 0.95 * count);
+
+        // the netlib float network on float[] samples, trained by the same descent
+        List<TrainingData<float[], float[]>> arrays = MNISTDataLoader.loadDataAsFloatArray(data);
+        assertEquals((float) data.get(5)
+                                 .getX()[7], arrays.get(5)
+                                                   .getX()[7], 0);
+        List<float[]> jniBiases = new ArrayList<>();
+        List<float[]> jniWeights = new ArrayList<>();
+        for (int l = 1; l < sizes.size(); l++) {
+            jniBiases.add(seededFloat(random, sizes.get(l), 1, 1).toArray());
+            jniWeights.add(seededFloat(random, sizes.get(l), sizes.get(l - 1), 1 / Math.sqrt(sizes.get(l - 1)))
+                                   .toArray());
+        }
+        FeedForwardNetworkFloat jni = new FeedForwardNetworkFloat(sizes, jniBiases, jniWeights, MathFunctions.SIGMOID,
+                MathFunctions.SIGMOID_PRIME);
+        DeltaFunction<float[]> crossEntropy = (a, y, z) -> MatrixJNI.minus(a, y);
+        jni = new StochasticGradientDescent<>(new ArrayList<>(arrays), 10, 10, 0.5, 0.1).descent(jni,
+                Collections.emptyList(), (x, y) -> argmax(x) == argmax(y), crossEntropy);
+        assertTrue(jni.evaluate(arrays, (x, y) -> argmax(x) == argmax(y)) >= 0.95 * count);
+    }
+
+    @Test
+    public void testOffHeapMatrix() {
+        // more rows and columns than a tile, so the products cross tile edges
+        MatrixJava a = MatrixPerfRun.randMatrix(OffHeapMatrix.TILE + 37, OffHeapMatrix.TILE + 5, 1);
+        MatrixJava b = MatrixPerfRun.randMatrix(OffHeapMatrix.TILE + 5, 70, 1);
+        OffHeapMatrix oa;
+        try (ResourceScope scope = ResourceScope.newConfinedScope()) {
+            oa = OffHeapMatrix.of(a, scope);
+            OffHeapMatrix ob = OffHeapMatrix.of(b, scope);
+            assertEquals(0, oa.address()
+                              .toRawLongValue() % OffHeapMatrix.ALIGNMENT);
+            MatrixPerfRun.assertMatrixEquals(a, oa.toMatrixJava(), 0);
+            MatrixPerfRun.assertMatrixEquals(a.dot(b), oa.dot(ob, scope)
+                                                         .toMatrixJava(), 1e-9);
+            MatrixPerfRun.assertMatrixEquals(a.transpose(), oa.transpose(scope)
+                                                              .toMatrixJava(), 0);
+
+            OffHeapMatrix oc = OffHeapMatrix.of(b, scope);
+            oc.scaleInPlace(3)
+              .axpyInPlace(-2, ob);
+            MatrixPerfRun.assertMatrixEquals(b, oc.toMatrixJava(), 1e-12);
+            assertEquals(b.norm(), oc.norm(), 1e-9);
+            oc.set(2, 3, 7);
+            assertEquals(7, oc.get(2, 3), 0);
+            assertEquals(0, new OffHeapMatrix(3, 3, scope).norm(), 0);
+        }
+
+        // the memory is released with the scope
+        try {
+            oa.get(0, 0);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testTiledFileMatrix() throws IOException {
+        // small tiles, so that every dimension spans several tiles and ends in a partial one
+        Path dir = folder.newFolder()
+                         .toPath();
+        MatrixJava a = MatrixPerfRun.randMatrix(45, 37, 1);
+        MatrixJava b = MatrixPerfRun.randMatrix(37, 29, 1);
+        try (TiledFileMatrix ta = TiledFileMatrix.of(a, dir.resolve("a"), 16);
+             TiledFileMatrix tb = TiledFileMatrix.of(b, dir.resolve("b"), 16);
+             TiledFileMatrix product = ta.dot(tb, dir.resolve("ab"));
+             TiledFileMatrix transposed = ta.transpose(dir.resolve("at"))) {
+            MatrixPerfRun.assertMatrixEquals(a.dot(b), product.toMatrixJava(), 1e-9);
+            MatrixPerfRun.assertMatrixEquals(a.transpose(), transposed.toMatrixJava(), 0);
+            // consecutive accesses of one tile share its mapping
+            ta.set(44, 36, 5);
+            ta.set(33, 32, 6);
+            assertEquals(5, ta.get(44, 36), 0);
+            assertEquals(6, ta.get(33, 32), 0);
+        }
+        try (TiledFileMatrix reopened = TiledFileMatrix.open(dir.resolve("b"));
+             TiledFileMatrix written = TiledFileMatrix.open(dir.resolve("a"))) {
+            assertEquals(16, reopened.getTileSize());
+            MatrixPerfRun.assertMatrixEquals(b, reopened.toMatrixJava(), 0);
+            assertEquals(5, written.get(44, 36), 0);
+            assertEquals(a.get(0, 0), written.get(0, 0), 0);
+            assertEquals(6, written.get(33, 32), 0);
+        }
+
+        // a header with a negative tile size is rejected
+        try (FileChannel channel = FileChannel.open(dir.resolve("b"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4)
+                                    .order(ByteOrder.LITTLE_ENDIAN)
+                                    .putInt(0, -16), 12);
+        }
+        try {
+            TiledFileMatrix.open(dir.resolve("b"));
+            fail("a corrupted header must be rejected");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        MatrixJava m = MatrixPerfRun.randMatrix(53, 53, 1);
+        MatrixJava rhs = MatrixPerfRun.randMatrix(53, 3, 1);
+        try (TiledFileMatrix tm = TiledFileMatrix.of(m, dir.resolve("m"), 16);
+             TiledLUDecomposition lu = tm.lu(dir.resolve("lu"))) {
+            LUDecomposition expected = m.lu();
+            assertArrayEquals(expected.permutation(), lu.permutation());
+            MatrixJava packed = lu.getPacked()
+                                  .toMatrixJava();
+            MatrixPerfRun.assertMatrixEquals(expected.l()
+                                                     .dot(expected.u()), lowerUnit(packed).dot(upper(packed)), 1e-9);
+            MatrixPerfRun.assertMatrixEquals(m.solve(rhs), lu.solve(rhs), 1e-8);
+        }
+
+        // a destination on the file of an operand, however it is spelled, is rejected before truncating it
+        Files.createDirectory(dir.resolve("sub"));
+        try (TiledFileMatrix tm = TiledFileMatrix.open(dir.resolve("m"));
+             TiledFileMatrix tr = TiledFileMatrix.of(rhs, dir.resolve("rhs"), 16)) {
+            for (Runnable r : Arrays.<Runnable>asList(() -> tm.dot(tr, dir.resolve("rhs")),
+                    () -> tm.dot(tr, dir.resolve("sub").resolve("..").resolve("m")),
+                    () -> tm.transpose(dir.resolve("m")),
+                    () -> tm.lu(dir.resolve("./m")))) {
+                try {
+                    r.run();
+                    fail("a destination on an operand file must be rejected");
+                } catch (RuntimeException e) {
+                    // expected
+                }
+            }
+            MatrixPerfRun.assertMatrixEquals(m, tm.toMatrixJava(), 0);
+            MatrixPerfRun.assertMatrixEquals(rhs, tr.toMatrixJava(), 0);
+
+            // the open matrix keeps reading the file it was opened on
+            Files.move(dir.resolve("m"), dir.resolve("moved"));
+            try (TiledFileMatrix product = tm.dot(tr, dir.resolve("m"))) {
+                MatrixPerfRun.assertMatrixEquals(m.dot(rhs), product.toMatrixJava(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testMatrixArena() {
+        MatrixArena arena = MatrixArena.current();
+        int mark = arena.mark();
+        MatrixJava first = arena.allocate(3, 4);
+        MatrixJava second = arena.zeros(3, 4);
+        assertNotSame(first, second);
+        long allocations = arena.getAllocationCount();
+        arena.release(mark);
+
+        // released buffers are handed out again, by shape
+        MatrixJava reused = arena.zeros(3, 4);
+        assertTrue(reused == first || reused == second);
+        assertEquals(0, reused.norm(), 0);
+        assertEquals(allocations, arena.getAllocationCount());
+        assertEquals(4, arena.allocate(4, 3)
+                             .getRowCount());
+        assertEquals(allocations + 1, arena.getAllocationCount());
+        arena.release(mark);
+
+        // enough shapes to grow the table, each still found again
+        for (int row = 1; row <= 40; row++) {
+            arena.allocate(row, 41 - row);
+        }
+        arena.release(mark);
+        allocations = arena.getAllocationCount();
+        for (int row = 40; row >= 1; row--) {
+            assertEquals(41 - row, arena.allocate(row, 41 - row)
+                                        .getColCount());
+        }
+        assertEquals(allocations, arena.getAllocationCount());
+        arena.release(mark);
+
+        // a trimmed arena has to create its buffers again, trimAll takes effect at the next mark
+        arena.trim();
+        arena.allocate(3, 4);
+        assertEquals(allocations + 1, arena.getAllocationCount());
+        arena.release(mark);
+        MatrixArena.trimAll();
+        mark = arena.mark();
+        arena.allocate(3, 4);
+        assertEquals(allocations + 2, arena.getAllocationCount());
+        arena.release(mark);
+
+        MatrixJava a = MatrixPerfRun.randMatrix(5, 3, 1);
+        MatrixJava b = MatrixPerfRun.randMatrix(5, 2, 1);
+        MatrixPerfRun.assertMatrixEquals(a.transpose()
+                                          .dot(b), a.dotTransposeLeftInto(b, MatrixPerfRun.randMatrix(3, 2, 1)),
+                1e-12);
+        MatrixJava acc = MatrixPerfRun.randMatrix(3, 3, 1);
+        MatrixJava expected = acc.add(a.transpose()
+                                       .dot(a));
+        MatrixPerfRun.assertMatrixEquals(expected, a.transpose()
+                                                    .dotTransposeRightAddInto(a.transpose(), acc), 1e-12);
+    }
+
+    @Test
+    public void testGradientDescent() {
+        Random random = new Random(21);
+        int count = 200;
+        List<TrainingData<MatrixJava, MatrixJava>> data = MNISTDataLoader.loadDataAsMatrix(rowImages(random, count));
+        StochasticGradientDescent<MatrixJava> sgd = new StochasticGradientDescent<>(new ArrayList<>(data), 10, 10, 0.5,
+                0.1);
+        // the recycled gradients of a descent must not leak into the descent of a network of another shape
+        for (List<Integer> sizes : Arrays.asList(Arrays.asList(16, 12, 10), Arrays.asList(16, 6, 10))) {
+            FeedForwardNeuralNetwork network = sgd.descent(new FeedForwardNeuralNetwork(sizes, SIGMOID),
+                    Collections.emptyList(), (x, y) -> x.argmax() == y.argmax(), DeltaFunctionJava.CROSS_ENTROPY);
+            assertEquals(sizes.get(1)
+                              .intValue(), network.getWeights()
+                                                  .get(0)
+                                                  .getRowCount());
+            assertTrue(network.evaluate(data, (x, y) -> x.argmax() == y.argmax()) >= 0.95 * count);
+        }
+
+        // the netlib network on the same weights has the same output and gradient, and trains with the same descent
+        List<Integer> sizes = Arrays.asList(16, 12, 10);
+        FeedForwardNeuralNetwork java = new FeedForwardNeuralNetwork(sizes, SIGMOID);
+        List<double[]> biases = new ArrayList<>();
+        List<double[]> weights = new ArrayList<>();
+        for (int l = 0; l < 2; l++) {
+            biases.add(java.getBiases()
+                           .get(l)
+                           .toArray());
+            weights.add(columnMajor(java.getWeights()
+                                        .get(l)));
+        }
+        FeedForwardNetwork jni = new FeedForwardNetwork(sizes, biases, weights, ActivateFunctions.SIGMOID);
+        MatrixJava input = data.get(0)
+                               .getX();
+        MatrixJava label = data.get(0)
+                               .getY();
+        assertMatrixEquals(java.feedforward(input), jni.feedforward(input), 1e-12);
+        FeedForwardNeuralNetwork expected = java.backprop(input, label, DeltaFunctionJava.CROSS_ENTROPY);
+        FeedForwardNetwork gradient = jni.backprop(input, label, DeltaFunctionJava.CROSS_ENTROPY);
+        for (int l = 0; l < 2; l++) {
+            assertMatrixEquals(expected.getBiases()
+                                       .get(l), new MatrixJava(sizes.get(l + 1), 1, gradient.getBiases()
+                                                                                            .get(l)), 1e-12);
+            assertMatrixEquals(expected.getWeights()
+                                       .get(l), fromColumnMajor(gradient.getWeights()
+                                                                        .get(l), sizes.get(l + 1), sizes.get(l)),
+                    1e-12);
+        }
+        FeedForwardNetwork trained = sgd.descent(jni, Collections.emptyList(), (x, y) -> x.argmax() == y.argmax(),
+                DeltaFunctionJava.CROSS_ENTROPY);
+        assertNotSame(jni, trained);
+        assertTrue(trained.evaluate(data, (x, y) -> x.argmax() == y.argmax()) >= 0.95 * count);
+        assertEquals(trained.getWeights()
+                            .get(1)[13], trained.getWeightMatrix(1)
+                                                .get(3, 1), 0);
+    }
+
+    @Test
+    public void testNetlibBackend() {
+        // the netlib fallback runs the reference BLAS in Java, enough to check how the strides are mapped
+        MatrixBackend previous = Backends.getNative();
+        long threshold = Backends.getNativeThreshold();
+        Backends.setNative(new NetlibBackend(), 0);
+        try {
+            MatrixJava a = MatrixPerfRun.randMatrix(7, 5, 1);
+            MatrixJava b = MatrixPerfRun.randMatrix(5, 6, 1);
+            MatrixJava c = MatrixPerfRun.randMatrix(7, 6, 1);
+            assertTrue(Backends.select(7, 6, 5, 5, 1, 6, 1, 6) instanceof NetlibBackend);
+            MatrixPerfRun.assertMatrixEquals(naiveDot(a, b), a.dot(b), 1e-12);
+            MatrixPerfRun.assertMatrixEquals(naiveDot(a.transpose(), c), a.dotTransposeLeft(c), 1e-12);
+            MatrixPerfRun.assertMatrixEquals(naiveDot(c, b.transpose()), c.dotTransposeRight(b), 1e-12);
+            MatrixPerfRun.assertMatrixEquals(naiveDot(b.transpose(), a.transpose()), b.dotTransposeBoth(a), 1e-12);
+            MatrixJava big = MatrixPerfRun.randMatrix(9, 9, 1);
+            MatrixPerfRun.assertMatrixEquals(naiveDot(big.view(1, 2, 3, 4), big.view(4, 1, 4, 5)),
+                    big.view(1, 2, 3, 4)
+                       .dot(big.view(4, 1, 4, 5)), 1e-12);
+        } finally {
+            Backends.setNative(previous, threshold);
+        }
+        assertSame(Backends.JAVA, Backends.select(2, 1, 2, 2, 1, 1, 1, 1));
+    }
+
+    @Test
+    public void testMatrixJNI() {
+        // the column-major products of MatrixJNI on the Java kernels, then on netlib
+        MatrixBackend previous = Backends.getNative();
+        long threshold = Backends.getNativeThreshold();
+        MatrixJava a = randMatrix(7, 5, 1);
+        MatrixJava b = randMatrix(5, 6, 1);
+        MatrixJava c = randMatrix(7, 6, 1);
+        MatrixJava x = randMatrix(5, 1, 1);
+        MatrixJava y = randMatrix(7, 1, 1);
+        try {
+            for (MatrixBackend backend : new MatrixBackend[] { null, new NetlibBackend() }) {
+                Backends.setNative(backend, 0);
+                assertSame(backend == null ? Backends.JAVA : backend, Backends.select(6, 7, 5, 5, 1, 7, 1, 7));
+                assertMatrixEquals(a.dot(b)
+                                    .mul(2)
+                                    .add(c.mul(0.5)), fromColumnMajor(MatrixJNI.dgemm(2, 7, 6, 5, columnMajor(a),
+                        columnMajor(b), 0.5, columnMajor(c)), 7, 6), 1e-12);
+                assertMatrixEquals(a.dot(x)
+                                    .mul(2)
+                                    .add(y.mul(0.5)), new MatrixJava(7, 1, MatrixJNI.dgemv(2, columnMajor(a), 7, 5,
+                        x.toArray(), 0.5, y.toArray())), 1e-12);
+                assertMatrixEquals(a.transpose()
+                                    .dot(y), new MatrixJava(5, 1, MatrixJNI.dgemvTransposed(1, columnMajor(a), 7, 5,
+                        y.toArray(), 0, new double[5])), 1e-12);
+                MatrixJava d = randMatrix(7, 5, 1);
+                assertMatrixEquals(d.add(y.dot(x.transpose())
+                                          .mul(3)), fromColumnMajor(MatrixJNI.dger(3, y.toArray(), x.toArray(),
+                        columnMajor(d), 7, 5), 7, 5), 1e-12);
+                assertMatrixEquals(y.mul(2)
+                                    .add(c.viewCol(0)), new MatrixJava(7, 1, MatrixJNI.daxpy(2, y.toArray(),
+                        c.viewCol(0)
+                         .toArray())), 1e-12);
+
+                // the single precision products run on the same backend
+                assertMatrixEquals(a.dot(b)
+                                    .mul(2)
+                                    .add(c.mul(0.5)), fromColumnMajor(doubles(MatrixJNI.sgemm(2, 7, 6, 5,
+                        floats(columnMajor(a)), floats(columnMajor(b)), 0.5f, floats(columnMajor(c)))), 7, 6), 1e-5);
+                assertMatrixEquals(a.transpose()
+                                    .dot(y), new MatrixJava(5, 1, doubles(MatrixJNI.sgemvTransposed(1,
+                        floats(columnMajor(a)), 7, 5, floats(y.toArray()), 0, new float[5]))), 1e-5);
+                assertMatrixEquals(d.add(y.dot(x.transpose())
+                                          .mul(3)), fromColumnMajor(doubles(MatrixJNI.sger(3, floats(y.toArray()),
+                        floats(x.toArray()), floats(columnMajor(d)), 7, 5)), 7, 5), 1e-5);
+                assertMatrixEquals(a.dot(b), MatrixFloat.of(a)
+                                                        .dot(MatrixFloat.of(b))
+                                                        .toMatrixJava(), 1e-5);
+            }
+        } finally {
+            Backends.setNative(previous, threshold);
+        }
+
+        // the shared read access over the column-major storage
+        Matrix view = MatrixJNI.asMatrix(columnMajor(a), 7, 5);
+        assertEquals(7, view.getRowCount());
+        assertEquals(a.get(3, 2), view.get(3, 2), 0);
+        assertEquals(y.argmax(), MatrixJNI.asMatrix(y.toArray(), 7, 1)
+                                          .argmax());
+    }
+
+    @Test
+    public void testBatchedMatrix() throws Exception {
+        // 300 products cover full BLOCK slices and a ragged one
+        int count = 300;
+        List<MatrixJava> lefts = new ArrayList<>();
+        List<MatrixJava> rights = new ArrayList<>();
+        for (int b = 0; b < count; b++) {
+            lefts.add(randMatrix(3, 4, 1));
+            rights.add(randMatrix(4, 2, 1));
+        }
+        BatchedMatrix left = BatchedMatrix.of(lefts);
+        BatchedMatrix right = BatchedMatrix.of(rights);
+        BatchedMatrix product = left.dot(right);
+        assertEquals(count, product.getCount());
+        assertEquals(3, product.getRowCount());
+        assertEquals(2, product.getColCount());
+        for (int b = 0; b < count; b++) {
+            assertMatrixEquals(lefts.get(b), left.get(b), 0);
+            assertMatrixEquals(lefts.get(b).dot(rights.get(b)), product.get(b), 1e-12);
+        }
+        assertEquals(lefts.get(7).get(2, 3), left.get(7, 2, 3), 0);
+
+        BatchedMatrix dest = new BatchedMatrix(count, 3, 2);
+        dest.set(5, 1, 1, 42);
+        left.dotInto(right, dest);
+        assertMatrixEquals(product.get(5), dest.get(5), 0);
+        left.dotAddInto(right, dest);
+        assertMatrixEquals(product.get(5).mul(2), dest.get(5), 1e-12);
+
+        MatrixJava shared = randMatrix(5, 3, 1);
+        BatchedMatrix transformed = left.leftMultiply(shared);
+        for (int b = 0; b < count; b += 37) {
+            assertMatrixEquals(shared.dot(lefts.get(b)), transformed.get(b), 1e-12);
+        }
+        try {
+            left.dot(left);
+            fail();
+        } catch (RuntimeException e) {
+            // (3, 4) by (3, 4)
+        }
+        // negative and overflowing sizes are rejected before allocating
+        for (int[] shape : new int[][] { { -2, 3, 4 }, { 2, -3, -4 }, { 1 << 16, 1 << 10, 1 << 10 } }) {
+            try {
+                new BatchedMatrix(shape[0], shape[1], shape[2]);
+                fail();
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage()
+                            .startsWith("Cannot") || e.getCause() instanceof ArithmeticException);
+            }
+        }
+
+        // large enough to be split across the pool
+        BatchedMatrix big = new BatchedMatrix(20000, 8, 8, randMatrix(1, 20000 * 64, 1).data());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BatchedMatrix square = pool.submit(() -> big.dot(big))
+                                       .get();
+            for (int b = 0; b < big.getCount(); b += 1999) {
+                assertMatrixEquals(big.get(b)
+                                      .dot(big.get(b)), square.get(b), 1e-12);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSvd() {
+        for (MatrixJava a : new MatrixJava[] { randMatrix(7, 12, 1), randMatrix(12, 7, 1) }) {
+            SVDDecomposition svd = a.svd();
+            assertEquals(7, svd.rank());
+            assertMatrixEquals(a, svd.reconstruct(), 1e-10);
+            assertMatrixEquals(MatrixJava.identity(7), svd.u()
+                                                          .dotTransposeLeft(svd.u()), 1e-10);
+            assertMatrixEquals(MatrixJava.identity(7), svd.v()
+                                                          .dotTransposeLeft(svd.v()), 1e-10);
+            double[] values = svd.singularValues();
+            for (int i = 1; i < values.length; i++) {
+                assertTrue(values[i - 1] >= values[i]);
+            }
+        }
+
+        // zero rows or columns leave exact zero singular values, their vectors complete an orthonormal basis
+        MatrixJava deficient = randMatrix(4, 6, 1);
+        deficient.viewRows(1, 2)
+                 .fill(0);
+        deficient.viewRows(3, 4)
+                 .fill(0);
+        for (MatrixJava d : new MatrixJava[] { deficient, deficient.transpose() }) {
+            SVDDecomposition svd = d.svd();
+            assertEquals(0, svd.singularValues()[3], 0);
+            assertMatrixEquals(d, svd.reconstruct(), 1e-10);
+            assertMatrixEquals(MatrixJava.identity(4), svd.u()
+                                                          .dotTransposeLeft(svd.u()), 1e-10);
+            assertMatrixEquals(MatrixJava.identity(4), svd.v()
+                                                          .dotTransposeLeft(svd.v()), 1e-10);
+        }
+        MatrixJava nan = randMatrix(3, 3, 1);
+        nan.set(1, 1, Double.NaN);
+        try {
+            nan.svd();
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage()
+                        .contains("did not converge"));
+        }
+
+        // exact rank 5 plus small noise, the truncated SVD finds the 5 leading triplets
+        MatrixJava a = randMatrix(120, 5, 1).dot(randMatrix(5, 90, 1))
+                                            .addInPlace(randMatrix(120, 90, 1e-6));
+        double[] expected = a.svd()
+                             .singularValues();
+        SVDDecomposition truncated = a.truncatedSvd(5, 10, 2, new Random(1));
+        assertEquals(120, truncated.u()
+                                   .getRowCount());
+        assertEquals(90, truncated.v()
+                                  .getRowCount());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(expected[i], truncated.singularValues()[i], 1e-8 * expected[0]);
+        }
+        assertTrue(a.minus(truncated.reconstruct())
+                    .norm() < 1e-4 * a.norm());
+
+        // full rank factors reproduce the network
+        FeedForwardNeuralNetwork network = new FeedForwardNeuralNetwork(Arrays.asList(12, 6, 3), SIGMOID);
+        LowRankFeedForwardNetwork compressed = LowRankFeedForwardNetwork.compress(network, 0, 6)
+                                                                         .compress(1, 3);
+        assertEquals(6 * 18, compressed.getWeightCount(0));
+        assertTrue(compressed.getRelativeError(0) < 1e-10);
+        MatrixJava input = randMatrix(12, 1, 1);
+        assertMatrixEquals(network.feedforward(input), compressed.feedforward(input), 1e-10);
+
+        // a trained network truncated below its rank, the report gives the accuracy the truncation costs
+        List<TrainingData<MatrixJava, MatrixJava>> data = MNISTDataLoader.loadDataAsMatrix(
+                rowImages(new Random(24), 200));
+        BiFunction<MatrixJava, MatrixJava, Boolean> evaluator = (x, y) -> x.argmax() == y.argmax();
+        FeedForwardNeuralNetwork trained = new StochasticGradientDescent<>(new ArrayList<>(data), 10, 10, 0.5, 0.1)
+                .descent(new FeedForwardNeuralNetwork(Arrays.asList(16, 12, 10), SIGMOID), Collections.emptyList(),
+                        evaluator, DeltaFunctionJava.CROSS_ENTROPY);
+        LowRankFeedForwardNetwork lossless = LowRankFeedForwardNetwork.compress(trained, 0, 12);
+        assertEquals(0, lossless.accuracyDelta(data, evaluator));
+        LowRankFeedForwardNetwork rank1 = LowRankFeedForwardNetwork.compress(trained, 0, 1);
+        assertEquals(1, rank1.getRank(0));
+        assertTrue(rank1.getRelativeError(0) > 1e-3);
+        int original = trained.evaluate(data, evaluator);
+        int truncatedCount = rank1.evaluate(data, evaluator);
+        // one direction cannot tell the four classes apart
+        assertTrue(truncatedCount < original);
+        assertEquals(truncatedCount - original, rank1.accuracyDelta(data, evaluator));
+        String report = rank1.report(data, evaluator);
+        assertTrue(report.contains(String.format("Layer 0: rank 1, 192 -> %d weights", rank1.getWeightCount(0))));
+        assertTrue(report.endsWith(String.format("Accuracy: %d / 200 -> %d / 200 (%+d)", original, truncatedCount,
+                truncatedCount - original)));
+        assertEquals(2, report.split("\n").length);
+    }
+
+    @Test
+    public void testKrylovSolvers() {
+        CSRMatrix poisson = convectionDiffusion(20, 0);
+        CSRMatrix convection = convectionDiffusion(20, 0.4);
+        MatrixJava b = randMatrix(400, 1, 1);
+        MatrixJava expected = poisson.toDense()
+                                     .solve(b);
+        for (KrylovSolver solver : new KrylovSolver[] { new ConjugateGradient(1e-10, 1000),
+                new ConjugateGradient(1e-10, 1000, JacobiPreconditioner.of(poisson)),
+                new ConjugateGradient(1e-10, 1000, ILU0Preconditioner.of(poisson)),
+                new GMRES(1e-10, 2000) }) {
+            IterativeResult result = solver.solve(LinearOperator.of(poisson), b);
+            assertTrue(result.isConverged());
+            assertTrue(result.getResidual() <= 1e-10);
+            assertMatrixEquals(expected, result.getSolution(), 1e-7);
+        }
+        LinearOperator operator = LinearOperator.of(poisson);
+        int plain = new ConjugateGradient(1e-10, 1000).solve(operator, b)
+                                                      .getIterations();
+        int ilu = new ConjugateGradient(1e-10, 1000, ILU0Preconditioner.of(poisson)).solve(operator, b)
+                                                                                    .getIterations();
+        assertTrue(ilu < plain);
+
+        expected = convection.toDense()
+                             .solve(b);
+        for (KrylovSolver solver : new KrylovSolver[] { new BiCGSTAB(1e-10, 1000),
+                new BiCGSTAB(1e-10, 1000, ILU0Preconditioner.of(convection)),
+                new GMRES(1e-10, 2000, 20, JacobiPreconditioner.of(convection)),
+                new GMRES(1e-10, 2000, 20, ILU0Preconditioner.of(convection)) }) {
+            IterativeResult result = solver.solve(LinearOperator.of(convection.toDense()), b);
+            assertTrue(result.isConverged());
+            assertMatrixEquals(expected, result.getSolution(), 1e-7);
+        }
+
+        // a good guess converges at once, too few iterations report a non converged result
+        assertEquals(0, new BiCGSTAB(1e-6, 10).solve(LinearOperator.of(convection), b, expected)
+                                              .getIterations());
+        IterativeResult stopped = new GMRES(1e-10, 3).solve(LinearOperator.of(convection), b);
+        assertTrue(!stopped.isConverged());
+        assertEquals(3, stopped.getIterations());
+
+        // a singular A zeroes a rotated column of H, GMRES stops at the best x of the space built so far
+        MatrixJava singular = new MatrixJava(new double[][] { { 1, 0 }, { 0, 0 } });
+        IterativeResult breakdown = new GMRES(1e-10, 100).solve(LinearOperator.of(singular),
+                new MatrixJava(new double[][] { { 1 }, { 1 } }));
+        assertTrue(!breakdown.isConverged());
+        assertEquals(Math.sqrt(0.5), breakdown.getResidual(), 1e-12);
+        assertMatrixEquals(new MatrixJava(new double[][] { { 1 }, { 1 } }), breakdown.getSolution(), 1e-12);
+
+        try {
+            new GMRES(1e-10, 10, 5, null);
+            fail();
+        } catch (RuntimeException e) {
+            // no preconditioner
+        }
+        for (LinearOperator a : new LinearOperator[] { LinearOperator.of(poisson), LinearOperator.of(singular) }) {
+            try {
+                a.apply(new double[a.getColCount() - 1], new double[a.getRowCount()]);
+                fail();
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage()
+                            .startsWith("Dimension mismatch!"));
+            }
+        }
+    }
+
+    /**
+     * 5-point finite difference operator of -laplace(u) + c * du/dx on a g x g grid, symmetric when c is 0
+     */
+    private static CSRMatrix convectionDiffusion(int g, double c) {
+        int n = g * g;
+        int[] pointers = new int[n + 1];
+        int[] indices = new int[5 * n];
+        double[] values = new double[5 * n];
+        int e = 0;
+        for (int i = 0; i < g; i++) {
+            for (int j = 0; j < g; j++) {
+                int row = i * g + j;
+                int[] columns = { row - g, row - 1, row, row + 1, row + g };
+                double[] coefficients = { -1, -1 - c, 4, -1 + c, -1 };
+                boolean[] inside = { i > 0, j > 0, true, j < g - 1, i < g - 1 };
+                for (int k = 0; k < 5; k++) {
+                    if (inside[k]) {
+                        indices[e] = columns[k];
+                        values[e++] = coefficients[k];
+                    }
+                }
+                pointers[row + 1] = e;
+            }
+        }
+        return new CSRMatrix(n, n, pointers, indices, values);
+    }
+
+    /**
+     * Reference ijk product
+     */
+    /**
+     * The elements of m in column-major order, the layout of {@link MatrixJNI}
+     */
+    private static double[] columnMajor(MatrixJava m) {
+        return m.transpose()
+                .toArray();
+    }
+
+    /**
+     * The elements rounded to single precision
+     */
+    private static float[] floats(double[] values) {
+        float[] ret = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ret[i] = (float) values[i];
+        }
+        return ret;
+    }
+
+    /**
+     * The elements widened to double precision
+     */
+    private static double[] doubles(float[] values) {
+        double[] ret = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ret[i] = values[i];
+        }
+        return ret;
+    }
+
+    /**
+     * The (m, n) matrix of a column-major array
+     */
+    private static MatrixJava fromColumnMajor(double[] data, int m, int n) {
+        return new MatrixJava(n, m, data).transpose();
+    }
+
+    private static MatrixJava naiveDot(MatrixJava a, MatrixJava b) {
+        double[][] res = new double[a.getRowCount()][b.getColCount()];
+        for (int i = 0; i < a.getRowCount(); i++) {
+            for (int j = 0; j < b.getColCount(); j++) {
+                for (int k = 0; k < a.getColCount(); k++) {
+                    res[i][j] += a.get(i, k) * b.get(k, j);
+                }
+            }
+        }
+        return new MatrixJava(res);
+    }
+
+    /**
+     * Backward error bound of P * A = L * U: every element of |L| * |U| is at most |L| * |U| in Frobenius norm, and
+     * partial pivoting keeps the error within n * eps of it, with a safety factor of 10
+     */
+    private static double luTolerance(LUDecomposition lu) {
+        int n = lu.l()
+                  .getRowCount();
+        return 10 * n * Math.ulp(1.0) * lu.l()
+                                          .norm() * lu.u()
+                                                      .norm();
+    }
+
+    /**
+     * A seeded MNIST-format data set of 4 x 4 images, the row of bright pixels is the label
+     */
+    private static List<TrainingData<double[], double[]>> rowImages(Random random, int count) {
+        ByteBuffer images = ByteBuffer.allocate(16 + count * 16);
+        ByteBuffer labels = ByteBuffer.allocate(8 + count);
+        images.putInt(2051)
+              .putInt(count)
+              .putInt(4)
+              .putInt(4);
+        labels.putInt(2049)
+              .putInt(count);
+        for (int n = 0; n < count; n++) {
+            int label = n % 4;
+            for (int k = 0; k < 16; k++) {
+                images.put((byte) (k / 4 == label ? 200 + random.nextInt(56) : random.nextInt(60)));
+            }
+            labels.put((byte) label);
+        }
+        images.flip();
+        labels.flip();
+        return MNISTDataLoader.loadDataAsByteArray(images, labels);
+    }
+
+    /**
+     * A seeded Gaussian matrix
+     */
+    private static MatrixFloat seededFloat(Random random, int row, int col, double std) {
+        float[] data = new float[row * col];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (float) (random.nextGaussian() * std);
+        }
+        return new MatrixFloat(row, col, data);
+    }
+
+    private static int argmax(float[] values) {
+        int max = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[max]) {
+                max = i;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Unit lower triangle of packed LU factors
+     */
+    private static MatrixJava lowerUnit(MatrixJava packed) {
+        MatrixJava l = MatrixJava.identity(packed.getRowCount());
+        for (int i = 0; i < packed.getRowCount(); i++) {
+            for (int j = 0; j < i; j++) {
+                l.set(i, j, packed.get(i, j));
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Upper triangle of packed LU factors
+     */
+    private static MatrixJava upper(MatrixJava packed) {
+        MatrixJava u = new MatrixJava(packed.getRowCount(), packed.getColCount());
+        for (int i = 0; i < packed.getRowCount(); i++) {
+            for (int j = i; j < packed.getColCount(); j++) {
+                u.set(i, j, packed.get(i, j));
+            }
+        }
+        return u;
+    }
 }